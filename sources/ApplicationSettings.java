@@ -47,8 +47,19 @@ public class ApplicationSettings
 {
 	protected File inputDir, outputDir, calibFile;
 	protected double minObjSizeRel, minObjDensRel;
-	protected boolean forceOrtho, forceHorizVert, thresholdSearchGreedy, thresholdSearchExhaustive, findContour,
+	protected boolean forceOrtho, forceHorizVert, thresholdSearchGreedy, thresholdSearchExhaustive, thresholdSearchPyramid,
+		thresholdSearchOtsu, thresholdSearchTriangle, findContour,
 		batchWriteLogFile, batchWriteCroppedImage, batchWriteFullImage, batchWriteLocalStatFile;
+	protected boolean fastContour;
+	protected boolean batchThresholdWarmStart;
+	protected boolean batchWriteSummary;
+	protected boolean batchAutoCrop;
+	protected boolean batchOffHeapImages;
+	protected boolean batchTiledSegmentation;
+	protected int batchMemoryBudget;
+	protected int batchImageTimeLimit;
+	protected int batchStageTimeLimit;
+	protected boolean batchOrderBySize;
 	protected int pixelContourThresh;
 	protected int numLandmarks;
 	protected int settingGUITab;
@@ -82,7 +93,11 @@ public class ApplicationSettings
 		pixelContourThresh = 10;
 		thresholdSearchGreedy = true;
 		thresholdSearchExhaustive = false;
+		thresholdSearchPyramid = false;
+		thresholdSearchOtsu = false;
+		thresholdSearchTriangle = false;
 		findContour = true;
+		fastContour = false;
 		thresholdSearchStepLength = 10;
 		scaleParam = 1.0;
 		thresholdManual = 100;
@@ -95,6 +110,15 @@ public class ApplicationSettings
 		batchWriteCroppedImage = true;
 		batchWriteFullImage = false;
 		batchWriteLocalStatFile = false;
+		batchThresholdWarmStart = false;
+		batchWriteSummary = false;
+		batchAutoCrop = false;
+		batchOffHeapImages = false;
+		batchTiledSegmentation = false;
+		batchMemoryBudget = 0;
+		batchImageTimeLimit = 0;
+		batchStageTimeLimit = 0;
+		batchOrderBySize = false;
 		
 		applName = applicationName;
 	}
@@ -322,6 +346,51 @@ public class ApplicationSettings
 			retValue = false;
 		}
 		
+		String ifThresholdSearchPyramid = iniProperties.getProperty("ThresholdSearchPyramid");
+		try
+		{
+			if (ifThresholdSearchPyramid != null)
+			{
+				int val = (new Integer(ifThresholdSearchPyramid)).intValue();
+				thresholdSearchPyramid = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifThresholdSearchPyramid");
+			retValue = false;
+		}
+		
+		String ifThresholdSearchOtsu = iniProperties.getProperty("ThresholdSearchOtsu");
+		try
+		{
+			if (ifThresholdSearchOtsu != null)
+			{
+				int val = (new Integer(ifThresholdSearchOtsu)).intValue();
+				thresholdSearchOtsu = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifThresholdSearchOtsu");
+			retValue = false;
+		}
+		
+		String ifThresholdSearchTriangle = iniProperties.getProperty("ThresholdSearchTriangle");
+		try
+		{
+			if (ifThresholdSearchTriangle != null)
+			{
+				int val = (new Integer(ifThresholdSearchTriangle)).intValue();
+				thresholdSearchTriangle = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifThresholdSearchTriangle");
+			retValue = false;
+		}
+		
 		String ifFindContour = iniProperties.getProperty("FindContour");
 		try
 		{
@@ -337,6 +406,21 @@ public class ApplicationSettings
 			retValue = false;
 		}
 		
+		String ifFastContour = iniProperties.getProperty("FastContour");
+		try
+		{
+			if (ifFastContour != null)
+			{
+				int val = (new Integer(ifFastContour)).intValue();
+				fastContour = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifFastContour");
+			retValue = false;
+		}
+		
 		String ifCalibHeight = iniProperties.getProperty("CalibHeight");
 		try
 		{
@@ -496,6 +580,138 @@ public class ApplicationSettings
 			System.err.println("ifBatchWriteLocalStatFile");
 			retValue = false;
 		}
+		
+		String ifBatchThresholdWarmStart = iniProperties.getProperty("BatchThresholdWarmStart");
+		try
+		{
+			if (ifBatchThresholdWarmStart != null)
+			{
+				int val = (new Integer(ifBatchThresholdWarmStart)).intValue();
+				batchThresholdWarmStart = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchThresholdWarmStart");
+			retValue = false;
+		}
+		
+		String ifBatchWriteSummary = iniProperties.getProperty("BatchWriteSummary");
+		try
+		{
+			if (ifBatchWriteSummary != null)
+			{
+				int val = (new Integer(ifBatchWriteSummary)).intValue();
+				batchWriteSummary = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchWriteSummary");
+			retValue = false;
+		}
+		
+		String ifBatchAutoCrop = iniProperties.getProperty("BatchAutoCrop");
+		try
+		{
+			if (ifBatchAutoCrop != null)
+			{
+				int val = (new Integer(ifBatchAutoCrop)).intValue();
+				batchAutoCrop = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchAutoCrop");
+			retValue = false;
+		}
+		
+		String ifBatchOffHeapImages = iniProperties.getProperty("BatchOffHeapImages");
+		try
+		{
+			if (ifBatchOffHeapImages != null)
+			{
+				int val = (new Integer(ifBatchOffHeapImages)).intValue();
+				batchOffHeapImages = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchOffHeapImages");
+			retValue = false;
+		}
+		
+		String ifBatchTiledSegmentation = iniProperties.getProperty("BatchTiledSegmentation");
+		try
+		{
+			if (ifBatchTiledSegmentation != null)
+			{
+				int val = (new Integer(ifBatchTiledSegmentation)).intValue();
+				batchTiledSegmentation = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchTiledSegmentation");
+			retValue = false;
+		}
+		
+		String ifBatchMemoryBudget = iniProperties.getProperty("BatchMemoryBudget");
+		try
+		{
+			if (ifBatchMemoryBudget != null)
+			{
+				batchMemoryBudget = (new Integer(ifBatchMemoryBudget)).intValue();
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchMemoryBudget");
+			retValue = false;
+		}
+		
+		String ifBatchImageTimeLimit = iniProperties.getProperty("BatchImageTimeLimit");
+		try
+		{
+			if (ifBatchImageTimeLimit != null)
+			{
+				batchImageTimeLimit = (new Integer(ifBatchImageTimeLimit)).intValue();
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchImageTimeLimit");
+			retValue = false;
+		}
+		
+		String ifBatchStageTimeLimit = iniProperties.getProperty("BatchStageTimeLimit");
+		try
+		{
+			if (ifBatchStageTimeLimit != null)
+			{
+				batchStageTimeLimit = (new Integer(ifBatchStageTimeLimit)).intValue();
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchStageTimeLimit");
+			retValue = false;
+		}
+		
+		String ifBatchOrderBySize = iniProperties.getProperty("BatchOrderBySize");
+		try
+		{
+			if (ifBatchOrderBySize != null)
+			{
+				int val = (new Integer(ifBatchOrderBySize)).intValue();
+				batchOrderBySize = (val != 0);
+			}
+
+		} catch (Exception ex)
+		{
+			System.err.println("ifBatchOrderBySize");
+			retValue = false;
+		}
 
 		return retValue;
 
@@ -545,7 +761,11 @@ public class ApplicationSettings
 			iniProperties.put("ForceOrtho", forceOrtho ? "1" : "0");
 			iniProperties.put("ThresholdSearchGreedy", thresholdSearchGreedy ? "1" : "0");
 			iniProperties.put("ThresholdSearchExhaustive", thresholdSearchExhaustive ? "1" : "0");
+			iniProperties.put("ThresholdSearchPyramid", thresholdSearchPyramid ? "1" : "0");
+			iniProperties.put("ThresholdSearchOtsu", thresholdSearchOtsu ? "1" : "0");
+			iniProperties.put("ThresholdSearchTriangle", thresholdSearchTriangle ? "1" : "0");
 			iniProperties.put("FindContour", findContour ? "1" : "0");
+			iniProperties.put("FastContour", fastContour ? "1" : "0");
 			
 			iniProperties.put("CalibHeight", (new Double(calibHeight)).toString() );
 			iniProperties.put("CalibWidth", (new Double(calibWidth)).toString() );
@@ -559,6 +779,15 @@ public class ApplicationSettings
 			iniProperties.put("BatchWriteFullImage", batchWriteFullImage ? "1" : "0");
 			iniProperties.put("BatchWriteCroppedImage", batchWriteCroppedImage ? "1" : "0");
 			iniProperties.put("BatchWriteLocalStatFile", batchWriteLocalStatFile ? "1" : "0");
+			iniProperties.put("BatchThresholdWarmStart", batchThresholdWarmStart ? "1" : "0");
+			iniProperties.put("BatchWriteSummary", batchWriteSummary ? "1" : "0");
+			iniProperties.put("BatchAutoCrop", batchAutoCrop ? "1" : "0");
+			iniProperties.put("BatchOffHeapImages", batchOffHeapImages ? "1" : "0");
+			iniProperties.put("BatchTiledSegmentation", batchTiledSegmentation ? "1" : "0");
+			iniProperties.put("BatchMemoryBudget", (new Integer(batchMemoryBudget)).toString() );
+			iniProperties.put("BatchImageTimeLimit", (new Integer(batchImageTimeLimit)).toString() );
+			iniProperties.put("BatchStageTimeLimit", (new Integer(batchStageTimeLimit)).toString() );
+			iniProperties.put("BatchOrderBySize", batchOrderBySize ? "1" : "0");
 			
 			FileOutputStream out = new FileOutputStream(iniFile.getAbsolutePath() );
 			iniProperties.store(out, applName);
@@ -657,10 +886,30 @@ public class ApplicationSettings
 		return thresholdSearchExhaustive;
 	}
 	
+	public boolean getThresholdSearchPyramid()
+	{
+		return thresholdSearchPyramid;
+	}
+	
+	public boolean getThresholdSearchOtsu()
+	{
+		return thresholdSearchOtsu;
+	}
+	
+	public boolean getThresholdSearchTriangle()
+	{
+		return thresholdSearchTriangle;
+	}
+	
 	public boolean getFindContour()
 	{
 		return findContour;
 	}
+	
+	public boolean getFastContour()
+	{
+		return fastContour;
+	}
 
 	public double getThresholdSearchStepLength()
 	{
@@ -699,6 +948,51 @@ public class ApplicationSettings
 		return batchWriteLocalStatFile;
 	}
 	
+	public boolean getBatchThresholdWarmStart()
+	{
+		return batchThresholdWarmStart;
+	}
+	
+	public boolean getBatchWriteSummary()
+	{
+		return batchWriteSummary;
+	}
+	
+	public boolean getBatchAutoCrop()
+	{
+		return batchAutoCrop;
+	}
+	
+	public boolean getBatchOffHeapImages()
+	{
+		return batchOffHeapImages;
+	}
+	
+	public boolean getBatchTiledSegmentation()
+	{
+		return batchTiledSegmentation;
+	}
+	
+	public int getBatchMemoryBudget()
+	{
+		return batchMemoryBudget;
+	}
+	
+	public int getBatchImageTimeLimit()
+	{
+		return batchImageTimeLimit;
+	}
+	
+	public int getBatchStageTimeLimit()
+	{
+		return batchStageTimeLimit;
+	}
+	
+	public boolean getBatchOrderBySize()
+	{
+		return batchOrderBySize;
+	}
+	
 	
 	public void setInputDir(File inputDir)
 	{
@@ -771,6 +1065,21 @@ public class ApplicationSettings
 	{
 		this.thresholdSearchExhaustive = thresholdSearchExhaustive;
 	}
+	
+	public void setThresholdSearchPyramid(boolean thresholdSearchPyramid)
+	{
+		this.thresholdSearchPyramid = thresholdSearchPyramid;
+	}
+	
+	public void setThresholdSearchOtsu(boolean thresholdSearchOtsu)
+	{
+		this.thresholdSearchOtsu = thresholdSearchOtsu;
+	}
+	
+	public void setThresholdSearchTriangle(boolean thresholdSearchTriangle)
+	{
+		this.thresholdSearchTriangle = thresholdSearchTriangle;
+	}
 
 	public void setThresholdSearchStepLength(double thresholdSearchStepLength)
 	{
@@ -782,6 +1091,11 @@ public class ApplicationSettings
 		this.findContour = findContour;
 	}
 	
+	public void setFastContour(boolean fastContour)
+	{
+		this.fastContour = fastContour;
+	}
+	
 	public void setThresholdManual(double thresholdManual)
 	{
 		this.thresholdManual = thresholdManual;
@@ -813,6 +1127,51 @@ public class ApplicationSettings
 		this.batchWriteLocalStatFile = batchWriteLocalStatFile;
 	}
 	
+	public void setBatchThresholdWarmStart(boolean batchThresholdWarmStart)
+	{
+		this.batchThresholdWarmStart = batchThresholdWarmStart;
+	}
+	
+	public void setBatchWriteSummary(boolean batchWriteSummary)
+	{
+		this.batchWriteSummary = batchWriteSummary;
+	}
+	
+	public void setBatchAutoCrop(boolean batchAutoCrop)
+	{
+		this.batchAutoCrop = batchAutoCrop;
+	}
+	
+	public void setBatchOffHeapImages(boolean batchOffHeapImages)
+	{
+		this.batchOffHeapImages = batchOffHeapImages;
+	}
+	
+	public void setBatchTiledSegmentation(boolean batchTiledSegmentation)
+	{
+		this.batchTiledSegmentation = batchTiledSegmentation;
+	}
+	
+	public void setBatchMemoryBudget(int batchMemoryBudget)
+	{
+		this.batchMemoryBudget = batchMemoryBudget;
+	}
+	
+	public void setBatchImageTimeLimit(int batchImageTimeLimit)
+	{
+		this.batchImageTimeLimit = batchImageTimeLimit;
+	}
+	
+	public void setBatchStageTimeLimit(int batchStageTimeLimit)
+	{
+		this.batchStageTimeLimit = batchStageTimeLimit;
+	}
+	
+	public void setBatchOrderBySize(boolean batchOrderBySize)
+	{
+		this.batchOrderBySize = batchOrderBySize;
+	}
+	
 	public void setBatchWriteCroppedImage(boolean batchWriteCroppedImage)
 	{
 		this.batchWriteCroppedImage = batchWriteCroppedImage;
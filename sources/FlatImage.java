@@ -0,0 +1,505 @@
+/* FlatImage.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * A single-band image stored in one flat array of the narrowest
+ * element type that holds its values (byte, short or int), either
+ * on the Java heap or outside of it.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+    * A grayscale or label image held in a single array, row by row, pixel (x,y) at
+    * index y*width + x. Intensities are stored as (unsigned) bytes and object labels
+    * as (unsigned) shorts as long as they do not exceed 65535, so such an image takes
+    * a quarter or half of the memory of an int[][] matrix, without an array per row.
+    * Values are always read and written as ints; the caller has to make sure that
+    * they fit the element type (see getMaxValue and widen).
+    * For very large scans the pixels can be kept outside of the Java heap, in a direct
+    * ByteBuffer or in a temporary file mapped into memory (which the operating system
+    * pages in and out as needed). get, set, getRow and setRow work the same for all
+    * storages; only the get...Data methods, which hand out the heap arrays, return null.
+    * Off-heap images should be disposed when they are no longer needed.
+*/
+public class FlatImage
+{
+	public final static int TYPE_BYTE = 0;
+	public final static int TYPE_SHORT = 1;
+	public final static int TYPE_INT = 2;
+
+	public final static int STORAGE_HEAP = 0;
+	public final static int STORAGE_DIRECT = 1; // direct ByteBuffer
+	public final static int STORAGE_MAPPED = 2; // memory-mapped temporary file
+
+	protected int width, height;
+	protected int type;
+	protected int storage;
+
+	protected byte[] byteData;
+	protected short[] shortData;
+	protected int[] intData;
+
+	protected ByteBuffer byteBuffer; // off-heap pixels (of any type)
+	protected ShortBuffer shortBuffer;
+	protected IntBuffer intBuffer;
+	protected File file; // backing file of a STORAGE_MAPPED image
+
+	/**
+	* Constructor, creates an image on the heap where all pixels are 0
+	*
+	* @param	width	Image width
+	* @param	height	Image height
+	* @param	type	Element type (one of the TYPE_ constants)
+	*/
+	public FlatImage(int width, int height, int type)
+	{
+		this.width = width;
+		this.height = height;
+		this.type = type;
+		storage = STORAGE_HEAP;
+		checkSize();
+		allocateHeap();
+	}
+
+	/**
+	* Constructor, creates an image where all pixels are 0
+	*
+	* @param	width	Image width
+	* @param	height	Image height
+	* @param	type	Element type (one of the TYPE_ constants)
+	* @param	storage	Where to keep the pixels (one of the STORAGE_ constants)
+	*/
+	public FlatImage(int width, int height, int type, int storage) throws IOException
+	{
+		this.width = width;
+		this.height = height;
+		this.type = type;
+		this.storage = storage;
+		checkSize();
+
+		if (storage == STORAGE_HEAP)
+		{
+			allocateHeap();
+			return;
+		}
+
+		long numBytes = getNumBytes();
+		if (numBytes > Integer.MAX_VALUE)
+			throw new IOException("Image too large for a buffer (" + width + "x" + height + ")");
+
+		if (storage == STORAGE_DIRECT)
+		{
+			byteBuffer = ByteBuffer.allocateDirect( (int)numBytes );
+		} else
+		{
+			//the mapping stays valid after the channel has been closed
+			file = File.createTempFile("lamina", ".img");
+			try
+			{
+				RandomAccessFile raf = new RandomAccessFile(file, "rw");
+				try
+				{
+					raf.setLength(numBytes);
+					byteBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, numBytes);
+				} finally
+				{
+					raf.close();
+				}
+			} catch (IOException ex)
+			{
+				//e.g. no room for the file; dispose is never called on an image that failed
+				file.delete();
+				throw ex;
+			}
+		}
+
+		byteBuffer.order( ByteOrder.nativeOrder() );
+		if (type == TYPE_SHORT)
+			shortBuffer = byteBuffer.asShortBuffer();
+		else if (type == TYPE_INT)
+			intBuffer = byteBuffer.asIntBuffer();
+	}
+
+	// the pixels are indexed with an int (see get(int)), also when they are off-heap
+	private void checkSize()
+	{
+		if ((long)width*height > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Image too large (" + width + "x" + height + " pixels)");
+	}
+
+	private void allocateHeap()
+	{
+		if (type == TYPE_BYTE)
+			byteData = new byte[width*height];
+		else if (type == TYPE_SHORT)
+			shortData = new short[width*height];
+		else
+			intData = new int[width*height];
+	}
+
+	/**
+	* Creates an empty label image, with the narrowest element type that holds a label
+	*
+	* @param	width	Image width
+	* @param	height	Image height
+	* @param	maxLabel	The largest label expected (more can be made room for with widen)
+	* @return	The image
+	*/
+	public static FlatImage createLabelImage(int width, int height, int maxLabel)
+	{
+		return new FlatImage(width, height, getType(maxLabel));
+	}
+
+	/**
+	* Copies a matrix into an image, with the narrowest element type that
+	* holds all of its values
+	*
+	* @param	mat	The matrix, indexed [y][x] (no negative values)
+	* @return	The image
+	*/
+	public static FlatImage fromMatrix(int[][] mat)
+	{
+		try
+		{
+			return fromMatrix(mat, STORAGE_HEAP);
+		} catch (IOException ioe)
+		{
+			throw new IllegalStateException("Heap images are not created from files");
+		}
+	}
+
+	/**
+	* Copies a matrix into an image, with the narrowest element type that
+	* holds all of its values
+	*
+	* @param	mat	The matrix, indexed [y][x] (no negative values)
+	* @param	storage	Where to keep the pixels (one of the STORAGE_ constants)
+	* @return	The image
+	*/
+	public static FlatImage fromMatrix(int[][] mat, int storage) throws IOException
+	{
+		int maxValue = 0;
+		for (int y = 0; y < mat.length; y++)
+			for (int x = 0; x < mat[y].length; x++)
+				if (mat[y][x] < 0)
+					maxValue = Integer.MAX_VALUE;
+				else if (mat[y][x] > maxValue)
+					maxValue = mat[y][x];
+
+		FlatImage img = new FlatImage(mat[0].length, mat.length, getType(maxValue), storage);
+		for (int y = 0; y < mat.length; y++)
+			img.setRow(y, mat[y]);
+		return img;
+	}
+
+	/**
+	* @param	maxValue	The largest value to be stored
+	* @return	The narrowest element type that holds values 0..maxValue
+	*/
+	public static int getType(int maxValue)
+	{
+		if (maxValue <= 0xff)
+			return TYPE_BYTE;
+		else if (maxValue <= 0xffff)
+			return TYPE_SHORT;
+		else
+			return TYPE_INT;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public int getType()
+	{
+		return type;
+	}
+
+	/**
+	* @return	Where the pixels are kept (one of the STORAGE_ constants)
+	*/
+	public int getStorage()
+	{
+		return storage;
+	}
+
+	/**
+	* @return	The largest value that the element type can hold
+	*/
+	public int getMaxValue()
+	{
+		if (type == TYPE_BYTE)
+			return 0xff;
+		else if (type == TYPE_SHORT)
+			return 0xffff;
+		else
+			return Integer.MAX_VALUE;
+	}
+
+	/**
+	* @return	The number of bytes used by the pixels
+	*/
+	public long getNumBytes()
+	{
+		long numPixels = (long)width*height;
+		if (type == TYPE_BYTE)
+			return numPixels;
+		else if (type == TYPE_SHORT)
+			return 2*numPixels;
+		else
+			return 4*numPixels;
+	}
+
+	/**
+	* Reads a pixel
+	*
+	* @param	ind	Index of the pixel (y*width + x)
+	* @return	The value
+	*/
+	public int get(int ind)
+	{
+		if (type == TYPE_BYTE)
+			return ( (byteData != null) ? byteData[ind] : byteBuffer.get(ind) ) & 0xff;
+		else if (type == TYPE_SHORT)
+			return ( (shortData != null) ? shortData[ind] : shortBuffer.get(ind) ) & 0xffff;
+		else
+			return (intData != null) ? intData[ind] : intBuffer.get(ind);
+	}
+
+	public int get(int x, int y)
+	{
+		return get(y*width + x);
+	}
+
+	/**
+	* Sets a pixel
+	*
+	* @param	ind	Index of the pixel (y*width + x)
+	* @param	value	The value (0..getMaxValue())
+	*/
+	public void set(int ind, int value)
+	{
+		if (storage != STORAGE_HEAP)
+		{
+			if (type == TYPE_BYTE)
+				byteBuffer.put(ind, (byte)value);
+			else if (type == TYPE_SHORT)
+				shortBuffer.put(ind, (short)value);
+			else
+				intBuffer.put(ind, value);
+		} else if (type == TYPE_BYTE)
+			byteData[ind] = (byte)value;
+		else if (type == TYPE_SHORT)
+			shortData[ind] = (short)value;
+		else
+			intData[ind] = value;
+	}
+
+	public void set(int x, int y, int value)
+	{
+		set(y*width + x, value);
+	}
+
+	/**
+	* Reads a row
+	*
+	* @param	y	Row index
+	* @param	dst	Destination buffer (at least getWidth() long), or null
+	* @return	The destination buffer
+	*/
+	public int[] getRow(int y, int[] dst)
+	{
+		if (dst == null)
+			dst = new int[width];
+
+		int off = y*width;
+		if (storage != STORAGE_HEAP)
+		{
+			for (int x = 0; x < width; x++)
+				dst[x] = get(off+x);
+		} else if (type == TYPE_BYTE)
+		{
+			byte[] data = byteData;
+			for (int x = 0; x < width; x++)
+				dst[x] = data[off+x] & 0xff;
+		} else if (type == TYPE_SHORT)
+		{
+			short[] data = shortData;
+			for (int x = 0; x < width; x++)
+				dst[x] = data[off+x] & 0xffff;
+		} else
+		{
+			System.arraycopy(intData, off, dst, 0, width);
+		}
+
+		return dst;
+	}
+
+	/**
+	* Sets a row
+	*
+	* @param	y	Row index
+	* @param	src	The values (at least getWidth() of them)
+	*/
+	public void setRow(int y, int[] src)
+	{
+		int off = y*width;
+		if (storage != STORAGE_HEAP)
+		{
+			for (int x = 0; x < width; x++)
+				set(off+x, src[x]);
+		} else if (type == TYPE_BYTE)
+		{
+			byte[] data = byteData;
+			for (int x = 0; x < width; x++)
+				data[off+x] = (byte)src[x];
+		} else if (type == TYPE_SHORT)
+		{
+			short[] data = shortData;
+			for (int x = 0; x < width; x++)
+				data[off+x] = (short)src[x];
+		} else
+		{
+			System.arraycopy(src, 0, intData, off, width);
+		}
+	}
+
+	/**
+	* Copies the image into a matrix
+	*
+	* @param	dst	The matrix, indexed [y][x], or null
+	* @return	The matrix
+	*/
+	public int[][] toMatrix(int[][] dst)
+	{
+		if (dst == null)
+			dst = new int[height][width];
+
+		for (int y = 0; y < height; y++)
+			getRow(y, dst[y]);
+		return dst;
+	}
+
+	/**
+	* Sets all pixels to 0
+	*/
+	public void clear()
+	{
+		if (byteData != null)
+			java.util.Arrays.fill(byteData, (byte)0);
+		else if (shortData != null)
+			java.util.Arrays.fill(shortData, (short)0);
+		else if (intData != null)
+			java.util.Arrays.fill(intData, 0);
+		else
+		{
+			byte[] zeros = new byte[ Math.min(byteBuffer.capacity(), 65536) ];
+			byteBuffer.clear();
+			while (byteBuffer.hasRemaining())
+				byteBuffer.put(zeros, 0, Math.min(zeros.length, byteBuffer.remaining()) );
+			byteBuffer.clear();
+		}
+	}
+
+	/**
+	* Copies the image into a wider element type, with the same storage. An
+	* off-heap image is disposed once it has been copied.
+	*
+	* @param	newType	The element type, wider than the current one
+	* @return	The copy (or this image, if it already is at least as wide)
+	*/
+	public FlatImage widen(int newType) throws IOException
+	{
+		if (newType <= type)
+			return this;
+
+		FlatImage img = new FlatImage(width, height, newType, storage);
+		int numPixels = width*height;
+		for (int i = 0; i < numPixels; i++)
+			img.set(i, get(i));
+
+		dispose();
+		return img;
+	}
+
+	/**
+	* Releases the pixels of an off-heap image and removes its temporary file. A
+	* mapped file can only be removed once the mapping has been garbage collected on
+	* some systems; only if it cannot be removed right away is it left to be removed
+	* when the program exits.
+	* The image must not be used afterwards. Heap images are left to the GC.
+	*/
+	public void dispose()
+	{
+		if (storage == STORAGE_HEAP)
+			return;
+
+		byteBuffer = null;
+		shortBuffer = null;
+		intBuffer = null;
+		if (file != null && !file.delete())
+			file.deleteOnExit();
+		file = null;
+	}
+
+	/**
+	* @return	The pixel array if the element type is TYPE_BYTE, otherwise null
+	*/
+	public byte[] getByteData()
+	{
+		return byteData;
+	}
+
+	/**
+	* @return	The pixel array if the element type is TYPE_SHORT, otherwise null
+	*/
+	public short[] getShortData()
+	{
+		return shortData;
+	}
+
+	/**
+	* @return	The pixel array if the element type is TYPE_INT, otherwise null
+	*/
+	public int[] getIntData()
+	{
+		return intData;
+	}
+}
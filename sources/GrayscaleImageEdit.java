@@ -30,11 +30,13 @@
 */
 
 import java.lang.Math.*;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.Vector;
 import java.util.Random;
 import java.awt.Point;
 import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
 import java.awt.*;
 import javax.swing.*;
 
@@ -62,6 +64,10 @@ public class GrayscaleImageEdit
 	public final static byte DIST_MANHATTAN = 1;
 	public final static double EPS = 1e-12;
 	public final static double SQRT2 = Math.sqrt(2);
+	public final static int PYRAMID_LEVELS = 2; //number of downsampled levels (2x, 4x) used by the coarse-to-fine threshold search
+	public final static int PYRAMID_MIN_SIZE = 32; //don't downsample images below this height/width
+	public final static double BORDER_SIMPLIFY_TOLERANCE = 1.0; //max. distance (in pixels) between a border pixel and the simplified border
+	public final static int THRESH_REJECTED = -2; //returned by searches that could not settle on a threshold (-1 means cancelled)
 	
 	
 
@@ -112,6 +118,46 @@ public class GrayscaleImageEdit
 		return ret;
 	}
 	
+	/**
+	* Calculates the standard deviation using a sliding window over an image,
+	* see calcStds(int[][], int, int).
+	*
+	* @param	img	Grayscale image
+	* @param	h	Sliding window height
+	* @param	w	Sliding window width
+	* @return	a vector of standard deviations, one for each window
+	*/
+	public static double[] calcStds(FlatImage img, int h, int w)
+	{
+		int imgWidth = img.getWidth();
+		int imgHeight = img.getHeight();
+		int xDelta = (int)((w-1)/2.0);
+		int yDelta = (int)((h-1)/2.0);
+		byte[] data = img.getByteData();
+		
+		int[] window = new int[h*w];
+		double[] ret = new double[(imgWidth-2*xDelta)*(imgHeight-2*yDelta)];
+		
+		//the window is filled in the same order as for a matrix, so the results are identical
+		int ind1 = 0;
+		for (int y = yDelta; y < imgHeight-yDelta; y++)
+			for (int x = xDelta; x < imgWidth-xDelta; x++)
+			{
+				int ind2 = 0;
+				for (int xx = (x - xDelta); xx <= (x + xDelta); xx++)
+					for (int yy = (y - yDelta); yy <= (y + yDelta); yy++)
+					{
+						int ind = yy*imgWidth + xx;
+						window[ind2++] = (data != null) ? (data[ind] & 0xff) : img.get(ind);
+					}
+				
+				double mean = MiscMath.mean(window);
+				ret[ind1++] = MiscMath.stdev(window, mean);
+			}
+		
+		return ret;
+	}
+	
 	/**
 	* Replaces the values of all pixels by the median of all pixels in a window
 	* surrounding the current window.
@@ -156,7 +202,7 @@ public class GrayscaleImageEdit
 							window[ind2++] = imgTemplate[yy][xx];
 						}
 					
-					double medianVal = MiscMath.median(window);
+					double medianVal = MiscMath.medianInPlace(window, ind2); //the window is refilled for each pixel
 					img[y][x] = (int)medianVal;
 					
 					//if ( (int)medianVal != 255)
@@ -166,6 +212,53 @@ public class GrayscaleImageEdit
 			}
 	}
 	
+	/**
+	* Replaces the values of all pixels by the median of all pixels in a window
+	* surrounding the current window, see medianFilter(int[][], int[][], int, int).
+	*
+	* @param	imgTemplate	Grayscale image
+	* @param	img	Grayscale image of the same size that will be replaced with median values
+	* @param	h	Sliding window height
+	* @param	w	Sliding window width
+	*/
+	public static void medianFilter(FlatImage imgTemplate, FlatImage img, int h, int w)
+	{
+		int imgWidth = imgTemplate.getWidth();
+		int imgHeight = imgTemplate.getHeight();
+		int xDelta = (int)((w-1)/2.0);
+		int yDelta = (int)((h-1)/2.0);
+		
+		int[] window = new int[h*w];
+		byte[] data = imgTemplate.getByteData();
+		
+		for (int y = 0; y < imgHeight; y++)
+		{
+			int rowOff = y*imgWidth;
+			boolean borderRow = (y < yDelta || y >= imgHeight-yDelta);
+			for (int x = 0; x < imgWidth; x++)
+			{
+				if (borderRow || x < xDelta || x >= imgWidth-xDelta)
+				{
+					img.set(rowOff + x, 255); //borders
+					continue;
+				}
+				
+				int n = 0;
+				for (int off = rowOff - yDelta*imgWidth; off <= rowOff + yDelta*imgWidth; off += imgWidth)
+				{
+					if (data != null)
+						for (int xx = x - xDelta; xx <= x + xDelta; xx++)
+							window[n++] = data[off+xx] & 0xff;
+					else
+						for (int xx = x - xDelta; xx <= x + xDelta; xx++)
+							window[n++] = imgTemplate.get(off+xx);
+				}
+				
+				img.set(rowOff + x, (int)MiscMath.medianInPlace(window, n) );
+			}
+		}
+	}
+	
 	
 	
 	/**
@@ -177,14 +270,64 @@ public class GrayscaleImageEdit
 	*/
 	public static void thresholdImage(int[][] imgTemplate, int[][] img, int thresh)
 	{
+		int width = imgTemplate[0].length;
 		for (int h = 0; h < imgTemplate.length; h++)
-				for (int w = 0; w < imgTemplate[0].length; w++)
-				{
-					img[h][w] = (imgTemplate[h][w] <= thresh) ? (int)255 : (int) 0;
-				}
+			PixelKernels.threshold(imgTemplate[h], 0, img[h], 0, width, thresh);
 		
 	}
 	
+	/**
+	*Thresholds an image (to 0 or 255) using a fixed threshold.
+	*
+	* @param	imgTemplate	Grayscale image used as template (as int[][] matrix)
+	* @param	img	Grayscale image of the same size to store the result in
+	* @param	thresh	Threshold
+	*/
+	public static void thresholdImage(int[][] imgTemplate, FlatImage img, int thresh)
+	{
+		int width = img.getWidth();
+		byte[] data = img.getByteData();
+		int[] row = (data == null) ? new int[width] : null;
+		for (int h = 0; h < imgTemplate.length; h++)
+		{
+			if (data != null)
+			{
+				PixelKernels.threshold(imgTemplate[h], 0, data, h*width, width, thresh);
+			} else
+			{
+				PixelKernels.threshold(imgTemplate[h], 0, row, 0, width, thresh);
+				img.setRow(h, row);
+			}
+		}
+	}
+	
+	/**
+	*Thresholds an image (to 0 or 255) using a fixed threshold.
+	*
+	* @param	imgTemplate	Grayscale image used as template
+	* @param	img	Grayscale image of the same size to store the result in
+	* @param	thresh	Threshold
+	*/
+	public static void thresholdImage(FlatImage imgTemplate, FlatImage img, int thresh)
+	{
+		int width = img.getWidth();
+		byte[] data = img.getByteData();
+		int[] src = new int[width];
+		int[] row = (data == null) ? new int[width] : null;
+		for (int h = 0; h < imgTemplate.getHeight(); h++)
+		{
+			imgTemplate.getRow(h, src);
+			if (data != null)
+			{
+				PixelKernels.threshold(src, 0, data, h*width, width, thresh);
+			} else
+			{
+				PixelKernels.threshold(src, 0, row, 0, width, thresh);
+				img.setRow(h, row);
+			}
+		}
+	}
+	
 	/**
 	*Thresholds an image (to 0 or 255) using a fixed threshold.
 	*
@@ -234,11 +377,7 @@ public class GrayscaleImageEdit
 		long zero = 0;
 		
 		for (int h = 0; h < img.length; h++)
-			for (int w = 0; w < img[0].length; w++)
-			{
-				if (img[h][w] == 0)
-					zero++;	
-			}
+			zero += PixelKernels.countZero(img[h], 0, img[h].length);
 		
 		return (double)zero/(double)total;
 	}
@@ -255,11 +394,33 @@ public class GrayscaleImageEdit
 		long zero = 0;
 		
 		for (int h = 0; h < img.length; h++)
-			for (int w = 0; w < img[0].length; w++)
-			{
-				if (img[h][w] == 0)
-					zero++;	
-			}
+			zero += PixelKernels.countZero(img[h], 0, img[h].length);
+		
+		return (double)zero/(double)total;
+	}
+	
+	/**
+	* Counts the fraction of pixels in an image that is zero
+	*
+	* @param	img	Grayscale image to be counted
+	* @return	The fraction of zeros in the image
+	*/
+	public static double countFractionZero(FlatImage img)
+	{
+		int width = img.getWidth();
+		long total = (long)width*img.getHeight();
+		long zero = 0;
+		
+		byte[] data = img.getByteData();
+		if (data != null)
+		{
+			zero = PixelKernels.countZero(data, 0, data.length);
+		} else
+		{
+			int[] row = new int[width];
+			for (int h = 0; h < img.getHeight(); h++)
+				zero += PixelKernels.countZero(img.getRow(h, row), 0, width);
+		}
 		
 		return (double)zero/(double)total;
 	}
@@ -277,19 +438,12 @@ public class GrayscaleImageEdit
 	{
 		int matWidth = mat[0].length;
 		int matHeight = mat.length;
-		int truncVal = 255;
 
 		//construct object
 		int[][] retMat = new int[matHeight][matWidth];
 		
-		for (int xx = 0; xx < matWidth; xx++)
-			for (int yy = 0; yy < matHeight; yy++)
-			{
-				
-				retMat[yy][xx] = (int)Math.round(mat[yy][xx]*mask[yy][xx]);
-				if (truncate && retMat[yy][xx] > truncVal)
-					retMat[yy][xx] = truncVal;
-			}
+		for (int yy = 0; yy < matHeight; yy++)
+			PixelKernels.mask(mat[yy], mask[yy], retMat[yy], matWidth, truncate);
 			
 		return retMat;
 	}	
@@ -377,6 +531,28 @@ public class GrayscaleImageEdit
 	* @return	The best threshold value according to the search function
 	*/
 	public static double detectThresholdExhaustive(int[][] imgTemplate, int[][] img, int h, int w, int deltaThresh, int minVal, int maxVal, JFrameExt frame, JProgressBar pb)
+	{
+		return detectThresholdExhaustive(imgTemplate, img, h, w, deltaThresh, minVal, maxVal,
+			new ThresholdScoreCache(h, w), frame, pb);
+	}
+	
+	/**
+	* Exhaustive threshold detection (see above) that looks up and stores threshold
+	* scores in a cache, e.g. one already filled by a greedy search on the same image.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @param	img	Grayscale image that can be modified (as int[][] matrix)
+	* @param	h	Sliding window height
+	* @param	w	Sliding window width
+	* @param	deltaThresh	The step length used for the threshold
+	* @param	minVal	The minimum allowed value in the iteration
+	* @param	maxVal	The maximum allowed value in the iteration
+	* @param	cache	Score cache for this image (using the same window size) (imgTemplate and img may be null if the cache scores a band of its own)
+	* @param	frame	A (extended) frame object, which can be used to keep track of whether the run was terminated beforehand
+	* @param	pb	A progressbar object, which is used to set the progress of the algorithm
+	* @return	The best threshold value according to the search function
+	*/
+	public static double detectThresholdExhaustive(int[][] imgTemplate, int[][] img, int h, int w, int deltaThresh, int minVal, int maxVal, ThresholdScoreCache cache, JFrameExt frame, JProgressBar pb)
 	{
 		while (minVal <= 0)
 			minVal += deltaThresh;
@@ -391,13 +567,12 @@ public class GrayscaleImageEdit
 		for (int i = 0; i < numSteps; i++)
 		{
 	
-			thresholdImage(imgTemplate, img, currVal);
+			cache.score(imgTemplate, img, currVal);
 			
-			double stdDevCurrent = MiscMath.mean( GrayscaleImageEdit.calcStds( img , h, w) );
+			double stdDevCurrent = cache.getStdDev(currVal);
 			
 			
-			double fracZero = countFractionZero(img);
-			double fracZeroComp = (fracZero < 0.5) ? fracZero : (1-fracZero); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
+			double fracZeroComp = cache.getFracZeroComp(currVal); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
 			//System.err.println("  Majority/minority pixel count is " + fracZeroComp);
 			
 			if ( Math.abs(fracZeroComp) < EPS || Math.abs(stdDevCurrent) < EPS)
@@ -452,6 +627,28 @@ public class GrayscaleImageEdit
 	* @return	The best threshold value according to the search function
 	*/
 	public static int detectThresholdGreedy(int[][] imgTemplate, int[][] img, int h, int w, int startValue, int deltaThresh, JFrameExt frame, JProgressBar pb)
+	{
+		return detectThresholdGreedy(imgTemplate, img, h, w, startValue, deltaThresh,
+			new ThresholdScoreCache(h, w), frame, pb);
+	}
+	
+	/**
+	* Greedy threshold detection (see above) that looks up and stores threshold scores in
+	* a cache, so that thresholds visited more than once are only evaluated once. The same
+	* cache can later be handed to the exhaustive search for the same image.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @param	img	Grayscale image that can be modified (as int[][] matrix)
+	* @param	h	Sliding window height
+	* @param	w	Sliding window width
+	* @param	startValue	The initial threshold
+	* @param	deltaThresh	The step length used for the threshold
+	* @param	cache	Score cache for this image (using the same window size) (imgTemplate and img may be null if the cache scores a band of its own)
+	* @param	frame	A (extended) frame object, which can be used to keep track of whether the run was terminated beforehand
+	* @param	pb	A progressbar object, which is used to set the progress of the algorithm
+	* @return	The best threshold value according to the search function
+	*/
+	public static int detectThresholdGreedy(int[][] imgTemplate, int[][] img, int h, int w, int startValue, int deltaThresh, ThresholdScoreCache cache, JFrameExt frame, JProgressBar pb)
 	{
 		//if (verbose)
 		//	System.err.println("Setting up images for threshold detection...");
@@ -463,12 +660,11 @@ public class GrayscaleImageEdit
 		double stdDevCurrent, stdDevLower, stdDevUpper;
 		double stdDevMin = Double.POSITIVE_INFINITY;
 		
-		thresholdImage(imgTemplate, img, threshCurr);
-		stdDevCurrent = MiscMath.mean( GrayscaleImageEdit.calcStds( img , h, w) );
+		cache.score(imgTemplate, img, threshCurr);
+		stdDevCurrent = cache.getStdDev(threshCurr);
 		pb.setValue(10);
 	
-		double fracZero = countFractionZero(img);
-		double fracZeroComp = (fracZero < 0.5) ? fracZero : (1-fracZero); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
+		double fracZeroComp = cache.getFracZeroComp(threshCurr); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
 		if ( Math.abs(fracZeroComp) < ZERO_REL_MIN || Math.abs(stdDevCurrent) < EPS)
 			stdDevCurrent = Double.POSITIVE_INFINITY;
 			
@@ -476,12 +672,11 @@ public class GrayscaleImageEdit
 			return -1;
 		
 		
-		thresholdImage(imgTemplate, img, threshCurr-deltaThresh);
-		stdDevLower = MiscMath.mean( GrayscaleImageEdit.calcStds(img, h, w) );
+		cache.score(imgTemplate, img, threshCurr-deltaThresh);
+		stdDevLower = cache.getStdDev(threshCurr-deltaThresh);
 		pb.setValue(20);
 	
-		double fracZeroLower = countFractionZero(img);
-		double fracZeroLowerComp = (fracZeroLower < 0.5) ? fracZeroLower : (1-fracZeroLower); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
+		double fracZeroLowerComp = cache.getFracZeroComp(threshCurr-deltaThresh); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
 		if ( Math.abs(fracZeroLowerComp) < ZERO_REL_MIN || Math.abs(stdDevCurrent) < EPS)
 			stdDevLower = Double.POSITIVE_INFINITY;
 		
@@ -489,12 +684,11 @@ public class GrayscaleImageEdit
 			return -1;
 		
 		
-		thresholdImage(imgTemplate, img, threshCurr+deltaThresh);
-		stdDevUpper = MiscMath.mean( GrayscaleImageEdit.calcStds(img, h, w) );
+		cache.score(imgTemplate, img, threshCurr+deltaThresh);
+		stdDevUpper = cache.getStdDev(threshCurr+deltaThresh);
 		pb.setValue(30);
 		
-		double fracZeroUpper = countFractionZero(img);
-		double fracZeroUpperComp = (fracZeroUpper < 0.5) ? fracZeroUpper : (1-fracZeroUpper); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
+		double fracZeroUpperComp = cache.getFracZeroComp(threshCurr+deltaThresh); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
 		if ( Math.abs(fracZeroUpperComp) < ZERO_REL_MIN || Math.abs(stdDevCurrent) < EPS)
 			stdDevUpper = Double.POSITIVE_INFINITY;
 		
@@ -502,107 +696,615 @@ public class GrayscaleImageEdit
 			return -1;
 		
 		
-		//if (verbose)
+		//if (verbose)
+		{
+			System.err.println("StdDev at current position (" + threshCurr + ") is " + stdDevCurrent + ", fracZero is " + fracZeroComp);
+			System.err.println("StdDev at lower position (" + (threshCurr-deltaThresh) + ") is " + stdDevLower + ", fracZero is " + fracZeroLowerComp);
+			System.err.println("StdDev at upper position (" + (threshCurr+deltaThresh) + ") is " + stdDevUpper + ", fracZero is " + fracZeroUpperComp);
+		}
+		
+		
+		boolean keepSearching = true;
+		boolean lower = false;
+		
+		if ( stdDevLower < stdDevCurrent || stdDevUpper < stdDevCurrent || stdDevCurrent < GrayscaleImageEdit.STDDEV_MIN)
+		{
+
+			if ( stdDevLower < stdDevCurrent && stdDevUpper < stdDevCurrent)
+				lower = (stdDevLower < stdDevUpper);
+			else if ( stdDevLower < stdDevCurrent )
+				lower = true;
+			
+			if (lower)
+			{
+				threshDirection = -deltaThresh;
+				stdDevMin=stdDevLower;
+				
+				//if (verbose)
+				//	System.err.println("Threshold will be iteratively decreased...");
+					
+			} else
+			{
+				stdDevMin=stdDevUpper;
+				
+				//if (verbose)
+				//	System.err.println("Threshold will be iteratively increased...");
+			}
+			threshCurr += threshDirection; //move to the next (best) place, greedy style
+			threshMin = threshCurr;
+			
+		} else
+		{
+			keepSearching = false;
+			//if (verbose)
+			//	System.err.println("Stopped at initial position with threshold " + stdDevCurrent);
+		}
+		
+		
+		while(keepSearching)
+		{
+			//if (verbose)
+			//	System.err.print("Threshold is now " + threshCurr);
+			
+			threshCurr += threshDirection;
+			
+			if (threshCurr <= 0 || threshCurr > 255)
+				keepSearching = false;
+			else
+			{
+			
+				//if (verbose)
+				//	System.err.println(", searching with threshold " + threshCurr);
+				
+				cache.score(imgTemplate, img, threshCurr);
+				stdDevCurrent = cache.getStdDev(threshCurr);
+				
+				fracZeroComp = cache.getFracZeroComp(threshCurr); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
+				if ( Math.abs(fracZeroComp) < EPS || Math.abs(stdDevCurrent) < EPS)
+					stdDevCurrent = Double.POSITIVE_INFINITY;
+				
+				if (frame.getCancelled())
+					return -1;
+				
+				// we can't know when we reach the goal so just show the user that something is happening
+				pb.setValue( (int)(pb.getValue() + (100.0 - pb.getValue())/2.0) );
+				
+				//if (verbose)
+				//	System.err.println("StdDev at current position is " + stdDevCurrent);
+				
+				if (stdDevCurrent < stdDevMin)
+				{
+					if (fracZeroComp < GrayscaleImageEdit.ZERO_REL_MIN)
+					{
+						//we may have a too low stddev, suggesting the entire image is only one color
+						threshDirection = (lower) ? deltaThresh : -deltaThresh;
+						threshCurr += threshDirection;
+						//System.err.println("Changing direction, image may be truncated...");
+					} else
+					{
+						stdDevMin = stdDevCurrent;
+						threshMin = threshCurr;
+					}
+				} else
+				{
+					keepSearching = false;
+				}
+			
+			}
+			
+		}
+		pb.setValue(100);
+		
+		return threshMin;
+	}
+	
+	/**
+	* Scores a threshold in the same way as the exhaustive search, i.e. as the mean of the
+	* windowed standard deviations of the thresholded image. Thresholds that leave (almost)
+	* only one pixel type in the image get an infinite score.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @param	img	Grayscale image that can be modified (as int[][] matrix)
+	* @param	h	Sliding window height
+	* @param	w	Sliding window width
+	* @param	thresh	The threshold to score
+	* @return	The score of the threshold (lower is better)
+	*/
+	public static double scoreThreshold(int[][] imgTemplate, int[][] img, int h, int w, int thresh)
+	{
+		return scoreThreshold(imgTemplate, img, thresh, new ThresholdScoreCache(h, w));
+	}
+	
+	/**
+	* Scores a threshold (see above), looking it up in a cache first.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @param	img	Grayscale image that can be modified (as int[][] matrix)
+	* @param	thresh	The threshold to score
+	* @param	cache	Score cache for this image (imgTemplate and img may be null if the cache scores a band of its own)
+	* @return	The score of the threshold (lower is better)
+	*/
+	public static double scoreThreshold(int[][] imgTemplate, int[][] img, int thresh, ThresholdScoreCache cache)
+	{
+		cache.score(imgTemplate, img, thresh);
+		double stdDevCurrent = cache.getStdDev(thresh);
+		double fracZeroComp = cache.getFracZeroComp(thresh);
+		
+		if ( fracZeroComp <= GrayscaleImageEdit.ZERO_REL_MIN || Math.abs(stdDevCurrent) < EPS)
+			return Double.POSITIVE_INFINITY;
+		
+		return stdDevCurrent;
+	}
+	
+	/**
+	* Downsamples a grayscale image by averaging non-overlapping blocks of pixels.
+	* Pixels in incomplete blocks along the right and bottom edges are ignored.
+	*
+	* @param	img	Grayscale image (as int[][] matrix)
+	* @param	factor	The block size, e.g. 2 for half the resolution
+	* @return	The downsampled image
+	*/
+	public static int[][] downsampleImage(int[][] img, int factor)
+	{
+		int height = img.length / factor;
+		int width = img[0].length / factor;
+		int area = factor*factor;
+		
+		int[][] ret = new int[height][width];
+		int[] rowSum = new int[width];
+		
+		for (int y = 0; y < height; y++)
+		{
+			Arrays.fill(rowSum, 0);
+			for (int yy = y*factor; yy < (y+1)*factor; yy++)
+			{
+				int[] row = img[yy];
+				int xx = 0;
+				for (int x = 0; x < width; x++)
+					for (int k = 0; k < factor; k++)
+						rowSum[x] += row[xx++];
+			}
+			
+			for (int x = 0; x < width; x++)
+				ret[y][x] = (rowSum[x] + area/2) / area;
+		}
+		
+		return ret;
+	}
+	
+	/**
+	* Downsamples a grayscale image, see downsampleImage(int[][], int)
+	*
+	* @param	img	Grayscale image
+	* @param	factor	The block size, e.g. 2 for half the resolution
+	* @return	The downsampled image (as int[][] matrix)
+	*/
+	public static int[][] downsampleImage(FlatImage img, int factor)
+	{
+		int height = img.getHeight() / factor;
+		int width = img.getWidth() / factor;
+		int area = factor*factor;
+		
+		int[][] ret = new int[height][width];
+		int[] rowSum = new int[width];
+		int[] row = new int[img.getWidth()];
+		
+		for (int y = 0; y < height; y++)
+		{
+			Arrays.fill(rowSum, 0);
+			for (int yy = y*factor; yy < (y+1)*factor; yy++)
+			{
+				img.getRow(yy, row);
+				int xx = 0;
+				for (int x = 0; x < width; x++)
+					for (int k = 0; k < factor; k++)
+						rowSum[x] += row[xx++];
+			}
+			
+			for (int x = 0; x < width; x++)
+				ret[y][x] = (rowSum[x] + area/2) / area;
+		}
+		
+		return ret;
+	}
+	
+	/**
+	* Detects an approximate threshold of an object that minimizes the variation (standard deviation)
+	* of the thresholded image, using a coarse-to-fine search. The template is downsampled
+	* (2x, 4x, ...) and all thresholds are scored on the coarsest level only. The winner is then
+	* refined level by level, by walking from it in steps of the threshold step length as long as
+	* the score improves, ending at full resolution.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @param	img	Grayscale image that can be modified (as int[][] matrix)
+	* @param	h	Sliding window height
+	* @param	w	Sliding window width
+	* @param	deltaThresh	The step length used for the threshold
+	* @param	numLevels	The maximum number of downsampled levels (e.g. 2 for 2x and 4x)
+	* @param	frame	A (extended) frame object, which can be used to keep track of whether the run was terminated beforehand
+	* @param	pb	A progressbar object, which is used to set the progress of the algorithm
+	* @return	The best threshold value according to the search function
+	*/
+	public static int detectThresholdPyramid(int[][] imgTemplate, int[][] img, int h, int w, int deltaThresh, int numLevels, JFrameExt frame, JProgressBar pb)
+	{
+		return detectThresholdPyramid(imgTemplate, img, h, w, deltaThresh, numLevels,
+			new ThresholdScoreCache(h, w), frame, pb);
+	}
+	
+	/**
+	* Coarse-to-fine threshold detection (see above) where the full resolution scores are
+	* looked up in and stored to a cache. Downsampled levels use caches of their own.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @param	img	Grayscale image that can be modified (as int[][] matrix)
+	* @param	h	Sliding window height
+	* @param	w	Sliding window width
+	* @param	deltaThresh	The step length used for the threshold
+	* @param	numLevels	The maximum number of downsampled levels (e.g. 2 for 2x and 4x)
+	* @param	cache	Score cache for the full resolution image (using the same window size) (imgTemplate and img may be null if the cache scores a band of its own)
+	* @param	frame	A (extended) frame object, which can be used to keep track of whether the run was terminated beforehand
+	* @param	pb	A progressbar object, which is used to set the progress of the algorithm
+	* @return	The best threshold value according to the search function
+	*/
+	public static int detectThresholdPyramid(int[][] imgTemplate, int[][] img, int h, int w, int deltaThresh, int numLevels, ThresholdScoreCache cache, JFrameExt frame, JProgressBar pb)
+	{
+		pb.setValue(0);
+		
+		// level 0 is the full resolution image (null if it is the band of the cache)
+		Vector vecLevels = new Vector();
+		vecLevels.add(imgTemplate);
+		
+		int[][] levelTemplate = imgTemplate;
+		int levelHeight = (imgTemplate != null) ? imgTemplate.length : cache.getBand().getHeight();
+		int levelWidth = (imgTemplate != null) ? imgTemplate[0].length : cache.getBand().getWidth();
+		for (int level = 1; level <= numLevels; level++)
+		{
+			if (levelHeight/2 < PYRAMID_MIN_SIZE || levelWidth/2 < PYRAMID_MIN_SIZE)
+				break;
+			
+			levelTemplate = (levelTemplate != null) ? downsampleImage(levelTemplate, 2) : downsampleImage(cache.getBand(), 2);
+			levelHeight = levelTemplate.length;
+			levelWidth = levelTemplate[0].length;
+			vecLevels.add(levelTemplate);
+		}
+		
+		int top = vecLevels.size()-1;
+		if (top == 0)
+		{
+			//too small to downsample
+			return (int)detectThresholdExhaustive(imgTemplate, img, h, w, deltaThresh, 0, 255, cache, frame, pb);
+		}
+		
+		// score the full range at the coarsest level
+		int[][] levelImg = new int[levelTemplate.length][levelTemplate[0].length];
+		ThresholdScoreCache levelCache = new ThresholdScoreCache(h, w);
+		int threshMin = -1;
+		double stdDevMin = Double.POSITIVE_INFINITY;
+		int numSteps = 255/deltaThresh;
+		
+		for (int i = 1; i <= numSteps; i++)
+		{
+			int threshCurr = i*deltaThresh;
+			double stdDevCurrent = scoreThreshold(levelTemplate, levelImg, threshCurr, levelCache);
+			
+			if (stdDevCurrent < stdDevMin)
+			{
+				stdDevMin = stdDevCurrent;
+				threshMin = threshCurr;
+			}
+			
+			pb.setValue( (int)Math.round( (double)i*70/numSteps) );
+			if (frame.getCancelled())
+				return -1;
+		}
+		
+		System.err.println("Coarse threshold (level " + top + ") is " + threshMin);
+		
+		if (threshMin < 0)
+		{
+			//nothing useful at the coarse level, fall back to a full resolution search
+			return (int)detectThresholdExhaustive(imgTemplate, img, h, w, deltaThresh, 0, 255, cache, frame, pb);
+		}
+		
+		// refine towards full resolution
+		for (int level = top-1; level >= 0; level--)
+		{
+			levelTemplate = (int[][])vecLevels.get(level);
+			if (level == 0)
+			{
+				levelImg = img;
+				levelCache = cache;
+			} else
+			{
+				levelImg = new int[levelTemplate.length][levelTemplate[0].length];
+				levelCache = new ThresholdScoreCache(h, w);
+			}
+			
+			threshMin = refineThreshold(levelTemplate, levelImg, threshMin, deltaThresh, 0, levelCache, frame);
+			if (threshMin < 0)
+				return -1;
+			
+			pb.setValue( 70 + (int)Math.round( (double)(top-level)*30/top) );
+		}
+		pb.setValue(100);
+		
+		return threshMin;
+	}
+	
+	/**
+	* Detects the threshold of an image starting from a predicted value, e.g. the threshold
+	* of the previous images in a batch. The search walks from the prediction for as long
+	* as the score improves, but never further than a given number of steps. If the walk
+	* reaches the edge of that window and the score still improves one step beyond it, or
+	* no usable threshold is found, the prediction is considered wrong and THRESH_REJECTED
+	* is returned so that the caller can fall back to a full search (preferably with the
+	* same cache). Ending up on the edge of the window is thereby not enough to reject
+	* an ordinary drift of the threshold.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @param	img	Grayscale image that can be modified (as int[][] matrix)
+	* @param	startValue	The predicted threshold
+	* @param	deltaThresh	The step length used for the threshold
+	* @param	maxSteps	The maximum number of steps away from the prediction
+	* @param	cache	Score cache for this image (imgTemplate and img may be null if the cache scores a band of its own)
+	* @param	frame	A (extended) frame object, which can be used to keep track of whether the run was terminated beforehand
+	* @param	pb	A progressbar object, which is used to set the progress of the algorithm
+	* @return	The best threshold value, THRESH_REJECTED if the prediction was not confirmed or -1 if the run was cancelled
+	*/
+	public static int detectThresholdWarmStart(int[][] imgTemplate, int[][] img, int startValue, int deltaThresh, int maxSteps, ThresholdScoreCache cache, JFrameExt frame, JProgressBar pb)
+	{
+		pb.setValue(0);
+		
+		int threshMin = refineThreshold(imgTemplate, img, startValue, deltaThresh, maxSteps, cache, frame);
+		if (threshMin < 0)
+			return -1;
+		
+		pb.setValue(100);
+		
+		double stdDevMin = scoreThreshold(imgTemplate, img, threshMin, cache);
+		if (Double.isInfinite(stdDevMin))
+			return THRESH_REJECTED;
+		
+		//at the edge of the window, check whether the walk would have gone on
+		if (Math.abs(threshMin - startValue) >= maxSteps*deltaThresh)
+		{
+			int threshBeyond = threshMin + ( (threshMin < startValue) ? -deltaThresh : deltaThresh );
+			if (threshBeyond > 0 && threshBeyond <= 255 &&
+				scoreThreshold(imgTemplate, img, threshBeyond, cache) < stdDevMin)
+				return THRESH_REJECTED;
+		}
+		
+		return threshMin;
+	}
+	
+	/**
+	* Walks from a threshold in steps of the step length for as long as the score improves,
+	* first downwards and, if that did not help, upwards.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @param	img	Grayscale image that can be modified (as int[][] matrix)
+	* @param	startValue	The initial threshold
+	* @param	deltaThresh	The step length used for the threshold
+	* @param	maxSteps	The maximum number of steps away from the initial threshold (0 for no limit)
+	* @param	cache	Score cache for this image (imgTemplate and img may be null if the cache scores a band of its own)
+	* @param	frame	A (extended) frame object, which can be used to keep track of whether the run was terminated beforehand
+	* @return	The best threshold value found, or -1 if the run was cancelled
+	*/
+	private static int refineThreshold(int[][] imgTemplate, int[][] img, int startValue, int deltaThresh, int maxSteps, ThresholdScoreCache cache, JFrameExt frame)
+	{
+		int threshMin = startValue;
+		double stdDevMin = scoreThreshold(imgTemplate, img, threshMin, cache);
+		
+		int[] directions = { -deltaThresh, deltaThresh };
+		for (int i = 0; i < directions.length; i++)
+		{
+			boolean moved = false;
+			int threshCurr = threshMin + directions[i];
+			
+			while (threshCurr > 0 && threshCurr <= 255 &&
+				(maxSteps <= 0 || Math.abs(threshCurr - startValue) <= maxSteps*deltaThresh) )
+			{
+				double stdDevCurrent = scoreThreshold(imgTemplate, img, threshCurr, cache);
+				if (frame.getCancelled())
+					return -1;
+				
+				if (stdDevCurrent < stdDevMin)
+				{
+					stdDevMin = stdDevCurrent;
+					threshMin = threshCurr;
+					moved = true;
+					threshCurr += directions[i];
+				} else
+				{
+					break;
+				}
+			}
+			
+			if (moved)
+				break;
+		}
+		
+		return threshMin;
+	}
+	
+	/**
+	* Calculates a 256-bin intensity histogram of a grayscale image.
+	* Values outside 0-255 are counted in the first or last bin.
+	*
+	* @param	img	Grayscale image (as int[][] matrix)
+	* @return	The number of pixels for each intensity
+	*/
+	public static long[] calcHistogram(int[][] img)
+	{
+		long[] hist = new long[256];
+		
+		for (int h = 0; h < img.length; h++)
 		{
-			System.err.println("StdDev at current position (" + threshCurr + ") is " + stdDevCurrent + ", fracZero is " + fracZeroComp);
-			System.err.println("StdDev at lower position (" + (threshCurr-deltaThresh) + ") is " + stdDevLower + ", fracZero is " + fracZeroLowerComp);
-			System.err.println("StdDev at upper position (" + (threshCurr+deltaThresh) + ") is " + stdDevUpper + ", fracZero is " + fracZeroUpperComp);
+			int[] row = img[h];
+			for (int w = 0; w < row.length; w++)
+			{
+				int val = row[w];
+				if (val < 0)
+					val = 0;
+				else if (val > 255)
+					val = 255;
+				hist[val]++;
+			}
 		}
 		
+		return hist;
+	}
+	
+	/**
+	* Calculates a 256-bin intensity histogram of a grayscale image, see calcHistogram(int[][]).
+	*
+	* @param	img	Grayscale image
+	* @return	The number of pixels for each intensity
+	*/
+	public static long[] calcHistogram(FlatImage img)
+	{
+		long[] hist = new long[256];
+		int[] row = new int[img.getWidth()];
 		
-		boolean keepSearching = true;
-		boolean lower = false;
-		
-		if ( stdDevLower < stdDevCurrent || stdDevUpper < stdDevCurrent || stdDevCurrent < GrayscaleImageEdit.STDDEV_MIN)
+		for (int h = 0; h < img.getHeight(); h++)
 		{
-
-			if ( stdDevLower < stdDevCurrent && stdDevUpper < stdDevCurrent)
-				lower = (stdDevLower < stdDevUpper);
-			else if ( stdDevLower < stdDevCurrent )
-				lower = true;
-			
-			if (lower)
-			{
-				threshDirection = -deltaThresh;
-				stdDevMin=stdDevLower;
-				
-				//if (verbose)
-				//	System.err.println("Threshold will be iteratively decreased...");
-					
-			} else
+			img.getRow(h, row);
+			for (int w = 0; w < row.length; w++)
 			{
-				stdDevMin=stdDevUpper;
-				
-				//if (verbose)
-				//	System.err.println("Threshold will be iteratively increased...");
+				int val = row[w];
+				if (val < 0)
+					val = 0;
+				else if (val > 255)
+					val = 255;
+				hist[val]++;
 			}
-			threshCurr += threshDirection; //move to the next (best) place, greedy style
-			threshMin = threshCurr;
-			
-		} else
+		}
+		
+		return hist;
+	}
+	
+	/**
+	* Detects a threshold using Otsu's method, i.e. the threshold that maximizes the
+	* between-class variance of the pixels at or below the threshold and those above it.
+	* Only the histogram of the image is used, which makes this much faster than the
+	* stddev based searches.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @return	The threshold (pixels <= threshold are considered objects)
+	*/
+	public static int detectThresholdOtsu(int[][] imgTemplate)
+	{
+		return detectThresholdOtsu( calcHistogram(imgTemplate) );
+	}
+	
+	/**
+	* Detects a threshold from a histogram using Otsu's method.
+	*
+	* @param	hist	A 256-bin histogram
+	* @return	The threshold (pixels <= threshold are considered objects)
+	*/
+	public static int detectThresholdOtsu(long[] hist)
+	{
+		double total = 0;
+		double sumAll = 0;
+		for (int i = 0; i < hist.length; i++)
 		{
-			keepSearching = false;
-			//if (verbose)
-			//	System.err.println("Stopped at initial position with threshold " + stdDevCurrent);
+			total += hist[i];
+			sumAll += (double)i*hist[i];
 		}
 		
+		double weightLower = 0;
+		double sumLower = 0;
+		double varMax = -1;
+		int threshMax = 0;
 		
-		while(keepSearching)
+		for (int t = 0; t < hist.length-1; t++)
 		{
-			//if (verbose)
-			//	System.err.print("Threshold is now " + threshCurr);
-			
-			threshCurr += threshDirection;
+			weightLower += hist[t];
+			sumLower += (double)t*hist[t];
 			
-			if (threshCurr <= 0 || threshCurr > 255)
-				keepSearching = false;
-			else
-			{
+			double weightUpper = total - weightLower;
+			if (weightLower == 0)
+				continue;
+			if (weightUpper == 0)
+				break;
 			
-				//if (verbose)
-				//	System.err.println(", searching with threshold " + threshCurr);
-				
-				thresholdImage(imgTemplate, img, threshCurr);
-				stdDevCurrent = MiscMath.mean( GrayscaleImageEdit.calcStds( img , h, w) );
-				
-				fracZero = countFractionZero(img);
-				fracZeroComp = (fracZero < 0.5) ? fracZero : (1-fracZero); //this value is always < 0.5 and a measure of relative composition zero vs non-zero
-				if ( Math.abs(fracZeroComp) < EPS || Math.abs(stdDevCurrent) < EPS)
-					stdDevCurrent = Double.POSITIVE_INFINITY;
-				
-				if (frame.getCancelled())
-					return -1;
-				
-				// we can't know when we reach the goal so just show the user that something is happening
-				pb.setValue( (int)(pb.getValue() + (100.0 - pb.getValue())/2.0) );
-				
-				//if (verbose)
-				//	System.err.println("StdDev at current position is " + stdDevCurrent);
-				
-				if (stdDevCurrent < stdDevMin)
-				{
-					if (fracZeroComp < GrayscaleImageEdit.ZERO_REL_MIN)
-					{
-						//we may have a too low stddev, suggesting the entire image is only one color
-						threshDirection = (lower) ? deltaThresh : -deltaThresh;
-						threshCurr += threshDirection;
-						//System.err.println("Changing direction, image may be truncated...");
-					} else
-					{
-						stdDevMin = stdDevCurrent;
-						threshMin = threshCurr;
-					}
-				} else
-				{
-					keepSearching = false;
-				}
+			double meanLower = sumLower/weightLower;
+			double meanUpper = (sumAll - sumLower)/weightUpper;
+			double varBetween = weightLower*weightUpper*(meanLower - meanUpper)*(meanLower - meanUpper);
 			
+			if (varBetween > varMax)
+			{
+				varMax = varBetween;
+				threshMax = t;
 			}
+		}
+		
+		return threshMax;
+	}
+	
+	/**
+	* Detects a threshold using the triangle method. A line is drawn from the histogram peak
+	* to the far end of the longest tail, and the threshold is placed at the intensity where
+	* the histogram is farthest below that line. This suits images with one dominant
+	* (background) peak, such as scans of leaves on a white background.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix)
+	* @return	The threshold (pixels <= threshold are considered objects)
+	*/
+	public static int detectThresholdTriangle(int[][] imgTemplate)
+	{
+		return detectThresholdTriangle( calcHistogram(imgTemplate) );
+	}
+	
+	/**
+	* Detects a threshold from a histogram using the triangle method.
+	*
+	* @param	hist	A 256-bin histogram
+	* @return	The threshold (pixels <= threshold are considered objects)
+	*/
+	public static int detectThresholdTriangle(long[] hist)
+	{
+		int first = 0;
+		while (first < hist.length-1 && hist[first] == 0)
+			first++;
+		int last = hist.length-1;
+		while (last > 0 && hist[last] == 0)
+			last--;
+		
+		int peak = first;
+		for (int i = first; i <= last; i++)
+			if (hist[i] > hist[peak])
+				peak = i;
+		
+		// the tail end is taken just outside the last non-empty bin
+		boolean tailLower = (peak - first) > (last - peak);
+		int end = tailLower ? Math.max(first-1, 0) : Math.min(last+1, hist.length-1);
+		if (end == peak)
+			return peak;
+		
+		// distance (up to a constant factor) from each bin to the line between (end, 0) and (peak, hist[peak])
+		double dx = peak - end;
+		double dy = hist[peak];
+		double distMax = -1;
+		int threshMax = peak;
+		
+		int from = Math.min(end, peak);
+		int to = Math.max(end, peak);
+		for (int i = from; i <= to; i++)
+		{
+			double dist = dy*(i - end) - dx*hist[i];
+			if (!tailLower)
+				dist = -dist;
 			
+			if (dist > distMax)
+			{
+				distMax = dist;
+				threshMax = i;
+			}
 		}
-		pb.setValue(100);
 		
-		return threshMin;
+		return threshMax;
 	}
 	
 	/**
@@ -786,16 +1488,29 @@ public class GrayscaleImageEdit
 	*		(in arbitrary order)
 	*/
 	public static int[][] segmentBinaryImage(byte[][] img, boolean use8)
+	{
+		return segmentBinaryImage(img, use8, new int[img.length][img[0].length]);
+	}
+	
+	/**
+	* Segments a binary image, using either 8- or 4-connectivity
+	*
+	* @param	img	Binary image (as byte[][] matrix), where elements are
+	*			either 0 or not 0.
+	* @param	use8	if true, 8-connectivity will be used,
+	*		otherwise 4-connectivity will be used
+	* @param	seg	Matrix of the same dimension to store the result in (e.g. from an ImageBufferPool),
+	*		its previous content is overwritten
+	* @return	seg, with objects characterized by integer numbers (in arbitrary order)
+	*/
+	public static int[][] segmentBinaryImage(byte[][] img, boolean use8, int[][] seg)
 	{
 		int imgWidth = img[0].length;
 		int imgHeight = img.length;
 
-		//construct segmention object matrix and reset
-		int[][] seg = new int[imgHeight][imgWidth];
-		
+		//reset segmention object matrix
 		for (int y = 0; y < imgHeight; y++)
-			for (int x = 0; x < imgWidth; x++)
-			 seg[y][x] = 0;
+			Arrays.fill(seg[y], 0);
 
 
 		//now start segmentation
@@ -815,6 +1530,77 @@ public class GrayscaleImageEdit
 		return seg;
 	}
 	
+	/**
+	* Segments a binary image, using either 8- or 4-connectivity. The objects get the
+	* same numbers as with segmentBinaryImage(byte[][], boolean), but each object is
+	* filled from a stack instead of by recursion.
+	*
+	* @param	img	Binary image, where elements are either 0 or not 0
+	* @param	use8	if true, 8-connectivity will be used,
+	*		otherwise 4-connectivity will be used
+	* @param	seg	Image of the same size to store the result in, its previous content is
+	*		overwritten. Typically of TYPE_BYTE; it is widened when there are more objects
+	*		than its element type holds (an off-heap seg is then replaced by an off-heap copy).
+	* @return	seg (or a widened copy of it), with objects characterized by integer numbers
+	*/
+	public static FlatImage segmentBinaryImage(FlatImage img, boolean use8, FlatImage seg) throws IOException
+	{
+		int imgWidth = img.getWidth();
+		int imgHeight = img.getHeight();
+		int numPixels = imgWidth*imgHeight;
+		byte[] data = img.getByteData();
+		
+		seg.clear();
+		
+		int[] stack = new int[1024];
+		int objId = 1;
+		for (int start = 0; start < numPixels; start++)
+		{
+			boolean set = (data != null) ? (data[start] != 0) : (img.get(start) != 0);
+			if (!set || seg.get(start) != 0)
+				continue;
+			
+			if (objId > seg.getMaxValue())
+				seg = seg.widen(seg.getType()+1);
+			
+			System.err.println("Starting segmentation of object at (" + (start % imgWidth) + "," + (start / imgWidth) + ")...");
+			seg.set(start, objId);
+			int numStack = 0;
+			stack[numStack++] = start;
+			while (numStack > 0)
+			{
+				int ind = stack[--numStack];
+				int x = ind % imgWidth;
+				int y = ind / imgWidth;
+				
+				if (numStack + 8 > stack.length)
+				{
+					int[] newStack = new int[stack.length*2];
+					System.arraycopy(stack, 0, newStack, 0, numStack);
+					stack = newStack;
+				}
+				
+				for (int yy = Math.max(y-1, 0); yy <= Math.min(y+1, imgHeight-1); yy++)
+					for (int xx = Math.max(x-1, 0); xx <= Math.min(x+1, imgWidth-1); xx++)
+					{
+						if (!use8 && xx != x && yy != y)
+							continue;
+						
+						int n = yy*imgWidth + xx;
+						set = (data != null) ? (data[n] != 0) : (img.get(n) != 0);
+						if (set && seg.get(n) == 0)
+						{
+							seg.set(n, objId);
+							stack[numStack++] = n;
+						}
+					}
+			}
+			objId++;
+		}
+		
+		return seg;
+	}
+	
 	/**
 	* Inverts an images
 	*
@@ -915,6 +1701,37 @@ public class GrayscaleImageEdit
 		return v;
 	}
 	
+	/**
+	* Generates an object containing the coordinates of each object, see fetchSegObjCoord(int[][]).
+	* 
+	* @param	seg	Segmentation image
+	* @return	A Vector of Vector of Points of coordinates
+	*/
+	public static Vector fetchSegObjCoord(FlatImage seg)
+	{
+		Vector v = new Vector();
+		int imgWidth = seg.getWidth();
+		int imgHeight = seg.getHeight();
+		
+		int maxObjId = 0;
+		int ind = 0;
+		for (int y = 0; y < imgHeight; y++)
+			for (int x = 0; x < imgWidth; x++, ind++)
+			{
+				int objId = seg.get(ind);
+				if (objId == 0)
+					continue;
+				
+				//construct empty vector objects
+				for (; maxObjId < objId; maxObjId++)
+					v.add( new Vector() );
+				
+				((Vector)v.get(objId-1)).add( new Point(x,y) );
+			}
+	
+		return v;
+	}
+	
 	/**
 	* Removes border pixels from a segmentation images
 	* 
@@ -923,13 +1740,21 @@ public class GrayscaleImageEdit
 	*/
 	public static int[][] removeBorderPixels(Vector vecBorder, int[][] seg)
 	{
-		int[][] segNew = new int[seg.length][seg[0].length];
-		
+		return removeBorderPixels(vecBorder, seg, new int[seg.length][seg[0].length]);
+	}
+	
+	/**
+	* Copies a segmentation matrix, with the border pixels removed
+	*
+	* @param	vecBorder	Vector of Vector of border Points
+	* @param	seg	The segmentation matrix
+	* @param	segNew	Matrix of the same dimension to store the copy in
+	* @return	segNew
+	*/
+	public static int[][] removeBorderPixels(Vector vecBorder, int[][] seg, int[][] segNew)
+	{
 		for (int y = 0; y < segNew.length; y++)
-			for (int x = 0; x < segNew[0].length; x++)
-			{
-				segNew[y][x] = seg[y][x];
-			}
+			System.arraycopy(seg[y], 0, segNew[y], 0, segNew[y].length);
 		
 		int x,y;
 		Point p;
@@ -949,6 +1774,31 @@ public class GrayscaleImageEdit
 		return segNew;
 	}
 	
+	/**
+	* Copies a segmentation image into a matrix, with the border pixels removed
+	*
+	* @param	vecBorder	Vector of Vector of border Points
+	* @param	seg	The segmentation image
+	* @param	segNew	Matrix of the same dimension to store the copy in
+	* @return	segNew
+	*/
+	public static int[][] removeBorderPixels(Vector vecBorder, FlatImage seg, int[][] segNew)
+	{
+		seg.toMatrix(segNew);
+		
+		for (int i = 0; i < vecBorder.size(); i++)
+		{
+			Vector currVec = (Vector)vecBorder.get(i);
+			for (int j = 0; j < currVec.size(); j++)
+			{
+				Point p = (Point)currVec.get(j);
+				segNew[p.y][p.x] = 0; //reset
+			}
+		}
+		
+		return segNew;
+	}
+	
 	/**
 	* Calculates distance matrices between pixels for all objects (typically to be used for border pixels).
 	* Distance measure could be either 'Euclidean' or 'Manhattan'.
@@ -1021,6 +1871,93 @@ public class GrayscaleImageEdit
 		}
 	}
 	
+	/**
+	* Simplifies a border (an ordered Vector of Points) with the Douglas-Peucker algorithm,
+	* i.e. pixels on (nearly) straight runs are dropped as long as they are within 'tolerance'
+	* pixels of the chord that replaces them. Gaps in the border (consecutive pixels further
+	* apart than SQRT2) are never bridged; both pixels next to a gap are kept.
+	* 
+	* @param	vecBorder	Vector of Points (ordered border pixels)
+	* @param	tolerance	The largest allowed distance (in pixels) between a dropped pixel and the simplified border
+	* @return	The (increasing) indices of the kept pixels in the original border
+	*/
+	public static int[] simplifyBorder(Vector vecBorder, double tolerance)
+	{
+		int n = vecBorder.size();
+		if (n <= 2)
+		{
+			int[] retArr = new int[n];
+			for (int j = 0; j < n; j++)
+				retArr[j] = j;
+			return retArr;
+		}
+		
+		boolean[] keep = new boolean[n];
+		int[] stack = new int[2*n];
+		
+		int runStart = 0;
+		for (int j = 1; j <= n; j++)
+		{
+			//a run ends at the last pixel or in front of a gap
+			if (j < n && ((Point)vecBorder.get(j-1)).distance( (Point)vecBorder.get(j) ) <= (SQRT2+EPS) )
+				continue;
+			
+			int runStop = j-1;
+			keep[runStart] = true;
+			keep[runStop] = true;
+			
+			int stackSize = 0;
+			stack[stackSize++] = runStart;
+			stack[stackSize++] = runStop;
+			while (stackSize > 0)
+			{
+				int stop = stack[--stackSize];
+				int start = stack[--stackSize];
+				if (stop - start < 2)
+					continue;
+				
+				Point p1 = (Point)vecBorder.get(start);
+				Point p2 = (Point)vecBorder.get(stop);
+				double maxDist = -1.0;
+				int maxIndex = -1;
+				for (int k = (start+1); k < stop; k++)
+				{
+					Point p = (Point)vecBorder.get(k);
+					double currDist = java.awt.geom.Line2D.ptSegDist(p1.getX(), p1.getY(), p2.getX(), p2.getY(), p.getX(), p.getY());
+					if (currDist > maxDist)
+					{
+						maxDist = currDist;
+						maxIndex = k;
+					}
+				}
+				
+				if (maxDist > tolerance)
+				{
+					keep[maxIndex] = true;
+					stack[stackSize++] = start;
+					stack[stackSize++] = maxIndex;
+					stack[stackSize++] = maxIndex;
+					stack[stackSize++] = stop;
+				}
+			}
+			
+			runStart = j;
+		}
+		
+		int numKept = 0;
+		for (int j = 0; j < n; j++)
+			if (keep[j])
+				numKept++;
+		
+		int[] retArr = new int[numKept];
+		numKept = 0;
+		for (int j = 0; j < n; j++)
+			if (keep[j])
+				retArr[numKept++] = j;
+		
+		return retArr;
+	}
+	
 	
 	/**
 	* Calculates all possible pairs of pixels (j, k) that can be connected without crossing
@@ -1214,7 +2151,6 @@ public class GrayscaleImageEdit
 		return retVec;
 	}
 	
-	
 	/**
 	* Calculates the minimal contour (distance between connecting point) that can be achieved.
 	* 
@@ -1333,6 +2269,22 @@ public class GrayscaleImageEdit
 	* @return	A Vector[] containing points (of hotspots) and the corresponding indices
 	*/
 	public static Vector[] findContourHotspotsNarrow(Vector vecBorders, int[][] seg, int numNonConnPixelsThresh)
+	{
+		return findContourHotspotsNarrow(vecBorders, seg, numNonConnPixelsThresh, null);
+	}
+	
+	/**
+	* Traces a contour across the border of an object, see findContourHotspotsNarrow above.
+	* 
+	* @param	vecBorders	Vector of Vector of Pixels of border elements
+	* @param	seg	Segmentation result, should be 0 for non-object or != for object
+	* @param	numNonConnPixelsThresh	The allowed number of (consecutive) non-connectable pixels
+	*		allowed before a new hotspot is assigned.
+	* @param	timeLimit	The time allowed for the search, or null
+	* @return	A Vector[] containing points (of hotspots) and the corresponding indices,
+	*		or null if the time ran out
+	*/
+	public static Vector[] findContourHotspotsNarrow(Vector vecBorders, int[][] seg, int numNonConnPixelsThresh, TimeLimit timeLimit)
 	{
 		Vector retVecPoints = new Vector(vecBorders.size());
 		Vector retVecIndices = new Vector(vecBorders.size());
@@ -1360,6 +2312,9 @@ public class GrayscaleImageEdit
 			
 			while (currInd < stopInd )
 			{
+				if (timeLimit != null && timeLimit.isExpired())
+					return null;
+				
 				//pb.setValue( (int)Math.round( ((j+1)*100.0/(double)currVec.size())/vec.size() + i*pbStepLength ));
 				pPrev = (Point)currVec.get(currInd-1);
 				pCurr = (Point)currVec.get(currInd);
@@ -1536,6 +2491,22 @@ public class GrayscaleImageEdit
 	* @return	A Vector of Vector of Points with connecting Points.
 	*/
 	public static int[][] traceContour(int[][] seg, Vector vecBorders, Vector contourHotspotConnections, Vector contourHotspotIndices)
+	{
+		return traceContour(seg, vecBorders, contourHotspotConnections, contourHotspotIndices, null);
+	}
+	
+	/**
+	* Traces a contour surface around an object, see traceContour above.
+	* 
+	* @param	seg	The segmentation result: the original image with integers denoting object identity
+	* @param	vecBorders	Vector of Vector of Points of border pixels
+	* @param	contourHotspotConnections	Vector of Vector of Points with hot spot connection
+	* @param	contourHotspotIndices	Vector of Vector of Points with the corresponding hot spot indices
+	* @param	timeLimit	The time allowed for the trace, or null
+	* @return	The segmentation result expanded with the contour, or null if the time ran out
+	*/
+	public static int[][] traceContour(int[][] seg, Vector vecBorders, Vector contourHotspotConnections, Vector contourHotspotIndices,
+		TimeLimit timeLimit)
 	{
 		int imgWidth = seg[0].length;
 		int imgHeight = seg.length;
@@ -1547,7 +2518,28 @@ public class GrayscaleImageEdit
 			for (int x = 0; x < imgWidth; x++)
 			 retMat[y][x] = seg[y][x];
 
-		
+		return traceContourInt(retMat, vecBorders, contourHotspotConnections, contourHotspotIndices, timeLimit);
+	}
+	
+	/**
+	* Traces a contour surface around an object, see traceContour above.
+	* 
+	* @param	seg	The segmentation image: the original image with integers denoting object identity
+	* @param	vecBorders	Vector of Vector of Points of border pixels
+	* @param	contourHotspotConnections	Vector of Vector of Points with hot spot connection
+	* @param	contourHotspotIndices	Vector of Vector of Points with the corresponding hot spot indices
+	* @param	timeLimit	The time allowed for the trace, or null
+	* @return	The segmentation result expanded with the contour (as int[][] matrix), or null if the time ran out
+	*/
+	public static int[][] traceContour(FlatImage seg, Vector vecBorders, Vector contourHotspotConnections, Vector contourHotspotIndices,
+		TimeLimit timeLimit)
+	{
+		return traceContourInt(seg.toMatrix(null), vecBorders, contourHotspotConnections, contourHotspotIndices, timeLimit);
+	}
+	
+	private static int[][] traceContourInt(int[][] retMat, Vector vecBorders, Vector contourHotspotConnections, Vector contourHotspotIndices,
+		TimeLimit timeLimit)
+	{
 		for (int i = 0;  i < contourHotspotConnections.size(); i++)
 		{
 			Vector currCHSC = (Vector)contourHotspotConnections.get(i);
@@ -1575,6 +2567,9 @@ public class GrayscaleImageEdit
 						
 						for (int k = lastInd; k < currInd; k++)
 						{
+							if (timeLimit != null && timeLimit.isExpired())
+								return null;
+							
 							for (int m = (lastInd+1); m < (currInd-1); m++)
 							{
 								//draw the line between them here
@@ -2998,6 +3993,108 @@ public class GrayscaleImageEdit
 		}
 	}
 	
+	/**
+	* Fetches the border pixels of each segmentation object, see
+	* fetchSegObjCoordBorder(int[][], boolean, boolean, JFrameExt, JProgressBar).
+	* The border pixels are collected in an image with the same element type and
+	* storage as the segmentation image.
+	* 
+	* @param	seg	Segmentation image
+	* @param	use8	If true, eight-connectivity will be used, otherwise four-connectivity
+	* @param	sortNeighbors	If true, the neighboring pixels will be sorted
+	*					so that they are adjacent in the Vector
+	* @param	frame 	A frame object, used to keep track of whether user cancelled progress
+	* @param	pb	A progressbar used to display the progress of the function
+	* @return	A Vector[2] of Vector of Points of coordinates
+	*/
+	public static Vector[] fetchSegObjCoordBorder(FlatImage seg, boolean use8, boolean sortNeighbors, JFrameExt frame, JProgressBar pb) throws IOException
+	{
+		if (pb != null)
+			pb.setValue(0);
+		
+		Vector v[] = new Vector[2];
+		v[0] = new Vector(); //border pixels
+		v[1] = new Vector(); //border break points, if any
+		
+		int imgWidth = seg.getWidth();
+		int imgHeight = seg.getHeight();
+		
+		FlatImage segTemp = new FlatImage(imgWidth, imgHeight, seg.getType(), seg.getStorage());
+		try
+		{
+			//border pixels are object pixels next to a background pixel
+			int ind = 0;
+			for (int y = 0; y < imgHeight; y++)
+				for (int x = 0; x < imgWidth; x++, ind++)
+				{
+					int objId = seg.get(ind);
+					if (objId == 0)
+						continue;
+					
+					boolean borderPixel = ( ( x > 0 && seg.get(ind-1) == 0) || ( x < (imgWidth-1) && seg.get(ind+1) == 0) ||
+											( y > 0 && seg.get(ind-imgWidth) == 0) || ( y < (imgHeight-1) && seg.get(ind+imgWidth) == 0) );
+					
+					if (use8 && !borderPixel)
+						borderPixel = ( ( x > 0 && y > 0 &&  seg.get(ind-imgWidth-1) == 0) ||
+								( x < (imgWidth-1) && y < (imgHeight-1) &&  seg.get(ind+imgWidth+1) == 0) ||
+								( x > 0 && y < (imgHeight-1) &&  seg.get(ind+imgWidth-1) == 0) ||
+								( x < (imgWidth-1) && y > 0 &&  seg.get(ind-imgWidth+1) == 0) );
+					
+					if (borderPixel)
+						segTemp.set(ind, objId);
+				}
+			
+			//make object pixels that are completely surrounded by borders into borders themselves
+			int numAdded = 0;
+			ind = 0;
+			for (int y = 0; y < imgHeight; y++)
+				for (int x = 0; x < imgWidth; x++, ind++)
+				{
+					if (seg.get(ind) == 0 || segTemp.get(ind) != 0)
+						continue;
+					
+					boolean hasOnlyBorderNeighbors = ( ( x > 0 && (segTemp.get(ind-1) != 0) &&
+						( x < (imgWidth-1) && (segTemp.get(ind+1) != 0) ) ) &&
+						( y > 0 && (segTemp.get(ind-imgWidth) != 0) )  &&
+						( y < (imgHeight-1) && (segTemp.get(ind+imgWidth) != 0)) );
+					
+					if (use8 && hasOnlyBorderNeighbors)
+						hasOnlyBorderNeighbors = ( ( x > 0 && y > 0 &&  segTemp.get(ind-imgWidth-1) != 0) &&
+								( x < (imgWidth-1) && y < (imgHeight-1) &&  segTemp.get(ind+imgWidth+1) != 0) &&
+								( x > 0 && y < (imgHeight-1) &&  segTemp.get(ind+imgWidth-1) != 0) &&
+								( x < (imgWidth-1) && y > 0 &&  segTemp.get(ind-imgWidth+1) != 0) );
+					
+					if (hasOnlyBorderNeighbors)
+					{
+						numAdded++;
+						segTemp.set(ind, seg.get(ind));
+					}
+				}
+			System.err.println("Added " + numAdded + " entries where object pixels only border to border pixels");
+			
+			//convert the border image to vectors
+			v[0] = fetchSegObjCoord(segTemp);
+		} finally
+		{
+			segTemp.dispose();
+		}
+		
+		if (pb != null)
+			pb.setValue(33);
+		
+		if ( !(frame != null && frame.getCancelled()) )
+		{
+			if (sortNeighbors)
+			{
+				v = setBordersAsNeighbors(v[0], frame, pb);
+			}
+			return v;
+		} else
+		{
+			return null;
+		}
+	}
+	
 	/**
 	* Makes sure that the border pixels are neighbors so that the border line can be traced.
 	* Also separates the borders into separate pieces as Vectors, if they are not connected
@@ -3393,8 +4490,7 @@ public class GrayscaleImageEdit
 		int maxObjId=0;
 		
 		for (int y = 0; y < imgHeight; y++)
-			for (int x = 0; x < imgWidth; x++)
-				img[y][x] = 0;
+			Arrays.fill(img[y], 0);
 		
 		int x,y;
 		
@@ -3423,6 +4519,33 @@ public class GrayscaleImageEdit
 	* @return	A Vector[2] of Vector[2] (vertical/horizontal) of Vector of Point[2] containing start and end of the lines
 	*/
 	public static Vector[] fetchHorizVertLines(int[][] imgSeg, Vector vec, Vector vecBorder, boolean forceOrtho, boolean forceHorizVert)
+	{
+		return fetchHorizVertLines(imgSeg, null, vec, vecBorder, forceOrtho, forceHorizVert);
+	}
+	
+	/**
+	* Contains a calculation of lines crossing the objects and their intersections, see above.
+	* 
+	* @param	imgSeg	The segmentation image
+	* @param	vec	Vector of Vector of Points from fetchSegObjCoord or similar
+	* @param	vecBorder Vector of Vector of Points containing only border elements
+	* @param	forceOrtho	If true, the distance lines (measuring width and height) will be ~perpendicular. If false, they will form the longest respective distances
+	* @param	forceHorizVert	If true, the distance lines will always be horizontal and vertical. If false, they will form the longest respective distances
+	* @return	A Vector[2] of Vector[2] (vertical/horizontal) of Vector of Point[2] containing start and end of the lines
+	*/
+	public static Vector[] fetchHorizVertLines(FlatImage imgSeg, Vector vec, Vector vecBorder, boolean forceOrtho, boolean forceHorizVert)
+	{
+		return fetchHorizVertLines(null, imgSeg, vec, vecBorder, forceOrtho, forceHorizVert);
+	}
+	
+	/**
+	* Calculates the lines of fetchHorizVertLines on either of the two image types, without
+	* converting between them.
+	* 
+	* @param	segMat	The segmentation image as a matrix, or null if segFlat is given
+	* @param	segFlat	The segmentation image, used if segMat is null
+	*/
+	private static Vector[] fetchHorizVertLines(int[][] segMat, FlatImage segFlat, Vector vec, Vector vecBorder, boolean forceOrtho, boolean forceHorizVert)
 	{
 		
 		int x,y;
@@ -3580,7 +4703,7 @@ public class GrayscaleImageEdit
 				
 			//
 			Point2D.Double pointIntersectCenter = MiscMath.lineIntersection(lineHorizCenter, lineVertCenter);
-			if (!GrayscaleImageEdit.pointIsWithinObject(imgSeg, (i+1), pointIntersectCenter) )
+			if (!GrayscaleImageEdit.pointIsWithinObject(segMat, segFlat, (i+1), pointIntersectCenter) )
 				pointIntersectCenter = MiscMath.findPointOnLine(lineHorizCenter, 0.5);
 			
 			//System.err.println("Horizontal line goes from " + lineHorizCenter[0] + " --> " + lineHorizCenter[1]);
@@ -3589,7 +4712,7 @@ public class GrayscaleImageEdit
 			
 			
 			//orthogonal to the horizontal line
-			Point[] lineHorizOrtho = GrayscaleImageEdit.findPerpendicularLineFast(imgSeg, (i+1), pointIntersectCenter, lineHorizCenter );
+			Point[] lineHorizOrtho = GrayscaleImageEdit.findPerpendicularLineFast(segMat, segFlat, (i+1), pointIntersectCenter, lineHorizCenter );
 			//orthogonal to the vertical line
 			
 			//System.err.println("Perpendicular line goes from " + lineHorizOrtho[0] + " --> " + lineHorizOrtho[1]);
@@ -3604,7 +4727,7 @@ public class GrayscaleImageEdit
 			} else
 			{
 				
-				lineVertOrtho = GrayscaleImageEdit.findPerpendicularLineFast(imgSeg, (i+1), pointIntersectCenter, lineVertCenter );
+				lineVertOrtho = GrayscaleImageEdit.findPerpendicularLineFast(segMat, segFlat, (i+1), pointIntersectCenter, lineVertCenter );
 			}
 			
 			Vector vecCurrVertLines = new Vector();
@@ -3621,7 +4744,7 @@ public class GrayscaleImageEdit
 				pointIntersect = MiscMath.findPointOnLine(lineVertCenter, adjustments[k]);
 				//System.err.println("Horiz. coordinate at adjust " + adjustments[k] + " is " + pointIntersect );
 				Point[] linePerpHoriz;
-				linePerpHoriz = GrayscaleImageEdit.findPerpendicularLineFast(imgSeg, (i+1), pointIntersect, lineHorizOrtho);
+				linePerpHoriz = GrayscaleImageEdit.findPerpendicularLineFast(segMat, segFlat, (i+1), pointIntersect, lineHorizOrtho);
 				/* swap end-points for base to tip consistency */
 				Point tmp = linePerpHoriz[0]; 
 				linePerpHoriz[0] = linePerpHoriz[1];
@@ -3630,7 +4753,7 @@ public class GrayscaleImageEdit
 				
 				pointIntersect = MiscMath.findPointOnLine(lineHorizCenter, adjustments[k]);
 				Point[] linePerpVert;
-				linePerpVert = GrayscaleImageEdit.findPerpendicularLineFast(imgSeg, (i+1), pointIntersect, lineVertOrtho);
+				linePerpVert = GrayscaleImageEdit.findPerpendicularLineFast(segMat, segFlat, (i+1), pointIntersect, lineVertOrtho);
 				vecCurrVertLines.add(linePerpVert);
 			
 			}
@@ -3935,27 +5058,46 @@ public class GrayscaleImageEdit
 				v1 = (Vector)vecCurrContour.get(j);
 				v2 = (Vector)vecCurrContour.get(k);
 					
-				//find the two closest spots in the two neighboring hotspots
+				//find the two most distant, connectable spots in the two neighboring hotspots;
+				// the pairs are tested in order of decreasing distance, so the (expensive)
+				// connectability test is only needed until the first connectable pair
 				int index1 = -1, index2 = -1;
-				double maxDist = Double.NEGATIVE_INFINITY;
-				double currDist;
+				int numPairs = v1.size()*v2.size();
+				final double[] pairDists = new double[numPairs];
+				Integer[] order = new Integer[numPairs];
 				for (int m = 0; m < v1.size(); m++)
+				{
+					p1 = (Point)v1.get(m);
 					for (int n = 0; n < v2.size(); n++)
 					{
-						p1 = (Point)v1.get(m);
 						p2 =  (Point)v2.get(n);
-						if (pixelsConnectable(segMat, p1, p2, false) )
-						{
-						
-							currDist = p1.distance(p2);
-							if (currDist > maxDist)
-							{
-								maxDist = currDist;
-								index1 = m;
-								index2 = n;
-							}
-						}
+						pairDists[m*v2.size() + n] = p1.distance(p2);
+						order[m*v2.size() + n] = new Integer(m*v2.size() + n);
+					}
+				}
+				
+				//equal distances keep their (m, n) order, Arrays.sort is stable
+				Arrays.sort(order, new java.util.Comparator()
+				{
+					public int compare(Object o1, Object o2)
+					{
+						double d1 = pairDists[ ((Integer)o1).intValue() ];
+						double d2 = pairDists[ ((Integer)o2).intValue() ];
+						return (d1 > d2) ? -1 : ((d1 < d2) ? 1 : 0);
+					}
+				});
+				
+				for (int m = 0; m < numPairs && index1 < 0; m++)
+				{
+					int currPair = order[m].intValue();
+					p1 = (Point)v1.get( currPair / v2.size() );
+					p2 = (Point)v2.get( currPair % v2.size() );
+					if (pixelsConnectable(segMat, p1, p2, false) )
+					{
+						index1 = currPair / v2.size();
+						index2 = currPair % v2.size();
 					}
+				}
 				
 				Point[] pVec = new Point[2];
 				
@@ -3991,6 +5133,24 @@ public class GrayscaleImageEdit
 	* @return	A Vector of Vector of Point[2]s describing connecting lines for the indents for each object
 	*/
 	public static Vector fetchIndentDepths(Vector vecContourHotspotConnections, Vector vecContourHotspotIndices, Vector vecBorders, int[][] segMat, JProgressBar pb)
+	{
+		return fetchIndentDepths(vecContourHotspotConnections, vecContourHotspotIndices, vecBorders, segMat, pb, null);
+	}
+	
+	/**
+	* Fetches the indent depths as connecting lines, see fetchIndentDepths above.
+	* 
+	* @param	vecContourHotspotConnections	Vector of Vector of Point[2]s containing connections btw contour hotspot elements
+	* @param	vecContourHotspotIndices	Vector of Vector of Integer containing the corresponding indices
+	* @param	vecBorders	Vector of Vector of Points containing border elements for object
+	* @param	segMat	The segmentation matrix
+	* @param	pb	Progress bar object, to display progress of the algorithm
+	* @param	timeLimit	The time allowed for the search, or null
+	* @return	A Vector of Vector of Point[2]s describing connecting lines for the indents for each object,
+	*		or null if the time ran out
+	*/
+	public static Vector fetchIndentDepths(Vector vecContourHotspotConnections, Vector vecContourHotspotIndices, Vector vecBorders, int[][] segMat, JProgressBar pb,
+		TimeLimit timeLimit)
 	{
 		if (pb != null)
 			pb.setValue(0);
@@ -4046,6 +5206,9 @@ public class GrayscaleImageEdit
 						
 						for (int k = 0; k < vecPossibleBorders.size(); k++)
 						{
+							if (timeLimit != null && timeLimit.isExpired())
+								return null;
+							
 							double minDistCurr = Double.POSITIVE_INFINITY;
 							int minDistCurrIndex = -1;
 							double currDist;
@@ -4180,6 +5343,169 @@ public class GrayscaleImageEdit
 	}
 	
 	
+	/**
+	* Approximates the indents (serrations) of each object from its convex hull: the hull vertices
+	* act as contour hotspots and each part of the border between two consecutive hull vertices
+	* is an indent, with the hull edge as its width and the border pixel furthest from the edge as
+	* its depth. Runs in O(n log n) per object, compared to the connectability tests of
+	* findContourHotspotsNarrow/fetchIndentDepths, at the cost of only finding indents that open
+	* towards the hull. The results have the same format as the full pipeline, i.e. they can be
+	* passed directly to calcSegStats; the hull is closed by repeating the first vertex (with its
+	* index offset by the border length).
+	* 
+	* @param	vecBorders	Vector of Vector of Points containing (ordered) border elements for each object
+	* @param	minDepth	Shallower indents (in pixels) are only reported as gaps between hull vertices
+	* @return	A Vector[3] with contour hotspots (Vector of Vector of Points), their border indices
+	*		(Vector of Vector of Integer) and the indent depths (Vector of Vector of Point[2]s)
+	*/
+	public static Vector[] fetchConvexHullIndents(Vector vecBorders, double minDepth)
+	{
+		Vector[] retVec = new Vector[3];
+		retVec[0] = new Vector(vecBorders.size());
+		retVec[1] = new Vector(vecBorders.size());
+		retVec[2] = new Vector(vecBorders.size());
+		
+		for (int i = 0; i < vecBorders.size(); i++)
+		{
+			Vector vecCurrBorder = (Vector)vecBorders.get(i);
+			int[] hull = convexHullIndices(vecCurrBorder);
+			Arrays.sort(hull); //walk the hull in border order
+			
+			Vector vecCurrHotspots = new Vector(hull.length+1);
+			Vector vecCurrIndices = new Vector(hull.length+1);
+			Vector vecCurrIndents = new Vector(hull.length);
+			
+			for (int j = 0; j < hull.length; j++)
+			{
+				vecCurrHotspots.add( new Point( (Point)vecCurrBorder.get(hull[j]) ) );
+				vecCurrIndices.add( new Integer(hull[j]) );
+			}
+			
+			if (hull.length > 1)
+			{
+				vecCurrHotspots.add( new Point( (Point)vecCurrBorder.get(hull[0]) ) );
+				vecCurrIndices.add( new Integer(hull[0] + vecCurrBorder.size()) );
+			}
+			
+			for (int j = 1; j < vecCurrHotspots.size(); j++)
+			{
+				int lastInd = ( (Integer)vecCurrIndices.get(j-1) ).intValue();
+				int currInd = ( (Integer)vecCurrIndices.get(j) ).intValue();
+				Point p1 = (Point)vecCurrHotspots.get(j-1);
+				Point p2 = (Point)vecCurrHotspots.get(j);
+				
+				//find the border pixel furthest away from the hull edge
+				double maxDist = Double.NEGATIVE_INFINITY;
+				int maxDistIndex = -1;
+				for (int k = lastInd+1; k < currInd; k++)
+				{
+					Point p = (Point)vecCurrBorder.get(k % vecCurrBorder.size());
+					double currDist = java.awt.geom.Line2D.ptSegDist(p1.getX(), p1.getY(), p2.getX(), p2.getY(), p.getX(), p.getY());
+					if (currDist > maxDist)
+					{
+						maxDist = currDist;
+						maxDistIndex = k % vecCurrBorder.size();
+					}
+				}
+				
+				//pixel steps along a slanted hull edge are not indents
+				if (maxDistIndex >= 0 && maxDist > Math.max(minDepth, INDENT_DEPTH_THRESH) )
+				{
+					//project the deepest pixel onto the hull edge
+					Point p = (Point)vecCurrBorder.get(maxDistIndex);
+					double dx = p2.getX() - p1.getX(), dy = p2.getY() - p1.getY();
+					double len2 = dx*dx + dy*dy;
+					double t = (len2 > EPS) ? ( (p.getX()-p1.getX())*dx + (p.getY()-p1.getY())*dy )/len2 : 0.0;
+					t = Math.max(0.0, Math.min(1.0, t));
+					
+					Point[] pVec = new Point[2];
+					pVec[0] = new Point(p);
+					pVec[1] = new Point( (int)Math.round(p1.getX() + t*dx), (int)Math.round(p1.getY() + t*dy) );
+					vecCurrIndents.add(pVec);
+				} else
+				{
+					vecCurrIndents.add(null); //no indent between these hull vertices
+				}
+			}
+			
+			retVec[0].add(vecCurrHotspots);
+			retVec[1].add(vecCurrIndices);
+			retVec[2].add(vecCurrIndents);
+		}
+		
+		return retVec;
+	}
+	
+	/**
+	* Calculates the convex hull of a set of points (Andrew's monotone chain), skipping
+	* collinear points.
+	* 
+	* @param	vecPoints	Vector of Points
+	* @return	The indices of the hull vertices in vecPoints, in counter-clockwise order
+	*/
+	public static int[] convexHullIndices(Vector vecPoints)
+	{
+		final Vector vec = vecPoints;
+		int n = vec.size();
+		Integer[] order = new Integer[n];
+		for (int j = 0; j < n; j++)
+			order[j] = new Integer(j);
+		
+		Arrays.sort(order, new java.util.Comparator()
+		{
+			public int compare(Object o1, Object o2)
+			{
+				Point p1 = (Point)vec.get( ((Integer)o1).intValue() );
+				Point p2 = (Point)vec.get( ((Integer)o2).intValue() );
+				if (p1.x != p2.x)
+					return (p1.x < p2.x) ? -1 : 1;
+				return (p1.y < p2.y) ? -1 : ((p1.y > p2.y) ? 1 : 0);
+			}
+		});
+		
+		//drop duplicate pixels, keep the first occurrence
+		int numUnique = 0;
+		for (int j = 0; j < n; j++)
+		{
+			if (numUnique == 0 || !vec.get( order[j].intValue() ).equals( vec.get( order[numUnique-1].intValue() ) ))
+				order[numUnique++] = order[j];
+		}
+		
+		if (numUnique < 3)
+		{
+			int[] retArr = new int[numUnique];
+			for (int j = 0; j < numUnique; j++)
+				retArr[j] = order[j].intValue();
+			return retArr;
+		}
+		
+		int[] hull = new int[2*numUnique];
+		int k = 0;
+		for (int j = 0; j < numUnique; j++) //lower hull
+		{
+			while (k >= 2 && crossProduct(vec, hull[k-2], hull[k-1], order[j].intValue()) <= 0)
+				k--;
+			hull[k++] = order[j].intValue();
+		}
+		for (int j = numUnique-2, lowerSize = k+1; j >= 0; j--) //upper hull
+		{
+			while (k >= lowerSize && crossProduct(vec, hull[k-2], hull[k-1], order[j].intValue()) <= 0)
+				k--;
+			hull[k++] = order[j].intValue();
+		}
+		
+		int[] retArr = new int[k-1]; //the last point is the same as the first
+		System.arraycopy(hull, 0, retArr, 0, k-1);
+		return retArr;
+	}
+	
+	private static long crossProduct(Vector vec, int o, int a, int b)
+	{
+		Point po = (Point)vec.get(o), pa = (Point)vec.get(a), pb = (Point)vec.get(b);
+		return (long)(pa.x - po.x)*(pb.y - po.y) - (long)(pa.y - po.y)*(pb.x - po.x);
+	}
+	
+	
 	/**
 	* Fetches the indent depths as connecting lines (Vector of Vector of Point[2]s)
 	* 
@@ -4323,39 +5649,134 @@ public class GrayscaleImageEdit
 	* @return A Point[2] describing a line, forming a perpendicular ling
 	*/
 	public static Point[] findLongestPerpendicularLineExhaustive(Vector vecBorders, double templateAngle)
+	{
+		return findLongestPerpendicularLineExhaustive(vecBorders, templateAngle, BORDER_SIMPLIFY_TOLERANCE);
+	}
+	
+	/**
+	* Find longest line that is (approximately) perpendicular to another line, defined by an angle.
+	* The border is first simplified (see simplifyBorder) and split into spans between the
+	* retained vertices. Every pixel of a span lies within 'tolerance' of the span chord, which gives
+	* an upper bound on the line length from a span to the rest of the border, and between two spans.
+	* Spans are visited in order of decreasing bound, and the pixel pairs of two spans are only
+	* evaluated while they can still beat the best line, so the result is the same as for a search
+	* over all pixel pairs. Only the spans are sorted, never the span pairs.
+	* 
+	* @param	vecBorders	Vector of Points with candidate points (ordered border pixels)
+	* @param	templateAngle	The angle to match against
+	* @param	tolerance	Simplification tolerance (in pixels)
+	* @return A Point[2] describing a line, forming a perpendicular ling
+	*/
+	public static Point[] findLongestPerpendicularLineExhaustive(Vector vecBorders, double templateAngle, double tolerance)
 	{
 		Point p1, p2;
 		double currAngle = 0.0, angleDiff = 0.0, penalty = 0.0,
 			currDist = 0.0, maxDist = Double.NEGATIVE_INFINITY;
 		int maxDistIndex1 = -1, maxDistIndex2 = -1;
 		
-		for (int j = 0; j < (vecBorders.size()-1); j++)
+		if (vecBorders.size() < 2)
+			return null;
+		
+		// spans are [spanStart, spanStop] (inclusive) between two consecutive vertices
+		int[] vertices = simplifyBorder(vecBorders, tolerance);
+		int numSpans = vertices.length-1;
+		int[] spanStart = new int[numSpans];
+		int[] spanStop = new int[numSpans];
+		for (int s = 0; s < numSpans; s++)
+		{
+			spanStart[s] = vertices[s];
+			spanStop[s] = (s == (numSpans-1)) ? vertices[s+1] : (vertices[s+1]-1);
+		}
+		
+		// every pixel of a span lies within 'tolerance' of the span chord, and thereby within
+		// half the chord length plus 'tolerance' of the chord midpoint
+		double[] centerX = new double[numSpans];
+		double[] centerY = new double[numSpans];
+		double[] radius = new double[numSpans];
+		for (int a = 0; a < numSpans; a++)
 		{
-			p1 = (Point)vecBorders.get(j);
-			for (int k = (j+1); k < vecBorders.size(); k++)
+			Point a1 = (Point)vecBorders.get(vertices[a]);
+			Point a2 = (Point)vecBorders.get(vertices[a+1]);
+			centerX[a] = (a1.x + a2.x)/2.0;
+			centerY[a] = (a1.y + a2.y)/2.0;
+			radius[a] = a1.distance(a2)/2.0 + Math.max(tolerance, 0.0);
+		}
+		
+		// upper bound of the distance between a pixel of a span and any later pixel
+		final double[] spanBounds = new double[numSpans];
+		Integer[] order = new Integer[numSpans];
+		for (int a = 0; a < numSpans; a++)
+		{
+			double bound = 0.0;
+			for (int b = a; b < numSpans; b++)
 			{
-				p2 = (Point)vecBorders.get(k);
-				
-				currAngle = MiscMath.pointAngle(p1, p2);
-				angleDiff = Math.abs(currAngle - templateAngle);
-				if (angleDiff > 180) //might be a rotation difference
-					angleDiff -= 180;
-									
-				
-				// should be approx. 90 degree comp. to the point connecting hotspots
-				if ( angleDiff >= (90 - ANGLE_DIST_ORTHO_SLACK) && angleDiff <= (90 + ANGLE_DIST_ORTHO_SLACK) ) 
+				double dx = centerX[a] - centerX[b], dy = centerY[a] - centerY[b];
+				bound = Math.max(bound, Math.sqrt(dx*dx + dy*dy) + radius[b]);
+			}
+			spanBounds[a] = bound + radius[a] + EPS;
+			order[a] = new Integer(a);
+		}
+		
+		Arrays.sort(order, new java.util.Comparator()
+		{
+			public int compare(Object o1, Object o2)
+			{
+				double b1 = spanBounds[ ((Integer)o1).intValue() ];
+				double b2 = spanBounds[ ((Integer)o2).intValue() ];
+				return (b1 > b2) ? -1 : ((b1 < b2) ? 1 : 0);
+			}
+		});
+		
+		double slack = 2*Math.max(tolerance, 0.0) + EPS;
+		for (int i = 0; i < numSpans; i++)
+		{
+			int a = order[i].intValue();
+			if (spanBounds[a] < maxDist) //the penalized distance is never larger than the distance
+				break;
+			
+			Point a1 = (Point)vecBorders.get(vertices[a]);
+			Point a2 = (Point)vecBorders.get(vertices[a+1]);
+			for (int b = a; b < numSpans; b++)
+			{
+				Point b1 = (Point)vecBorders.get(vertices[b]);
+				Point b2 = (Point)vecBorders.get(vertices[b+1]);
+				double bound = Math.max( Math.max(a1.distance(b1), a1.distance(b2)), Math.max(a2.distance(b1), a2.distance(b2)) );
+				if (bound + slack < maxDist)
+					continue;
+			
+				for (int j = spanStart[a]; j <= spanStop[a]; j++)
 				{
-					//allow different angles but penalize the distance
-					// (penalty is == 1 if angleDiff == 90 and decreases linearly with the difference from 90)
+					p1 = (Point)vecBorders.get(j);
+					int kStart = (a == b) ? (j+1) : spanStart[b];
+					for (int k = kStart; k <= spanStop[b]; k++)
+					{
+						p2 = (Point)vecBorders.get(k);
 					
-					penalty = 1 - Math.abs(90 - angleDiff)/ANGLE_DIST_ORTHO_SLACK;
+						currAngle = MiscMath.pointAngle(p1, p2);
+						angleDiff = Math.abs(currAngle - templateAngle);
+						if (angleDiff > 180) //might be a rotation difference
+							angleDiff -= 180;
+										
 					
-					currDist = p1.distance(p2)*penalty;
-					if (currDist > maxDist)
-					{
-						maxDist = currDist;
-						maxDistIndex1 = j;
-						maxDistIndex2 = k;
+						// should be approx. 90 degree comp. to the point connecting hotspots
+						if ( angleDiff >= (90 - ANGLE_DIST_ORTHO_SLACK) && angleDiff <= (90 + ANGLE_DIST_ORTHO_SLACK) ) 
+						{
+							//allow different angles but penalize the distance
+							// (penalty is == 1 if angleDiff == 90 and decreases linearly with the difference from 90)
+						
+							penalty = 1 - Math.abs(90 - angleDiff)/ANGLE_DIST_ORTHO_SLACK;
+						
+							currDist = p1.distance(p2)*penalty;
+						
+							//ties are resolved towards the lowest indices, as in a plain pairwise scan
+							if (currDist > maxDist || (currDist == maxDist &&
+								(j < maxDistIndex1 || (j == maxDistIndex1 && k < maxDistIndex2))) )
+							{
+								maxDist = currDist;
+								maxDistIndex1 = j;
+								maxDistIndex2 = k;
+							}
+						}
 					}
 				}
 			}
@@ -4389,6 +5810,19 @@ public class GrayscaleImageEdit
 	* @param	c	Color to paint
 	*/
 	public static void paintContourHotspots(Vector vecContourHotspots, Graphics g, Color c, boolean drawLines)
+	{
+		paintContourHotspots(vecContourHotspots, new OverlayPainter(g), c, drawLines);
+	}
+	
+	/**
+	* Paints the contour hotspots with an OverlayPainter (e.g. into an image or an overlay layer)
+	* 
+	* @param	vecContourHotspots	Vector of Vector of Points containing connections btw contour hotspot elements
+	* @param	g	The painter
+	* @param	c	Color to paint
+	* @param	drawLines	True to connect consecutive hotspots with lines, false to paint the hotspots only
+	*/
+	public static void paintContourHotspots(Vector vecContourHotspots, OverlayPainter g, Color c, boolean drawLines)
 	{
 		for (int i = 0; i < vecContourHotspots.size(); i++)
 		{
@@ -4508,13 +5942,25 @@ public class GrayscaleImageEdit
 	
 	
 	/**
-	* Paints the indent depths as connecting lines (Vector of Vector of Point[2]s)
+	* Paints the indent depths as connecting lines (Vector of Vector of Point[2]s)
+	* 
+	* @param	vecContourIndents	Vector of Vector of Point[2]s containing connections btw contour hotspot elements
+	* @param	g	Graphics object to paint to
+	* @param	c	Color to paint
+	*/
+	public static void paintContourIndentDepths(Vector vecContourIndents, Graphics g, Color c)
+	{
+		paintContourIndentDepths(vecContourIndents, new OverlayPainter(g), c);
+	}
+	
+	/**
+	* Paints the indent depths as connecting lines with an OverlayPainter (e.g. into an image or an overlay layer)
 	* 
 	* @param	vecContourIndents	Vector of Vector of Point[2]s containing connections btw contour hotspot elements
-	* @param	g	Graphics object to paint to
+	* @param	g	The painter
 	* @param	c	Color to paint
 	*/
-	public static void paintContourIndentDepths(Vector vecContourIndents, Graphics g, Color c)
+	public static void paintContourIndentDepths(Vector vecContourIndents, OverlayPainter g, Color c)
 	{
 		for (int i = 0; i < vecContourIndents.size(); i++)
 		{
@@ -4579,6 +6025,37 @@ public class GrayscaleImageEdit
 	*/
 	public static Vector fillObjectCavities(Vector vec, Vector vecBorder, Vector vecBorderBreakPoints, int[][] segMat, JProgressBar pb)
 	{		
+		//copy initial segmentation matrix so that we can modify it
+		int[][] segMatCopy = new int[segMat.length][segMat[0].length];
+		for (int x = 0; x < segMat[0].length; x++)
+			for (int y = 0; y < segMat.length; y++)
+				segMatCopy[y][x] = segMat[y][x];
+
+		return fillObjectCavitiesInt(vec, vecBorder, vecBorderBreakPoints, segMatCopy, pb);
+	}
+	
+	/**
+	* Fills in the cavities in a segmentation image, see above. The image is only copied
+	* (into a matrix) if any of the objects has a cavity.
+	* 
+	* @param	vec	Vector of Vector of Points from fetchSegObjCoord or similar, containing all the pixels of the object
+	* @param	vecBorder Vector of Vector of Points containing only border elements
+	* @param	vecBorderBreakPoints	Vector of Vector of Integer indices, containing break points for the different border patches
+	* @param	segMat	Segmentation image
+	* @return	A Vector of Vector of Points, the objects with their cavities filled in
+	*/
+	public static Vector fillObjectCavities(Vector vec, Vector vecBorder, Vector vecBorderBreakPoints, FlatImage segMat, JProgressBar pb)
+	{
+		int[][] segMatCopy = null;
+		for (int i = 0; i < vecBorderBreakPoints.size() && segMatCopy == null; i++)
+			if ( ((Vector)vecBorderBreakPoints.get(i)).size() > 1 )
+				segMatCopy = segMat.toMatrix(null);
+		
+		return fillObjectCavitiesInt(vec, vecBorder, vecBorderBreakPoints, segMatCopy, pb);
+	}
+	
+	private static Vector fillObjectCavitiesInt(Vector vec, Vector vecBorder, Vector vecBorderBreakPoints, int[][] segMatCopy, JProgressBar pb)
+	{
 		int dummyVal = -1;
 		
 		if (pb != null)
@@ -4586,12 +6063,6 @@ public class GrayscaleImageEdit
 		
 		Vector retVec = new Vector(vec.size());
 		
-		//copy initial segmentation matrix so that we can modify it
-		int[][] segMatCopy = new int[segMat.length][segMat[0].length];
-		for (int x = 0; x < segMat[0].length; x++)
-			for (int y = 0; y < segMat.length; y++)
-				segMatCopy[y][x] = segMat[y][x];
-
 		double pbStepLength = 100.0/vec.size();
 				
 		//repeat for all objects
@@ -5020,13 +6491,17 @@ public class GrayscaleImageEdit
 				//only count indents with an accurate depth
 				if (numIndentsWithDepth > 0)
 				{
-					widthMeanGlobal = MiscMath.mean(indentWidths);
-					widthMedianGlobal = MiscMath.median(indentWidths);
-					widthStdevGlobal = MiscMath.stdev(indentWidths, widthMeanGlobal);
+					//unbox once; the median reorders the arrays so it goes last
+					double[] widths = MiscMath.toDoubleArray(indentWidths, null);
+					double[] depths = MiscMath.toDoubleArray(indentDepths, null);
+					
+					widthMeanGlobal = MiscMath.mean(widths);
+					widthStdevGlobal = MiscMath.stdev(widths, widthMeanGlobal);
+					widthMedianGlobal = MiscMath.medianInPlace(widths, widths.length);
 
-					depthMeanGlobal = MiscMath.mean(indentDepths);
-					depthMedianGlobal = MiscMath.median(indentDepths);
-					depthStdevGlobal = MiscMath.stdev(indentDepths, depthMeanGlobal);
+					depthMeanGlobal = MiscMath.mean(depths);
+					depthStdevGlobal = MiscMath.stdev(depths, depthMeanGlobal);
+					depthMedianGlobal = MiscMath.medianInPlace(depths, depths.length);
 				}
 				
 				//System.err.println("  Average depth of indents: " + depthAvGlobal);
@@ -5159,6 +6634,38 @@ public class GrayscaleImageEdit
 	* @param	vecIntersectPoints	Vector of Point containing object intersections
 	*/
 	public static void paintSegmentationResults(Vector vec, Vector vecNoCavities, Vector vecObjCenters, Vector vecBorder, Vector vecBorderBreakPoints, Vector vecHorizVertLines, Vector vecIntersectPoints, Graphics g2d)
+	{
+		paintSegmentationResults(vec, vecNoCavities, vecObjCenters, vecBorder, vecBorderBreakPoints, vecHorizVertLines, vecIntersectPoints, new OverlayPainter(g2d));
+	}
+	
+	/**
+	*Paints the result from segmentation directly into an image.
+	* 
+	* @param	vec	Vector of Vector of Points from fetchSegObjCoord or similar
+	* @param	vecNoCavities	Vector of Vector of Points, similar to vec but extended with (potential) cavities filled in
+	* @param	vecBorder Vector of Vector of Points containing only border elements
+	* @param	vecBorderBreakPoints	Vector of Vector of Integer with border break point indices
+	* @param	vecHorizVertLines	Vector of Vector[2] (vertical/horizontal) of Vector of Point[2] containing start and end of the lines
+	* @param	vecIntersectPoints	Vector of Point containing object intersections
+	* @param	img	The image
+	*/
+	public static void paintSegmentationResults(Vector vec, Vector vecNoCavities, Vector vecObjCenters, Vector vecBorder, Vector vecBorderBreakPoints, Vector vecHorizVertLines, Vector vecIntersectPoints, BufferedImage img)
+	{
+		paintSegmentationResults(vec, vecNoCavities, vecObjCenters, vecBorder, vecBorderBreakPoints, vecHorizVertLines, vecIntersectPoints, new OverlayPainter(img));
+	}
+	
+	/**
+	*Paints the result from segmentation with an OverlayPainter.
+	* 
+	* @param	vec	Vector of Vector of Points from fetchSegObjCoord or similar
+	* @param	vecNoCavities	Vector of Vector of Points, similar to vec but extended with (potential) cavities filled in
+	* @param	vecBorder Vector of Vector of Points containing only border elements
+	* @param	vecBorderBreakPoints	Vector of Vector of Integer with border break point indices
+	* @param	vecHorizVertLines	Vector of Vector[2] (vertical/horizontal) of Vector of Point[2] containing start and end of the lines
+	* @param	vecIntersectPoints	Vector of Point containing object intersections
+	* @param	painter	The painter
+	*/
+	public static void paintSegmentationResults(Vector vec, Vector vecNoCavities, Vector vecObjCenters, Vector vecBorder, Vector vecBorderBreakPoints, Vector vecHorizVertLines, Vector vecIntersectPoints, OverlayPainter painter)
 	{
 	
 		for (int i = 0; i < vec.size(); i++)
@@ -5213,7 +6720,7 @@ public class GrayscaleImageEdit
 			int x,y;
 			
 			//draw the border
-			g2d.setColor( Color.YELLOW );
+			painter.setColor( Color.YELLOW );
 			int lastIndex = 0;
 			int currIndex = -1;
 			
@@ -5223,31 +6730,17 @@ public class GrayscaleImageEdit
 				{
 					currIndex = ( (Integer)vecCurrBorderBreakPoints.get(k)).intValue();
 					
-					for (int j = lastIndex; j < currIndex; j++)
-					{
-						Point p = (Point)vecCurrBorder.get(j);
-						x = (int)p.getX();
-						y = (int)p.getY();
-						
-						//draw the 'Border' elements
-						g2d.drawLine( x, y, x, y);
-					}
+					//draw the 'Border' elements
+					painter.paintPoints(vecCurrBorder, lastIndex, currIndex);
 					
 					//the next elements come from interior borders, mark these differently
-					g2d.setColor( Color.WHITE );
+					painter.setColor( Color.WHITE );
 					lastIndex = currIndex;
 				}
 			} else
 			{
-				for (int j = 0; j < vecCurrBorder.size(); j++)
-				{
-					Point p = (Point)vecCurrBorder.get(j);
-					x = (int)p.getX();
-					y = (int)p.getY();
-					
-					//draw the 'Border' elements
-					g2d.drawLine( x, y, x, y);
-				}
+				//draw the 'Border' elements
+				painter.paintPoints(vecCurrBorder);
 					
 			}
 			
@@ -5256,15 +6749,9 @@ public class GrayscaleImageEdit
 			
 			if (vecCurrNoCavities.size() > vecCurr.size() )
 			{
-				g2d.setColor( Color.GREEN );
+				painter.setColor( Color.GREEN );
 			
-				for (int j = (vecCurr.size()-1); j < vecCurrNoCavities.size(); j++)
-				{
-					Point p = (Point)vecCurrNoCavities.get(j);
-					x = (int)p.getX();
-					y = (int)p.getY();
-					g2d.drawLine(x,y,x,y);
-				}
+				painter.paintPoints(vecCurrNoCavities, vecCurr.size()-1, vecCurrNoCavities.size());
 			}
 			
 			
@@ -5474,10 +6961,10 @@ public class GrayscaleImageEdit
 			
 			
 			// Draw the lines denoting the leaf area/distances
-			g2d.setColor( Color.PINK );
-			g2d.drawLine( (int)minX.getX(), (int)minX.getY(), (int)maxX.getX(), (int)maxX.getY() );
+			painter.setColor( Color.PINK );
+			painter.drawLine( (int)minX.getX(), (int)minX.getY(), (int)maxX.getX(), (int)maxX.getY() );
 			//g2d.setColor( Color.BLUE );
-			g2d.drawLine( (int)minY.getX(), (int)minY.getY(), (int)maxY.getX(), (int)maxY.getY() );
+			painter.drawLine( (int)minY.getX(), (int)minY.getY(), (int)maxY.getX(), (int)maxY.getY() );
 			
 			//g2d.drawLine( (int)(minX.getX()-HWTOffsetX), (int)(minX.getY()-HWTOffsetY),
 			//	(int)(maxX.getX()-HWTOffsetX), (int)(maxX.getY()-HWTOffsetY) );
@@ -5496,20 +6983,20 @@ public class GrayscaleImageEdit
 			*/
 			
 			//draw all the other lines
-			g2d.setColor( Color.CYAN );
-			g2d.drawLine( (int)minDistHoriz25[0].getX(), (int)minDistHoriz25[0].getY(),
+			painter.setColor( Color.CYAN );
+			painter.drawLine( (int)minDistHoriz25[0].getX(), (int)minDistHoriz25[0].getY(),
 				(int)minDistHoriz25[1].getX(), (int)minDistHoriz25[1].getY());
-			g2d.drawLine( (int)minDistHoriz50[0].getX(), (int)minDistHoriz50[0].getY(),
+			painter.drawLine( (int)minDistHoriz50[0].getX(), (int)minDistHoriz50[0].getY(),
 				(int)minDistHoriz50[1].getX(), (int)minDistHoriz50[1].getY());
-			g2d.drawLine( (int)minDistHoriz75[0].getX(), (int)minDistHoriz75[0].getY(),
+			painter.drawLine( (int)minDistHoriz75[0].getX(), (int)minDistHoriz75[0].getY(),
 				(int)minDistHoriz75[1].getX(), (int)minDistHoriz75[1].getY());
 			
-			g2d.setColor( Color.CYAN );
-			g2d.drawLine( (int)minDistVert25[0].getX(), (int)minDistVert25[0].getY(),
+			painter.setColor( Color.CYAN );
+			painter.drawLine( (int)minDistVert25[0].getX(), (int)minDistVert25[0].getY(),
 				(int)minDistVert25[1].getX(), (int)minDistVert25[1].getY());
-			g2d.drawLine( (int)minDistVert50[0].getX(), (int)minDistVert50[0].getY(),
+			painter.drawLine( (int)minDistVert50[0].getX(), (int)minDistVert50[0].getY(),
 				(int)minDistVert50[1].getX(), (int)minDistVert50[1].getY());
-			g2d.drawLine( (int)minDistVert75[0].getX(), (int)minDistVert75[0].getY(),
+			painter.drawLine( (int)minDistVert75[0].getX(), (int)minDistVert75[0].getY(),
 				(int)minDistVert75[1].getX(), (int)minDistVert75[1].getY());
 			
 			/*
@@ -5659,22 +7146,35 @@ public class GrayscaleImageEdit
 	*/
 	public static void paintBorders(Vector vecBorder, Color c, Graphics g2d)
 	{
-		g2d.setColor(c);
+		paintBorders(vecBorder, c, new OverlayPainter(g2d));
+	}
+	
+	/**
+	*Paints the result from segmentation directly into an image.
+	* 
+	* @param	vecBorder Vector of Vector of Points containing only border elements
+	* @param	c	A color
+	* @param	img	The image
+	*/
+	public static void paintBorders(Vector vecBorder, Color c, BufferedImage img)
+	{
+		paintBorders(vecBorder, c, new OverlayPainter(img));
+	}
+	
+	/**
+	*Paints the result from segmentation with an OverlayPainter.
+	* 
+	* @param	vecBorder Vector of Vector of Points containing only border elements
+	* @param	c	A color
+	* @param	painter	The painter
+	*/
+	public static void paintBorders(Vector vecBorder, Color c, OverlayPainter painter)
+	{
+		painter.setColor(c);
 		for (int i = 0; i < vecBorder.size(); i++)
 		{
-			Vector vecCurr = (Vector)vecBorder.get(i);
-			Point p;
-			int x,y;
-			
-			for (int j = 0; j < vecCurr.size(); j++)
-			{
-				p = (Point)vecCurr.get(j);
-				x = (int)p.getX();
-				y = (int)p.getY();
-				
-				//draw the 'Border' elements
-				g2d.drawLine( x, y, x, y);	
-			}
+			//draw the 'Border' elements
+			painter.paintPoints( (Vector)vecBorder.get(i) );
 		}
 	}
 	
@@ -5688,6 +7188,34 @@ public class GrayscaleImageEdit
 	* @param	vecBorderBreakPoints	Vector of Vector of Integer with border break point indices
 	*/
 	public static void paintBordersAndCavities(Vector vec, Vector vecNoCavities, Vector vecBorder, Vector vecBorderBreakPoints, Graphics g2d)
+	{
+		paintBordersAndCavities(vec, vecNoCavities, vecBorder, vecBorderBreakPoints, new OverlayPainter(g2d));
+	}
+	
+	/**
+	*Paints the result from segmentation directly into an image.
+	* 
+	* @param	vec	Vector of Vector of Points from fetchSegObjCoord or similar
+	* @param	vecNoCavities	Vector of Vector of Points, similar to vec but extended with (potential) cavities filled in
+	* @param	vecBorder Vector of Vector of Points containing only border elements
+	* @param	vecBorderBreakPoints	Vector of Vector of Integer with border break point indices
+	* @param	img	The image
+	*/
+	public static void paintBordersAndCavities(Vector vec, Vector vecNoCavities, Vector vecBorder, Vector vecBorderBreakPoints, BufferedImage img)
+	{
+		paintBordersAndCavities(vec, vecNoCavities, vecBorder, vecBorderBreakPoints, new OverlayPainter(img));
+	}
+	
+	/**
+	*Paints the result from segmentation with an OverlayPainter.
+	* 
+	* @param	vec	Vector of Vector of Points from fetchSegObjCoord or similar
+	* @param	vecNoCavities	Vector of Vector of Points, similar to vec but extended with (potential) cavities filled in
+	* @param	vecBorder Vector of Vector of Points containing only border elements
+	* @param	vecBorderBreakPoints	Vector of Vector of Integer with border break point indices
+	* @param	painter	The painter
+	*/
+	public static void paintBordersAndCavities(Vector vec, Vector vecNoCavities, Vector vecBorder, Vector vecBorderBreakPoints, OverlayPainter painter)
 	{
 	
 		for (int i = 0; i < vec.size(); i++)
@@ -5715,7 +7243,7 @@ public class GrayscaleImageEdit
 			int x,y;
 			
 			//draw the border
-			g2d.setColor( Color.YELLOW );
+			painter.setColor( Color.YELLOW );
 			int lastIndex = 0;
 			int currIndex = -1;
 			
@@ -5725,31 +7253,17 @@ public class GrayscaleImageEdit
 				{
 					currIndex = ( (Integer)vecCurrBorderBreakPoints.get(k)).intValue();
 					
-					for (int j = lastIndex; j < currIndex; j++)
-					{
-						Point p = (Point)vecCurrBorder.get(j);
-						x = (int)p.getX();
-						y = (int)p.getY();
-						
-						//draw the 'Border' elements
-						g2d.drawLine( x, y, x, y);
-					}
+					//draw the 'Border' elements
+					painter.paintPoints(vecCurrBorder, lastIndex, currIndex);
 					
 					//the next elements come from interior borders, mark these differently
-					g2d.setColor( Color.WHITE );
+					painter.setColor( Color.WHITE );
 					lastIndex = currIndex;
 				}
 			} else
 			{
-				for (int j = 0; j < vecCurrBorder.size(); j++)
-				{
-					Point p = (Point)vecCurrBorder.get(j);
-					x = (int)p.getX();
-					y = (int)p.getY();
-					
-					//draw the 'Border' elements
-					g2d.drawLine( x, y, x, y);
-				}
+				//draw the 'Border' elements
+				painter.paintPoints(vecCurrBorder);
 					
 			}
 			
@@ -5758,15 +7272,9 @@ public class GrayscaleImageEdit
 			
 			if (vecCurrNoCavities.size() > vecCurr.size() )
 			{
-				g2d.setColor( Color.GREEN );
+				painter.setColor( Color.GREEN );
 			
-				for (int j = (vecCurr.size()-1); j < vecCurrNoCavities.size(); j++)
-				{
-					Point p = (Point)vecCurrNoCavities.get(j);
-					x = (int)p.getX();
-					y = (int)p.getY();
-					g2d.drawLine(x,y,x,y);
-				}
+				painter.paintPoints(vecCurrNoCavities, vecCurr.size()-1, vecCurrNoCavities.size());
 			}
 
 		}
@@ -6206,11 +7714,21 @@ public class GrayscaleImageEdit
 	*/
 	public static int[][] vectorOfPointsToIntMatrix(Vector vec, int width, int height)
 	{
-		//construct object and reset
-		int[][] retMat = new int[height][width];
-		for (int y = 0; y < height; y++)
-			for (int x = 0; x < width; x++)
-				retMat[y][x] = 0;
+		return vectorOfPointsToIntMatrix(vec, new int[height][width]);
+	}
+	
+	/**
+	* Converts a Vector of Vector of Points into an existing int[][] matrix, see
+	* vectorOfPointsToIntMatrix(Vector, int, int). The previous content of the matrix is overwritten.
+	* 
+	* @param	vec 	Vector of Vector of Points
+	* @param	retMat	The matrix
+	* @return	retMat
+	*/
+	public static int[][] vectorOfPointsToIntMatrix(Vector vec, int[][] retMat)
+	{
+		for (int y = 0; y < retMat.length; y++)
+			Arrays.fill(retMat[y], 0);
 		
 		Point p;
 		int xx,yy;
@@ -6231,6 +7749,34 @@ public class GrayscaleImageEdit
 
 		return retMat;
 	}
+	
+	/**
+	* Converts a Vector of Vector of Points into an existing image, see
+	* vectorOfPointsToIntMatrix(Vector, int, int). The previous content of the image is overwritten.
+	* 
+	* @param	vec 	Vector of Vector of Points
+	* @param	retImg	The image, it is widened if its element type cannot hold the number of objects
+	*		(an off-heap image is then replaced by an off-heap copy)
+	* @return	retImg (or a widened copy of it)
+	*/
+	public static FlatImage vectorOfPointsToIntMatrix(Vector vec, FlatImage retImg) throws IOException
+	{
+		if (vec.size() > retImg.getMaxValue())
+			retImg = retImg.widen( FlatImage.getType(vec.size()) );
+		retImg.clear();
+		
+		for (int i = 0; i < vec.size(); i++)
+		{
+			Vector currVec = (Vector)vec.get(i);
+			for (int j = 0; j < currVec.size(); j++)
+			{
+				Point p = (Point)currVec.get(j);
+				retImg.set(p.x, p.y, i+1);
+			}
+		}
+
+		return retImg;
+	}
 			
 	/**
 	*Adds a set of pixels (border pixels) to another set (contour hotspots)
@@ -6266,37 +7812,67 @@ public class GrayscaleImageEdit
 			
 			Point p1, p2;
 			
-			// calculate a distance matrix between all border and contour points
-			double[][] distMatContour = new double[currVecBorder.size()][currVecContourCopy.size()];
-			double currDist;
-			for (int y = 0; y < currVecBorder.size(); y++)
+			// bin the contour points in square cells with a side of at least 'lowerDistance', so that
+			// all neighbors of a border pixel are found in the surrounding 3x3 cells
+			int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+			for (int x = 0; x < currVecContour.size(); x++)
+			{
+				p1 = (Point)currVecContour.get(x);
+				minX = (int)Math.min(minX, p1.x);
+				minY = (int)Math.min(minY, p1.y);
+				maxX = (int)Math.max(maxX, p1.x);
+				maxY = (int)Math.max(maxY, p1.y);
+			}
+			
+			int cellSize = (int)Math.max( Math.ceil(lowerDistance+GrayscaleImageEdit.EPS), 1);
+			int numCellsX = 0, numCellsY = 0;
+			Vector[][] cells = null;
+			if (currVecContour.size() > 0)
+			{
+				numCellsX = (maxX - minX)/cellSize + 1;
+				numCellsY = (maxY - minY)/cellSize + 1;
+				cells = new Vector[numCellsY][numCellsX];
 				for (int x = 0; x < currVecContour.size(); x++)
 				{
 					p1 = (Point)currVecContour.get(x);
-					p2 = (Point)currVecBorder.get(y);
-					currDist = GrayscaleImageEdit.calcDistance(p1, p2, GrayscaleImageEdit.DIST_EUCLIDEAN);
-					//distMatContour[x][y] = currDist;
-					distMatContour[y][x] = currDist; //non-symmetric!
+					int cx = (p1.x - minX)/cellSize;
+					int cy = (p1.y - minY)/cellSize;
+					if (cells[cy][cx] == null)
+						cells[cy][cx] = new Vector();
+					cells[cy][cx].add(p1);
 				}
+			}
 			
 			//repeat for each border pixel
 			int numAdditions = 0;
+			double currDist;
 			for (int j = 0; j < currVecBorder.size(); j++)
 			{
-				//find the closest contour point
-				double minDist = Double.POSITIVE_INFINITY;
+				p2 = (Point)currVecBorder.get(j);
+				
+				//count the neighboring contour points (the original vector, don't include new additions)
 				int numNeighborsCurr = 0;
-				for (int k = 0; k < currVecContour.size(); k++) //use the original vector, don't include new additions
-				{
-					if (distMatContour[j][k] < (lowerDistance+GrayscaleImageEdit.EPS) )
+				int cx = (int)Math.floor( (p2.x - minX)/(double)cellSize );
+				int cy = (int)Math.floor( (p2.y - minY)/(double)cellSize );
+				for (int y = (int)Math.max(cy-1, 0); cells != null && y <= (int)Math.min(cy+1, numCellsY-1); y++)
+					for (int x = (int)Math.max(cx-1, 0); x <= (int)Math.min(cx+1, numCellsX-1); x++)
 					{
-						numNeighborsCurr++;
+						if (cells[y][x] == null)
+							continue;
+						
+						for (int k = 0; k < cells[y][x].size(); k++)
+						{
+							p1 = (Point)cells[y][x].get(k);
+							currDist = GrayscaleImageEdit.calcDistance(p1, p2, GrayscaleImageEdit.DIST_EUCLIDEAN);
+							if (currDist < (lowerDistance+GrayscaleImageEdit.EPS) )
+								numNeighborsCurr++;
+						}
 					}
-				}
+				
 				if (numNeighborsCurr > numNeighbors)
 				{
 					//System.err.println("Border pixel " + j + " has " + numNeighborsCurr + " neighboring contour pixels and will be added to contour...");
-					currVecContourCopy.add( new Point( (Point)currVecBorder.get(j) ) );
+					currVecContourCopy.add( new Point(p2) );
 					numAdditions++;
 				}
 				
@@ -6304,34 +7880,18 @@ public class GrayscaleImageEdit
 			
 			System.err.println("Object " + (i+1) + ": " + numAdditions + " putative border pixel(s) to add to contour...");
 			
-			//there may be duplicates in currVecContourCopy, remove them
-			boolean anyDeleted = true;
-			while (anyDeleted)
+			//there may be duplicates in currVecContourCopy, remove them (keeping the first occurrence)
+			java.util.HashSet setSeen = new java.util.HashSet( 2*currVecContourCopy.size() );
+			Vector currVecContourUnique = new Vector( currVecContourCopy.size() );
+			for (int j = 0; j < currVecContourCopy.size(); j++)
 			{
-				boolean foundAny = false;
-				int distTot = -1, foundInd = -1;
-				for (int j = 0; (j < (currVecContourCopy.size()-1) && !foundAny); j++)
-					for (int k = (j+1); (k < currVecContourCopy.size() && !foundAny); k++)
-					{
-						p1 = (Point)currVecContourCopy.get(j);
-						p2 = (Point)currVecContourCopy.get(k);
-						distTot = (int)( Math.abs(  p1.getX() - p2.getX() ) + Math.abs( p1.getY() - p2.getY() ) );
-						if (distTot == 0)
-						{
-							foundAny = true;
-							foundInd = (int)Math.max(j, k);
-						}
-					}
-				
-				if (foundAny)
-				{
-					currVecContourCopy.removeElementAt(foundInd);
+				p1 = (Point)currVecContourCopy.get(j);
+				if (setSeen.add(p1))
+					currVecContourUnique.add(p1);
+				else
 					numAdditions--;
-					
-				} else
-					anyDeleted = false;
-				
 			}
+			currVecContourCopy = currVecContourUnique;
 			
 			System.err.println("Object " + (i+1) + ": " + numAdditions + " border pixel(s) remains after removal of duplicates...");
 			
@@ -6723,6 +8283,92 @@ public class GrayscaleImageEdit
 		return ret;
 	}
 	
+	/**
+	* Finds a line that is perpendicular to another line, see findPerpendicularLineFast(int[][], int, Point2D.Double, Point[]).
+	* 
+	* @param	imgSeg	The segmentation image, with non-zero elements denoting objects
+	* @param	objId	The object id to scan for
+	* @param	pointIntersect	The intersection point, to start from
+	* @param	templateLine	A template line that will be used for initiating the search.
+	* @return A Point[2] describing a line, forming a perpendicular ling
+	*/
+	public static Point[] findPerpendicularLineFast(FlatImage imgSeg, int objId, Point2D.Double pointIntersect, Point[] templateLine)
+	{
+		Point[] perpendicularLine = new Point[2];
+
+		double deltaX = templateLine[1].getX() - templateLine[0].getX();
+		double deltaY = templateLine[1].getY() - templateLine[0].getY();
+		double maxDelta = Math.max(Math.abs(deltaX), Math.abs(deltaY));
+
+		deltaX /= maxDelta;
+		deltaY /= maxDelta;
+				
+		Point2D.Double point = new Point2D.Double();
+		
+		// to the left...
+		point.x = pointIntersect.getX();
+		point.y = pointIntersect.getY();
+		while (pointIsWithinObject(imgSeg, objId, point)) {
+			point.x += deltaY;
+			point.y -= deltaX;
+		}
+		perpendicularLine[0] = new Point(
+				(int)(point.x - deltaY),
+				(int)(point.y + deltaX));
+
+		// ...and to the right
+		point.x = pointIntersect.getX();
+		point.y = pointIntersect.getY();
+		while (pointIsWithinObject(imgSeg, objId, point)) {
+			point.x -= deltaY;
+			point.y += deltaX;
+		}
+		perpendicularLine[1] = new Point(
+				(int)(point.x + deltaY),
+				(int)(point.y - deltaX));
+				
+		return perpendicularLine;
+	}
+	
+	/**
+	* Checks if a given Point is within a given object
+	* 
+	* @param	imgSeg	The segmentation image, with non-zero elements denoting objects
+	* @param	objId	The object id to scan for
+	* @param	point	The intersection point
+	* @return True if the Point is within the object, otherwise false
+	*/
+	public static boolean pointIsWithinObject(FlatImage imgSeg, int objId, Point2D.Double point)
+	{
+		int height = imgSeg.getHeight();
+		int width = imgSeg.getWidth();
+		
+		int maxX = (int)Math.ceil(point.getX());
+		int minX = (int)(point.getX());
+		int maxY = (int)Math.ceil(point.getY());
+		int minY = (int)(point.getY());
+		
+		return (maxX >= 0 && maxX < width && maxY >= 0 && maxY < height && imgSeg.get(maxX, maxY) == objId) ||
+			(maxX >= 0 && maxX < width && minY >= 0 && minY < height && imgSeg.get(maxX, minY) == objId) ||
+			(minX >= 0 && minX < width && maxY >= 0 && maxY < height && imgSeg.get(minX, maxY) == objId) ||
+			(minX >= 0 && minX < width && minY >= 0 && minY < height && imgSeg.get(minX, minY) == objId);
+	}
+	
+	// the versions above on whichever of the two segmentation images is given (segMat if not null)
+	private static Point[] findPerpendicularLineFast(int[][] segMat, FlatImage segFlat, int objId, Point2D.Double pointIntersect, Point[] templateLine)
+	{
+		if (segMat != null)
+			return findPerpendicularLineFast(segMat, objId, pointIntersect, templateLine);
+		return findPerpendicularLineFast(segFlat, objId, pointIntersect, templateLine);
+	}
+	
+	private static boolean pointIsWithinObject(int[][] segMat, FlatImage segFlat, int objId, Point2D.Double point)
+	{
+		if (segMat != null)
+			return pointIsWithinObject(segMat, objId, point);
+		return pointIsWithinObject(segFlat, objId, point);
+	}
+	
 
 	
 }
@@ -0,0 +1,373 @@
+/* ImageBufferPool.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Keeps image-sized matrices and FlatImages for reuse,
+ * so that images of the same size do not allocate new ones.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+    * A pool of matrices and FlatImages, bucketed by element type and size (height x width). A batch
+    * of scans usually consists of images of the same size, so after the first image
+    * every matrix that is acquired is one that was released by the previous image.
+    * The pool holds at most a given number of bytes; when a released matrix does not
+    * fit, the buckets that have been unused for the longest time are dropped first.
+    * When the image size of the batch changes, the owner can drop the buckets of the
+    * other sizes at once with retainSize, instead of holding their memory until they
+    * are pushed out by later releases. Acquiring never drops anything, so matrices of
+    * several sizes can be pooled side by side (e.g. the object boxes of one scan).
+    * Matrices must not be used after they have been released. Off-heap FlatImages
+    * are disposed when they are dropped from the pool.
+*/
+public class ImageBufferPool
+{
+	public final static double DEFAULT_MEMORY_FRACTION = 0.25;
+
+	protected LinkedHashMap buckets; // key -> Vector of free matrices, least recently used first
+	protected long maxBytes;
+	protected long numBytes;
+
+	protected int numAcquired;
+	protected int numReused;
+
+	/**
+	* Constructor, the pool holds at most DEFAULT_MEMORY_FRACTION of the maximum heap size
+	*/
+	public ImageBufferPool()
+	{
+		this( (long)(Runtime.getRuntime().maxMemory()*DEFAULT_MEMORY_FRACTION) );
+	}
+
+	/**
+	* Constructor
+	*
+	* @param	maxBytes	Maximum number of bytes held by free matrices
+	*/
+	public ImageBufferPool(long maxBytes)
+	{
+		this.maxBytes = maxBytes;
+		buckets = new LinkedHashMap(16, 0.75f, true);
+		numBytes = 0;
+		numAcquired = 0;
+		numReused = 0;
+	}
+
+	/**
+	* Fetches an int matrix from the pool, or allocates one if there is none of this size
+	*
+	* @param	height	Number of rows
+	* @param	width	Number of columns
+	* @param	clear	If true, all elements are set to 0 (new matrices always are)
+	* @return	The matrix, indexed [y][x]
+	*/
+	public int[][] acquireInt(int height, int width, boolean clear)
+	{
+		int[][] mat = (int[][])take("i" + height + "x" + width, 4L*height*width);
+		if (mat == null)
+			return new int[height][width];
+
+		if (clear)
+			for (int y = 0; y < height; y++)
+				Arrays.fill(mat[y], 0);
+		return mat;
+	}
+
+	/**
+	* Fetches a byte matrix from the pool, or allocates one if there is none of this size
+	*
+	* @param	height	Number of rows
+	* @param	width	Number of columns
+	* @param	clear	If true, all elements are set to 0 (new matrices always are)
+	* @return	The matrix, indexed [y][x]
+	*/
+	public byte[][] acquireByte(int height, int width, boolean clear)
+	{
+		byte[][] mat = (byte[][])take("b" + height + "x" + width, (long)height*width);
+		if (mat == null)
+			return new byte[height][width];
+
+		if (clear)
+			for (int y = 0; y < height; y++)
+				Arrays.fill(mat[y], (byte)0);
+		return mat;
+	}
+
+	/**
+	* Fetches a FlatImage from the pool, or allocates one if there is none of this size
+	*
+	* @param	width	Image width
+	* @param	height	Image height
+	* @param	type	Element type (one of the FlatImage.TYPE_ constants)
+	* @param	clear	If true, all pixels are set to 0 (new images always are)
+	* @return	The image
+	*/
+	public FlatImage acquireFlat(int width, int height, int type, boolean clear)
+	{
+		FlatImage img = (FlatImage)take(getFlatKey(width, height, type, FlatImage.STORAGE_HEAP), getFlatSize(width, height, type));
+		if (img == null)
+			return new FlatImage(width, height, type);
+
+		if (clear)
+			img.clear();
+		return img;
+	}
+
+	/**
+	* Fetches a FlatImage with a given storage from the pool, or creates one if there
+	* is none of this size
+	*
+	* @param	width	Image width
+	* @param	height	Image height
+	* @param	type	Element type (one of the FlatImage.TYPE_ constants)
+	* @param	storage	Where to keep the pixels (one of the FlatImage.STORAGE_ constants)
+	* @param	clear	If true, all pixels are set to 0 (new images always are)
+	* @return	The image
+	*/
+	public FlatImage acquireFlat(int width, int height, int type, int storage, boolean clear) throws IOException
+	{
+		FlatImage img = (FlatImage)take(getFlatKey(width, height, type, storage), getFlatSize(width, height, type));
+		if (img == null)
+			return new FlatImage(width, height, type, storage);
+
+		if (clear)
+			img.clear();
+		return img;
+	}
+
+	/**
+	* Hands an int matrix back to the pool. Matrices with rows of different
+	* lengths are not pooled.
+	*
+	* @param	mat	The matrix (or null, which is ignored)
+	*/
+	public void release(int[][] mat)
+	{
+		if (mat == null || mat.length == 0 || !isRectangular(mat.length, mat[0].length, mat))
+			return;
+
+		put("i" + mat.length + "x" + mat[0].length, mat, 4L*mat.length*mat[0].length);
+	}
+
+	/**
+	* Hands a byte matrix back to the pool. Matrices with rows of different
+	* lengths are not pooled.
+	*
+	* @param	mat	The matrix (or null, which is ignored)
+	*/
+	public void release(byte[][] mat)
+	{
+		if (mat == null || mat.length == 0 || !isRectangular(mat.length, mat[0].length, mat))
+			return;
+
+		put("b" + mat.length + "x" + mat[0].length, mat, (long)mat.length*mat[0].length);
+	}
+
+	/**
+	* Hands a FlatImage back to the pool
+	*
+	* @param	img	The image (or null, which is ignored)
+	*/
+	public void release(FlatImage img)
+	{
+		if (img == null)
+			return;
+
+		put(getFlatKey(img.getWidth(), img.getHeight(), img.getType(), img.getStorage()), img, img.getNumBytes());
+	}
+
+	/**
+	* Drops the pooled matrices of all other sizes than a given one, e.g. when a new
+	* image is started whose size differs from the previous one
+	*
+	* @param	height	Number of rows of the matrices to keep
+	* @param	width	Number of columns of the matrices to keep
+	*/
+	public synchronized void retainSize(int height, int width)
+	{
+		String dims = height + "x" + width;
+		Iterator it = buckets.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry entry = (Map.Entry)it.next();
+			String entryKey = (String)entry.getKey();
+			if (getDims(entryKey).equals(dims))
+				continue;
+
+			Vector vec = (Vector)entry.getValue();
+			numBytes -= vec.size()*getSize(entryKey);
+			for (int i = 0; i < vec.size(); i++)
+				discard( vec.get(i) );
+			it.remove();
+		}
+	}
+
+	/**
+	* Drops all pooled matrices
+	*/
+	public synchronized void clear()
+	{
+		Iterator it = buckets.values().iterator();
+		while (it.hasNext())
+		{
+			Vector vec = (Vector)it.next();
+			for (int i = 0; i < vec.size(); i++)
+				discard( vec.get(i) );
+		}
+
+		buckets.clear();
+		numBytes = 0;
+	}
+
+	/**
+	* @return	Number of bytes held by free matrices
+	*/
+	public synchronized long getNumBytes()
+	{
+		return numBytes;
+	}
+
+	/**
+	* @return	Number of matrices acquired so far
+	*/
+	public synchronized int getNumAcquired()
+	{
+		return numAcquired;
+	}
+
+	/**
+	* @return	Number of acquired matrices that were taken from the pool
+	*/
+	public synchronized int getNumReused()
+	{
+		return numReused;
+	}
+
+	private synchronized Object take(String key, long size)
+	{
+		numAcquired++;
+
+		Vector free = (Vector)buckets.get(key);
+		if (free == null || free.isEmpty())
+			return null;
+
+		numReused++;
+		numBytes -= size;
+		return free.remove(free.size()-1);
+	}
+
+	private synchronized void put(String key, Object mat, long size)
+	{
+		if (size > maxBytes)
+		{
+			discard(mat);
+			return;
+		}
+
+		Vector free = (Vector)buckets.get(key);
+		for (int i = 0; free != null && i < free.size(); i++)
+			if (free.get(i) == mat)
+				return; // released twice
+
+		//drop the least recently used buckets until the matrix fits
+		Iterator it = buckets.entrySet().iterator();
+		while (numBytes + size > maxBytes && it.hasNext())
+		{
+			Map.Entry entry = (Map.Entry)it.next();
+			Vector vec = (Vector)entry.getValue();
+			if (vec == free)
+				continue;
+
+			numBytes -= vec.size()*getSize((String)entry.getKey());
+			for (int i = 0; i < vec.size(); i++)
+				discard( vec.get(i) );
+			it.remove();
+		}
+		while (free != null && numBytes + size > maxBytes && !free.isEmpty())
+		{
+			discard( free.remove(0) );
+			numBytes -= size;
+		}
+
+		if (free == null)
+		{
+			free = new Vector();
+			buckets.put(key, free);
+		}
+		free.add(mat);
+		numBytes += size;
+	}
+
+	private static String getDims(String key)
+	{
+		return key.substring( (key.charAt(0) == 'f') ? key.indexOf(':')+1 : 1 );
+	}
+
+	private static long getSize(String key)
+	{
+		int start = (key.charAt(0) == 'f') ? key.indexOf(':')+1 : 1;
+		int sep = key.indexOf('x');
+		int height = Integer.parseInt(key.substring(start, sep));
+		int width = Integer.parseInt(key.substring(sep+1));
+
+		if (key.charAt(0) == 'f')
+			return getFlatSize(width, height, key.charAt(1) - '0');
+		return (key.charAt(0) == 'i') ? 4L*height*width : (long)height*width;
+	}
+
+	private static String getFlatKey(int width, int height, int type, int storage)
+	{
+		return "f" + type + storage + ":" + height + "x" + width;
+	}
+
+	private static void discard(Object mat)
+	{
+		if (mat instanceof FlatImage)
+			((FlatImage)mat).dispose();
+	}
+
+	private static long getFlatSize(int width, int height, int type)
+	{
+		return ((long)width*height) << type; // 1, 2 or 4 bytes per pixel
+	}
+
+	private static boolean isRectangular(int height, int width, Object mat)
+	{
+		for (int y = 0; y < height; y++)
+		{
+			int len = (mat instanceof int[][]) ? ((int[][])mat)[y].length : ((byte[][])mat)[y].length;
+			if (len != width)
+				return false;
+		}
+		return true;
+	}
+}
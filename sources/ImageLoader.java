@@ -0,0 +1,281 @@
+/* ImageLoader.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Loads images from file, optionally decoding only a region of
+ * the image and/or a subsampled version of it.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.media.jai.JAI;
+import javax.media.jai.PlanarImage;
+
+/**
+    * Static methods for loading images. Full images are decoded with JAI, as before.
+    * Reduced reads (a region and/or every n:th pixel) go through an ImageIO reader with
+    * an ImageReadParam, so that only the requested pixels are ever stored in memory.
+    * Formats without an ImageIO reader (e.g. TIFF) are read through the tiles of a JAI
+    * fileload op, one row of tiles at a time, and only the requested pixels are copied
+    * out. The fileload op is kept open by the thread until close is called, so that
+    * the reads of one load (a subsampled pass followed by a region) take the tiles
+    * from the JAI tile cache instead of decoding them again, as far as they fit in
+    * the cache. Whoever reads through the op has to call close when the load is done,
+    * otherwise the file stays open.
+*/
+public class ImageLoader
+{
+	// the fileload op opened by each thread for the current load, as Object[] { fileName, PlanarImage }
+	private static ThreadLocal lastPlanar = new ThreadLocal();
+
+	/**
+	* Decodes a complete image at full resolution
+	*
+	* @param	fileName	The image file
+	* @return	The image
+	*/
+	public static BufferedImage read(String fileName)
+	{
+		return JAI.create("fileload", fileName).getAsBufferedImage();
+	}
+
+	/**
+	* Decodes a region of an image, optionally subsampled
+	*
+	* @param	fileName	The image file
+	* @param	region	The region to decode (in full resolution coordinates), or null for the whole image
+	* @param	subsampling	Only every subsampling:th column and row is decoded (1 = full resolution)
+	* @return	The image, of size ceil(region.width/subsampling) x ceil(region.height/subsampling)
+	* @throws	IOException	If the file could not be read
+	*/
+	public static BufferedImage read(String fileName, Rectangle region, int subsampling) throws IOException
+	{
+		subsampling = Math.max(subsampling, 1);
+
+		ImageInputStream iis = ImageIO.createImageInputStream(new File(fileName));
+		ImageReader reader = getReader(iis);
+		if (reader == null)
+		{
+			if (iis != null)
+				iis.close();
+			return readPlanar(fileName, region, subsampling);
+		}
+
+		try
+		{
+			ImageReadParam param = reader.getDefaultReadParam();
+			if (region != null)
+				param.setSourceRegion(region);
+			if (subsampling > 1)
+				param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+
+			return reader.read(0, param);
+		} finally
+		{
+			reader.dispose();
+			iis.close();
+		}
+	}
+
+	/**
+	* Decodes a subsampled version of a complete image, e.g. for a preview or a coarse analysis
+	*
+	* @param	fileName	The image file
+	* @param	subsampling	Only every subsampling:th column and row is decoded
+	* @return	The subsampled image
+	* @throws	IOException	If the file could not be read
+	*/
+	public static BufferedImage readSubsampled(String fileName, int subsampling) throws IOException
+	{
+		return read(fileName, null, subsampling);
+	}
+
+	/**
+	* Reads the size of an image. Only the header is decoded when an ImageIO reader
+	* for the format exists.
+	*
+	* @param	fileName	The image file
+	* @return	The width and height of the full image
+	* @throws	IOException	If the file could not be read
+	*/
+	public static Dimension readDimension(String fileName) throws IOException
+	{
+		ImageInputStream iis = ImageIO.createImageInputStream(new File(fileName));
+		ImageReader reader = getReader(iis);
+		if (reader == null)
+		{
+			if (iis != null)
+				iis.close();
+
+			//JAI only decodes the tiles that are asked for. The op of the current load is
+			//used if it is for this file, otherwise a temporary one is opened
+			Object[] last = (Object[])lastPlanar.get();
+			if (last != null && last[0].equals(fileName))
+			{
+				PlanarImage img = (PlanarImage)last[1];
+				return new Dimension(img.getWidth(), img.getHeight());
+			}
+
+			PlanarImage img = JAI.create("fileload", fileName);
+			try
+			{
+				return new Dimension(img.getWidth(), img.getHeight());
+			} finally
+			{
+				img.dispose();
+			}
+		}
+
+		try
+		{
+			return new Dimension(reader.getWidth(0), reader.getHeight(0));
+		} finally
+		{
+			reader.dispose();
+			iis.close();
+		}
+	}
+
+	/**
+	* Finds a reader for a stream and attaches it to the stream
+	*
+	* @param	iis	The stream (may be null)
+	* @return	The reader, or null if the format is not supported by ImageIO
+	*/
+	public static ImageReader getReader(ImageInputStream iis)
+	{
+		if (iis == null)
+			return null;
+
+		Iterator it = ImageIO.getImageReaders(iis);
+		if (!it.hasNext())
+			return null;
+
+		ImageReader reader = (ImageReader)it.next();
+		reader.setInput(iis, true, true);
+		return reader;
+	}
+
+	/**
+	* Opens a file with the JAI fileload op, or returns the op this thread opened for it
+	* in the current load. The op stays open until close is called by the same thread.
+	*
+	* @param	fileName	The image file
+	* @return	The op; no tiles are decoded until they are asked for (getData)
+	*/
+	public static PlanarImage openPlanar(String fileName)
+	{
+		Object[] last = (Object[])lastPlanar.get();
+		if (last != null)
+		{
+			if (last[0].equals(fileName))
+				return (PlanarImage)last[1];
+			((PlanarImage)last[1]).dispose();
+		}
+
+		PlanarImage img = JAI.create("fileload", fileName);
+		lastPlanar.set( new Object[] { fileName, img } );
+		return img;
+	}
+
+	/**
+	* Ends the current load of the calling thread: disposes the fileload op opened by
+	* openPlanar (or a reduced read), which closes the file. Does nothing if there is none.
+	*/
+	public static void close()
+	{
+		Object[] last = (Object[])lastPlanar.get();
+		if (last != null)
+		{
+			lastPlanar.set(null);
+			((PlanarImage)last[1]).dispose();
+		}
+	}
+
+	/**
+	* Decodes a region of an image through the tiles of a JAI fileload op, in the same
+	* way as an ImageReadParam would. One row of tiles is decoded at a time and the
+	* requested pixels are copied into a new raster, so neither the full image nor the
+	* tiles outside the region are held.
+	*
+	* @param	fileName	The image file
+	* @param	region	The region to decode, or null for the whole image
+	* @param	subsampling	Only every subsampling:th column and row is decoded
+	* @return	The image
+	*/
+	private static BufferedImage readPlanar(String fileName, Rectangle region, int subsampling)
+	{
+		PlanarImage src = openPlanar(fileName);
+		Rectangle rect = src.getBounds();
+		if (region != null)
+			rect = region.intersection(rect);
+		if (rect.isEmpty())
+			throw new IllegalArgumentException("The region " + region + " is outside the image " + fileName);
+
+		int width = (rect.width + subsampling - 1) / subsampling;
+		int height = (rect.height + subsampling - 1) / subsampling;
+		WritableRaster wr = Raster.createWritableRaster( src.getSampleModel().createCompatibleSampleModel(width, height), null );
+
+		Object pixel = null;
+		int bottom = rect.y + rect.height;
+		for (int top = rect.y; top < bottom; )
+		{
+			int next = Math.min( src.tileYToY( src.YToTileY(top) + 1 ), bottom );
+			Raster band = src.getData( new Rectangle(rect.x, top, rect.width, next - top) );
+
+			if (subsampling <= 1)
+				wr.setRect(-rect.x, -rect.y, band);
+			else
+			{
+				//the first sampled row at or below top
+				int y = top + (subsampling - (top - rect.y) % subsampling) % subsampling;
+				for (; y < next; y+=subsampling)
+					for (int x = 0; x < width; x++)
+					{
+						pixel = band.getDataElements(rect.x + x*subsampling, y, pixel);
+						wr.setDataElements(x, (y - rect.y)/subsampling, pixel);
+					}
+			}
+			top = next;
+		}
+
+		ColorModel cm = src.getColorModel();
+		if (cm == null)
+			cm = PlanarImage.createColorModel( wr.getSampleModel() );
+		return new BufferedImage(cm, wr, cm.isAlphaPremultiplied(), null);
+	}
+}
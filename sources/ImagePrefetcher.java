@@ -0,0 +1,381 @@
+/* ImagePrefetcher.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Decodes the next few images of a list on background threads,
+ * while the current one is being analysed.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Vector;
+
+/**
+    * A bounded read-ahead stage for image files. The caller announces which files it
+    * will need next (prefetch) and later asks for them one at a time (take). Worker
+    * threads decode the announced files in order, but never hold more than a fixed
+    * number of bytes of decoded images; a worker waits until the caller has taken
+    * enough images before it starts on the next file.
+    * A file that could not be decoded in the background is decoded again by take,
+    * so that errors are reported to the caller just like without the prefetcher.
+    * If a MemoryBudget is given, a worker also reserves the estimated size of each
+    * image (see estimateSize) before decoding it, and holds the reservation until
+    * the image is taken or dropped. A large image is thereby not decoded while the
+    * caller is still busy with images that use most of the budget.
+*/
+public class ImagePrefetcher
+{
+	public final static int DEFAULT_NUM_AHEAD = 2;
+	public final static double DEFAULT_MEMORY_FRACTION = 0.25; //of the maximum heap size
+	public final static long ADMISSION_POLL_INTERVAL = 200; //ms
+
+	protected int numAhead;
+	protected long maxBytes;
+	protected MemoryBudget budget;
+
+	protected Vector wanted; // the files announced by the last call to prefetch
+	protected Vector queue; // announced files that no worker has started on
+	protected Vector inProgress; // files that are being decoded
+	protected Hashtable done; // file name -> decoded object, or the Throwable thrown while decoding
+	protected long cachedBytes;
+	protected Hashtable reserved; // file name -> Long, the bytes reserved in the budget for it
+	protected Vector waiting; // files that take is waiting for
+	protected boolean stopped;
+
+	/**
+	* Constructor, starts one worker thread that reads DEFAULT_NUM_AHEAD images ahead
+	* using at most DEFAULT_MEMORY_FRACTION of the heap
+	*/
+	public ImagePrefetcher()
+	{
+		this(1, DEFAULT_NUM_AHEAD, (long)(Runtime.getRuntime().maxMemory()*DEFAULT_MEMORY_FRACTION) );
+	}
+
+	/**
+	* Constructor, starts the worker threads
+	*
+	* @param	numThreads	Number of worker threads
+	* @param	numAhead	Maximum number of files to read ahead
+	* @param	maxBytes	Decoded images are not kept beyond this many bytes
+	*/
+	public ImagePrefetcher(int numThreads, int numAhead, long maxBytes)
+	{
+		this(numThreads, numAhead, maxBytes, null);
+	}
+
+	/**
+	* Constructor, starts the worker threads
+	*
+	* @param	numThreads	Number of worker threads
+	* @param	numAhead	Maximum number of files to read ahead
+	* @param	maxBytes	Decoded images are not kept beyond this many bytes
+	* @param	budget	Memory shared with the caller, or null
+	*/
+	public ImagePrefetcher(int numThreads, int numAhead, long maxBytes, MemoryBudget budget)
+	{
+		this.numAhead = numAhead;
+		this.maxBytes = maxBytes;
+		this.budget = budget;
+
+		wanted = new Vector();
+		queue = new Vector();
+		inProgress = new Vector();
+		done = new Hashtable();
+		cachedBytes = 0;
+		reserved = new Hashtable();
+		waiting = new Vector();
+		stopped = false;
+
+		for (int i = 0; i < numThreads; i++)
+		{
+			Thread worker = new Thread()
+			{
+				public void run()
+				{
+					runWorker();
+				}
+			};
+			worker.setDaemon(true);
+			worker.setPriority(Thread.NORM_PRIORITY-1);
+			worker.start();
+		}
+	}
+
+	/**
+	* Announces the files that will be needed next, in the order they will be taken.
+	* Only the first numAhead files are read; previously decoded images that are not
+	* among them are dropped.
+	*
+	* @param	fileNames	The upcoming files
+	*/
+	public synchronized void prefetch(String[] fileNames)
+	{
+		wanted.clear();
+		queue.clear();
+		for (int i = 0; i < fileNames.length && wanted.size() < numAhead; i++)
+		{
+			wanted.add(fileNames[i]);
+			if (!done.containsKey(fileNames[i]) && !inProgress.contains(fileNames[i]))
+				queue.add(fileNames[i]);
+		}
+
+		for (Enumeration en = done.keys(); en.hasMoreElements(); )
+		{
+			String fileName = (String)en.nextElement();
+			if (!wanted.contains(fileName))
+			{
+				cachedBytes -= sizeOf( done.remove(fileName) );
+				releaseReserved(fileName);
+			}
+		}
+
+		notifyAll();
+	}
+
+	/**
+	* Retrieves a decoded file, waiting for it if a worker is decoding it right now
+	* and decoding it on the calling thread if it was not read ahead.
+	*
+	* @param	fileName	The file
+	* @return	The decoded file (see load)
+	* @throws	Exception	If the file could not be decoded
+	*/
+	public Object take(String fileName) throws Exception
+	{
+		synchronized(this)
+		{
+			queue.remove(fileName);
+			waiting.add(fileName);
+			try
+			{
+				while (inProgress.contains(fileName))
+					wait();
+			} finally
+			{
+				waiting.remove(fileName);
+			}
+			wanted.remove(fileName);
+
+			Object result = done.remove(fileName);
+			if (result != null)
+			{
+				cachedBytes -= sizeOf(result);
+				releaseReserved(fileName);
+				notifyAll();
+				if ( !(result instanceof Throwable) )
+					return result;
+			}
+		}
+
+		return load(fileName);
+	}
+
+	/**
+	* Stops the workers and drops all decoded images. Images that are being decoded
+	* are dropped as soon as they are done.
+	*/
+	public synchronized void shutdown()
+	{
+		stopped = true;
+		wanted.clear();
+		queue.clear();
+		done.clear();
+		cachedBytes = 0;
+		for (Enumeration en = reserved.keys(); en.hasMoreElements(); )
+			releaseReserved( (String)en.nextElement() );
+		notifyAll();
+	}
+
+	/**
+	* Decodes a file. Subclasses may override this to do more of the loading
+	* in the background; the result is handed out unchanged by take.
+	*
+	* @param	fileName	The file
+	* @return	The image (a BufferedImage)
+	*/
+	protected Object load(String fileName) throws Exception
+	{
+		return ImageLoader.read(fileName);
+	}
+
+	/**
+	* Estimates the memory that decoding a file will take, from its header only.
+	* This is what is reserved in the budget before the file is decoded.
+	*
+	* @param	fileName	The file
+	* @return	The estimated number of bytes, 0 if the header could not be read
+	*/
+	protected long estimateSize(String fileName)
+	{
+		try
+		{
+			Dimension dim = ImageLoader.readDimension(fileName);
+			return MemoryBudget.estimateDecoded(dim.width, dim.height);
+		} catch (Exception ex)
+		{
+			//load (or take) will fail on the file, and report the error
+			return 0;
+		}
+	}
+
+	/**
+	* Estimates the memory used by a decoded object
+	*
+	* @param	obj	A BufferedImage, an array of objects, or something else
+	* @return	The number of bytes used by the pixels of the image(s) in the object
+	*/
+	protected static long sizeOf(Object obj)
+	{
+		if (obj instanceof BufferedImage)
+		{
+			DataBuffer db = ((BufferedImage)obj).getRaster().getDataBuffer();
+			return (long)db.getSize()*db.getNumBanks()*DataBuffer.getDataTypeSize(db.getDataType())/8;
+		} else if (obj instanceof Object[])
+		{
+			Object[] objs = (Object[])obj;
+			long size = 0;
+			for (int i = 0; i < objs.length; i++)
+				size += sizeOf(objs[i]);
+			return size;
+		}
+
+		return 0;
+	}
+
+	private void runWorker()
+	{
+		while (true)
+		{
+			String fileName;
+			synchronized(this)
+			{
+				try
+				{
+					while (!stopped && (queue.isEmpty() || cachedBytes >= maxBytes) )
+						wait();
+				} catch (InterruptedException ie)
+				{
+					return;
+				}
+
+				if (stopped)
+					return;
+
+				fileName = (String)queue.remove(0);
+				inProgress.add(fileName);
+			}
+
+			long size = 0;
+			if (budget != null)
+			{
+				size = estimateSize(fileName);
+				if (!admit(fileName, size))
+				{
+					synchronized(this)
+					{
+						inProgress.remove(fileName);
+						notifyAll();
+					}
+					continue;
+				}
+			}
+
+			Object result;
+			try
+			{
+				result = load(fileName);
+			} catch (Throwable t)
+			{
+				//take() will try again and report the error
+				result = t;
+			} finally
+			{
+				//the load is done, so close the file it opened
+				ImageLoader.close();
+			}
+
+			synchronized(this)
+			{
+				inProgress.remove(fileName);
+				if (!stopped && wanted.contains(fileName) )
+				{
+					done.put(fileName, result);
+					cachedBytes += sizeOf(result);
+					if (size > 0)
+						reserved.put(fileName, new Long(size));
+				} else if (budget != null)
+				{
+					budget.release(size);
+				}
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	* Waits until the budget admits a file. A file that take is waiting for is
+	* admitted at once, since the caller would decode it itself otherwise.
+	*
+	* @param	fileName	The file
+	* @param	size	The estimated size of the decoded file
+	* @return	true if the memory was reserved, false if the file is no longer wanted
+	*/
+	private boolean admit(String fileName, long size)
+	{
+		try
+		{
+			while (!budget.reserve(size, ADMISSION_POLL_INTERVAL))
+			{
+				synchronized(this)
+				{
+					if (stopped || !wanted.contains(fileName))
+						return false;
+
+					if (waiting.contains(fileName))
+					{
+						budget.forceReserve(size);
+						return true;
+					}
+				}
+			}
+		} catch (InterruptedException ie)
+		{
+			return false;
+		}
+
+		return true;
+	}
+
+	private void releaseReserved(String fileName)
+	{
+		Long size = (Long)reserved.remove(fileName);
+		if (size != null)
+			budget.release(size.longValue());
+	}
+}
@@ -55,9 +55,15 @@ public class JComponentDisplay extends JComponent
 	public final static byte BORDER_RECT_OFFSET_TINY = 2;
 	
 	protected final static String OBJECT_STR_PREFIX = "Object #";
+	
+	public final static String LAYER_BORDERS = "borders";
+	public final static String LAYER_CONTOURS = "contours";
+	public final static String LAYER_HOTSPOTS = "hotspots";
+	public final static String LAYER_INDENTS = "indents";
 
 	//protected PlanarImage source;
 	protected BufferedImage source, sourceOrg;
+	protected TilePyramid pyramid; //used to draw the pre-scaled (zoomed-out) image
 	protected SampleModel sampleModel;
 	protected ColorModel colorModel;
 	protected int minTileX;
@@ -83,6 +89,7 @@ public class JComponentDisplay extends JComponent
 	protected Point pointObjectLocation;
 	protected Vector vecLines, vecLandmarkPoints;
 	protected byte scaleType = SCALE_MODE_ORG;
+	protected Vector layers = new Vector(); //OverlayLayers, drawn in this order on top of the image
 
 	/**
 	* Initializes the graphical area.
@@ -93,7 +100,7 @@ public class JComponentDisplay extends JComponent
 		if(source == null)
 			return;
 		
-		if (scaleType == this.SCALE_MODE_DYNAMIC)
+		if (scaleType != this.SCALE_MODE_ORG)
 		{
 			componentWidth = (int)(source.getWidth()*scaleFactor);
 			componentHeight = (int)(source.getHeight()*scaleFactor);
@@ -194,6 +201,12 @@ public class JComponentDisplay extends JComponent
 	{
 		sourceOrg = img;
 		//source = img;
+		
+		//the image may have been painted on since it was last set
+		if (pyramid != null)
+			pyramid.dispose();
+		pyramid = null;
+		
 		setScaleType(scaleType, scaleFactor);
 		initialize();
 		repaint();
@@ -535,25 +548,31 @@ public class JComponentDisplay extends JComponent
 			
 			
 			//make sure we stay within bounds
-			if ( (rectangle.getX() + rectangle.getWidth() ) > source.getWidth() )
+			if ( (rectangle.getX() + rectangle.getWidth() ) > componentWidth )
 				rectangle.setBounds( (int)rectangle.getX(), (int)rectangle.getY(),
-					(int) (source.getWidth() - rectangle.getX() ), (int)rectangle.getHeight() );
-			if ( (rectangle.getY() + rectangle.getHeight() ) > source.getHeight() )
+					(int) (componentWidth - rectangle.getX() ), (int)rectangle.getHeight() );
+			if ( (rectangle.getY() + rectangle.getHeight() ) > componentHeight )
 				rectangle.setBounds( (int)rectangle.getX(), (int)rectangle.getY(),
-					(int)rectangle.getWidth(), (int) (source.getHeight() - rectangle.getY() ));
+					(int)rectangle.getWidth(), (int) (componentHeight - rectangle.getY() ));
 			
 			
 			if (rectangle.getWidth() > 0 && rectangle.getHeight() > 0)
 			{
 				try
 				{
-					Raster r = source.getData(rectangle);
-					Raster r2 = r.createTranslatedChild(0, 0);
-
-					BufferedImage bufferedImage = new BufferedImage( (int)rectangle.getWidth(), (int)rectangle.getHeight(), source.getType());
-					bufferedImage.setData(r2);
-		
-					graphics2d.drawImage(bufferedImage, null, (int)rectangle.getX(), (int)rectangle.getY());
+					if (this.scaleType == this.SCALE_MODE_PRESCALE && pyramid != null)
+					{
+						//only the tiles that are visible are drawn
+						pyramid.paint(graphics2d, rectangle, scaleFactor, this);
+					} else
+					{
+						//draw the visible part straight from the source, without copying it first
+						int x1 = (int)rectangle.getX(), y1 = (int)rectangle.getY();
+						int x2 = x1 + (int)rectangle.getWidth(), y2 = y1 + (int)rectangle.getHeight();
+						graphics2d.drawImage(source, x1, y1, x2, y2, x1, y1, x2, y2, null);
+					}
+					
+					paintLayers(graphics2d, rectangle);
 					
 				
 					//display a rectangle around a border point
@@ -770,7 +789,7 @@ public class JComponentDisplay extends JComponent
 			rectScaled.setBounds( (int) (rectangle.getX()/scaleFactor),
 				(int) (rectangle.getY()/scaleFactor), (int) (rectangle.getWidth()/scaleFactor),
 				(int) (rectangle.getHeight()/scaleFactor) );
-			System.err.println(rectScaled);
+			//System.err.println(rectScaled);
 			
 			//make sure we stay within bounds
 			if ( (rectScaled.getX() + rectScaled.getWidth() ) >= source.getWidth() )
@@ -814,17 +833,15 @@ public class JComponentDisplay extends JComponent
 				
 				try
 				{
-					Raster r = source.getData(rectScaled);
-					Raster r2 = r.createTranslatedChild(0, 0);
-			
-					BufferedImage bufferedImage = new BufferedImage( (int)rectScaled.getWidth(), (int)rectScaled.getHeight(), source.getType());
-					bufferedImage.setData(r2);
-		
 					//graphics2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
 					graphics2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
-					//graphics2d.drawImage(bufferedImage, null, (int)rectangle.getX(), (int)rectangle.getY());
-					graphics2d.drawImage(bufferedImage, (int)rectangle.getX(), (int)rectangle.getY(),
-						(int)rectangle.getWidth(), (int)rectangle.getHeight(), null);
+					//scale the visible part of the source onto the visible part of the component
+					graphics2d.drawImage(source, (int)rectangle.getX(), (int)rectangle.getY(),
+						(int)(rectangle.getX()+rectangle.getWidth()), (int)(rectangle.getY()+rectangle.getHeight()),
+						(int)rectScaled.getX(), (int)rectScaled.getY(),
+						(int)(rectScaled.getX()+rectScaled.getWidth()), (int)(rectScaled.getY()+rectScaled.getHeight()), null);
+					
+					paintLayers(graphics2d, rectangle);
 						
 					//display a rectangle around a border point
 					if (pointVarBorder != null)
@@ -1042,6 +1059,97 @@ public class JComponentDisplay extends JComponent
 		pointFixedBorder1 = null;
 		pointFixedBorder2 = null;
 		vecLandmarkPoints = null;
+		removeLayers();
+	}
+	
+	/**
+	* Adds an overlay layer, which is drawn on top of the image (in the coordinates of
+	* the original image). A layer with the same name is replaced, and keeps its position
+	* among the other layers. The layer should not be changed after it has been added.
+	* 
+	* @param	layer	The layer
+	*/
+	public void setLayer(OverlayLayer layer)
+	{
+		synchronized(layers)
+		{
+			for (int i = 0; i < layers.size(); i++)
+				if ( ((OverlayLayer)layers.get(i)).getName().equals(layer.getName()) )
+				{
+					layers.set(i, layer);
+					repaint();
+					return;
+				}
+			
+			layers.add(layer);
+		}
+		repaint();
+	}
+	
+	/**
+	* Retrieves an overlay layer
+	* 
+	* @param	name	The name of the layer
+	* @return	The layer, or null if there is no such layer
+	*/
+	public OverlayLayer getLayer(String name)
+	{
+		synchronized(layers)
+		{
+			for (int i = 0; i < layers.size(); i++)
+				if ( ((OverlayLayer)layers.get(i)).getName().equals(name) )
+					return (OverlayLayer)layers.get(i);
+		}
+		return null;
+	}
+	
+	/**
+	* Shows or hides an overlay layer
+	* 
+	* @param	name	The name of the layer
+	* @param	visible	True to show the layer
+	*/
+	public void setLayerVisible(String name, boolean visible)
+	{
+		OverlayLayer layer = getLayer(name);
+		if (layer != null && layer.isVisible() != visible)
+		{
+			layer.setVisible(visible);
+			repaint();
+		}
+	}
+	
+	/**
+	* Removes all overlay layers
+	*/
+	public void removeLayers()
+	{
+		layers.clear();
+		repaint();
+	}
+	
+	/**
+	* Paints the visible overlay layers into an image, e.g. a copy of the displayed image that is to be saved
+	* 
+	* @param	img	The image (of the same size as the displayed image)
+	*/
+	public void paintLayers(BufferedImage img)
+	{
+		Object[] layerArr = layers.toArray();
+		for (int i = 0; i < layerArr.length; i++)
+			if ( ((OverlayLayer)layerArr[i]).isVisible() )
+				((OverlayLayer)layerArr[i]).paint(img);
+	}
+	
+	/**
+	* Draws the visible overlay layers within the clip
+	*/
+	private void paintLayers(Graphics2D graphics2d, Rectangle clip)
+	{
+		Object[] layerArr = layers.toArray();
+		for (int i = 0; i < layerArr.length; i++)
+			if ( ((OverlayLayer)layerArr[i]).isVisible() )
+				((OverlayLayer)layerArr[i]).paint(graphics2d, clip, scaleFactor);
 	}
 	
 	/**
@@ -1061,6 +1169,8 @@ public class JComponentDisplay extends JComponent
 	*/
 	public BufferedImage getScaled()
 	{
+		if (this.scaleType == this.SCALE_MODE_PRESCALE && Math.abs(scaleFactor - 1.0) > epsilon)
+			return createScaledImage();
 		return source;
 	}
 	
@@ -1075,7 +1185,8 @@ public class JComponentDisplay extends JComponent
 	}
 
 	/**
-	* Apply scaling to the assigned image
+	* Apply scaling to the assigned image. The scaled image is drawn from a tile
+	* pyramid, which is only created once for each assigned image.
 	* 
 	*/
 	private void scaleImage()
@@ -1083,6 +1194,23 @@ public class JComponentDisplay extends JComponent
 		if (sourceOrg == null)
 			return;
 		
+		if (pyramid == null || pyramid.getImage() != sourceOrg)
+		{
+			if (pyramid != null)
+				pyramid.dispose();
+			pyramid = new TilePyramid(sourceOrg);
+		}
+		
+		source = sourceOrg;
+	}
+	
+	/**
+	* Creates a scaled copy of the assigned image
+	* 
+	* @return	The scaled image
+	*/
+	private BufferedImage createScaledImage()
+	{
 		BufferedImage scaledImage = new BufferedImage( (int)(sourceOrg.getWidth()*scaleFactor), 
 			(int)(sourceOrg.getHeight()*scaleFactor), BufferedImage.TYPE_INT_RGB);
 			
@@ -1093,7 +1221,7 @@ public class JComponentDisplay extends JComponent
 		g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
 		g2.drawImage(sourceOrg, 0, 0, scaledImage.getWidth(), scaledImage.getHeight(), null);
 		
-		source = scaledImage;
+		return scaledImage;
 	}
 	
 	/**
@@ -1172,21 +1300,9 @@ public class JComponentDisplay extends JComponent
 				sourceOrg.setData(r);
 				*/
 				
-				// ... and then draw the scaled image
-				wrTemp = source.getData(rect).createCompatibleWritableRaster();
-				//System.err.println("Drawing rect: " + rect);
-				//System.err.println("WritableRaster: " + wrTemp);
-			
-				for (int x = 0; x < wrTemp.getWidth(); x++)
-					for (int y = 0; y < wrTemp.getHeight(); y++)
-					{
-						wrTemp.setSample(x, y, PlanarImageEdit.BAND_R, c.getRed() );
-						wrTemp.setSample(x, y, PlanarImageEdit.BAND_G, c.getGreen() );
-						wrTemp.setSample(x, y, PlanarImageEdit.BAND_B, c.getBlue() );
-					}
-		
-				Raster r2 = wrTemp.createTranslatedChild( (int)rect.getX(), (int)rect.getY());
-				source.setData(r2);
+				// ... and then drop the tiles of the scaled image that show it
+				if (pyramid != null)
+					pyramid.invalidate(rectScaled);
 				
 			} else
 			{
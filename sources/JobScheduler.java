@@ -0,0 +1,277 @@
+/* JobScheduler.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Predicts how long the analysis of an image will take, and orders
+ * the files of a batch so that the quick ones are done first.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Properties;
+
+/**
+    * Predicts the analysis time of each image of a batch and orders the files by it.
+    * The time of a file that has been analysed before (and has the same file size)
+    * is the recorded time. Otherwise it is the number of pixels, read from the header,
+    * times the average time per pixel of all recorded files; if the header cannot be
+    * read, the number of pixels is taken to be 0, so the file is predicted to be quick
+    * (it usually fails to load) and its time is left out of the average. The recorded
+    * times can be saved to a file, so that later batches start from them; only the
+    * MAX_TIMINGS most recently recorded files are kept.
+*/
+public class JobScheduler
+{
+	public final static double DEFAULT_MILLIS_PER_PIXEL = 1.0e-3; //until anything has been recorded
+	public final static int MAX_TIMINGS = 5000; //files kept when saving
+
+	protected Properties timings; // absolute file name -> "millis,pixels,file size,time recorded"
+	protected Hashtable pixels; // file name -> Long, the header size of the files seen by order
+	protected double millisPerPixel; // of the recorded files, or < 0 if it has to be calculated again
+
+	/**
+	* Constructor, without any recorded times
+	*/
+	public JobScheduler()
+	{
+		timings = new Properties();
+		pixels = new Hashtable();
+		millisPerPixel = -1;
+	}
+
+	/**
+	* Reads the times recorded by earlier batches
+	*
+	* @param	file	A file written by save
+	* @throws	IOException	If the file could not be read
+	*/
+	public void load(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			timings.load(in);
+			millisPerPixel = -1;
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	* Writes the recorded times. Only the MAX_TIMINGS most recently recorded files
+	* are written (and kept), so that the file does not grow with every batch.
+	*
+	* @param	file	The file
+	* @throws	IOException	If the file could not be written
+	*/
+	public void save(File file) throws IOException
+	{
+		prune(MAX_TIMINGS);
+
+		FileOutputStream out = new FileOutputStream(file);
+		try
+		{
+			timings.store(out, "Analysis time (ms), number of pixels, file size and time of recording of each image");
+		} finally
+		{
+			out.close();
+		}
+	}
+
+	/**
+	* Records the analysis time of a file. The number of pixels is the one read
+	* by order (or predictCost), so that times and predictions use the same size.
+	*
+	* @param	fileName	The file
+	* @param	millis	The analysis time, in milliseconds
+	*/
+	public void record(String fileName, long millis)
+	{
+		File file = new File(fileName);
+		long numPixels = getPixels(fileName);
+		timings.setProperty(file.getAbsolutePath(), millis + "," + numPixels + "," + file.length() + "," + System.currentTimeMillis());
+		millisPerPixel = -1;
+	}
+
+	/**
+	* Predicts the analysis time of a file
+	*
+	* @param	fileName	The file
+	* @return	The predicted time, in milliseconds
+	*/
+	public double predictCost(String fileName)
+	{
+		File file = new File(fileName);
+		long[] rec = parse( timings.getProperty(file.getAbsolutePath()) );
+		if (rec != null && rec[2] == file.length())
+			return rec[0];
+
+		return getPixels(fileName)*getMillisPerPixel();
+	}
+
+	/**
+	* Orders files by their predicted analysis time, quickest first. Files with the
+	* same predicted time keep their order.
+	*
+	* @param	fileNames	The files
+	* @return	The indices of the files, in the order they should be analysed
+	*/
+	public int[] order(String[] fileNames)
+	{
+		final double[] costs = new double[fileNames.length];
+		Integer[] indices = new Integer[fileNames.length];
+		for (int i = 0; i < fileNames.length; i++)
+		{
+			costs[i] = predictCost(fileNames[i]);
+			indices[i] = new Integer(i);
+		}
+
+		//a stable sort, so the table order is kept among equal predictions
+		Arrays.sort(indices, new Comparator()
+		{
+			public int compare(Object o1, Object o2)
+			{
+				double c1 = costs[ ((Integer)o1).intValue() ];
+				double c2 = costs[ ((Integer)o2).intValue() ];
+				return (c1 < c2) ? -1 : ( (c1 > c2) ? 1 : 0 );
+			}
+		});
+
+		int[] order = new int[fileNames.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = indices[i].intValue();
+		return order;
+	}
+
+	/**
+	* @return	The average analysis time per pixel of the recorded files whose number of
+	*	pixels is known, in milliseconds. It is calculated once after each change of the
+	*	recorded times.
+	*/
+	public double getMillisPerPixel()
+	{
+		if (millisPerPixel >= 0)
+			return millisPerPixel;
+
+		double sumMillis = 0, sumPixels = 0;
+		for (Enumeration en = timings.elements(); en.hasMoreElements(); )
+		{
+			long[] rec = parse( (String)en.nextElement() );
+			if (rec != null && rec[1] > 0)
+			{
+				sumMillis += rec[0];
+				sumPixels += rec[1];
+			}
+		}
+
+		millisPerPixel = (sumPixels > 0) ? sumMillis/sumPixels : DEFAULT_MILLIS_PER_PIXEL;
+		return millisPerPixel;
+	}
+
+	/**
+	* Removes all but the most recently recorded files
+	*
+	* @param	maxTimings	The number of files to keep
+	*/
+	protected void prune(int maxTimings)
+	{
+		if (timings.size() <= maxTimings)
+			return;
+
+		final Object[] keys = timings.keySet().toArray();
+		final long[] recorded = new long[keys.length];
+		Integer[] indices = new Integer[keys.length];
+		for (int i = 0; i < keys.length; i++)
+		{
+			long[] rec = parse( timings.getProperty((String)keys[i]) );
+			recorded[i] = (rec != null) ? rec[3] : 0;
+			indices[i] = new Integer(i);
+		}
+
+		//the oldest (and unreadable) entries first
+		Arrays.sort(indices, new Comparator()
+		{
+			public int compare(Object o1, Object o2)
+			{
+				long r1 = recorded[ ((Integer)o1).intValue() ];
+				long r2 = recorded[ ((Integer)o2).intValue() ];
+				return (r1 < r2) ? -1 : ( (r1 > r2) ? 1 : 0 );
+			}
+		});
+
+		for (int i = 0; i < keys.length - maxTimings; i++)
+			timings.remove( keys[ indices[i].intValue() ] );
+		millisPerPixel = -1;
+	}
+
+	private long getPixels(String fileName)
+	{
+		Long numPixels = (Long)pixels.get(fileName);
+		if (numPixels == null)
+		{
+			try
+			{
+				Dimension dim = ImageLoader.readDimension(fileName);
+				numPixels = new Long( (long)dim.width*dim.height );
+			} catch (Exception ex)
+			{
+				//unknown, and not counted in getMillisPerPixel
+				numPixels = new Long(0);
+			}
+			pixels.put(fileName, numPixels);
+		}
+		return numPixels.longValue();
+	}
+
+	private static long[] parse(String str)
+	{
+		if (str == null)
+			return null;
+
+		String[] parts = str.split(",");
+		if (parts.length != 4)
+			return null;
+
+		try
+		{
+			long[] rec = new long[4];
+			for (int i = 0; i < parts.length; i++)
+				rec[i] = Long.parseLong(parts[i].trim());
+			return rec;
+		} catch (NumberFormatException ex)
+		{
+			return null;
+		}
+	}
+}
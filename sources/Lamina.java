@@ -117,6 +117,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 	protected static int[] listOfRowsWritten;
 	protected static String outputFileBatch;
 	protected static int currentImageFileInd;
+	protected static ImagePrefetcher imagePrefetcher;
 	protected static String calibFilename;
 	
 	protected static double calibWidth, calibHeight;
@@ -768,6 +769,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 				outputPath = settings.getOutputDir();
 				
 				statFileHeaderWritten = false;
+				clearImagePrefetcher();
 				
 				lastInDir = currentFile.getParentFile();
 				currentFilename = new String( currentFile.getAbsolutePath() );
@@ -841,6 +843,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 			{
 				inputPath = jfc.getSelectedFile();
 				outputPath = settings.getOutputDir();
+				clearImagePrefetcher();
 			
 				//fetch all images in the current folder
 				listOfImageFiles = inputPath.list(ffImage);
@@ -1153,19 +1156,20 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 						BufferedImage imgCroppedCopy = new BufferedImage(imgCropped.getWidth(), imgCropped.getHeight(), imgCropped.getType() );
 						imgCroppedCopy.setData( imgCropped.getData() );
 						imgCroppedCopy = PlanarImageEdit.applyMask(imgCroppedCopy, imgMatBinary);
-						GrayscaleImageEdit.paintSegmentationResults(vecSegObjs, vecSegObjNoCavities, vecSegObjCenters, vecSegObjBorders, vecSegObjBorderBPInner, vecPriSecLines, vecIntersectPoints, imgCroppedCopy.getGraphics());
+						GrayscaleImageEdit.paintSegmentationResults(vecSegObjs, vecSegObjNoCavities, vecSegObjCenters, vecSegObjBorders, vecSegObjBorderBPInner, vecPriSecLines, vecIntersectPoints, imgCroppedCopy);
 						//GrayscaleImageEdit.paintBordersAndCavities(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBorderBPInner, imgCroppedCopy.getGraphics());
 						
-						if (contourUnique != null && vecContourHotspotConnections != null && vecContourIndents != null)
+						if (vecContourHotspotConnections != null && vecContourIndents != null)
 						{
-							PlanarImageEdit.paintIntegerMatrix(contourUnique, Color.BLUE, imgCroppedCopy.getGraphics() );
+							if (contourUnique != null) //not available for fast serrations
+								PlanarImageEdit.paintIntegerMatrix(contourUnique, Color.BLUE, imgCroppedCopy );
 							//PlanarImageEdit.paintVector(vecSegObjs, Color.GREEN, imgDisplay.getGraphics() );
 							//PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, imgCroppedCopy.getGraphics() );
 							GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, imgCroppedCopy.getGraphics(), Color.RED, false);
 							GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, imgCroppedCopy.getGraphics(), Color.ORANGE );
 						}
 						
-						GrayscaleImageEdit.paintBorders(vecSegObjBordersShort, Color.YELLOW, imgCroppedCopy.getGraphics());
+						GrayscaleImageEdit.paintBorders(vecSegObjBordersShort, Color.YELLOW, imgCroppedCopy);
 						GrayscaleImageEdit.paintObjectIds(vecSegObjCenters, imgCroppedCopy.getGraphics());
 						
 						
@@ -1370,9 +1374,8 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 				
 				try
 				{
-					PlanarImage imgTemp = JAI.create("fileload", calibFilename);
-					imgCalib = imgTemp.getAsBufferedImage();
-					Raster rasterCalib = imgCalib.getData();
+					imgCalib = ImageLoader.read(calibFilename);
+					Raster rasterCalib = imgCalib.getRaster();
 					
 					//switch to default image type if we can't recognize it
 					int imgType = imgCalib.getType();
@@ -1459,7 +1462,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 							//dialogCalibProgress.getPBTotal().setVisible(false);
 							//dialogCalibProgress.getPBTotal().setValue(0);
 							
-							Raster rasterCalib = imgCalib.getData();
+							Raster rasterCalib = imgCalib.getRaster();
 							
 							dialogCalibProgress.getLabelCurrent().setText("Extracting color difference image...");
 									
@@ -1498,79 +1501,17 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 							int r,g,b;
 							int diff;
 
+							// low values denote a high dominance of one color, high values denote low dominance (close to grayscale)
+							PixelKernels.maxDiffChannel(rasterCalib, imgMatMaxDiffChannel);
+							
+							long sumIntensity = 0;
 							for (int h = 0; h < imgCalib.getHeight(); h++)
-								for (int w = 0; w < imgCalib.getWidth(); w++)
-								{
-									r = rasterCalib.getSample(w,h,PlanarImageEdit.BAND_R);
-									g = rasterCalib.getSample(w,h,PlanarImageEdit.BAND_G);
-									b = rasterCalib.getSample(w,h,PlanarImageEdit.BAND_B);
-									
-									diff =
-										255 -
-										( Math.max( Math.max(r, g), b)-
-										 Math.min( Math.min(r, g), b) );
-									
-										 
-									imgMatMaxDiffChannel[h][w] = diff;
-									
-									
-									//try to remove black edge pixels
-									/*
-									if ( (w < edgePixelLowerX || w > edgePixelUpperX || h < edgePixelLowerY || h > edgePixelUpperY) && (255 - imgMatMaxDiffChannel[h][w]) < EDGE_INT_THRESH)
-									{
-										r = 255;
-										g = 255;
-										b = 255;
-									}
-									*/
-									
-									
-									//bluePixels[ index++ ] = b;
-									
-									
-									//System.err.print( bluePixels[ index - 1] + "," );
-									
-									//ranges from 0 to 255
-									/*
-									imgMatMaxDiffChannel[h][w] =
-										(int)(
-										Math.max( Math.max(rasterOrg.getSample(w,h,PlanarImageEdit.BAND_R),
-											rasterOrg.getSample(w,h,PlanarImageEdit.BAND_G)), 
-											rasterOrg.getSample(w,h,PlanarImageEdit.BAND_B) ) /
-										
-										Math.max( Math.min( Math.min(rasterOrg.getSample(w,h,PlanarImageEdit.BAND_R),
-											rasterOrg.getSample(w,h,PlanarImageEdit.BAND_G)), 
-											rasterOrg.getSample(w,h,PlanarImageEdit.BAND_B) ), 1.0) );
-									*/
-									
-									
-									
-									// low values denote a high dominance of one color, high values denote low dominance (close to grayscale)
-									
-										
-									//meanIntensity += imgMatMaxDiffChannel[h][w]/numPixels;
-											
-									
-									imgMatCalibGrayscaleTemplate[h][w]=(int)imgMatMaxDiffChannel[h][w];
-									imgMatCalibGrayscale[h][w]=imgMatMaxDiffChannel[h][w];
-									
-									meanIntensity += imgMatCalibGrayscaleTemplate[h][w]/numPixels;
-									
-									//square
-									//imgMatMaxDiffChannel[h][w] = imgMatMaxDiffChannel[h][w]*imgMatMaxDiffChannel[h][w]*imgMatMaxDiffChannel[h][w];
-									
-									
-									//truncate pixels with a too low intensity
-									/*
-									if (imgMatMaxDiffChannel[h][w] < 40)
-									{
-										bluePixels[index-1] = 255;
-										imgMatGrayscaleTemplate[h][w] = 255;
-										imgMatGrayscale[h][w] = 255;
-										
-									}
-									*/
-								}
+							{
+								System.arraycopy(imgMatMaxDiffChannel[h], 0, imgMatCalibGrayscaleTemplate[h], 0, imgCalib.getWidth());
+								System.arraycopy(imgMatMaxDiffChannel[h], 0, imgMatCalibGrayscale[h], 0, imgCalib.getWidth());
+								sumIntensity += PixelKernels.sum(imgMatMaxDiffChannel[h], 0, imgCalib.getWidth());
+							}
+							meanIntensity = sumIntensity/numPixels;
 							
 							//imgMatGrayscaleTemplate = GrayscaleImageEdit.applyMask(imgMatGrayscaleTemplate, imgMatMaxDiffChannel, true);
 							//imgMatGrayscale = GrayscaleImageEdit.applyMask(imgMatGrayscale, imgMatMaxDiffChannel, true);
@@ -1678,6 +1619,23 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 									//quantileBlue = GrayscaleImageEdit.detectThresholdGreedyMax(imgMatGrayscaleTemplate, imgMatGrayscale,
 									//	10, 10, (int)meanIntensity, 10, frame, dialogCalibProgress.getPBCurrent() );
 									
+								} else if (settings.getThresholdSearchPyramid() )
+								{
+									dialogCalibProgress.getLabelCurrent().setText("Detecting optimal threshold for segmentation (pyramid)...");
+									quantileBlue = GrayscaleImageEdit.detectThresholdPyramid(imgMatMaxDiffChannel, imgMatCalibGrayscale,
+										3, 3, (int)settings.getThresholdSearchStepLength(), GrayscaleImageEdit.PYRAMID_LEVELS,
+										frame, dialogCalibProgress.getPBCurrent() );
+									
+								} else if (settings.getThresholdSearchOtsu() )
+								{
+									dialogCalibProgress.getLabelCurrent().setText("Detecting threshold for segmentation (Otsu)...");
+									quantileBlue = GrayscaleImageEdit.detectThresholdOtsu(imgMatMaxDiffChannel);
+									
+								} else if (settings.getThresholdSearchTriangle() )
+								{
+									dialogCalibProgress.getLabelCurrent().setText("Detecting threshold for segmentation (triangle)...");
+									quantileBlue = GrayscaleImageEdit.detectThresholdTriangle(imgMatMaxDiffChannel);
+									
 								} else
 								{
 									dialogCalibProgress.getLabelCurrent().setText("Using manual threshold for segmentation...");
@@ -1981,8 +1939,8 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 									
 								dialogCalibProgress.getLabelInterim().setText("Scaling parameter is " + scaleMean + " pixels/mm");
 									
-								GrayscaleImageEdit.paintSegmentationResults(vecSegObjsCalib, vecSegObjsCalib, vecSegObjCentersCalib, vecSegObjBordersCalib, null, vecHorizVertLinesCalib, vecIntersectPointsCalib, imgCalibDisplay.getGraphics());
-								GrayscaleImageEdit.paintBorders(vecSegObjBordersCalib, Color.YELLOW, imgCalibDisplay.getGraphics());
+								GrayscaleImageEdit.paintSegmentationResults(vecSegObjsCalib, vecSegObjsCalib, vecSegObjCentersCalib, vecSegObjBordersCalib, null, vecHorizVertLinesCalib, vecIntersectPointsCalib, imgCalibDisplay);
+								GrayscaleImageEdit.paintBorders(vecSegObjBordersCalib, Color.YELLOW, imgCalibDisplay);
 								GrayscaleImageEdit.paintObjectIds(vecSegObjCentersCalib, imgCalibDisplay.getGraphics());
 														
 								
@@ -2129,7 +2087,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 					//dialogProgress.getPBTotal().setVisible(false);
 					//dialogProgress.getPBTotal().setValue(0);
 					
-					Raster rasterOrg = imgDisplay.getData();
+					Raster rasterOrg = imgDisplay.getRaster(); //not a copy, only read before anything is painted
 					
 					dialogProgress.getLabelCurrent().setText("Extracting blue band...");
 							
@@ -2166,75 +2124,15 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 					
 					int r,g,b;
 					
+					PixelAccess pixelsOrg = new PixelAccess(rasterOrg);
+					long sumIntensity = 0;
 					for (int h = 0; h < imgOrg.getHeight(); h++)
-						for (int w = 0; w < imgOrg.getWidth(); w++)
-						{
-							
-							b = rasterOrg.getSample(w,h,PlanarImageEdit.BAND_B);
-							
-							//imgMatMaxDiffChannel[h][w] = (r + g + b)/3.0;
-							
-							/*
-							r = rasterOrg.getSample(w,h,PlanarImageEdit.BAND_R);
-							g = rasterOrg.getSample(w,h,PlanarImageEdit.BAND_G);
-							
-							imgMatMaxDiffChannel[h][w] =
-								255 - 
-								( Math.max( Math.max(r, g), b) -
-								Math.min( Math.min(r, g), b) );
-							
-							if (imgMatMaxDiffChannel[h][w] > maxDiffChannel)
-								maxDiffChannel = imgMatMaxDiffChannel[h][w];
-							*/
-							
-							//try to remove black edge pixels
-							/*
-							if ( (w < edgePixelLowerX || w > edgePixelUpperX || h < edgePixelLowerY || h > edgePixelUpperY) && imgMatMaxDiffChannel[h][w] < EDGE_INT_THRESH)
-							{
-								b = 255;
-							}
-							*/
-							
-							
-							
-							//bluePixels[ index++ ] = b;
-							imgMatGrayscaleTemplateOrg[h][w] = b;
-							imgMatGrayscaleOrg[h][w] = imgMatGrayscaleTemplateOrg[h][w];
-							meanIntensity += imgMatGrayscaleTemplateOrg[h][w]/numPixels;
-							//System.err.print( bluePixels[ index - 1] + "," );
-							
-							//ranges from 0 to 255
-							/*
-							imgMatMaxDiffChannel[h][w] =
-								(int)(
-								Math.max( Math.max(rasterOrg.getSample(w,h,PlanarImageEdit.BAND_R),
-									rasterOrg.getSample(w,h,PlanarImageEdit.BAND_G)), 
-									rasterOrg.getSample(w,h,PlanarImageEdit.BAND_B) ) /
-								
-								Math.max( Math.min( Math.min(rasterOrg.getSample(w,h,PlanarImageEdit.BAND_R),
-									rasterOrg.getSample(w,h,PlanarImageEdit.BAND_G)), 
-									rasterOrg.getSample(w,h,PlanarImageEdit.BAND_B) ), 1.0) );
-							*/
-							
-							
-									
-								
-							
-							//square
-							//imgMatMaxDiffChannel[h][w] = imgMatMaxDiffChannel[h][w]*imgMatMaxDiffChannel[h][w]*imgMatMaxDiffChannel[h][w];
-							
-							
-							//truncate pixels with a too low intensity
-							/*
-							if (imgMatMaxDiffChannel[h][w] < 40)
-							{
-								bluePixels[index-1] = 255;
-								imgMatGrayscaleTemplate[h][w] = 255;
-								imgMatGrayscale[h][w] = 255;
-								
-							}
-							*/
-						}
+					{
+						pixelsOrg.getBandRow(h, PlanarImageEdit.BAND_B, imgMatGrayscaleTemplateOrg[h]);
+						System.arraycopy(imgMatGrayscaleTemplateOrg[h], 0, imgMatGrayscaleOrg[h], 0, imgOrg.getWidth());
+						sumIntensity += PixelKernels.sum(imgMatGrayscaleTemplateOrg[h], 0, imgOrg.getWidth());
+					}
+					meanIntensity = sumIntensity/numPixels;
 					
 					/*
 					//normalize the maxDiffChannel and multiply with the intensity values
@@ -2423,6 +2321,23 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 							//quantileBlue = GrayscaleImageEdit.detectThresholdGreedyMax(imgMatGrayscaleTemplate, imgMatGrayscale,
 							//	10, 10, (int)meanIntensity, 10, frame, dialogProgress.getPBCurrent() );
 							
+						} else if (settings.getThresholdSearchPyramid() )
+						{
+							dialogProgress.getLabelCurrent().setText("Detecting optimal threshold for segmentation (pyramid)...");
+							quantileBlue = GrayscaleImageEdit.detectThresholdPyramid(imgMatGrayscaleTemplateOrg, imgMatGrayscaleOrg,
+								3, 3, (int)settings.getThresholdSearchStepLength(), GrayscaleImageEdit.PYRAMID_LEVELS,
+								frame, dialogProgress.getPBCurrent() );
+							
+						} else if (settings.getThresholdSearchOtsu() )
+						{
+							dialogProgress.getLabelCurrent().setText("Detecting threshold for segmentation (Otsu)...");
+							quantileBlue = GrayscaleImageEdit.detectThresholdOtsu(imgMatGrayscaleTemplateOrg);
+							
+						} else if (settings.getThresholdSearchTriangle() )
+						{
+							dialogProgress.getLabelCurrent().setText("Detecting threshold for segmentation (triangle)...");
+							quantileBlue = GrayscaleImageEdit.detectThresholdTriangle(imgMatGrayscaleTemplateOrg);
+							
 						} else
 						{
 							dialogProgress.getLabelCurrent().setText("Using manual threshold for segmentation...");
@@ -2736,6 +2651,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 						
 						//display result
 						imgDisplay = imgCropped;
+						componentImageCropped.removeLayers();
 						componentImageCropped.set(imgCropped);
 						//componentImageCropped.setScaleType(JComponentDisplay.SCALE_MODE_PRESCALE, zoomLevelCropped);
 						panelSplit2.setVisible(true);
@@ -2897,7 +2813,9 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 						dialogProgress.getPBCurrent().setValue(0);
 						
 					
-						GrayscaleImageEdit.paintBordersAndCavities(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBorderBPInner, imgDisplay.getGraphics());
+						//the overlays are drawn on top of imgDisplay, which is left unchanged
+						OverlayLayer layerBorders = new OverlayLayer(JComponentDisplay.LAYER_BORDERS);
+						GrayscaleImageEdit.paintBordersAndCavities(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBorderBPInner, layerBorders);
 						
 						
 						Vector[] vecHorizVertLinesObj = GrayscaleImageEdit.fetchHorizVertLines(imgSegCropped, vecSegObjs, vecSegObjBordersShort,
@@ -2913,7 +2831,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 						
 						componentImageCropped.setVectorOfLines(vecPriSecLines);
 						componentImageCropped.setBorderLandmarks(vecSegObjBordersShortLandmarks);
-						componentImageCropped.set(imgDisplay);
+						componentImageCropped.setLayer(layerBorders);
 						componentImageCropped.repaint();
 						
 						//frame.setCancelled(true); //for now
@@ -2930,7 +2848,42 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 						}
 						*/
 						
-						if (runContourID)
+						if (runContourID && settings.getFastContour())
+						{
+							try
+							{
+								if (!frame.getCancelled())
+								{
+									dialogProgress.getLabelCurrent().setText("Approximating serrations from the convex hull...");
+									Vector[] vecHullIndentsArr = GrayscaleImageEdit.fetchConvexHullIndents(vecSegObjBordersShort, settings.getPixelContourThresh() );
+									vecContourHotspotConnections = vecHullIndentsArr[0];
+									vecContourHotspotIndices = vecHullIndentsArr[1];
+									vecContourIndents = vecHullIndentsArr[2];
+									contourUnique = null;
+									vecContourUnique = null;
+									
+									OverlayLayer layerContours = new OverlayLayer(JComponentDisplay.LAYER_CONTOURS);
+									PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, layerContours );
+									componentImageCropped.setLayer(layerContours);
+									
+									OverlayLayer layerHotspots = new OverlayLayer(JComponentDisplay.LAYER_HOTSPOTS);
+									GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, layerHotspots, Color.RED, false);
+									componentImageCropped.setLayer(layerHotspots);
+									
+									OverlayLayer layerIndents = new OverlayLayer(JComponentDisplay.LAYER_INDENTS);
+									GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, layerIndents, Color.ORANGE );
+									componentImageCropped.setLayer(layerIndents);
+									
+									dialogProgress.getPBInterim().setValue(95);
+								}
+							} catch (Throwable t)
+							{
+								frame.setCancelled(true);
+								t.printStackTrace();
+								JOptionPane.showMessageDialog(frame, "Serration identification failed.",
+									"Serration identification failed", JOptionPane.ERROR_MESSAGE);
+							}
+						} else if (runContourID)
 						{
 							
 							
@@ -3010,10 +2963,15 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 								
 								//PlanarImageEdit.paintIntegerMatrix(contourComplete, Color.PINK, imgDisplay.getGraphics() );
 								//GrayscaleImageEdit.paintBordersAndCavities(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBorderBPInner, imgDisplay.getGraphics());
-								PlanarImageEdit.paintIntegerMatrix(contourUnique, Color.BLUE, imgDisplay.getGraphics() );
+								OverlayLayer layerContours = new OverlayLayer(JComponentDisplay.LAYER_CONTOURS);
+								PlanarImageEdit.paintIntegerMatrix(contourUnique, Color.BLUE, layerContours );
 								//PlanarImageEdit.paintVector(vecSegObjs, Color.GREEN, imgDisplay.getGraphics() );
-								PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, imgDisplay.getGraphics() );
-								GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, imgDisplay.getGraphics(), Color.RED, false);
+								PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, layerContours );
+								componentImageCropped.setLayer(layerContours);
+								
+								OverlayLayer layerHotspots = new OverlayLayer(JComponentDisplay.LAYER_HOTSPOTS);
+								GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, layerHotspots, Color.RED, false);
+								componentImageCropped.setLayer(layerHotspots);
 								//GrayscaleImageEdit.paintContourHotspotsCrosses(vecSegObjBordersShortLandmarks, imgDisplay.getGraphics(), Color.WHITE, 2);
 							
 								dialogProgress.getPBInterim().setValue(90);
@@ -3026,7 +2984,9 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 								dialogProgress.getLabelCurrent().setText("Finding indent depths...");
 								// vecContours is a global obj. and can be used by other function
 								vecContourIndents = GrayscaleImageEdit.fetchIndentDepths(vecContourHotspotConnections, vecContourHotspotIndices, vecSegObjBordersShort, contourUnique, dialogProgress.getPBCurrent());
-								GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, imgDisplay.getGraphics(), Color.ORANGE );
+								OverlayLayer layerIndents = new OverlayLayer(JComponentDisplay.LAYER_INDENTS);
+								GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, layerIndents, Color.ORANGE );
+								componentImageCropped.setLayer(layerIndents);
 								
 								dialogProgress.getPBInterim().setValue(95);
 							}
@@ -3112,7 +3072,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 								vecContourHotspots = GrayscaleImageEdit.vectorIntersectAsVector(vecSegObjBordersShort, vecContourBorders);
 								//contourHotspots = GrayscaleImageEdit.vectorOfPointsToIntMatrix(vecContourHotspots, imgSeg[0].length, imgSeg.length);
 								//PlanarImageEdit.paintIntegerMatrix(borderMat, Color.YELLOW, imgDisplay.getGraphics() );
-								PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, imgDisplay.getGraphics() );
+								PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, imgDisplay );
 								//PlanarImageEdit.paintIntegerMatrix(intersectBorderContour, Color.RED, imgDisplay.getGraphics() );
 							
 								dialogProgress.getPBInterim().setValue(80);
@@ -3126,7 +3086,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 								dialogProgress.getLabelCurrent().setText("Merging contour hotspots...");
 								vecContourHotspotsMerged = GrayscaleImageEdit.mergeContourHotspots(vecContourHotspots, vecSegObjBordersShort, 3*Math.sqrt(2), 0);
 								contourHotspotsMerged = GrayscaleImageEdit.vectorOfPointsToIntMatrix(vecContourHotspotsMerged, imgSegCropped[0].length, imgSegCropped.length);
-								PlanarImageEdit.paintIntegerMatrix(contourHotspotsMerged, Color.PINK, imgDisplay.getGraphics() );
+								PlanarImageEdit.paintIntegerMatrix(contourHotspotsMerged, Color.PINK, imgDisplay );
 								//PlanarImageEdit.paintIntegerMatrix(contourHotspots, colors3, imgDisplay.getGraphics() );
 								
 								dialogProgress.getPBInterim().setValue(82);
@@ -3166,7 +3126,7 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 								dialogProgress.getPBInterim().setValue(100);
 								dialogProgress.getLabelCurrent().setText("Done.");
 							
-								componentImageCropped.set(imgDisplay);
+								componentImageCropped.repaint();
 								componentImageCropped.revalidate();
 							}
 						} //if runContourID
@@ -3303,19 +3263,20 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 						BufferedImage imgCroppedCopy = new BufferedImage(imgCropped.getWidth(), imgCropped.getHeight(), imgCropped.getType() );
 						imgCroppedCopy.setData( imgCropped.getData() );
 						imgCroppedCopy = PlanarImageEdit.applyMask(imgCroppedCopy, imgMatBinary);
-						GrayscaleImageEdit.paintSegmentationResults(vecSegObjs, vecSegObjNoCavities, vecSegObjCenters, vecSegObjBorders, vecSegObjBorderBPInner, vecPriSecLines, vecIntersectPoints, imgCroppedCopy.getGraphics());
+						GrayscaleImageEdit.paintSegmentationResults(vecSegObjs, vecSegObjNoCavities, vecSegObjCenters, vecSegObjBorders, vecSegObjBorderBPInner, vecPriSecLines, vecIntersectPoints, imgCroppedCopy);
 						//GrayscaleImageEdit.paintBordersAndCavities(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBorderBPInner, imgCroppedCopy.getGraphics());
 						
-						if (contourUnique != null && vecContourHotspotConnections != null && vecContourIndents != null)
+						if (vecContourHotspotConnections != null && vecContourIndents != null)
 						{
-							PlanarImageEdit.paintIntegerMatrix(contourUnique, Color.BLUE, imgCroppedCopy.getGraphics() );
+							if (contourUnique != null) //not available for fast serrations
+								PlanarImageEdit.paintIntegerMatrix(contourUnique, Color.BLUE, imgCroppedCopy );
 							//PlanarImageEdit.paintVector(vecSegObjs, Color.GREEN, imgDisplay.getGraphics() );
 							//PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, imgCroppedCopy.getGraphics() );
 							GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, imgCroppedCopy.getGraphics(), Color.RED, false);
 							GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, imgCroppedCopy.getGraphics(), Color.ORANGE );
 						}
 						
-						GrayscaleImageEdit.paintBorders(vecSegObjBordersShort, Color.YELLOW, imgCroppedCopy.getGraphics());
+						GrayscaleImageEdit.paintBorders(vecSegObjBordersShort, Color.YELLOW, imgCroppedCopy);
 						GrayscaleImageEdit.paintObjectIds(vecSegObjCenters, imgCroppedCopy.getGraphics());
 						
 						
@@ -3701,9 +3662,12 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 				//copy the original image and add some extra info
 				BufferedImage imgDisplayCopy = new BufferedImage(imgDisplay.getWidth(), imgDisplay.getHeight(), imgDisplay.getType() );
 				imgDisplayCopy.setData( imgDisplay.getData() );
-				GrayscaleImageEdit.paintSegmentationResults(vecSegObjs, vecSegObjNoCavities, vecSegObjCenters, vecSegObjBorders, vecSegObjBorderBPInner, vecPriSecLines, vecIntersectPoints, imgDisplayCopy.getGraphics());
+				if (componentImageCropped.get() == imgDisplay)
+					componentImageCropped.paintLayers(imgDisplayCopy);
+				GrayscaleImageEdit.paintSegmentationResults(vecSegObjs, vecSegObjNoCavities, vecSegObjCenters, vecSegObjBorders, vecSegObjBorderBPInner, vecPriSecLines, vecIntersectPoints, imgDisplayCopy);
 				
 				imgCropped = PlanarImageEdit.cropImages(imgDisplayCopy, vec, 1.0);
+				componentImageCropped.removeLayers();
 				componentImageCropped.set(imgCropped);
 				componentImageCropped.setAutoScaleType(zoomLevelCropped);
 				
@@ -4572,6 +4536,33 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 
 	}
 	
+	/**
+	* Stops reading ahead and drops the images read ahead from the previous list of
+	* image files; a new prefetcher is created by loadImage when it is needed
+	*/
+	protected void clearImagePrefetcher()
+	{
+		if (imagePrefetcher == null)
+			return;
+		
+		imagePrefetcher.shutdown();
+		imagePrefetcher = null;
+	}
+	
+	/**
+	* Starts reading the images that follow the current one in the list of image files
+	*/
+	protected void prefetchNextImages()
+	{
+		if (imagePrefetcher == null || listOfImageFilesPath == null || currentImageFileInd < 0)
+			return;
+		
+		int numNext = Math.max(listOfImageFilesPath.length - currentImageFileInd - 1, 0);
+		String[] nextFilenames = new String[numNext];
+		System.arraycopy(listOfImageFilesPath, currentImageFileInd+1, nextFilenames, 0, numNext);
+		imagePrefetcher.prefetch(nextFilenames);
+	}
+	
 	/**
 	* Loads an image from a file
 	*
@@ -4593,7 +4584,9 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 		try
 		{
 
-			imgOrg = JAI.create("fileload", currentFilename).getAsBufferedImage();
+			if (imagePrefetcher == null)
+				imagePrefetcher = new ImagePrefetcher();
+			imgOrg = (BufferedImage)imagePrefetcher.take(currentFilename);
 			Raster rasterOrg = imgOrg.getData();
 			
 			//switch to default image type if we can't recognize it
@@ -4621,6 +4614,9 @@ public class Lamina extends WindowAdapter implements ActionListener, PropertyCha
 			buttonCalcStats.setEnabled(false);
 			buttonCrop.setEnabled(false);
 			
+			// read the following images of the folder while this one is being looked at
+			prefetchNextImages();
+			
 		} catch (Throwable t)
 		{
 			t.printStackTrace();
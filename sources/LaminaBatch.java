@@ -37,6 +37,7 @@ import java.text.*;
 import java.awt.*;
 import java.awt.Rectangle;
 import java.awt.event.*;
+import java.awt.geom.Point2D;
 import java.awt.image.*;
 import java.awt.image.renderable.ParameterBlock;
 import java.awt.Component;
@@ -71,16 +72,30 @@ spaced markers can optionally be returned.
 	private final static String[] COMBO_YES_NO= {"No", "Yes"};
 	
 	protected final static String INI_FILENAME = "LaminaBatch.ini";
+	protected final static String TIMINGS_FILENAME = "LaminaBatch_timings.txt";
 	protected final static String ERROR_LOG = "LaminaBatchErrors.log";
 	
 	private final static String OUTPUT_FNAME_SEG = "_" + APPL_NAME + "_seg";
 	private final static String OUTPUT_FNAME_CROPPED = "_" + APPL_NAME + "_cropped";
 	private final static String OUTPUT_FNAME_STATS = "_" + APPL_NAME + "_stats";
 	private final static String OUTPUT_FNAME_LOG = "_" + APPL_NAME + "_log";
+	private final static String OUTPUT_FNAME_BOX = "_box";
 	
 	private final static String OUTPUT_SEPARATOR = "---------------------------------------";
 	
 	private final static byte SCROLLBAR_INC = 50;
+	private final static double AUTO_CROP_WINDOW = 0.02; //crop window side, relative to the shorter image side
+	private final static double AUTO_CROP_OCCURANCE = 0.05; //fraction of dark pixels needed to keep a crop window
+	private final static int AUTO_CROP_SUBSAMPLING = 4; //the object area is located on every 4th row and column
+	private final static double TILED_MARGIN = 0.01; //background kept around the located objects, relative to the shorter image side
+	private final static int PREFETCH_THREADS = 2; //images decoded at the same time, if they fit the memory budget
+	private final static int PREFETCH_AHEAD = 4;
+	private final static double PREFETCH_MEMORY_FRACTION = 0.25; //of the memory budget, for decoded images waiting to be analysed
+	
+	// values of the "Serrations reduced" column, written when a time limit is set
+	private final static int SERRATIONS_FULL = 0;
+	private final static int SERRATIONS_APPROXIMATED = 1; //from the convex hull, after a stage ran out of time
+	private final static int SERRATIONS_SKIPPED = 2; //the time of the image was up
 	private final static float ZOOM_MAX = 8.0f;
 	private final static float ZOOM_MIN = 0.25f;
 	private final static byte ZOOM_INC = 2;
@@ -99,8 +114,8 @@ spaced markers can optionally be returned.
 		vecHorizVertLines, vecIntersectPoints, vecContours, vecContourComplete, vecContourUnique,
 		vecContourBorders, vecContourHotspotConnections, vecContourHotspotIndices, vecContourIndents;
 
-	private static int[][] imgMatGrayscale, imgMatGrayscaleTemplate, imgSeg;
-	private static byte[][] imgMatBinary;
+	private static FlatImage imgSeg;
+	private static ImageBufferPool bufferPool; // image-sized matrices, reused from one file to the next
 	
 	
 	private static JFrameExt frame;
@@ -173,6 +188,7 @@ spaced markers can optionally be returned.
 	public LaminaBatch() 
 	{
 		runTime = Runtime.getRuntime();
+		bufferPool = new ImageBufferPool();
 		
 		ffJPEG = new FilenameFilterJPEG();
 		
@@ -686,1155 +702,1522 @@ spaced markers can optionally be returned.
 					int imgHeight = 0;
 					int imgWidth = 0;
 					
-					for (int fNum = 0; fNum < numRows && !frame.getCancelled(); fNum++)
+					// thresholds selected for previous files, used to warm-start the search
+					ThresholdPredictor thresholdPredictor = new ThresholdPredictor();
+					
+					// streaming summaries of each statistic over all objects in the batch
+					Vector statSketchNames = new Vector();
+					Hashtable statSketches = new Hashtable();
+					
+					// the next images are read on a background thread while the current one is analysed
+					String[] batchFilenames = new String[numRows];
+					for (int fNum = 0; fNum < numRows; fNum++)
 					{
-						//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
-						
-						//System.err.println("Filtering...");
-						if (fNum == 0)
+						String delim = ( ((String)table.getModel().getValueAt(fNum, 1)).lastIndexOf('\\') >= 0) ? "\\" : "/";
+						batchFilenames[fNum] = table.getModel().getValueAt(fNum, 1) + delim + table.getModel().getValueAt(fNum, 0);
+					}
+					
+					// the files are analysed in table order, or quickest first (predicted from earlier
+					// runs and the image sizes) so that a few large scans do not hold up the rest
+					JobScheduler scheduler = new JobScheduler();
+					File timingsFile = (iniFile != null) ? new File(iniFile.getParentFile(), TIMINGS_FILENAME) : null;
+					if (timingsFile != null && timingsFile.isFile())
+					{
+						try
+						{
+							scheduler.load(timingsFile);
+						} catch (IOException ex)
 						{
-							dialogProgress = new JDialogExtractExt(frame, APPL_NAME_LONG + " -- processing files", true,
-								new Dimension(frame.getWidth()+20, 180) );
-							dialogProgress.getPBTotal().setValue(0);
-						} else
+							System.err.println("Failed to read the analysis times of earlier batches");
+						}
+					}
+					
+					int[] jobOrder = new int[numRows];
+					if (settings.getBatchOrderBySize())
+					{
+						jobOrder = scheduler.order(batchFilenames);
+					} else
+					{
+						for (int fNum = 0; fNum < numRows; fNum++)
+							jobOrder[fNum] = fNum;
+					}
+					Vector vecOutputDataRows = new Vector(); // the table row of each entry of vecOutputData
+					
+					// the estimated memory of every image that is decoded or analysed is reserved
+					// in the budget, so that small images are read ahead several at a time, while
+					// a large one waits until the memory is free; the free pooled buffers count too
+					long budgetBytes = (settings.getBatchMemoryBudget() > 0) ? settings.getBatchMemoryBudget()*1048576L :
+						(long)(runTime.maxMemory()*MemoryBudget.DEFAULT_MEMORY_FRACTION);
+					MemoryBudget memoryBudget = new MemoryBudget(budgetBytes, bufferPool);
+					ImagePrefetcher prefetcher = new ImagePrefetcher(PREFETCH_THREADS, PREFETCH_AHEAD, (long)(budgetBytes*PREFETCH_MEMORY_FRACTION), memoryBudget)
+					{
+						protected Object load(String fileName) throws Exception
 						{
-							Misc.addMessage(frameMessages.getTextPane(), OUTPUT_SEPARATOR, null);
+							return loadBatchImage(fileName);
 						}
+					};
+					
+					// output images and files are encoded and written while the next image is analysed
+					OutputWriter outputWriter = new OutputWriter();
+					
+					// with BatchTiledSegmentation, the objects of a file are analysed box by box;
+					// the same file is then run through the loop once per box. The threshold is
+					// only searched for in the first box, the others use the same one
+					Rectangle[] fileBoxes = null;
+					int boxNum = 0;
+					int fileThreshold = -1;
+					long fileStart = 0;
+					
+					// the read-ahead threads and pooled buffers are freed, and the queued output
+					// written, also when the analysis fails
+					try
+					{
+						for (int jobNum = 0; jobNum < numRows && !frame.getCancelled(); jobNum++)
+						{
+							int fNum = jobOrder[jobNum];
 						
-						//fetch the time
-						String now = sdf.format(cal.getTime());
+							//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
 						
-						Misc.addMessage(frameMessages.getTextPane(), "[" + now + "]", null, Color.ORANGE);
+							//System.err.println("Filtering...");
+							if (jobNum == 0 && boxNum == 0)
+							{
+								dialogProgress = new JDialogExtractExt(frame, APPL_NAME_LONG + " -- processing files", true,
+									new Dimension(frame.getWidth()+20, 180) );
+								dialogProgress.getPBTotal().setValue(0);
+							} else
+							{
+								Misc.addMessage(frameMessages.getTextPane(), OUTPUT_SEPARATOR, null);
+							}
 						
-						dialogProgress.getPBInterim().setValue(0);
-						dialogProgress.getPBCurrent().setValue(0);
-						dialogProgress.getLabelTotal().setText("Processing file " + (fNum+1) + "/" +  table.getRowCount() +
-							" (" + table.getModel().getValueAt(fNum, 0) + ") ...");
-						dialogProgress.getLabelInterim().setText("File progress");
+							//fetch the time
+							String now = sdf.format(cal.getTime());
 						
-						//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
+							Misc.addMessage(frameMessages.getTextPane(), "[" + now + "]", null, Color.ORANGE);
 						
-						//load image here
-						dialogProgress.getLabelCurrent().setText("Loading image file...");
+							//report output of the previous files that could not be written
+							logWriteErrors(outputWriter.pollErrors(), now);
 						
-						String delim = ( ((String)table.getModel().getValueAt(fNum, 1)).lastIndexOf('\\') >= 0) ? "\\" : "/";
-						currentFilename = table.getModel().getValueAt(fNum, 1) + delim + table.getModel().getValueAt(fNum, 0);
-						imgDisplay = JAI.create("fileload", currentFilename).getAsBufferedImage();
-						Raster rasterOrg = imgDisplay.getData();
-						//imgDisplay = img.getAsBufferedImage();
-						//img = null; //free memory
-						
-						Misc.addMessage(frameMessages.getTextPane(), "Reading file " + currentFilename + "...", null, Color.BLUE);
-						
-						//switch to default image type if we can't recognize it
-						int imgType = imgDisplay.getType();
-						if (imgType == 0)
-							imgType = BufferedImage.TYPE_INT_RGB;
-					
-						//System.err.println("Constructing image of size (" + imgDisplay.getWidth() + "," + imgDisplay.getHeight() +
-						//	") of type " + imgType );
-						imgHeight = imgDisplay.getHeight();
-						imgWidth = imgDisplay.getWidth();
+							dialogProgress.getPBInterim().setValue(0);
+							dialogProgress.getPBCurrent().setValue(0);
+							dialogProgress.getLabelTotal().setText("Processing file " + (jobNum+1) + "/" +  table.getRowCount() +
+								" (" + table.getModel().getValueAt(fNum, 0) + ")" +
+								( (fileBoxes != null) ? ", object box " + (boxNum+1) + "/" + fileBoxes.length : "") + " ...");
+							dialogProgress.getLabelInterim().setText("File progress");
 						
-						Misc.addMessage(frameMessages.getTextPane(), "Successfully read image of size (" + imgWidth + ","
-							+ imgHeight + ") of type " + imgType, null);
+							//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
 						
-						dialogProgress.getPBInterim().setValue(2*modifierContourPB);
+							//load image here
+							dialogProgress.getLabelCurrent().setText("Loading image file...");
 						
+							String delim = ( ((String)table.getModel().getValueAt(fNum, 1)).lastIndexOf('\\') >= 0) ? "\\" : "/";
+							currentFilename = batchFilenames[fNum];
 						
-						dialogProgress.getLabelCurrent().setText("Extracting blue band...");
-						//Misc.addMessage(frameMessages.getTextPane(), "Extracting blue band...", null);
-						Misc.addMessage(frameMessages.getTextPane(), "Extracting blue band...", null);
-								
-						//imgGrayscale = new BufferedImage( imgWidth, imgHeight, BufferedImage.TYPE_BYTE_GRAY);
-						//WritableRaster wrGrayscale = imgGrayscale.getRaster();
+							// the analysis has to go ahead, so it is admitted even if the budget is used up.
+							// It is reserved before the image is decoded, from the size in the header, so
+							// that no read-ahead is admitted into the memory it is about to need
+							long analysisBytes = 0;
+							try
+							{
+								Dimension dimHeader = (fileBoxes != null) ? fileBoxes[boxNum].getSize() : ImageLoader.readDimension(currentFilename);
+								analysisBytes = MemoryBudget.estimateAnalysis(dimHeader.width, dimHeader.height, runContourID);
+							} catch (Throwable t)
+							{
+								//estimated from the loaded image instead
+							}
+							memoryBudget.forceReserve(analysisBytes);
+						
+							Rectangle rectCrop;
+							boolean cropFailed;
+							Dimension dimFull;
+							try
+							{
+								Object[] imgLoaded;
+								if (fileBoxes != null)
+								{
+									//a further object box of the same file
+									imgLoaded = new Object[] { ImageLoader.read(currentFilename, fileBoxes[boxNum], 1), fileBoxes[boxNum],
+										Boolean.FALSE, ImageLoader.readDimension(currentFilename), fileBoxes };
+								} else
+								{
+									imgLoaded = (Object[])prefetcher.take(currentFilename);
+									fileBoxes = (Rectangle[])imgLoaded[4];
+									fileStart = System.currentTimeMillis();
+								}
+								imgDisplay = (BufferedImage)imgLoaded[0];
+								rectCrop = (Rectangle)imgLoaded[1];
+								cropFailed = ((Boolean)imgLoaded[2]).booleanValue();
+								dimFull = (Dimension)imgLoaded[3];
+							} catch (Throwable t)
+							{
+								msg = "[ERROR] Failed to read image file " + currentFilename;
+								logError(msg, now, t);
+							
+								imgDisplay = null;
+								fileBoxes = null;
+								boxNum = 0;
+								fileThreshold = -1;
+								memoryBudget.release(analysisBytes);
+								frame.setError(false);
+								dialogProgress.getPBTotal().setValue( (int)Math.round( 100.0*(jobNum+1)/(double)numRows ) );
+								continue;
+							} finally
+							{
+								//a further object box is read on this thread
+								ImageLoader.close();
+							}
+						
+							long jobStart = System.currentTimeMillis();
 						
-						// set up the binary and grayscale images that will be used for segmentation
+							//the output files of an object box are named by the box
+							String boxSuffix = (fileBoxes != null) ? OUTPUT_FNAME_BOX + (boxNum+1) : "";
 						
-						//int i[] = new int[1];
-						//int[] bluePixels = new int[imgHeight*imgWidth];
+							// the serration stages are cut short when an image or a stage takes too long
+							TimeLimit timeLimit = new TimeLimit(settings.getBatchImageTimeLimit()*1000L);
+							long stageMillis = settings.getBatchStageTimeLimit()*1000L;
+							int serrationsReduced = SERRATIONS_FULL;
 						
-						//int[] bluePixelGrayscale = new int[imgHeight*imgWidth];
-						imgMatGrayscale = new int[imgHeight][imgWidth];
-						imgMatGrayscaleTemplate = new int[imgHeight][imgWidth];
+							// corrected to the loaded (possibly cropped) image; an image that needs more
+							// than the whole budget is analysed without read-ahead
+							long loadedBytes = MemoryBudget.estimateAnalysis(imgDisplay.getWidth(), imgDisplay.getHeight(), runContourID);
+							if (loadedBytes > analysisBytes)
+								memoryBudget.forceReserve(loadedBytes - analysisBytes);
+							else
+								memoryBudget.release(analysisBytes - loadedBytes);
+							analysisBytes = loadedBytes;
 						
+							String[] nextFilenames = new String[0];
+							if (memoryBudget.fits(analysisBytes))
+							{
+								nextFilenames = new String[numRows-jobNum-1];
+								for (int i = 0; i < nextFilenames.length; i++)
+									nextFilenames[i] = batchFilenames[ jobOrder[jobNum+1+i] ];
+							} else
+							{
+								Misc.addMessage(frameMessages.getTextPane(), "The analysis needs an estimated " + (analysisBytes >> 20) +
+									" MB, more than the memory budget of " + (budgetBytes >> 20) + " MB; no other images are read meanwhile",
+									null, Color.ORANGE);
+								if (analysisBytes > runTime.maxMemory() && !settings.getBatchTiledSegmentation())
+									Misc.addMessage(frameMessages.getTextPane(), "The estimate exceeds the maximum heap size (" + (runTime.maxMemory() >> 20) +
+										" MB), consider locating the objects strip by strip (Settings -> Batch output)", null, Color.ORANGE);
+							}
+							prefetcher.prefetch(nextFilenames);
+						
+							Raster rasterOrg = imgDisplay.getRaster(); //not a copy, only read before anything is painted
+							//imgDisplay = img.getAsBufferedImage();
+							//img = null; //free memory
+						
+							Misc.addMessage(frameMessages.getTextPane(), "Reading file " + currentFilename + "...", null, Color.BLUE);
+						
+							//switch to default image type if we can't recognize it
+							int imgType = imgDisplay.getType();
+							if (imgType == 0)
+								imgType = BufferedImage.TYPE_INT_RGB;
+					
+							//System.err.println("Constructing image of size (" + imgDisplay.getWidth() + "," + imgDisplay.getHeight() +
+							//	") of type " + imgType );
+							imgHeight = imgDisplay.getHeight();
+							imgWidth = imgDisplay.getWidth();
+						
+							// a new file of a different size makes the pooled buffers of the previous
+							// ones useless; the boxes of a file differ in size, so they all share the pool
+							if (fileBoxes == null)
+								bufferPool.retainSize(imgHeight, imgWidth);
+						
+							Misc.addMessage(frameMessages.getTextPane(), "Successfully read image of size (" + imgWidth + ","
+								+ imgHeight + ") of type " + imgType, null);
+						
+							// the empty background around the objects has been dropped already, so that
+							// later stages only process the part of the scan that contains anything
+							if (fileBoxes != null)
+								Misc.addMessage(frameMessages.getTextPane(), "Analysing object box " + (boxNum+1) + "/" + fileBoxes.length + " of size (" +
+									imgWidth + "," + imgHeight + ") at offset (" + rectCrop.x + "," + rectCrop.y + ")", null);
+							else if (rectCrop != null)
+								Misc.addMessage(frameMessages.getTextPane(), "Cropped image to (" + imgWidth + "," + imgHeight +
+									") at offset (" + rectCrop.x + "," + rectCrop.y + ")", null);
+							else if (cropFailed)
+								Misc.addMessage(frameMessages.getTextPane(), "Failed to crop image, using the full image", null, Color.ORANGE);
+							else if (settings.getBatchAutoCrop() || settings.getBatchTiledSegmentation())
+								Misc.addMessage(frameMessages.getTextPane(), "No background to crop", null);
+						
+							dialogProgress.getPBInterim().setValue(2*modifierContourPB);
+						
+						
+							dialogProgress.getLabelCurrent().setText("Extracting blue band...");
+							//Misc.addMessage(frameMessages.getTextPane(), "Extracting blue band...", null);
+							Misc.addMessage(frameMessages.getTextPane(), "Extracting blue band...", null);
+								
+							//imgGrayscale = new BufferedImage( imgWidth, imgHeight, BufferedImage.TYPE_BYTE_GRAY);
+							//WritableRaster wrGrayscale = imgGrayscale.getRaster();
+						
+							// set up the binary and grayscale images that will be used for segmentation
+						
+							//int i[] = new int[1];
+							//int[] bluePixels = new int[imgHeight*imgWidth];
 						
-						imgMatBinary = new byte[imgHeight][imgWidth];
-						//double[][] imgMatMaxDiffChannel = new double[imgHeight][imgWidth];
+							//int[] bluePixelGrayscale = new int[imgHeight*imgWidth];
+							//double[][] imgMatMaxDiffChannel = new double[imgHeight][imgWidth];
 						
 		
-						double numPixels = imgHeight*imgWidth;
-						double meanIntensity = 0.0;
-						int index = 0;
-						int numLowInt = 0;
-						//double maxDiffChannel = Integer.MIN_VALUE;
+							double numPixels = imgHeight*imgWidth;
+							double meanIntensity = 0.0;
+							int index = 0;
+							int numLowInt = 0;
+							//double maxDiffChannel = Integer.MIN_VALUE;
 						
-						int r,g,b;
+							int r,g,b;
 						
 						
-						// now fetch data and try to find a suitable threshold
-						// if greedy search, then a local minima may be found
-						// this will cause segmentation to fail.
-						// if this happens, then re-run with exhaustive instead of
-						// greedy search.
-						boolean forceExhaustiveRerun = false;
-						boolean segmentationFailedGreedy = false;
-						do
-						{
+							// the threshold scores (and the band) are kept for the whole image,
+							// so that a forced exhaustive rerun only has to evaluate thresholds that
+							// the first search did not visit
+							ThresholdScoreCache thresholdCache = null;
+						
+							// the band, its thresholded and median filtered versions and the objects found
+							// in it are held as FlatImages of bytes (the objects as bytes or shorts, depending
+							// on how many there are). Thresholds are scored on the band and the thresholded
+							// image alone, without any matrices. For very large scans all of them can be kept
+							// in temporary files.
+							int maskStorage = settings.getBatchOffHeapImages() ? FlatImage.STORAGE_MAPPED : FlatImage.STORAGE_HEAP;
+							FlatImage imgThresholded = null;
+							FlatImage imgFiltered = null;
+							FlatImage imgLabels = null;
 						
 							try
 							{
-							
+						
+								// the band is disposed with the cache
+								FlatImage imgBand = new FlatImage(imgWidth, imgHeight, FlatImage.TYPE_BYTE, maskStorage);
+								PixelAccess pixelsOrg = new PixelAccess(rasterOrg);
+								int[] bandRow = new int[imgWidth];
+								long sumIntensity = 0;
 								for (int h = 0; h < imgHeight; h++)
-									for (int w = 0; w < imgWidth; w++)
-									{
-										b = rasterOrg.getSample(w,h,PlanarImageEdit.BAND_B);
-										
-										/*
-										r = rasterOrg.getSample(w,h,PlanarImageEdit.BAND_R);
-										g = rasterOrg.getSample(w,h,PlanarImageEdit.BAND_G);
-									
-										
-										imgMatMaxDiffChannel[h][w] = (r + g + b)/3.0;
-										
-										
-										imgMatMaxDiffChannel[h][w] =
-											255 - 
-											( Math.max( Math.max(r, g), b) -
-											Math.min( Math.min(r, g), b) );
-										
-										if (imgMatMaxDiffChannel[h][w] > maxDiffChannel)
-											maxDiffChannel = imgMatMaxDiffChannel[h][w];
-										*/
-										
-										
-										
-										//bluePixels[ index++ ] = b;
-										imgMatGrayscaleTemplate[h][w]=b;
-										imgMatGrayscale[h][w]=imgMatGrayscaleTemplate[h][w];
-										meanIntensity += imgMatGrayscaleTemplate[h][w]/numPixels;
-										//System.err.print( bluePixels[ index - 1] + "," );
-										
-									
-									}
-									
-									
+								{
+									pixelsOrg.getBandRow(h, PlanarImageEdit.BAND_B, bandRow);
+									imgBand.setRow(h, bandRow);
+									sumIntensity += PixelKernels.sum(bandRow, 0, imgWidth);
+								}
+								meanIntensity = sumIntensity/numPixels;
 							
-								//System.err.println("Number of pixels below intensity threshold: " + numLowInt + "/" + (imgHeight*imgWidth));
+								imgThresholded = bufferPool.acquireFlat(imgWidth, imgHeight, FlatImage.TYPE_BYTE, maskStorage, false);
+								imgFiltered = bufferPool.acquireFlat(imgWidth, imgHeight, FlatImage.TYPE_BYTE, maskStorage, false);
+								thresholdCache = new ThresholdScoreCache(imgBand, imgThresholded, 3, 3);
 								
+						
+								//System.err.println("Number of pixels below intensity threshold: " + numLowInt + "/" + (imgHeight*imgWidth));
+							
 													// height							//width
-								System.err.println(""+imgMatGrayscale.length +","+imgMatGrayscale[1].length);
+								System.err.println(""+imgHeight +","+imgWidth);
 								System.err.println("Average intensity value: " + meanIntensity);
-								
+							
 								dialogProgress.getPBInterim().setValue(5*modifierContourPB);
-									
+								
 							} catch (Throwable t)
 							{
-								msg = "[ERROR] Failed to store image data as integer matrices";
+								msg = "[ERROR] Failed to store image data as grayscale images";
 								logError(msg, now, t);
 							}
 						
+							// now try to find a suitable threshold
+							// if greedy search, then a local minima may be found
+							// this will cause segmentation to fail.
+							// if this happens, then re-run with exhaustive instead of
+							// greedy search.
+							boolean forceExhaustiveRerun = false;
+							boolean segmentationFailedGreedy = false;
+							boolean thresholdWarmStarted = false;
+							boolean thresholdReused = false;
+							do
+							{
+								// the band itself is never thresholded, so a rerun starts over from it as it is
 							
-							
-							/*
-							double quant = 0.10;
-							double quantileBlue = MiscMath.quantile(bluePixels, quant);
-							System.err.println("Quantile intensity (" + quant + "): " + quantileBlue);
-							*/
+								/*
+								double quant = 0.10;
+								double quantileBlue = MiscMath.quantile(bluePixels, quant);
+								System.err.println("Quantile intensity (" + quant + "): " + quantileBlue);
+								*/
 							
 						
 						
-							int quantileBlue = 0;
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								//GrayscaleImageEdit.truncateImage(imgMatIntensity,imgMatGrayscaleTemplate,20,255);
-								
-								//JAI.create("filestore", componentImage.get(), filename, codecId);
-								
-								try
+								int quantileBlue = 0;
+								if (!frame.getError() && !frame.getCancelled() )
 								{
+									//GrayscaleImageEdit.truncateImage(imgMatIntensity,imgMatGrayscaleTemplate,20,255);
 								
-									if (settings.getThresholdSearchGreedy() && !forceExhaustiveRerun )
+									//JAI.create("filestore", componentImage.get(), filename, codecId);
+								
+									try
 									{
-										msg = "Detecting optimal threshold for segmentation (greedy)...";
-										Misc.addMessage(frameMessages.getTextPane(), msg, null);
-										dialogProgress.getLabelCurrent().setText(msg);
+								
+										int stepLength = (int)settings.getThresholdSearchStepLength();
+										thresholdWarmStarted = false;
+										thresholdReused = (fileThreshold >= 0 && !forceExhaustiveRerun);
+										if (!thresholdReused && settings.getBatchThresholdWarmStart() && thresholdPredictor.hasPrediction() && !forceExhaustiveRerun &&
+											(settings.getThresholdSearchGreedy() || settings.getThresholdSearchExhaustive() || settings.getThresholdSearchPyramid()) )
+										{
+											int startThreshold = thresholdPredictor.getPrediction();
+											msg = "Detecting optimal threshold for segmentation (starting from previous files, " + startThreshold + ")...";
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											dialogProgress.getLabelCurrent().setText(msg);
+										
+											quantileBlue = GrayscaleImageEdit.detectThresholdWarmStart(null, null,
+												startThreshold, stepLength, thresholdPredictor.getWindowSteps(stepLength),
+												thresholdCache, frame, dialogProgress.getPBCurrent() );
+										
+											thresholdWarmStarted = (quantileBlue != GrayscaleImageEdit.THRESH_REJECTED);
+											thresholdPredictor.countOutcome(thresholdWarmStarted);
+											if (!thresholdWarmStarted)
+											{
+												msg = "The threshold of previous files could not be confirmed, running a full search";
+												Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											}
+										}
+									
+										if (thresholdReused)
+										{
+											msg = "Using the threshold of the first object box of the file...";
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											dialogProgress.getLabelCurrent().setText(msg);
+											quantileBlue = fileThreshold;
+										} else if (thresholdWarmStarted)
+										{
+											//threshold already found close to the previous ones
+										} else if (settings.getThresholdSearchGreedy() && !forceExhaustiveRerun )
+										{
+											msg = "Detecting optimal threshold for segmentation (greedy)...";
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											dialogProgress.getLabelCurrent().setText(msg);
 										
-										//int startIntensity = (int)Math.round( MiscMath.quantile(imgMatGrayscale, 0.25) );
-										int startIntensity = (int)Math.round(meanIntensity);
+											//int startIntensity = (int)Math.round( MiscMath.quantile(imgMatGrayscale, 0.25) );
+											int startIntensity = (int)Math.round(meanIntensity);
 										
-										quantileBlue = GrayscaleImageEdit.detectThresholdGreedy(imgMatGrayscaleTemplate, imgMatGrayscale,
-											3, 3, startIntensity, (int)settings.getThresholdSearchStepLength(),
-											frame, dialogProgress.getPBCurrent() );
+											quantileBlue = GrayscaleImageEdit.detectThresholdGreedy(null, null,
+												3, 3, startIntensity, (int)settings.getThresholdSearchStepLength(),
+												thresholdCache, frame, dialogProgress.getPBCurrent() );
 											
 										
 											
-										//quantileBlue = GrayscaleImageEdit.detectThresholdGreedyMax(imgMatGrayscaleTemplate, imgMatGrayscale,
-										//	10, 10, (int)meanIntensity, 10, frame, dialogProgress.getPBCurrent() );
-									} else if (settings.getThresholdSearchExhaustive() || forceExhaustiveRerun )
-									{
-										if (forceExhaustiveRerun)
+											//quantileBlue = GrayscaleImageEdit.detectThresholdGreedyMax(imgMatGrayscaleTemplate, imgMatGrayscale,
+											//	10, 10, (int)meanIntensity, 10, frame, dialogProgress.getPBCurrent() );
+										} else if (settings.getThresholdSearchExhaustive() || forceExhaustiveRerun )
 										{
-											msg = "Forcing exhaustive threshold detection since greedy search failed";
-											Misc.addMessage(frameMessages.getTextPane(), msg, null);
-										}
+											if (forceExhaustiveRerun)
+											{
+												msg = "Forcing exhaustive threshold detection since greedy search failed";
+												Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											}
 										
-										msg = "Detecting optimal threshold for segmentation (exhaustive)...";
-										Misc.addMessage(frameMessages.getTextPane(), msg, null);
-										dialogProgress.getLabelCurrent().setText(msg);
-										quantileBlue = (int)GrayscaleImageEdit.detectThresholdExhaustive(imgMatGrayscaleTemplate, imgMatGrayscale,
-											3, 3, (int)settings.getThresholdSearchStepLength(), 0, 255,
-											frame, dialogProgress.getPBCurrent() );
+											msg = "Detecting optimal threshold for segmentation (exhaustive)...";
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											dialogProgress.getLabelCurrent().setText(msg);
+											quantileBlue = (int)GrayscaleImageEdit.detectThresholdExhaustive(null, null,
+												3, 3, (int)settings.getThresholdSearchStepLength(), 0, 255,
+												thresholdCache, frame, dialogProgress.getPBCurrent() );
 											
-										//quantileBlue = GrayscaleImageEdit.detectThresholdGreedyMax(imgMatGrayscaleTemplate, imgMatGrayscale,
-										//	10, 10, (int)meanIntensity, 10, frame, dialogProgress.getPBCurrent() );
+											//quantileBlue = GrayscaleImageEdit.detectThresholdGreedyMax(imgMatGrayscaleTemplate, imgMatGrayscale,
+											//	10, 10, (int)meanIntensity, 10, frame, dialogProgress.getPBCurrent() );
 										
-									} else
+										} else if (settings.getThresholdSearchPyramid() && !forceExhaustiveRerun )
+										{
+											msg = "Detecting optimal threshold for segmentation (pyramid)...";
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											dialogProgress.getLabelCurrent().setText(msg);
+											quantileBlue = GrayscaleImageEdit.detectThresholdPyramid(null, null,
+												3, 3, (int)settings.getThresholdSearchStepLength(), GrayscaleImageEdit.PYRAMID_LEVELS,
+												thresholdCache, frame, dialogProgress.getPBCurrent() );
+										
+										} else if (settings.getThresholdSearchOtsu() && !forceExhaustiveRerun )
+										{
+											msg = "Detecting threshold for segmentation (Otsu)...";
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											dialogProgress.getLabelCurrent().setText(msg);
+											quantileBlue = GrayscaleImageEdit.detectThresholdOtsu( GrayscaleImageEdit.calcHistogram(thresholdCache.getBand()) );
+										
+										} else if (settings.getThresholdSearchTriangle() && !forceExhaustiveRerun )
+										{
+											msg = "Detecting threshold for segmentation (triangle)...";
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											dialogProgress.getLabelCurrent().setText(msg);
+											quantileBlue = GrayscaleImageEdit.detectThresholdTriangle( GrayscaleImageEdit.calcHistogram(thresholdCache.getBand()) );
+										
+										} else
+										{
+											msg = "Using manual threshold for segmentation...";
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+											dialogProgress.getLabelCurrent().setText(msg);
+											quantileBlue = (int)settings.getThresholdManual();
+										}
+									
+										dialogProgress.getPBInterim().setValue(25*modifierContourPB);
+									
+										System.err.println("Thresholds evaluated: " + thresholdCache.getNumEvaluated() + " (cache hits: " + thresholdCache.getNumHits() + ")");
+									
+										if (quantileBlue >= 0)
+										{
+											msg = "The selected threshold is " + quantileBlue + " (out of 255)";
+											System.err.println(msg);								
+											Misc.addMessage(frameMessages.getTextPane(), msg, null);
+										}
+								
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed when trying to detect optimal threshold for segmentation";
+										logError(msg, now, t);	
+									}
+								}
+						
+						
+								if (!frame.getError() && !frame.getCancelled() )
+								{
+									try
 									{
-										msg = "Using manual threshold for segmentation...";
+										//apply the threshold value
+										msg = "Applying (segmentation) threshold to current image...";
 										Misc.addMessage(frameMessages.getTextPane(), msg, null);
 										dialogProgress.getLabelCurrent().setText(msg);
-										quantileBlue = (int)settings.getThresholdManual();
+										GrayscaleImageEdit.thresholdImage(thresholdCache.getBand(),imgThresholded,quantileBlue);
+										dialogProgress.getPBInterim().setValue(28*modifierContourPB);
+									} catch( Throwable t)
+									{
+
+										msg = "[ERROR] Failed when applying optimal threshold for segmentation";
+										logError(msg, now, t);
 									}
-									
-									dialogProgress.getPBInterim().setValue(25*modifierContourPB);
-									
-									if (quantileBlue >= 0)
+								}
+						
+								if (!frame.getError() && !frame.getCancelled() )
+								{
+									try
 									{
-										msg = "The selected threshold is " + quantileBlue + " (out of 255)";
-										System.err.println(msg);								
+								
+										msg = "Applying median filter on binary image (noise reduction)";
 										Misc.addMessage(frameMessages.getTextPane(), msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										GrayscaleImageEdit.medianFilter(imgThresholded,imgFiltered, 3, 3);	
+										dialogProgress.getPBInterim().setValue(30*modifierContourPB);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed when applying median filter to binary image";
+										logError(msg, now, t);
 									}
-								
-								} catch (Throwable t)
+								}
+						
+						
+								if (!frame.getError() && !frame.getCancelled() )
 								{
-									msg = "[ERROR] Failed when trying to detect optimal threshold for segmentation";
-									logError(msg, now, t);	
+									try
+									{
+										//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
+										msg = "Identifying objects in image (segmentation)";
+										Misc.addMessage(frameMessages.getTextPane(), msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										//the non-zero pixels of the filtered image are the objects
+										if (imgLabels == null)
+											imgLabels = bufferPool.acquireFlat(imgWidth, imgHeight, FlatImage.TYPE_BYTE, maskStorage, false);
+										imgLabels = GrayscaleImageEdit.segmentBinaryImage(imgFiltered, true, imgLabels);
+										vecSegObjs = GrayscaleImageEdit.fetchSegObjCoord(imgLabels);
+										dialogProgress.getPBInterim().setValue(33*modifierContourPB);
+										segmentationFailedGreedy = false;
+									
+										if (quantileBlue >= 0 && !thresholdReused)
+											thresholdPredictor.update(quantileBlue);
+										if (fileBoxes != null && boxNum == 0)
+											fileThreshold = quantileBlue;
+									
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed during segmentation";
+									
+									
+										if (settings.getThresholdSearchGreedy() || settings.getThresholdSearchPyramid() ||
+											settings.getThresholdSearchOtsu() || settings.getThresholdSearchTriangle() || thresholdWarmStarted || thresholdReused)
+										{
+										
+										
+											if (!forceExhaustiveRerun)
+											{
+												//re-try with exhaustive threshold detection
+												forceExhaustiveRerun = true;
+												segmentationFailedGreedy = true;
+											
+												logError(msg, now, t, false);
+												frame.setError(false);
+											
+											} else
+											{
+												//we tried segmentation again but exhaustive, but no luck, we have to give up
+												segmentationFailedGreedy = false;
+												logError(msg, now, t);
+											}
+										} else
+										{
+											logError(msg, now, t);
+										}
+									
+									}
 								}
-							}
+							
+							} while (segmentationFailedGreedy && !frame.getError() && !frame.getCancelled() );
 						
+							//now we have no need of the raster or the band copy
+							rasterOrg = null;
+							if (thresholdCache != null)
+								thresholdCache.dispose();
+							thresholdCache = null;
+							bufferPool.release(imgThresholded);
+							bufferPool.release(imgFiltered);
+							bufferPool.release(imgLabels);
+							imgThresholded = null;
+							imgFiltered = null;
+							imgLabels = null;
+							System.err.println("--- Memory: total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() );
+							
+							
 						
+						
+							int numGoodObj = 0;
 							if (!frame.getError() && !frame.getCancelled() )
 							{
 								try
 								{
-									//apply the threshold value
-									msg = "Applying (segmentation) threshold to current image...";
+									//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
+									msg = "Filtering small/sparse objects...";
 									Misc.addMessage(frameMessages.getTextPane(), msg, null);
 									dialogProgress.getLabelCurrent().setText(msg);
-									GrayscaleImageEdit.thresholdImage(imgMatGrayscaleTemplate,imgMatGrayscale,quantileBlue);
-									GrayscaleImageEdit.thresholdImage(imgMatGrayscaleTemplate,imgMatGrayscaleTemplate,quantileBlue);//important!
-									dialogProgress.getPBInterim().setValue(28*modifierContourPB);
-								} catch( Throwable t)
+							
+									//filter 'bad' objects, relative to the full image so that cropping does not change which are kept
+									long imgArea = (long)dimFull.width*dimFull.height;
+									Vector vecSegObjsTemp = new Vector(vecSegObjs.size());
+									//Vector vecSegObjBordersTemp = new Vector(vecSegObjBorders.size());
+									boolean[] goodObjects = GrayscaleImageEdit.filterObjects(vecSegObjs, imgArea,
+										settings.getMinObjSizeRel()/100.0, settings.getMinObjDensRel()/100.0 );
+									for (int i = 0; i < goodObjects.length; i++)
+									{
+										if (goodObjects[i])
+										{
+											numGoodObj++;
+											vecSegObjsTemp.add( (Vector) vecSegObjs.get(i) );
+											//vecSegObjBordersTemp.add( (Vector) vecSegObjBorders.get(i) );
+										}
+									}
+									vecSegObjs = vecSegObjsTemp;
+									vecSegObjCenters = GrayscaleImageEdit.findObjectCentroids(vecSegObjs);
+									//vecSegObjBorders = vecSegObjBordersTemp;
+								
+									//repaint the segmentation matrix, keeping only the 'good' elements
+									imgSeg = bufferPool.acquireFlat(imgWidth, imgHeight, FlatImage.getType(vecSegObjs.size()), maskStorage, false);
+									imgSeg = GrayscaleImageEdit.vectorOfPointsToIntMatrix(vecSegObjs, imgSeg);
+						
+								
+									Misc.addMessage(frameMessages.getTextPane(), "Kept " + numGoodObj + " good objects", null, Color.GREEN);
+									System.err.println("Kept " + numGoodObj + " good objects");
+									dialogProgress.getPBInterim().setValue(35*modifierContourPB);
+								
+								} catch (Throwable t)
 								{
-
-									msg = "[ERROR] Failed when applying optimal threshold for segmentation";
+									msg = "[ERROR] Failed to filter small/sparse objects";
 									logError(msg, now, t);
 								}
 							}
 						
+						
 							if (!frame.getError() && !frame.getCancelled() )
 							{
+						
 								try
 								{
-								
-									msg = "Applying median filter on binary image (noise reduction)";
+									//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
+									//fetch borders, calculate distance measures between border pixels and sort them accordingly
+									msg = "Identifying and rearranging border pixels...";
 									Misc.addMessage(frameMessages.getTextPane(), msg, null);
 									dialogProgress.getLabelCurrent().setText(msg);
-									GrayscaleImageEdit.medianFilter(imgMatGrayscaleTemplate,imgMatGrayscale, 3, 3);	
-									dialogProgress.getPBInterim().setValue(30*modifierContourPB);
+									Vector[] vecSegObjBordersArr = GrayscaleImageEdit.fetchSegObjCoordBorder(imgSeg, false, true, frame, dialogProgress.getPBCurrent() );
+									if (vecSegObjBordersArr != null)
+									{
+										vecSegObjBorders = vecSegObjBordersArr[0]; //border points
+										vecSegObjBorderBP = vecSegObjBordersArr[1]; //break points, for irregular perimeters
+										vecSegObjBorderBPInner = vecSegObjBordersArr[2]; //break points for inner borders (cavotoes)
+									} 
+									dialogProgress.getPBInterim().setValue(40*modifierContourPB);
 								} catch (Throwable t)
 								{
-									msg = "[ERROR] Failed when applying median filter to binary image";
+									msg = "[ERROR] Failed to identify and rearrange border pixels (may be a memory issue)";
 									logError(msg, now, t);
 								}
 							}
 						
+							//cavities here
 						
-							if (!frame.getError() && !frame.getCancelled() )
+							if (!frame.getError() &&!frame.getCancelled() )
 							{
-								//draw image
-								/*
-								BufferedImage biTemp2 = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
-								WritableRaster wrTemp2 = biTemp2.getRaster();
-								for (int h = 0; h < imgHeight; h++)
-									for (int w = 0; w < imgWidth; w++)
-									{
-										//wrTemp.setSample(w,h,PlanarImageEdit.BAND_R, imgMatMaxChannel[h][w]);
-										//wrTemp.setSample(w,h,PlanarImageEdit.BAND_G, imgMatMaxChannel[h][w]);
-										//wrTemp.setSample(w,h,PlanarImageEdit.BAND_B, imgMatMaxChannel[h][w]);
-										
-										wrTemp2.setSample(w,h,PlanarImageEdit.BAND_R, imgMatGrayscale[h][w]);
-										wrTemp2.setSample(w,h,PlanarImageEdit.BAND_G, imgMatGrayscale[h][w]);
-										wrTemp2.setSample(w,h,PlanarImageEdit.BAND_B, imgMatGrayscale[h][w]);
-									
-									}
-								biTemp2.setData(wrTemp2);
-								//componentImage.set(biTemp2);
-								*/
+								try
+								{
+									//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
+									msg = "Filling in any cavities in the objects...";
+									Misc.addMessage(frameMessages.getTextPane(), msg, null);
+									dialogProgress.getLabelCurrent().setText(msg);
 								
-								//set up binary image
-								for (int h = 0; h < imgHeight; h++)
-									for (int w = 0; w < imgWidth; w++)
-									{
-										imgMatBinary[h][w] = (imgMatGrayscale[h][w] != 0) ? (byte)1 : (byte)0;
-										//System.err.print( bluePixels[ index - 1] + "," );
-									}
+								
+									//fill in any cavities in the objects, to get an additional measurement of the perimeter/area
+									vecSegObjNoCavities = GrayscaleImageEdit.fillObjectCavities(vecSegObjs, vecSegObjBorders, vecSegObjBorderBPInner, imgSeg,  dialogProgress.getPBCurrent() );
 							
-							}
+									//also shorten the border, so that the short version only contains the outer border
+									vecSegObjBordersShort = GrayscaleImageEdit.shortenBorder(vecSegObjBorders, vecSegObjBorderBPInner);
+								
+									//fetch landmarks
+									//int numLandmarks = settings.getNumLandMarks();
+									//int maxAllowedLength = GrayscaleImageEdit.getMaxBorderLandmarks(vecSegObjBordersShort);
+									//numLandmarks = (int)Math.min(numLandmarks, maxAllowedLength);
+									vecSegObjBordersShortLandmarks = GrayscaleImageEdit.getBorderLandmarks(vecSegObjBordersShort, settings.getNumLandmarks());
+						
+						
 							
+									dialogProgress.getPBInterim().setValue(45*modifierContourPB);
+									dialogProgress.getPBCurrent().setValue(100);
 							
+								} catch (Throwable t)
+								{
+									msg = "[ERROR] Failed to fill in cavities in the objects";
+									logError(msg, now, t);
+								}
+							}
+						
+						
 							if (!frame.getError() && !frame.getCancelled() )
 							{
 								try
 								{
 									//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
-									msg = "Identifying objects in image (segmentation)";
+									//update the segmentation image with only the 'good' objects
+									msg = (runContourID) ? "Constructing preliminary output image..." : "Constructing output image...";
 									Misc.addMessage(frameMessages.getTextPane(), msg, null);
 									dialogProgress.getLabelCurrent().setText(msg);
-									imgSeg = GrayscaleImageEdit.segmentBinaryImage(imgMatBinary, true);
-									vecSegObjs = GrayscaleImageEdit.fetchSegObjCoord(imgSeg);
-									dialogProgress.getPBInterim().setValue(33*modifierContourPB);
-									segmentationFailedGreedy = false;
-									
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed during segmentation";
-									
-									
-									if (settings.getThresholdSearchGreedy())
-									{
-										
-										
-										if (!forceExhaustiveRerun)
-										{
-											//re-try with exhaustive threshold detection
-											forceExhaustiveRerun = true;
-											segmentationFailedGreedy = true;
-											
-											logError(msg, now, t, false);
-											frame.setError(false);
-											
-										} else
-										{
-											//we tried segmentation again but exhaustive, but no luck, we have to give up
-											segmentationFailedGreedy = false;
-											logError(msg, now, t);
-										}
-									} else
-									{
-										logError(msg, now, t);
-									}
-									
-								}
-							}
-							
-						} while (segmentationFailedGreedy && !frame.getError() && !frame.getCancelled() );
-						
-						//now we have no need of the raster
-						rasterOrg = null;
-						System.err.println("--- Memory (before GC): total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() );
-						runTime.gc();
-						System.err.println("--- Memory (after GC): total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() );
-							
-							
-						
-						
-						int numGoodObj = 0;
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							try
-							{
-								//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
-								msg = "Filtering small/sparse objects...";
-								Misc.addMessage(frameMessages.getTextPane(), msg, null);
-								dialogProgress.getLabelCurrent().setText(msg);
-							
-								//filter 'bad' objects
-								long imgArea = imgMatGrayscaleTemplate.length*imgMatGrayscaleTemplate[0].length;
-								Vector vecSegObjsTemp = new Vector(vecSegObjs.size());
-								//Vector vecSegObjBordersTemp = new Vector(vecSegObjBorders.size());
-								boolean[] goodObjects = GrayscaleImageEdit.filterObjects(vecSegObjs, imgArea,
-									settings.getMinObjSizeRel()/100.0, settings.getMinObjDensRel()/100.0 );
-								for (int i = 0; i < goodObjects.length; i++)
-								{
-									if (goodObjects[i])
-									{
-										numGoodObj++;
-										vecSegObjsTemp.add( (Vector) vecSegObjs.get(i) );
-										//vecSegObjBordersTemp.add( (Vector) vecSegObjBorders.get(i) );
-									}
-								}
-								vecSegObjs = vecSegObjsTemp;
-								vecSegObjCenters = GrayscaleImageEdit.findObjectCentroids(vecSegObjs);
-								//vecSegObjBorders = vecSegObjBordersTemp;
-								
-								//repaint the segmentation matrix, keeping only the 'good' elements
-								imgSeg = GrayscaleImageEdit.vectorOfPointsToIntMatrix(vecSegObjs, imgSeg[0].length, imgSeg.length);
-						
-								
-								Misc.addMessage(frameMessages.getTextPane(), "Kept " + numGoodObj + " good objects", null, Color.GREEN);
-								System.err.println("Kept " + numGoodObj + " good objects");
-								dialogProgress.getPBInterim().setValue(35*modifierContourPB);
-								
-							} catch (Throwable t)
-							{
-								msg = "[ERROR] Failed to filter small/sparse objects";
-								logError(msg, now, t);
-							}
-						}
-						
-						
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-						
-							try
-							{
-								//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
-								//fetch borders, calculate distance measures between border pixels and sort them accordingly
-								msg = "Identifying and rearranging border pixels...";
-								Misc.addMessage(frameMessages.getTextPane(), msg, null);
-								dialogProgress.getLabelCurrent().setText(msg);
-								Vector[] vecSegObjBordersArr = GrayscaleImageEdit.fetchSegObjCoordBorder(imgSeg, false, true, frame, dialogProgress.getPBCurrent() );
-								if (vecSegObjBordersArr != null)
-								{
-									vecSegObjBorders = vecSegObjBordersArr[0]; //border points
-									vecSegObjBorderBP = vecSegObjBordersArr[1]; //break points, for irregular perimeters
-									vecSegObjBorderBPInner = vecSegObjBordersArr[2]; //break points for inner borders (cavotoes)
-								} 
-								dialogProgress.getPBInterim().setValue(40*modifierContourPB);
-							} catch (Throwable t)
-							{
-								msg = "[ERROR] Failed to identify and rearrange border pixels (may be a memory issue)";
-								logError(msg, now, t);
-							}
-						}
-						
-						//cavities here
-						
-						if (!frame.getError() &&!frame.getCancelled() )
-						{
-							try
-							{
-								//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
-								msg = "Filling in any cavities in the objects...";
-								Misc.addMessage(frameMessages.getTextPane(), msg, null);
-								dialogProgress.getLabelCurrent().setText(msg);
-								
-								
-								//fill in any cavities in the objects, to get an additional measurement of the perimeter/area
-								vecSegObjNoCavities = GrayscaleImageEdit.fillObjectCavities(vecSegObjs, vecSegObjBorders, vecSegObjBorderBPInner, imgSeg,  dialogProgress.getPBCurrent() );
-							
-								//also shorten the border, so that the short version only contains the outer border
-								vecSegObjBordersShort = GrayscaleImageEdit.shortenBorder(vecSegObjBorders, vecSegObjBorderBPInner);
-								
-								//fetch landmarks
-								//int numLandmarks = settings.getNumLandMarks();
-								//int maxAllowedLength = GrayscaleImageEdit.getMaxBorderLandmarks(vecSegObjBordersShort);
-								//numLandmarks = (int)Math.min(numLandmarks, maxAllowedLength);
-								vecSegObjBordersShortLandmarks = GrayscaleImageEdit.getBorderLandmarks(vecSegObjBordersShort, settings.getNumLandmarks());
-						
-						
-							
-								dialogProgress.getPBInterim().setValue(45*modifierContourPB);
-								dialogProgress.getPBCurrent().setValue(100);
-							
-							} catch (Throwable t)
-							{
-								msg = "[ERROR] Failed to fill in cavities in the objects";
-								logError(msg, now, t);
-							}
-						}
-						
-						
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							try
-							{
-								//System.err.println("Memory: " + runTime.freeMemory()); //runTime.totalMemory()
-								//update the segmentation image with only the 'good' objects
-								msg = (runContourID) ? "Constructing preliminary output image..." : "Constructing output image...";
-								Misc.addMessage(frameMessages.getTextPane(), msg, null);
-								dialogProgress.getLabelCurrent().setText(msg);
-								GrayscaleImageEdit.paintBinaryMatrix(vecSegObjs, imgMatGrayscale, 255);
-								
-								index = 0;
-								for (int h = 0; h < imgHeight; h++)
-									for (int w = 0; w < imgWidth; w++)
-									{
-										//bluePixels[ index++ ] = imgMatGrayscale[h][w];
-										
-										imgMatBinary[h][w] = (imgMatGrayscale[h][w] != 0) ? (byte)1 : (byte)0;
-										
-										//bluePixelGrayscale[ index++] = (imgMatBinary[h][w] != 0) ? (int)imgSeg[h][w]*(int)(255.0/numGoodObj) : (int)0;
-										//System.err.print( bluePixels[ index - 1] + "," );
-									}
+									/*
+									for (int i = 0; i < bluePixels.length; i++)
+											if (bluePixels[i] <= quantileBlue)
+												bluePixels[i] = 0;
+											else
+												bluePixels[i] = 255;
+									*/
 								
+									//wrGrayscale.setPixels(0,0,imgWidth,imgHeight,bluePixelGrayscale);
+									//imgGrayscale.setData(wrGrayscale);
 								
-								/*
-								for (int i = 0; i < bluePixels.length; i++)
-										if (bluePixels[i] <= quantileBlue)
-											bluePixels[i] = 0;
-										else
-											bluePixels[i] = 255;
-								*/
-								
-								//wrGrayscale.setPixels(0,0,imgWidth,imgHeight,bluePixelGrayscale);
-								//imgGrayscale.setData(wrGrayscale);
 								
+									//System.err.println("Done.");
+									dialogProgress.getPBInterim().setValue(49*modifierContourPB);
 								
-								//System.err.println("Done.");
-								dialogProgress.getPBInterim().setValue(49*modifierContourPB);
+									//apply the binary mask to the display image, the objects are the non-zero pixels of imgSeg
+									PlanarImageEdit.applyMaskSide(imgDisplay, imgSeg);
+									//componentImage.set(imgDisplay);
 								
-								//apply the binary mask to the display image
-								PlanarImageEdit.applyMaskSide(imgDisplay, imgMatBinary);
-								//componentImage.set(imgDisplay);
+									Vector[] vecHorizVertLinesObj = GrayscaleImageEdit.fetchHorizVertLines(imgSeg, vecSegObjs, vecSegObjBordersShort,
+										settings.getForceOrtho(),  settings.getForceHorizVert() );
 								
-								Vector[] vecHorizVertLinesObj = GrayscaleImageEdit.fetchHorizVertLines(imgSeg, vecSegObjs, vecSegObjBordersShort,
-									settings.getForceOrtho(),  settings.getForceHorizVert() );
+									vecHorizVertLines = vecHorizVertLinesObj[0];
+									vecIntersectPoints = vecHorizVertLinesObj[1];
 								
-								vecHorizVertLines = vecHorizVertLinesObj[0];
-								vecIntersectPoints = vecHorizVertLinesObj[1];
-								
-								GrayscaleImageEdit.paintSegmentationResults(vecSegObjs, vecSegObjNoCavities, vecSegObjCenters, vecSegObjBorders, vecSegObjBorderBPInner, vecHorizVertLines, vecIntersectPoints, imgDisplay.getGraphics());
+									GrayscaleImageEdit.paintSegmentationResults(vecSegObjs, vecSegObjNoCavities, vecSegObjCenters, vecSegObjBorders, vecSegObjBorderBPInner, vecHorizVertLines, vecIntersectPoints, imgDisplay);
 							
-							} catch (Throwable t)
-							{
-								msg = "[ERROR] Failed to produce (segmented) output image";
-								logError(msg, now, t);
-							}
+								} catch (Throwable t)
+								{
+									msg = "[ERROR] Failed to produce (segmented) output image";
+									logError(msg, now, t);
+								}
 			
-						}
+							}
 						
 
 						
-						if (runContourID && !frame.getError() && !frame.getCancelled())
-						{
-							msg = "Starting serration identification:";
-							Misc.addMessage(frameMessages.getTextPane(), msg, null);
-							//dialogProgress.getLabelCurrent().setText(msg);
-							
-							int[][] imgSegNoBorders = new int[1][1]; //just to obey the java compiler...
-							if (!frame.getError() && !frame.getCancelled() )
+							boolean serrationsOverrun = false; //a serration stage ran out of time
+							if (runContourID && timeLimit.isImageExpired() && !frame.getError() && !frame.getCancelled())
+							{
+								msg = "Time limit of the image exceeded, skipping serration identification";
+								Misc.addMessage(frameMessages.getTextPane(), msg, null, Color.ORANGE);
+								serrationsReduced = SERRATIONS_SKIPPED;
+							} else if (runContourID && settings.getFastContour() && !frame.getError() && !frame.getCancelled())
 							{
 								try
 								{
-									msg = "Masking border pixels for serrations...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
-									imgSegNoBorders = GrayscaleImageEdit.removeBorderPixels(vecSegObjBordersShort, imgSeg);
-									dialogProgress.getPBInterim().setValue(60);
+									approximateSerrations();
 								} catch (Throwable t)
 								{
-									msg = "[ERROR] Failed to mask border pixels for serrations";
+									msg = "[ERROR] Failed to approximate serrations";
 									logError(msg, now, t);
 								}
-							}
-							
-							Vector vecContourHotspots = new Vector(1);
-							//int[][] contourHotspots = new int[1][1];
-							if (!frame.getError() && !frame.getCancelled() )
+							} else if (runContourID && !frame.getError() && !frame.getCancelled())
 							{
-								try
+								msg = "Starting serration identification:";
+								Misc.addMessage(frameMessages.getTextPane(), msg, null);
+								//dialogProgress.getLabelCurrent().setText(msg);
+							
+								int[][] imgSegNoBorders = null; //just to obey the java compiler...
+								if (!frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Identifying serration connection points...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
+									try
+									{
+										msg = "Masking border pixels for serrations...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										imgSegNoBorders = GrayscaleImageEdit.removeBorderPixels(vecSegObjBordersShort, imgSeg,
+											bufferPool.acquireInt(imgHeight, imgWidth, false) );
+										dialogProgress.getPBInterim().setValue(60);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to mask border pixels for serrations";
+										logError(msg, now, t);
+									}
+								}
+							
+								Vector vecContourHotspots = new Vector(1);
+								//int[][] contourHotspots = new int[1][1];
+								if (!frame.getError() && !frame.getCancelled() )
+								{
+									try
+									{
+										msg = "Identifying serration connection points...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
 								
-									// vecContours is a global obj. and can be used by other function
-									Vector[] vecContourHotspotConnectionsArr = GrayscaleImageEdit.findContourHotspotsNarrow(vecSegObjBordersShort, imgSegNoBorders, settings.getPixelContourThresh() );
-									vecContourHotspotConnections = vecContourHotspotConnectionsArr[0];
-									vecContourHotspotIndices = vecContourHotspotConnectionsArr[1];
+										// vecContours is a global obj. and can be used by other function
+										timeLimit.startStage(stageMillis);
+										Vector[] vecContourHotspotConnectionsArr = GrayscaleImageEdit.findContourHotspotsNarrow(vecSegObjBordersShort, imgSegNoBorders, settings.getPixelContourThresh(),
+											timeLimit);
+										if (vecContourHotspotConnectionsArr == null)
+										{
+											serrationsOverrun = true;
+										} else
+										{
+											vecContourHotspotConnections = vecContourHotspotConnectionsArr[0];
+											vecContourHotspotIndices = vecContourHotspotConnectionsArr[1];
+										}
 									
-									dialogProgress.getPBInterim().setValue(65);
+										dialogProgress.getPBInterim().setValue(65);
 								
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed to identify serration connection points";
-									logError(msg, now, t);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to identify serration connection points";
+										logError(msg, now, t);
+									}
 								}
-							}
 							
-							int[][] contourComplete = new int[1][1];
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								try
+								int[][] contourComplete = new int[1][1];
+								if (!serrationsOverrun && !frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Tracing complete contour area...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
+									try
+									{
+										msg = "Tracing complete contour area...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
 									
-									contourComplete = GrayscaleImageEdit.traceContour(imgSeg, vecSegObjBordersShort, vecContourHotspotConnections, vecContourHotspotIndices);
+										timeLimit.startStage(stageMillis);
+										contourComplete = GrayscaleImageEdit.traceContour(imgSeg, vecSegObjBordersShort, vecContourHotspotConnections, vecContourHotspotIndices,
+											timeLimit);
+										serrationsOverrun = (contourComplete == null);
 								
-									dialogProgress.getPBInterim().setValue(75);
+										dialogProgress.getPBInterim().setValue(75);
 									
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed to calculate unique contour area";
-									logError(msg, now, t);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to calculate unique contour area";
+										logError(msg, now, t);
+									}
 								}
-							}
 							
-							int[][] contourUnique = new int[1][1];
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								try
+								int[][] contourUnique = new int[1][1];
+								if (!serrationsOverrun && !frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Calculating unique contour area...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
+									try
+									{
+										msg = "Calculating unique contour area...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
 									
 									
-									contourUnique = GrayscaleImageEdit.matrixDifference(imgSegNoBorders, contourComplete);
-									vecContourUnique = GrayscaleImageEdit.intMatrixToVectorOfPoints(contourUnique);
-							
-									//PlanarImageEdit.paintIntegerMatrix(contourComplete, Color.PINK, imgDisplay.getGraphics() );
-									GrayscaleImageEdit.paintBordersAndCavities(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBorderBPInner, imgDisplay.getGraphics());
-									PlanarImageEdit.paintIntegerMatrix(contourUnique, Color.BLUE, imgDisplay.getGraphics() );
-									//PlanarImageEdit.paintVector(vecSegObjs, Color.GREEN, imgDisplay.getGraphics() );
-									PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, imgDisplay.getGraphics() );
-									GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, imgDisplay.getGraphics(), Color.RED, false);
-									//GrayscaleImageEdit.paintContourHotspotsCrosses(vecSegObjBordersShortLandmarks, imgDisplay.
+										contourUnique = GrayscaleImageEdit.matrixDifference(imgSegNoBorders, contourComplete);
+										vecContourUnique = GrayscaleImageEdit.intMatrixToVectorOfPoints(contourUnique);
 									
-									dialogProgress.getPBInterim().setValue(75);
+										dialogProgress.getPBInterim().setValue(75);
 									
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed to calculate unique contour area";
-									logError(msg, now, t);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to calculate unique contour area";
+										logError(msg, now, t);
+									}
 								}
-							}
 							
-							contourComplete = null; //no need for this variable anymore
-							imgSegNoBorders = null; //no need for this variable anymore
-							System.err.println("--- Memory (before GC): total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() );
-							runTime.gc();
-							System.err.println("--- Memory (after GC): total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() );
+								contourComplete = null; //no need for this variable anymore
+								bufferPool.release(imgSegNoBorders);
+								imgSegNoBorders = null; //no need for this variable anymore
+								System.err.println("--- Memory: total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() );
 							
-							/*
-							int[][] borderMat = new int[1][1];
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								try
+								/*
+								int[][] borderMat = new int[1][1];
+								if (!frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Calculating overlap between unique contour and original borders...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
-									borderMat = GrayscaleImageEdit.vectorOfPointsToIntMatrix(vecSegObjBordersShort, imgSeg[0].length, imgSeg.length);
-									//byte[][] intersectBorderContour = GrayscaleImageEdit.matrixIntersect(borderMat, contourBorders);
-									dialogProgress.getPBInterim().setValue(77);
+									try
+									{
+										msg = "Calculating overlap between unique contour and original borders...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										borderMat = GrayscaleImageEdit.vectorOfPointsToIntMatrix(vecSegObjBordersShort, imgWidth, imgHeight);
+										//byte[][] intersectBorderContour = GrayscaleImageEdit.matrixIntersect(borderMat, contourBorders);
+										dialogProgress.getPBInterim().setValue(77);
 								
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed to calculate overlap between unique contour and original border";
-									logError(msg, now, t);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to calculate overlap between unique contour and original border";
+										logError(msg, now, t);
+									}
 								}
-							}
 							
 								
-							//Vector vecContourHotspots = new Vector(1);
-							//int[][] contourHotspots = new int[1][1];
+								//Vector vecContourHotspots = new Vector(1);
+								//int[][] contourHotspots = new int[1][1];
 							
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								try
+								if (!frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Identifying contour hotspots...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
-									vecContourIndents = GrayscaleImageEdit.fetchIndentDepths(vecContourHotspotConnections, vecContourHotspotIndices, vecSegObjBordersShort, contourUnique, dialogProgress.getPBCurrent());
-									GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, imgDisplay.getGraphics(), Color.ORANGE );
+									try
+									{
+										msg = "Identifying contour hotspots...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										vecContourIndents = GrayscaleImageEdit.fetchIndentDepths(vecContourHotspotConnections, vecContourHotspotIndices, vecSegObjBordersShort, contourUnique, dialogProgress.getPBCurrent());
+										GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, imgDisplay.getGraphics(), Color.ORANGE );
 								
 								
-									dialogProgress.getPBInterim().setValue(80);
+										dialogProgress.getPBInterim().setValue(80);
 								
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed to identify contour hotspots";
-									logError(msg, now, t);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to identify contour hotspots";
+										logError(msg, now, t);
+									}
 								}
-							}
-							*/
+								*/
 							
-							/*
-							Vector vecContourHotspotsMerged = new Vector(1);
-							int[][] contourHotspotsMerged = new int[1][1];
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								try
+								/*
+								Vector vecContourHotspotsMerged = new Vector(1);
+								int[][] contourHotspotsMerged = new int[1][1];
+								if (!frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Merging contour hotspots...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
-									vecContourHotspotsMerged = GrayscaleImageEdit.mergeContourHotspots(vecContourHotspots, vecSegObjBordersShort, 3*Math.sqrt(2), 0);
-									contourHotspotsMerged = GrayscaleImageEdit.vectorOfPointsToIntMatrix(vecContourHotspotsMerged, imgSeg[0].length, imgSeg.length);
-									PlanarImageEdit.paintIntegerMatrix(contourHotspotsMerged, Color.PINK, imgDisplay.getGraphics() );
-									//PlanarImageEdit.paintIntegerMatrix(contourHotspots, colors3, imgDisplay.getGraphics() );
+									try
+									{
+										msg = "Merging contour hotspots...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										vecContourHotspotsMerged = GrayscaleImageEdit.mergeContourHotspots(vecContourHotspots, vecSegObjBordersShort, 3*Math.sqrt(2), 0);
+										contourHotspotsMerged = GrayscaleImageEdit.vectorOfPointsToIntMatrix(vecContourHotspotsMerged, imgWidth, imgHeight);
+										PlanarImageEdit.paintIntegerMatrix(contourHotspotsMerged, Color.PINK, imgDisplay );
+										//PlanarImageEdit.paintIntegerMatrix(contourHotspots, colors3, imgDisplay.getGraphics() );
 									
-									dialogProgress.getPBInterim().setValue(82);
+										dialogProgress.getPBInterim().setValue(82);
 								
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed to merge contour hotspots";
-									logError(msg, now, t);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to merge contour hotspots";
+										logError(msg, now, t);
+									}
 								}
-							}
 							
 						
-							//Vector vecContourGroups = new Vector(1);
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								try
+								//Vector vecContourGroups = new Vector(1);
+								if (!frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Identifying contour hotspot groups...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
-									// vecContours is a global obj. and can be used by other function
-									vecContours = GrayscaleImageEdit.identifyContourGroups(vecContourHotspotsMerged, contourHotspotsMerged, true);
+									try
+									{
+										msg = "Identifying contour hotspot groups...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										// vecContours is a global obj. and can be used by other function
+										vecContours = GrayscaleImageEdit.identifyContourGroups(vecContourHotspotsMerged, contourHotspotsMerged, true);
 									
-									dialogProgress.getPBInterim().setValue(85);
+										dialogProgress.getPBInterim().setValue(85);
 								
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed to identify contour hotspot groups";
-									logError(msg, now, t);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to identify contour hotspot groups";
+										logError(msg, now, t);
+									}
 								}
-							}
 							
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								try
+								if (!frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Identifying contour hotspot connection points...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
-									// vecContours is a global obj. and can be used by other function
-									vecContourHotspotConnections = GrayscaleImageEdit.fetchContourHotspotConnections(vecContours, contourUnique);
-									GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, imgDisplay.getGraphics(), Color.RED, false);
+									try
+									{
+										msg = "Identifying contour hotspot connection points...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										// vecContours is a global obj. and can be used by other function
+										vecContourHotspotConnections = GrayscaleImageEdit.fetchContourHotspotConnections(vecContours, contourUnique);
+										GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, imgDisplay.getGraphics(), Color.RED, false);
 									
-									dialogProgress.getPBInterim().setValue(90);
-									dialogProgress.getPBCurrent().setValue(0);
+										dialogProgress.getPBInterim().setValue(90);
+										dialogProgress.getPBCurrent().setValue(0);
 								
-								} catch (Throwable t)
-								{
-									msg = "[ERROR] Failed to identify contour hotspot connection points";
-									logError(msg, now, t);
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to identify contour hotspot connection points";
+										logError(msg, now, t);
+									}
 								}
-							}
-							*/
+								*/
 							
-							if (!frame.getError() && !frame.getCancelled() )
-							{
-								try
+								if (!serrationsOverrun && !frame.getError() && !frame.getCancelled() )
 								{
-									msg = "Calculating indent depths...";
-									Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
-									// vecContours is a global obj. and can be used by other function
-									vecContourIndents = GrayscaleImageEdit.fetchIndentDepths(vecContourHotspotConnections, vecContourHotspotIndices, vecSegObjBordersShort, contourUnique, dialogProgress.getPBCurrent());
-									GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, imgDisplay.getGraphics(), Color.ORANGE );
+									try
+									{
+										msg = "Calculating indent depths...";
+										Misc.addMessage(frameMessages.getTextPane(), "  -" + msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
+										// vecContours is a global obj. and can be used by other function
+										timeLimit.startStage(stageMillis);
+										vecContourIndents = GrayscaleImageEdit.fetchIndentDepths(vecContourHotspotConnections, vecContourHotspotIndices, vecSegObjBordersShort, contourUnique, dialogProgress.getPBCurrent(),
+											timeLimit);
+										serrationsOverrun = (vecContourIndents == null);
 									
-									dialogProgress.getPBInterim().setValue(94);
-									dialogProgress.getPBCurrent().setValue(0);
+										dialogProgress.getPBInterim().setValue(94);
+										dialogProgress.getPBCurrent().setValue(0);
 								
-								} catch (Throwable t)
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to calculate indent depths";
+										logError(msg, now, t);
+									}
+								}
+							
+								// the results are painted only once every stage has succeeded, so that nothing
+								// of an overrun is left on the image below the approximation
+								if (!serrationsOverrun && !frame.getError() && !frame.getCancelled() )
 								{
-									msg = "[ERROR] Failed to calculate indent depths";
-									logError(msg, now, t);
+									try
+									{
+										//PlanarImageEdit.paintIntegerMatrix(contourComplete, Color.PINK, imgDisplay.getGraphics() );
+										GrayscaleImageEdit.paintBordersAndCavities(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBorderBPInner, imgDisplay);
+										PlanarImageEdit.paintIntegerMatrix(contourUnique, Color.BLUE, imgDisplay );
+										//PlanarImageEdit.paintVector(vecSegObjs, Color.GREEN, imgDisplay.getGraphics() );
+										PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, imgDisplay );
+										GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, imgDisplay.getGraphics(), Color.RED, false);
+										//GrayscaleImageEdit.paintContourHotspotsCrosses(vecSegObjBordersShortLandmarks, imgDisplay.
+										GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, imgDisplay.getGraphics(), Color.ORANGE );
+									} catch (Throwable t)
+									{
+										msg = "[ERROR] Failed to paint serrations";
+										logError(msg, now, t);
+									}
+								}
+								contourUnique = null;
+							
+								// the image is re-run with the cheaper approximation, unless its time is up as well
+								if (serrationsOverrun && !frame.getError() && !frame.getCancelled() )
+								{
+									vecContourHotspotConnections = null;
+									vecContourHotspotIndices = null;
+									vecContourIndents = null;
+									vecContourUnique = null;
+								
+									if (timeLimit.isImageExpired())
+									{
+										msg = "Time limit of the image exceeded during serration identification, skipping serrations";
+										Misc.addMessage(frameMessages.getTextPane(), msg, null, Color.ORANGE);
+										serrationsReduced = SERRATIONS_SKIPPED;
+									} else
+									{
+										msg = "Time limit of a serration stage exceeded, approximating serrations instead";
+										Misc.addMessage(frameMessages.getTextPane(), msg, null, Color.ORANGE);
+										serrationsReduced = SERRATIONS_APPROXIMATED;
+										try
+										{
+											approximateSerrations();
+										} catch (Throwable t)
+										{
+											msg = "[ERROR] Failed to approximate serrations";
+											logError(msg, now, t);
+										}
+									}
 								}
-							}
 							
-						} //if runContourID
+							} //if runContourID
 						
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							//preparing to write segmentation (full) image to file -->
-
-							try
+							if (!frame.getError() && !frame.getCancelled() )
 							{
-								GrayscaleImageEdit.paintObjectIds(vecSegObjCenters, imgDisplay.getGraphics());
-								
-								if (settings.getBatchWriteFullImage())
+								//preparing to write segmentation (full) image to file -->
+
+								try
 								{
+									GrayscaleImageEdit.paintObjectIds(vecSegObjCenters, imgDisplay.getGraphics());
 								
-								
-									//create a new filename
-									//delim = (currentFilename.lastIndexOf('\\') >= 0) ? "\\" : "/"; //linux/windows path delimiters
-									String currentFilenameNew = settings.getOutputDir().getAbsolutePath() + delim + table.getModel().getValueAt(fNum, 0);
-									String[] parts = currentFilenameNew.split("\\.");
-									String newStr = new String(parts[0]);
-									for (int i = 1; i < (parts.length-1); i++)
-										newStr = newStr  + "." + parts[i];
-									String ext = parts[parts.length-1];
-									
-									String fName = newStr + OUTPUT_FNAME_SEG + "." + ext;
-									File fileSave = new File(fName);
-									int outNum = 2;
-									while (fileSave.isFile() )
+									if (settings.getBatchWriteFullImage())
 									{
-										fName = newStr + OUTPUT_FNAME_SEG + (outNum++) + "." + ext;
-										fileSave =  new File(fName);
-									}
+								
+								
+										//create a new filename
+										//delim = (currentFilename.lastIndexOf('\\') >= 0) ? "\\" : "/"; //linux/windows path delimiters
+										String currentFilenameNew = settings.getOutputDir().getAbsolutePath() + delim + table.getModel().getValueAt(fNum, 0);
+										String[] parts = currentFilenameNew.split("\\.");
+										String newStr = new String(parts[0]);
+										for (int i = 1; i < (parts.length-1); i++)
+											newStr = newStr  + "." + parts[i];
+										newStr = newStr + boxSuffix;
+										String ext = parts[parts.length-1];
+									
+										String fName = newStr + OUTPUT_FNAME_SEG + "." + ext;
+										File fileSave = new File(fName);
+										int outNum = 2;
+										while (fileSave.isFile() )
+										{
+											fName = newStr + OUTPUT_FNAME_SEG + (outNum++) + "." + ext;
+											fileSave =  new File(fName);
+										}
 									
-									msg = "Writing segmentation (full) image to file " + fName + "...";
-									Misc.addMessage(frameMessages.getTextPane(), msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
+										msg = "Writing segmentation (full) image to file " + fName + "...";
+										Misc.addMessage(frameMessages.getTextPane(), msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
 								
-									String codecId = ext.toUpperCase();
-									if (codecId.equals("TIF"))
-										codecId = "TIFF";
-									else if (codecId.equals("JPG"))
-										codecId = "JPEG";
+										String codecId = ext.toUpperCase();
+										if (codecId.equals("TIF"))
+											codecId = "TIFF";
+										else if (codecId.equals("JPG"))
+											codecId = "JPEG";
 									
 									
-									JAI.create("filestore", imgDisplay, fName, codecId);
-								}
+										outputWriter.writeImage(imgDisplay, fName, codecId);
+									}
 								
-								dialogProgress.getPBInterim().setValue(95);
+									dialogProgress.getPBInterim().setValue(95);
 							
-							} catch (Throwable t)
-							{
-								msg = "[ERROR] Failed to output cropped image";
-								logError(msg, now, t);
-							}
+								} catch (Throwable t)
+								{
+									msg = "[ERROR] Failed to output cropped image";
+									logError(msg, now, t);
+								}
 	
-						}
+							}
 						
 						
-						if (!frame.getError() && !frame.getCancelled() )
-						{
+							if (!frame.getError() && !frame.getCancelled() )
+							{
 						
 							
 							
-							try
-							{
-								if (settings.getBatchWriteCroppedImage())
+								try
 								{
+									if (settings.getBatchWriteCroppedImage())
+									{
 								
-									msg = "Cropping output image...";
-									Misc.addMessage(frameMessages.getTextPane(), msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
+										msg = "Cropping output image...";
+										Misc.addMessage(frameMessages.getTextPane(), msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
 									
-									Vector vec = new Vector( vecSegObjBorders.size() );
-									for (int i = 0; i < vecSegObjBorders.size(); i++)
-									{
-										Vector vecCurr = (Vector)vecSegObjBorders.get(i);
+										Vector vec = new Vector( vecSegObjBorders.size() );
+										for (int i = 0; i < vecSegObjBorders.size(); i++)
+										{
+											Vector vecCurr = (Vector)vecSegObjBorders.get(i);
 										
-										//find the most extreme point
-										Point p = (Point)vecCurr.get(0);
-										int maxX = Integer.MIN_VALUE;
-										int minX = Integer.MAX_VALUE;
-										int maxY = Integer.MIN_VALUE;
-										int minY = Integer.MAX_VALUE;
-										int xScaled, yScaled;
+											//find the most extreme point
+											Point p = (Point)vecCurr.get(0);
+											int maxX = Integer.MIN_VALUE;
+											int minX = Integer.MAX_VALUE;
+											int maxY = Integer.MIN_VALUE;
+											int minY = Integer.MAX_VALUE;
+											int xScaled, yScaled;
 										
-										for (int j = 0; j < vecCurr.size(); j++)
-										{
-											p = (Point)vecCurr.get(j);
-											//xScaled = (int)(p.getX()/zoomLevel);
-											//yScaled = (int)(p.getY()/zoomLevel);
-											xScaled = (int)(p.getX());
-											yScaled = (int)(p.getY());
+											for (int j = 0; j < vecCurr.size(); j++)
+											{
+												p = (Point)vecCurr.get(j);
+												//xScaled = (int)(p.getX()/zoomLevel);
+												//yScaled = (int)(p.getY()/zoomLevel);
+												xScaled = (int)(p.getX());
+												yScaled = (int)(p.getY());
 											
-											if ( xScaled > maxX )
-												maxX = xScaled;
-											if ( xScaled < minX )
-												minX = xScaled;
-											if ( yScaled > maxY )
-												maxY = yScaled;
-											if ( yScaled < minY )
-												minY = yScaled;
-										}
+												if ( xScaled > maxX )
+													maxX = xScaled;
+												if ( xScaled < minX )
+													minX = xScaled;
+												if ( yScaled > maxY )
+													maxY = yScaled;
+												if ( yScaled < minY )
+													minY = yScaled;
+											}
 										
 										
-										// create a rectangle spanning this area
-										Rectangle rect = new Rectangle(minX - Lamina.CROP_PADDING, minY-Lamina.CROP_PADDING,
-											maxX-minX+2*Lamina.CROP_PADDING, maxY-minY+2*Lamina.CROP_PADDING);
-										vec.add(rect);
-									}
+											// create a rectangle spanning this area
+											Rectangle rect = new Rectangle(minX - Lamina.CROP_PADDING, minY-Lamina.CROP_PADDING,
+												maxX-minX+2*Lamina.CROP_PADDING, maxY-minY+2*Lamina.CROP_PADDING);
+											vec.add(rect);
+										}
 									
-									imgCropped = PlanarImageEdit.cropImages(imgDisplay, vec, 1.0);
+										imgCropped = PlanarImageEdit.cropImages(imgDisplay, vec, 1.0);
 								
-								}
+									}
 								
-								dialogProgress.getPBInterim().setValue(96);
+									dialogProgress.getPBInterim().setValue(96);
 							
-							} catch (Throwable t)
-							{	
-								msg = "[ERROR] Failed to create cropped image";
-								logError(msg, now, t);
-							}
+								} catch (Throwable t)
+								{	
+									msg = "[ERROR] Failed to create cropped image";
+									logError(msg, now, t);
+								}
 						
-						}
+							}
 						
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							//preparing to write cropped image to file -->
-
-							try
+							if (!frame.getError() && !frame.getCancelled() )
 							{
-								if (settings.getBatchWriteCroppedImage())
+								//preparing to write cropped image to file -->
+
+								try
 								{
+									if (settings.getBatchWriteCroppedImage())
+									{
 								
 								
-									//create a new filename
-									//delim = (currentFilename.lastIndexOf('\\') >= 0) ? "\\" : "/"; //linux/windows path delimiters
-									String currentFilenameNew = settings.getOutputDir().getAbsolutePath() + delim + table.getModel().getValueAt(fNum, 0);
-									String[] parts = currentFilenameNew.split("\\.");
-									String newStr = new String(parts[0]);
-									for (int i = 1; i < (parts.length-1); i++)
-										newStr = newStr  + "." + parts[i];
-									String ext = parts[parts.length-1];
-									
-									String fName = newStr + OUTPUT_FNAME_CROPPED + "." + ext;
-									File fileSave = new File(fName);
-									int outNum = 2;
-									while (fileSave.isFile() )
-									{
-										fName = newStr + OUTPUT_FNAME_CROPPED + (outNum++) + "." + ext;
-										fileSave =  new File(fName);
-									}
+										//create a new filename
+										//delim = (currentFilename.lastIndexOf('\\') >= 0) ? "\\" : "/"; //linux/windows path delimiters
+										String currentFilenameNew = settings.getOutputDir().getAbsolutePath() + delim + table.getModel().getValueAt(fNum, 0);
+										String[] parts = currentFilenameNew.split("\\.");
+										String newStr = new String(parts[0]);
+										for (int i = 1; i < (parts.length-1); i++)
+											newStr = newStr  + "." + parts[i];
+										newStr = newStr + boxSuffix;
+										String ext = parts[parts.length-1];
+									
+										String fName = newStr + OUTPUT_FNAME_CROPPED + "." + ext;
+										File fileSave = new File(fName);
+										int outNum = 2;
+										while (fileSave.isFile() )
+										{
+											fName = newStr + OUTPUT_FNAME_CROPPED + (outNum++) + "." + ext;
+											fileSave =  new File(fName);
+										}
 									
-									msg = "Writing cropped image to file " + fName + "...";
-									Misc.addMessage(frameMessages.getTextPane(), msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
+										msg = "Writing cropped image to file " + fName + "...";
+										Misc.addMessage(frameMessages.getTextPane(), msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
 								
-									String codecId = ext.toUpperCase();
-									if (codecId.equals("TIF"))
-										codecId = "TIFF";
-									else if (codecId.equals("JPG"))
-										codecId = "JPEG";
+										String codecId = ext.toUpperCase();
+										if (codecId.equals("TIF"))
+											codecId = "TIFF";
+										else if (codecId.equals("JPG"))
+											codecId = "JPEG";
 									
 									
-									JAI.create("filestore", imgCropped, fName, codecId);
-								}
+										outputWriter.writeImage(imgCropped, fName, codecId);
+									}
 								
-								dialogProgress.getPBInterim().setValue(97);
+									dialogProgress.getPBInterim().setValue(97);
 							
-							} catch (Throwable t)
-							{	
-								msg = "[ERROR] Failed to output cropped image";
-								logError(msg, now, t);
-							}
+								} catch (Throwable t)
+								{	
+									msg = "[ERROR] Failed to output cropped image";
+									logError(msg, now, t);
+								}
 	
-						}
+							}
 						
-						Vector objStats = new Vector(1);
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							try
+							Vector objStats = new Vector(1);
+							if (!frame.getError() && !frame.getCancelled() )
 							{
-								msg = "Calculating object statistics...";
-								Misc.addMessage(frameMessages.getTextPane(), msg, null);
-								dialogProgress.getLabelCurrent().setText(msg);
+								try
+								{
+									msg = "Calculating object statistics...";
+									Misc.addMessage(frameMessages.getTextPane(), msg, null);
+									dialogProgress.getLabelCurrent().setText(msg);
+								
+									//the object centers are reported in the coordinates of the full image
+									Vector vecSegObjCentersOrg = vecSegObjCenters;
+									if (rectCrop != null)
+									{
+										vecSegObjCentersOrg = new Vector(vecSegObjCenters.size());
+										for (int i = 0; i < vecSegObjCenters.size(); i++)
+										{
+											Point2D.Double pCenter = (Point2D.Double)vecSegObjCenters.get(i);
+											vecSegObjCentersOrg.add( new Point2D.Double(pCenter.getX() + rectCrop.x, pCenter.getY() + rectCrop.y) );
+										}
+									}
+								
+									objStats = GrayscaleImageEdit.calcSegStats(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBordersShort,
+										vecSegObjBorderBPInner, vecHorizVertLines, vecIntersectPoints,
+										vecContourHotspotConnections, vecContourHotspotIndices, vecContourIndents,
+										1/( (SpinnerNumberModel)spinnerScaleParam.getModel()).getNumber().doubleValue(),
+										vecSegObjBordersShortLandmarks, vecSegObjCentersOrg, vecSegObjCenters,
+									imgDisplay.getGraphics() );
 								
-								objStats = GrayscaleImageEdit.calcSegStats(vecSegObjs, vecSegObjNoCavities, vecSegObjBorders, vecSegObjBordersShort,
-									vecSegObjBorderBPInner, vecHorizVertLines, vecIntersectPoints,
-									vecContourHotspotConnections, vecContourHotspotIndices, vecContourIndents,
-									1/( (SpinnerNumberModel)spinnerScaleParam.getModel()).getNumber().doubleValue(),
-									vecSegObjBordersShortLandmarks, vecSegObjCenters, vecSegObjCenters,
-								imgDisplay.getGraphics() );
+									// the offset of the analysed area (object box or crop) in the full image, so that
+									// the other coordinates can be put back into it
+									if (settings.getBatchTiledSegmentation() || settings.getBatchAutoCrop())
+									{
+										int offsetX = (rectCrop != null) ? rectCrop.x : 0;
+										int offsetY = (rectCrop != null) ? rectCrop.y : 0;
+										( (Vector)objStats.get(0) ).add("Box offset horiz.");
+										( (Vector)objStats.get(0) ).add("Box offset vert.");
+										for (int i = 1; i < objStats.size(); i++)
+										{
+											( (Vector)objStats.get(i) ).add( new Integer(offsetX) );
+											( (Vector)objStats.get(i) ).add( new Integer(offsetY) );
+										}
+									}
+								
+									// flag the objects of images whose serrations were cut short
+									if (settings.getBatchImageTimeLimit() > 0 || settings.getBatchStageTimeLimit() > 0)
+									{
+										( (Vector)objStats.get(0) ).add("Serrations reduced");
+										for (int i = 1; i < objStats.size(); i++)
+											( (Vector)objStats.get(i) ).add( new Integer(serrationsReduced) );
+									}
 									
-								dialogProgress.getPBInterim().setValue(98);
+									dialogProgress.getPBInterim().setValue(98);
 							
-							} catch (Throwable t)
-							{	
-								msg = "[ERROR] Failed to calculate object statistics";
-								logError(msg, now, t);
+								} catch (Throwable t)
+								{	
+									msg = "[ERROR] Failed to calculate object statistics";
+									logError(msg, now, t);
+								}
 							}
-						}
 						
-						String fName_noext = new String();
+							String fName_noext = new String();
 						
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							try
+							if (!frame.getError() && !frame.getCancelled() )
 							{
-								if (settings.getBatchWriteLocalStatFile())
+								try
 								{
-								
-									//create a new filename
-									String currentFilenameNew = settings.getOutputDir().getAbsolutePath() + delim + table.getModel().getValueAt(fNum, 0);
-									String[] parts = currentFilenameNew.split("\\.");
-									String newStr = new String(parts[0]);
-									for (int i = 1; i < (parts.length-1); i++)
-										newStr = newStr  + "." + parts[i];
-									String ext = parts[parts.length-1];
-									fName_noext = newStr;
-									
-									String fName = fName_noext + OUTPUT_FNAME_STATS + ".txt";
-									File fileSave = new File(fName);
-									int outNum = 2;
-									while (fileSave.isFile() )
+									if (settings.getBatchWriteLocalStatFile())
 									{
-										fName = newStr + OUTPUT_FNAME_STATS + (outNum++) + ".txt";
-										fileSave =  new File(fName);
-									}
+								
+										//create a new filename
+										String currentFilenameNew = settings.getOutputDir().getAbsolutePath() + delim + table.getModel().getValueAt(fNum, 0);
+										String[] parts = currentFilenameNew.split("\\.");
+										String newStr = new String(parts[0]);
+										for (int i = 1; i < (parts.length-1); i++)
+											newStr = newStr  + "." + parts[i];
+										newStr = newStr + boxSuffix;
+										String ext = parts[parts.length-1];
+										fName_noext = newStr;
+									
+										String fName = fName_noext + OUTPUT_FNAME_STATS + ".txt";
+										File fileSave = new File(fName);
+										int outNum = 2;
+										while (fileSave.isFile() )
+										{
+											fName = newStr + OUTPUT_FNAME_STATS + (outNum++) + ".txt";
+											fileSave =  new File(fName);
+										}
 					
-									msg = "Writing object statistics to file " + fName + "...";
-									Misc.addMessage(frameMessages.getTextPane(), msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
+										msg = "Writing object statistics to file " + fName + "...";
+										Misc.addMessage(frameMessages.getTextPane(), msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
 									
 									
-									String token = "\t";
+										String token = "\t";
 									
-									// start writing output
+										// start writing output
 									
-									FileWriter fw = new FileWriter(fName);
-									BufferedWriter bw = new BufferedWriter(fw, 10000);
+										StringWriter sw = new StringWriter();
+										BufferedWriter bw = new BufferedWriter(sw, 10000);
 
-									Vector fileHeader = (Vector)objStats.get(0);
+										Vector fileHeader = (Vector)objStats.get(0);
 									
-									//dump the file header first ..
-									for (int j = 0; j < fileHeader.size(); j++)
-									{
-										//String str = Misc.quoteAlphaNumeric((String)fileHeader.get(i));
-										//String str = (String)fileHeader.get(i);
-										bw.write( "\"" + (String)fileHeader.get(j) + "\"" );
-										if (j < (fileHeader.size()-1))
-											bw.write(token, 0, token.length());
-									}
-									bw.newLine();
-
-									// .. and then the data
-									for (int i = 1; i < objStats.size(); i++)
-									{
-										Vector row = (Vector)objStats.get(i);
-
-										for (int j = 0; j < row.size(); j++)
+										//dump the file header first ..
+										for (int j = 0; j < fileHeader.size(); j++)
 										{
-											//bw.write(Misc.quoteAlphaNumeric( (String)row.get(j)));
-											bw.write( ((Number)row.get(j)).toString() );
-											if (j < (row.size()-1))
+											//String str = Misc.quoteAlphaNumeric((String)fileHeader.get(i));
+											//String str = (String)fileHeader.get(i);
+											bw.write( "\"" + (String)fileHeader.get(j) + "\"" );
+											if (j < (fileHeader.size()-1))
 												bw.write(token, 0, token.length());
 										}
 										bw.newLine();
+
+										// .. and then the data
+										for (int i = 1; i < objStats.size(); i++)
+										{
+											Vector row = (Vector)objStats.get(i);
+
+											for (int j = 0; j < row.size(); j++)
+											{
+												//bw.write(Misc.quoteAlphaNumeric( (String)row.get(j)));
+												bw.write( ((Number)row.get(j)).toString() );
+												if (j < (row.size()-1))
+													bw.write(token, 0, token.length());
+											}
+											bw.newLine();
+										}
+										bw.flush();
+										bw.close();
+									
+										outputWriter.writeText(sw.toString(), fName);
 									}
-									bw.flush();
-									bw.close();
-								
-								}
 								
-								dialogProgress.getPBInterim().setValue(99);
+									dialogProgress.getPBInterim().setValue(99);
 							
-							} catch (Throwable t)
-							{	
-								msg = "[ERROR] Failed to output object statistics to file";
-								logError(msg, now, t);
-							}
+								} catch (Throwable t)
+								{	
+									msg = "[ERROR] Failed to output object statistics to file";
+									logError(msg, now, t);
+								}
 
-						}
+							}
 						
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							vecOutputData.add( objStats );
-							vecOutputDataNames.add( Misc.extractFilename(currentFilename) );
-						}
+							if (!frame.getError() && !frame.getCancelled() )
+							{
+								//keep the results in table order, and the boxes of a file in their order
+								int pos = 0;
+								while (pos < vecOutputDataRows.size() && ((Integer)vecOutputDataRows.get(pos)).intValue() <= fNum)
+									pos++;
+								vecOutputData.insertElementAt( objStats, pos );
+								vecOutputDataNames.insertElementAt( Misc.extractFilename(currentFilename) +
+									( (fileBoxes != null) ? " (object box " + (boxNum+1) + ")" : ""), pos );
+								vecOutputDataRows.insertElementAt( new Integer(fNum), pos );
+							
+								if (settings.getBatchWriteSummary())
+									addToSketches(objStats, statSketchNames, statSketches);
+							}
 						
-						// notify that the current file is done
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							msg = "*** Done processing file";
-							Misc.addMessage(frameMessages.getTextPane(), msg, null, Color.GREEN);
-							dialogProgress.getLabelCurrent().setText(msg);
-						}
+							// notify that the current file is done
+							if (!frame.getError() && !frame.getCancelled() )
+							{
+								//the time of all boxes of the file so far
+								scheduler.record(currentFilename, System.currentTimeMillis() - ( (fileBoxes != null) ? fileStart : jobStart) );
+							
+								msg = "*** Done processing file";
+								Misc.addMessage(frameMessages.getTextPane(), msg, null, Color.GREEN);
+								dialogProgress.getLabelCurrent().setText(msg);
+							}
 						
-						//write log, unless the user actively cancelled
-						if (!frame.getCancelled() )
-						{
-							try
+							//write log, unless the user actively cancelled
+							if (!frame.getCancelled() )
 							{
-								if (settings.getBatchWriteLogFile())
+								try
 								{
+									if (settings.getBatchWriteLogFile())
+									{
 								
-									msg = "Writing log file of events...";
-									//Misc.addMessage(frameMessages.getTextPane(), msg, null);
-									dialogProgress.getLabelCurrent().setText(msg);
+										msg = "Writing log file of events...";
+										//Misc.addMessage(frameMessages.getTextPane(), msg, null);
+										dialogProgress.getLabelCurrent().setText(msg);
 									
 									
-									String currentFilenameNew = settings.getOutputDir().getAbsolutePath() + delim + table.getModel().getValueAt(fNum, 0);
-									String[] parts = currentFilenameNew.split("\\.");
-									String newStr = new String(parts[0]);
-									for (int i = 1; i < (parts.length-1); i++)
-										newStr = newStr  + "." + parts[i];
-									String ext = parts[parts.length-1];
-									fName_noext = newStr;
+										String currentFilenameNew = settings.getOutputDir().getAbsolutePath() + delim + table.getModel().getValueAt(fNum, 0);
+										String[] parts = currentFilenameNew.split("\\.");
+										String newStr = new String(parts[0]);
+										for (int i = 1; i < (parts.length-1); i++)
+											newStr = newStr  + "." + parts[i];
+										newStr = newStr + boxSuffix;
+										String ext = parts[parts.length-1];
+										fName_noext = newStr;
 									
 									
 									
-									//fetch the time, to calculate the date used to name the log file
-									//String timeFormatted = sdf.format(cal.getTime()).replaceAll(" ", "_").replaceAll(":", "-").replaceAll("/", "-").replaceAll("\\\\", "-");
+										//fetch the time, to calculate the date used to name the log file
+										//String timeFormatted = sdf.format(cal.getTime()).replaceAll(" ", "_").replaceAll(":", "-").replaceAll("/", "-").replaceAll("\\\\", "-");
 									
-									String text = frameMessages.getTextPane().getText();
+										String text = frameMessages.getTextPane().getText();
 									
-									//chop out the pieces that belong to the previous files
-									if (fNum > 0)
-									{
-										String[] parts2 = text.split(OUTPUT_SEPARATOR);
-										text = parts2[ parts2.length-1 ];
+										//chop out the pieces that belong to the previous files (and boxes)
+										if (jobNum > 0 || boxNum > 0)
+										{
+											String[] parts2 = text.split(OUTPUT_SEPARATOR);
+											text = parts2[ parts2.length-1 ];
 										
-										//remove initial linefeed
-										String[] parts3 = text.split("\n");
-										text = "";
-										for (int k = 1; k < parts3.length; k++)
-											text = text + parts3[k] + '\n';
-									}
+											//remove initial linefeed
+											String[] parts3 = text.split("\n");
+											text = "";
+											for (int k = 1; k < parts3.length; k++)
+												text = text + parts3[k] + '\n';
+										}
 									
-									//create a unique filename
-									File fLog = new File( fName_noext + OUTPUT_FNAME_LOG + ".txt");
-									int outNum = 2;
-									while (fLog.isFile())
-										fLog = new File( fName_noext + OUTPUT_FNAME_LOG + "_" + (outNum++) + ".txt");
+										//create a unique filename
+										File fLog = new File( fName_noext + OUTPUT_FNAME_LOG + ".txt");
+										int outNum = 2;
+										while (fLog.isFile())
+											fLog = new File( fName_noext + OUTPUT_FNAME_LOG + "_" + (outNum++) + ".txt");
 									
-									System.err.println(fLog.getAbsolutePath());
+										System.err.println(fLog.getAbsolutePath());
 									
-									if (!frameMessages.writeLogToFile(fLog, text))
-										throw new Exception();
-								}
+										if (!frameMessages.writeLogToFile(fLog, text))
+											throw new Exception();
+									}
 									
-							} catch (Throwable t)
-							{	
-								msg = "[ERROR] Failed to write log file";
-								logError(msg, now, t);
+								} catch (Throwable t)
+								{	
+									msg = "[ERROR] Failed to write log file";
+									logError(msg, now, t);
+								}
 							}
-						}
 						
 					
 						
-						//done, now just finish up
-						if (!frame.getError() && !frame.getCancelled() )
-						{
-							dialogProgress.getPBInterim().setValue(100);
-							//dialogProgress.getLabelCurrent().setText("Done.");
+							//done, now just finish up
+							if (!frame.getError() && !frame.getCancelled() )
+							{
+								dialogProgress.getPBInterim().setValue(100);
+								//dialogProgress.getLabelCurrent().setText("Done.");
 						
-							//componentImage.set(imgDisplay);
-							//componentImage.revalidate();
-						}
+								//componentImage.set(imgDisplay);
+								//componentImage.revalidate();
+							}
 						
 						
-						dialogProgress.getPBTotal().setValue( (int)Math.round( 100.0*(fNum+1)/(double)numRows ) );
-						//if (fNum == (numRows-1) )
-						//	frame.setCancelled(true);
+							dialogProgress.getPBTotal().setValue( (int)Math.round( 100.0*(jobNum+1)/(double)numRows ) );
+							//if (fNum == (numRows-1) )
+							//	frame.setCancelled(true);
 						
-						// canceleld() means that the user clicked to abort
-						// otherwise, error() is used to note that an error has occured, and that
-						// only the current file should be aborted
-						if ( !frame.getCancelled() )
-						{
-							frame.setError(false);
-						} else
-						{
-							Misc.addError(frameMessages.getTextPane(), "*** Aborted by the user", null);
-						}
+							// canceleld() means that the user clicked to abort
+							// otherwise, error() is used to note that an error has occured, and that
+							// only the current file should be aborted
+							if ( !frame.getCancelled() )
+							{
+								frame.setError(false);
+							} else
+							{
+								Misc.addError(frameMessages.getTextPane(), "*** Aborted by the user", null);
+							}
 						
 						
 						
-						//clean up some memory
-						System.err.println("--- Memory (before GC): total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() );
-						clearMemory(runTime);
-						System.err.println("--- Memory (after GC): total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() );
+							//clean up some memory
+							clearMemory();
+							memoryBudget.release(analysisBytes);
+							System.err.println("--- Memory: total=" + runTime.totalMemory() +", free=" + runTime.freeMemory() +
+								", pooled=" + bufferPool.getNumBytes() + " (" + bufferPool.getNumReused() + "/" + bufferPool.getNumAcquired() + " buffers reused)" +
+								", used=" + memoryBudget.getUsedBytes() + "/" + budgetBytes );
 						
+							//the next object box of the same file, if any
+							if (fileBoxes != null && boxNum+1 < fileBoxes.length)
+							{
+								boxNum++;
+								jobNum--;
+							} else
+							{
+								fileBoxes = null;
+								boxNum = 0;
+								fileThreshold = -1;
+							}
+						}
+					} finally
+					{
+						prefetcher.shutdown();
+						bufferPool.clear();
 						
+						//all output has to be on disk before the batch is reported as done, also when cancelled
+						try
+						{
+							if (dialogProgress != null)
+								dialogProgress.getLabelCurrent().setText("Writing remaining output files...");
+							logWriteErrors(outputWriter.finish(), sdf.format(cal.getTime()) );
+						} catch (InterruptedException ie)
+						{
+							ie.printStackTrace();
+						}
+					}
+					
+					if (timingsFile != null)
+					{
+						try
+						{
+							scheduler.save(timingsFile);
+						} catch (IOException ex)
+						{
+							System.err.println("Failed to save the analysis times");
+						}
 					}
 					
 					//write a global output file with stats
@@ -1926,6 +2309,34 @@ spaced markers can optionally be returned.
 						}
 					}
 					
+					//write the quantile summary of the whole batch
+					if (!frame.getCancelled() && settings.getBatchWriteSummary() )
+					{
+						try
+						{
+							String outputDir = settings.getOutputDir().getAbsolutePath();
+							String delim =  (outputDir.lastIndexOf('\\') >= 0) ? "\\" : "/";
+							String timeFormatted = sdf.format(cal.getTime()).replaceAll(" ", "_").replaceAll(":", "-").replaceAll("/", "-").replaceAll("\\\\", "-");
+							
+							String fName = outputDir + delim + APPL_NAME + "_" + timeFormatted + "_summary.txt";
+							File fileSave = new File(fName);
+							int outNum = 2;
+							while (fileSave.isFile() )
+							{
+								fName = outputDir + delim + APPL_NAME + "_" + timeFormatted + "_summary-" + (outNum++) + ".txt";
+								fileSave =  new File(fName);
+							}
+							System.err.println("Summary stat. file: " + fName);
+							
+							writeSketchSummary(fName, statSketchNames, statSketches);
+						
+						} catch (Exception ex)
+						{
+							System.err.println("Failed to write to summary stat. file");
+							ex.printStackTrace();
+						}
+					}
+					
 					dialogProgress.getLabelCurrent().setText("Done");
 					
 					// send runnable to the Swing thread
@@ -2033,8 +2444,8 @@ spaced markers can optionally be returned.
 				
 				try
 				{
-					imgCalib = JAI.create("fileload", calibFilename).getAsBufferedImage();
-					Raster rasterCalib = imgCalib.getData();
+					imgCalib = ImageLoader.read(calibFilename);
+					Raster rasterCalib = imgCalib.getRaster();
 					
 					//switch to default image type if we can't recognize it
 					int imgType = imgCalib.getType();
@@ -2120,7 +2531,7 @@ spaced markers can optionally be returned.
 							//dialogCalibProgress.getPBTotal().setVisible(false);
 							//dialogCalibProgress.getPBTotal().setValue(0);
 							
-							Raster rasterCalib = imgCalib.getData();
+							Raster rasterCalib = imgCalib.getRaster();
 							
 							dialogCalibProgress.getLabelCurrent().setText("Extracting color difference image...");
 									
@@ -2160,79 +2571,17 @@ spaced markers can optionally be returned.
 							int r,g,b;
 							int diff;
 
+							// low values denote a high dominance of one color, high values denote low dominance (close to grayscale)
+							PixelKernels.maxDiffChannel(rasterCalib, imgMatMaxDiffChannel);
+							
+							long sumIntensity = 0;
 							for (int h = 0; h < imgCalib.getHeight(); h++)
-								for (int w = 0; w < imgCalib.getWidth(); w++)
-								{
-									r = rasterCalib.getSample(w,h,PlanarImageEdit.BAND_R);
-									g = rasterCalib.getSample(w,h,PlanarImageEdit.BAND_G);
-									b = rasterCalib.getSample(w,h,PlanarImageEdit.BAND_B);
-									
-									diff =
-										255 -
-										( Math.max( Math.max(r, g), b)-
-										 Math.min( Math.min(r, g), b) );
-									
-										 
-									imgMatMaxDiffChannel[h][w] = diff;
-									
-									
-									//try to remove black edge pixels
-									/*
-									if ( (w < edgePixelLowerX || w > edgePixelUpperX || h < edgePixelLowerY || h > edgePixelUpperY) && (255 - imgMatMaxDiffChannel[h][w]) < EDGE_INT_THRESH)
-									{
-										r = 255;
-										g = 255;
-										b = 255;
-									}
-									*/
-									
-									
-									//bluePixels[ index++ ] = b;
-									
-									
-									//System.err.print( bluePixels[ index - 1] + "," );
-									
-									//ranges from 0 to 255
-									/*
-									imgMatMaxDiffChannel[h][w] =
-										(int)(
-										Math.max( Math.max(rasterOrg.getSample(w,h,PlanarImageEdit.BAND_R),
-											rasterOrg.getSample(w,h,PlanarImageEdit.BAND_G)), 
-											rasterOrg.getSample(w,h,PlanarImageEdit.BAND_B) ) /
-										
-										Math.max( Math.min( Math.min(rasterOrg.getSample(w,h,PlanarImageEdit.BAND_R),
-											rasterOrg.getSample(w,h,PlanarImageEdit.BAND_G)), 
-											rasterOrg.getSample(w,h,PlanarImageEdit.BAND_B) ), 1.0) );
-									*/
-									
-									
-									
-									// low values denote a high dominance of one color, high values denote low dominance (close to grayscale)
-									
-										
-									//meanIntensity += imgMatMaxDiffChannel[h][w]/numPixels;
-											
-									
-									imgMatCalibGrayscaleTemplate[h][w]=(int)imgMatMaxDiffChannel[h][w];
-									imgMatCalibGrayscale[h][w]=imgMatMaxDiffChannel[h][w];
-									
-									meanIntensity += imgMatCalibGrayscaleTemplate[h][w]/numPixels;
-									
-									//square
-									//imgMatMaxDiffChannel[h][w] = imgMatMaxDiffChannel[h][w]*imgMatMaxDiffChannel[h][w]*imgMatMaxDiffChannel[h][w];
-									
-									
-									//truncate pixels with a too low intensity
-									/*
-									if (imgMatMaxDiffChannel[h][w] < 40)
-									{
-										bluePixels[index-1] = 255;
-										imgMatGrayscaleTemplate[h][w] = 255;
-										imgMatGrayscale[h][w] = 255;
-										
-									}
-									*/
-								}
+							{
+								System.arraycopy(imgMatMaxDiffChannel[h], 0, imgMatCalibGrayscaleTemplate[h], 0, imgCalib.getWidth());
+								System.arraycopy(imgMatMaxDiffChannel[h], 0, imgMatCalibGrayscale[h], 0, imgCalib.getWidth());
+								sumIntensity += PixelKernels.sum(imgMatMaxDiffChannel[h], 0, imgCalib.getWidth());
+							}
+							meanIntensity = sumIntensity/numPixels;
 							
 							//imgMatGrayscaleTemplate = GrayscaleImageEdit.applyMask(imgMatGrayscaleTemplate, imgMatMaxDiffChannel, true);
 							//imgMatGrayscale = GrayscaleImageEdit.applyMask(imgMatGrayscale, imgMatMaxDiffChannel, true);
@@ -2342,6 +2691,23 @@ spaced markers can optionally be returned.
 									//quantileBlue = GrayscaleImageEdit.detectThresholdGreedyMax(imgMatGrayscaleTemplate, imgMatGrayscale,
 									//	10, 10, (int)meanIntensity, 10, frame, dialogCalibProgress.getPBCurrent() );
 									
+								} else if (settings.getThresholdSearchPyramid() )
+								{
+									dialogCalibProgress.getLabelCurrent().setText("Detecting optimal threshold for segmentation (pyramid)...");
+									quantileBlue = GrayscaleImageEdit.detectThresholdPyramid(imgMatMaxDiffChannel, imgMatCalibGrayscale,
+										3, 3, (int)settings.getThresholdSearchStepLength(), GrayscaleImageEdit.PYRAMID_LEVELS,
+										frame, dialogCalibProgress.getPBCurrent() );
+									
+								} else if (settings.getThresholdSearchOtsu() )
+								{
+									dialogCalibProgress.getLabelCurrent().setText("Detecting threshold for segmentation (Otsu)...");
+									quantileBlue = GrayscaleImageEdit.detectThresholdOtsu(imgMatMaxDiffChannel);
+									
+								} else if (settings.getThresholdSearchTriangle() )
+								{
+									dialogCalibProgress.getLabelCurrent().setText("Detecting threshold for segmentation (triangle)...");
+									quantileBlue = GrayscaleImageEdit.detectThresholdTriangle(imgMatMaxDiffChannel);
+									
 								} else
 								{
 									dialogCalibProgress.getLabelCurrent().setText("Using manual threshold for segmentation...");
@@ -2636,8 +3002,8 @@ spaced markers can optionally be returned.
 									
 								dialogCalibProgress.getLabelInterim().setText("Scaling parameter is " + scaleMean + " pixels/mm");
 									
-								GrayscaleImageEdit.paintSegmentationResults(vecSegObjsCalib, vecSegObjsCalib, vecSegObjCentersCalib, vecSegObjBordersCalib, null, vecHorizVertLinesCalib, vecIntersectPointsCalib, imgCalibDisplay.getGraphics());
-								GrayscaleImageEdit.paintBorders(vecSegObjBordersCalib, Color.YELLOW, imgCalibDisplay.getGraphics());
+								GrayscaleImageEdit.paintSegmentationResults(vecSegObjsCalib, vecSegObjsCalib, vecSegObjCentersCalib, vecSegObjBordersCalib, null, vecHorizVertLinesCalib, vecIntersectPointsCalib, imgCalibDisplay);
+								GrayscaleImageEdit.paintBorders(vecSegObjBordersCalib, Color.YELLOW, imgCalibDisplay);
 								GrayscaleImageEdit.paintObjectIds(vecSegObjCentersCalib, imgCalibDisplay.getGraphics());
 								
 								
@@ -2839,11 +3205,51 @@ spaced markers can optionally be returned.
 	}
 	
 	/**
-	* Tries to remove some objects from the memory and cleaning up by calling the GC.
+	* Logs the failed writes of an OutputWriter. These belong to files that are already
+	* done, so the error state of the current file is left unchanged.
 	*
-	* @param	r	The run-time object (used by GC)
+	* @param	errors	A Vector of Object[] {message, Throwable} (see OutputWriter.pollErrors)
+	* @param	now	The current time, described by a string
+	*/
+	public void logWriteErrors(Vector errors, String now)
+	{
+		boolean error = frame.getError();
+		for (int i = 0; i < errors.size(); i++)
+		{
+			Object[] err = (Object[])errors.get(i);
+			logError( (String)err[0], now, (Throwable)err[1]);
+		}
+		frame.setError(error);
+	}
+
+	/**
+	* Approximates the serrations of the current objects from their convex hulls
+	* (the "fast contour" setting) and paints them on the displayed image. Also used
+	* for images whose full serration identification ran out of time.
+	*/
+	protected void approximateSerrations()
+	{
+		String msg = "Approximating serrations from the convex hull...";
+		Misc.addMessage(frameMessages.getTextPane(), msg, null);
+		dialogProgress.getLabelCurrent().setText(msg);
+
+		Vector[] vecHullIndentsArr = GrayscaleImageEdit.fetchConvexHullIndents(vecSegObjBordersShort, settings.getPixelContourThresh() );
+		vecContourHotspotConnections = vecHullIndentsArr[0];
+		vecContourHotspotIndices = vecHullIndentsArr[1];
+		vecContourIndents = vecHullIndentsArr[2];
+
+		PlanarImageEdit.paintVector(vecSegObjBordersShort, Color.YELLOW, imgDisplay );
+		GrayscaleImageEdit.paintContourHotspots(vecContourHotspotConnections, imgDisplay.getGraphics(), Color.RED, false);
+		GrayscaleImageEdit.paintContourIndentDepths(vecContourIndents, imgDisplay.getGraphics(), Color.ORANGE );
+
+		dialogProgress.getPBInterim().setValue(94);
+	}
+
+	/**
+	* Removes the results of the current file from the memory. The image-sized
+	* matrices are handed back to the buffer pool, to be reused by the next file.
 	*/
-	public void clearMemory(Runtime r)
+	public void clearMemory()
 	{
 		vecSegObjs = null;
 		vecSegObjNoCavities = null;
@@ -2860,12 +3266,210 @@ spaced markers can optionally be returned.
 		vecContourHotspotConnections = null;
 		vecContourIndents = null;
 
-		imgMatGrayscale = null;
-		imgMatGrayscaleTemplate = null;
+		bufferPool.release(imgSeg);
 		imgSeg = null;
-		imgMatBinary = null;
+	}
+	
+	/**
+	* Adds the statistics of one file to the per-column quantile sketches
+	*
+	* @param	objStats	Vector with a header Vector (column names) followed by one Vector of Numbers per object
+	* @param	names	The column names seen so far, in order of appearance
+	* @param	sketches	Maps column names to their QuantileSketch
+	*/
+	protected void addToSketches(Vector objStats, Vector names, Hashtable sketches)
+	{
+		Vector fileHeader = (Vector)objStats.get(0);
+		
+		for (int j = 1; j < fileHeader.size(); j++) //skip the object id
+		{
+			String name = (String)fileHeader.get(j);
+			QuantileSketch sketch = (QuantileSketch)sketches.get(name);
+			if (sketch == null)
+			{
+				sketch = new QuantileSketch();
+				sketches.put(name, sketch);
+				names.add(name);
+			}
+			
+			for (int i = 1; i < objStats.size(); i++)
+			{
+				Vector row = (Vector)objStats.get(i);
+				if (j < row.size())
+					sketch.update( ((Number)row.get(j)).doubleValue() );
+			}
+		}
+	}
+	
+	/**
+	* Loads an image of the batch, cropped to the object area if BatchAutoCrop is set, or
+	* to the first object box if BatchTiledSegmentation is set. The object area is located
+	* on a subsampled image, the object boxes strip by strip (see findObjectBoxes), and only
+	* that part is decoded at full resolution. The file is closed (ImageLoader.close)
+	* before returning.
+	*
+	* @param	fName	The image file
+	* @return	An Object[5] holding the image, the crop rectangle (or null if the image
+	*	was not cropped), a Boolean that is true if cropping failed, the Dimension
+	*	of the full image and the object boxes (or null if the image is not analysed
+	*	box by box)
+	*/
+	protected Object[] loadBatchImage(String fName) throws IOException
+	{
+		try
+		{
+			BufferedImage img = null;
+			Rectangle rectCrop = null;
+			Rectangle[] boxes = null;
+			boolean cropFailed = false;
+		
+			if (settings.getBatchAutoCrop() || settings.getBatchTiledSegmentation())
+			{
+				try
+				{
+					if (settings.getBatchTiledSegmentation())
+					{
+						boxes = findObjectBoxes(fName);
+						if (boxes != null)
+							rectCrop = boxes[0];
+					} else
+					{
+						rectCrop = findAutoCropRect(fName);
+					}
+					if (rectCrop != null)
+						img = ImageLoader.read(fName, rectCrop, 1);
+				} catch (Throwable t)
+				{
+					//not fatal, continue with the full image
+					t.printStackTrace();
+					rectCrop = null;
+					boxes = null;
+					cropFailed = true;
+				}
+			}
+		
+			if (img == null)
+				img = ImageLoader.read(fName);
+		
+			Dimension dimFull = (rectCrop != null) ? ImageLoader.readDimension(fName) : new Dimension(img.getWidth(), img.getHeight());
+			return new Object[] { img, rectCrop, new Boolean(cropFailed), dimFull, boxes };
+		} finally
+		{
+			ImageLoader.close();
+		}
+	}
+	
+	/**
+	* Locates the objects of an image on a subsampled decode of it, using an Otsu threshold
+	* of the blue band and PlanarImageEdit.suggestCropRect.
+	*
+	* @param	fName	The image file
+	* @return	The object area in full resolution coordinates, or null if there is no background to crop
+	*/
+	protected Rectangle findAutoCropRect(String fName) throws IOException
+	{
+		Dimension dimFull = ImageLoader.readDimension(fName);
+		int subsampling = (Math.min(dimFull.width, dimFull.height) >= 100*AUTO_CROP_SUBSAMPLING) ? AUTO_CROP_SUBSAMPLING : 1;
+		
+		BufferedImage imgCoarse = ImageLoader.readSubsampled(fName, subsampling);
+		Raster rasterCoarse = imgCoarse.getRaster();
+		int coarseWidth = imgCoarse.getWidth();
+		int coarseHeight = imgCoarse.getHeight();
+		
+		int cropThreshold = GrayscaleImageEdit.detectThresholdOtsu( PlanarImageEdit.calcBandHistogram(rasterCoarse, PlanarImageEdit.BAND_B) );
+		int cropWindow = (int)Math.max( Math.round( Math.min(coarseWidth, coarseHeight)*AUTO_CROP_WINDOW ), 8/subsampling);
+		Rectangle rectCoarse = PlanarImageEdit.suggestCropRect(rasterCoarse, PlanarImageEdit.BAND_B, cropWindow, cropWindow,
+			cropThreshold, AUTO_CROP_OCCURANCE, null);
+		if (rectCoarse.width <= 0 || rectCoarse.height <= 0)
+			return null;
+		
+		// back to full resolution, widened by one coarse pixel on each side since
+		// the pixels in between the sampled ones have not been looked at
+		Rectangle rectFullImage = new Rectangle(0, 0, dimFull.width, dimFull.height);
+		Rectangle rectCrop = new Rectangle( (rectCoarse.x-1)*subsampling, (rectCoarse.y-1)*subsampling,
+			(rectCoarse.width+2)*subsampling, (rectCoarse.height+2)*subsampling).intersection(rectFullImage);
+		
+		if (rectCrop.isEmpty() || rectCrop.equals(rectFullImage))
+			return null;
+		
+		return rectCrop;
+	}
+	
+	/**
+	* Locates the objects of an image with a StripSegmenter, which decodes the image a
+	* strip at a time (see StripSegmenter on which formats that bounds the memory for).
+	* The threshold is an Otsu threshold of the blue band of a subsampled decode, which
+	* only stores the sampled pixels; objects are kept with the same size and density
+	* limits as in the analysis. Each kept object, plus a margin, gets a box of its own
+	* (overlapping boxes are merged), so the analysis only needs the memory of the
+	* largest box rather than of the area spanned by all objects. The file is closed
+	* (ImageLoader.close) before returning.
+	*
+	* @param	fName	The image file
+	* @return	The boxes, or null if there are no kept objects or a single box covers the
+	*	whole image
+	*/
+	protected Rectangle[] findObjectBoxes(String fName) throws IOException
+	{
+		try
+		{
+			StripSegmenter segmenter = new StripSegmenter(fName, PlanarImageEdit.BAND_B, StripSegmenter.DEFAULT_STRIP_HEIGHT);
+			int width = segmenter.getWidth();
+			int height = segmenter.getHeight();
+			int subsampling = (Math.min(width, height) >= 100*AUTO_CROP_SUBSAMPLING) ? AUTO_CROP_SUBSAMPLING : 1;
+		
+			BufferedImage imgCoarse = ImageLoader.readSubsampled(fName, subsampling);
+			int thresh = GrayscaleImageEdit.detectThresholdOtsu( PlanarImageEdit.calcBandHistogram(imgCoarse.getRaster(), PlanarImageEdit.BAND_B) );
+			imgCoarse = null;
+		
+			segmenter.segment(thresh, true);
+		
+			//the analysis treats the image border as object, so keep some background around the objects
+			int margin = (int)Math.max( Math.round( Math.min(width, height)*TILED_MARGIN ), 8);
+			Rectangle[] boxes = segmenter.getObjectBoxes(settings.getMinObjSizeRel()/100.0, settings.getMinObjDensRel()/100.0, margin);
+			System.err.println("Located " + segmenter.getNumObjects() + " objects in strips, " + boxes.length + " object boxes");
+		
+			if (boxes.length == 0 || (boxes.length == 1 && boxes[0].equals( new Rectangle(0, 0, width, height) )) )
+				return null;
+		
+			return boxes;
+		} finally
+		{
+			ImageLoader.close();
+		}
+	}
+	
+	/**
+	* Writes the count, extremes and a few quantiles of each column to a tab-delimited file
+	*
+	* @param	fName	The file name
+	* @param	names	The column names, in output order
+	* @param	sketches	Maps column names to their QuantileSketch
+	*/
+	protected void writeSketchSummary(String fName, Vector names, Hashtable sketches) throws IOException
+	{
+		final double[] quantiles = {0.05, 0.25, 0.5, 0.75, 0.95};
+		String token = "\t";
+		
+		BufferedWriter bw = new BufferedWriter(new FileWriter(fName), 10000);
+		bw.write("\"Statistic\"" + token + "\"N\"" + token + "\"Min\"" + token + "\"5%\"" + token + "\"25%\"" + token +
+			"\"Median\"" + token + "\"75%\"" + token + "\"95%\"" + token + "\"Max\"");
+		bw.newLine();
+		
+		for (int j = 0; j < names.size(); j++)
+		{
+			String name = (String)names.get(j);
+			QuantileSketch sketch = (QuantileSketch)sketches.get(name);
+			
+			bw.write("\"" + name + "\"" + token + sketch.getCount() + token + sketch.getMin());
+			for (int k = 0; k < quantiles.length; k++)
+				bw.write(token + sketch.getQuantile(quantiles[k]));
+			bw.write(token + sketch.getMax());
+			bw.newLine();
+		}
 		
-		r.gc();
+		bw.flush();
+		bw.close();
 	}
 
 	
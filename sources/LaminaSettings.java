@@ -69,6 +69,9 @@ public class LaminaSettings extends JDialog implements ActionListener
 	public final static byte RB_GREEDY = 1;
 	public final static byte RB_EXHAUSTIVE = 2;
 	public final static byte RB_MANUAL = 3;
+	public final static byte RB_PYRAMID = 4;
+	public final static byte RB_OTSU = 5;
+	public final static byte RB_TRIANGLE = 6;
 	
 
 	protected int currentStatus = STATUS_OK;
@@ -77,19 +80,29 @@ public class LaminaSettings extends JDialog implements ActionListener
 	//protected JTextArea textArea;
 	protected JTabbedPane jtp;
 	protected JPanel panelBottom, panelTabs, panelGeneral, panelThresholds, panelObjectSizes, panelSearches,
-		panelMisc, panelDirectories, panelBatchOutput, panelNumLandmarks;
+		panelMisc, panelDirectories, panelBatchOutput, panelNumLandmarks,
+		panelBatchMemoryBudget, panelBatchImageTimeLimit, panelBatchStageTimeLimit;
 	protected JButton buttonOK, buttonCancel, buttonFilterAdd, buttonFilterRemove,
 		buttonInputDir, buttonOutputDir;
 		//buttonColorCorners, buttonColorLines, buttonColorSkewPoints, buttonColorLinesAbsent;
 	protected JSpinner spinnerThresholdStepLength, spinnerThresholdManual, spinnerMinObjSizeRel, spinnerMinObjDensRel,
-		spinnerPixelContourThresh, spinnerNumLandmarks;
+		spinnerPixelContourThresh, spinnerNumLandmarks, spinnerBatchMemoryBudget,
+		spinnerBatchImageTimeLimit, spinnerBatchStageTimeLimit;
 	protected JLabel labelSpinnerThresholdStepLength, labelSpinnerThresholdManual, labelSpinnerMinObjSizeRel, labelSpinnerMinObjDensRel,
-		labelSpinnerPixelContourThresh, labelNumLandmarks, labelNumLandmarksSpinner;
+		labelSpinnerPixelContourThresh, labelNumLandmarks, labelNumLandmarksSpinner, labelBatchMemoryBudget,
+		labelBatchImageTimeLimit, labelBatchStageTimeLimit;
 	protected JPanel panelSpinnerThresholdStepLength, panelSpinnerThresholdManual, panelSpinnerMinObjSizeRel, panelSpinnerMinObjDensRel,
 		panelSpinnerPixelContourThresh;
 	protected JCheckBox chbForceOrtho, chbForceHorizVert, chbFindContour, 
 		chbBatchWriteLogFile, chbBatchWriteCroppedImage, chbBatchWriteFullImage, chbBatchWriteLocalStatFile;
-	protected JRadioButton rbSearchGreedy, rbSearchExhaustive, rbSearchManual;
+	protected JCheckBox chbFastContour;
+	protected JCheckBox chbBatchThresholdWarmStart;
+	protected JCheckBox chbBatchWriteSummary;
+	protected JCheckBox chbBatchAutoCrop;
+	protected JCheckBox chbBatchOffHeapImages;
+	protected JCheckBox chbBatchTiledSegmentation;
+	protected JCheckBox chbBatchOrderBySize;
+	protected JRadioButton rbSearchGreedy, rbSearchExhaustive, rbSearchPyramid, rbSearchOtsu, rbSearchTriangle, rbSearchManual;
     protected ButtonGroup bgSearch;
 	protected JTextField jtfExternalURL;
 	protected JList filterList;
@@ -237,7 +250,7 @@ public class LaminaSettings extends JDialog implements ActionListener
 
 		JPanel panelFiltersBottom = new JPanel( new BorderLayout() );
 		
-		panelThresholds = new JPanel( new GridLayout(6, 1) );
+		panelThresholds = new JPanel( new GridLayout(9, 1) );
 
 
 
@@ -247,12 +260,21 @@ public class LaminaSettings extends JDialog implements ActionListener
 		rbStatus = RB_GREEDY;
 		rbSearchExhaustive = new JRadioButton("Use exhaustive search");
 		rbSearchExhaustive.addActionListener(this);
+		rbSearchPyramid = new JRadioButton("Use coarse-to-fine (pyramid) search");
+		rbSearchPyramid.addActionListener(this);
+		rbSearchOtsu = new JRadioButton("Use histogram threshold (Otsu)");
+		rbSearchOtsu.addActionListener(this);
+		rbSearchTriangle = new JRadioButton("Use histogram threshold (triangle)");
+		rbSearchTriangle.addActionListener(this);
 		rbSearchManual = new JRadioButton("Use manual threshold value (1-255)");
 		rbSearchManual.addActionListener(this);
 		
 		bgSearch = new ButtonGroup();
 		bgSearch.add(rbSearchGreedy);
 		bgSearch.add(rbSearchExhaustive);
+		bgSearch.add(rbSearchPyramid);
+		bgSearch.add(rbSearchOtsu);
+		bgSearch.add(rbSearchTriangle);
 		bgSearch.add(rbSearchManual);
 		
 		
@@ -285,6 +307,9 @@ public class LaminaSettings extends JDialog implements ActionListener
 		//panelSearches = new JPanel( new GridLayout(3,1) );
 		panelThresholds.add(rbSearchGreedy);
 		panelThresholds.add(rbSearchExhaustive);
+		panelThresholds.add(rbSearchPyramid);
+		panelThresholds.add(rbSearchOtsu);
+		panelThresholds.add(rbSearchTriangle);
 		panelThresholds.add(rbSearchManual);
 		panelThresholds.add( new JSeparator() );
 		panelThresholds.add(panelSpinnerThresholdStepLength);
@@ -359,13 +384,14 @@ public class LaminaSettings extends JDialog implements ActionListener
 
 		// ----- MISC PANEL
 		
-		JPanel panelMisc = new JPanel( new GridLayout(6, 1) );
+		JPanel panelMisc = new JPanel( new GridLayout(7, 1) );
 		
 		
 		chbForceHorizVert = new JCheckBox("Use horizontal/vertical lines to initially approximate width/height");
 		chbForceHorizVert.setSelected(displayInfoBar);
 		
 		chbFindContour = new JCheckBox("Find serrations");
+		chbFastContour = new JCheckBox("Fast serrations (approximate indents from the convex hull)");
 		chbFindContour.setSelected(displayInfoBar);
 		
 		chbForceOrtho = new JCheckBox("Force perpendicular lines in object distance calc.");
@@ -392,6 +418,7 @@ public class LaminaSettings extends JDialog implements ActionListener
 		panelMisc.add(chbForceHorizVert);
 		panelMisc.add(chbForceOrtho);
 		panelMisc.add(chbFindContour);
+		panelMisc.add(chbFastContour);
 		panelMisc.add( new JSeparator() );
 		panelMisc.add(panelSpinnerPixelContourThresh);
 		panelMisc.add(panelNumLandmarks);
@@ -440,17 +467,50 @@ public class LaminaSettings extends JDialog implements ActionListener
 		
 		
 		/// - Output settings for the batch application
-		panelBatchOutput = new JPanel( new GridLayout(5, 1) );
+		panelBatchOutput = new JPanel( new GridLayout(13, 1) );
 			
 		chbBatchWriteLogFile = new JCheckBox("Output log for each processed file");
 		chbBatchWriteCroppedImage = new JCheckBox("Output cropped image for each processed file");
 		chbBatchWriteFullImage = new JCheckBox("Output segmented (full) image for each processed file");
 		chbBatchWriteLocalStatFile = new JCheckBox("Output individual stat. for each processed file");
+		chbBatchThresholdWarmStart = new JCheckBox("Start threshold search from the thresholds of previous files");
+		chbBatchWriteSummary = new JCheckBox("Output quantile summary of all objects in the batch");
+		chbBatchAutoCrop = new JCheckBox("Crop each image to the object area before thresholding");
+		chbBatchOffHeapImages = new JCheckBox("Keep segmentation images in temporary files (for very large scans)");
+		chbBatchTiledSegmentation = new JCheckBox("Locate objects strip by strip and analyse each object box on its own (for very large scans)");
+		chbBatchOrderBySize = new JCheckBox("Analyse the quickest images first (the combined stat. file keeps the table order)");
+		
+		labelBatchMemoryBudget = new JLabel("Memory budget for images in progress (MB, 0 = automatic): ");
+		spinnerBatchMemoryBudget = new JSpinner( new SpinnerNumberModel(0, 0, 1048576, 64) );
+		panelBatchMemoryBudget = new JPanel( new BorderLayout() );
+		panelBatchMemoryBudget.add(labelBatchMemoryBudget, BorderLayout.CENTER);
+		panelBatchMemoryBudget.add(spinnerBatchMemoryBudget, BorderLayout.EAST);
+		
+		labelBatchImageTimeLimit = new JLabel("Time limit per image before serrations are reduced (s, 0 = none): ");
+		spinnerBatchImageTimeLimit = new JSpinner( new SpinnerNumberModel(0, 0, 86400, 10) );
+		panelBatchImageTimeLimit = new JPanel( new BorderLayout() );
+		panelBatchImageTimeLimit.add(labelBatchImageTimeLimit, BorderLayout.CENTER);
+		panelBatchImageTimeLimit.add(spinnerBatchImageTimeLimit, BorderLayout.EAST);
+		
+		labelBatchStageTimeLimit = new JLabel("Time limit per serration stage (s, 0 = none): ");
+		spinnerBatchStageTimeLimit = new JSpinner( new SpinnerNumberModel(0, 0, 86400, 10) );
+		panelBatchStageTimeLimit = new JPanel( new BorderLayout() );
+		panelBatchStageTimeLimit.add(labelBatchStageTimeLimit, BorderLayout.CENTER);
+		panelBatchStageTimeLimit.add(spinnerBatchStageTimeLimit, BorderLayout.EAST);
 	
 		panelBatchOutput.add(chbBatchWriteLogFile);
 		panelBatchOutput.add(chbBatchWriteCroppedImage);
 		panelBatchOutput.add(chbBatchWriteFullImage);
 		panelBatchOutput.add(chbBatchWriteLocalStatFile);
+		panelBatchOutput.add(chbBatchThresholdWarmStart);
+		panelBatchOutput.add(chbBatchWriteSummary);
+		panelBatchOutput.add(chbBatchAutoCrop);
+		panelBatchOutput.add(chbBatchOffHeapImages);
+		panelBatchOutput.add(chbBatchTiledSegmentation);
+		panelBatchOutput.add(chbBatchOrderBySize);
+		panelBatchOutput.add(panelBatchMemoryBudget);
+		panelBatchOutput.add(panelBatchImageTimeLimit);
+		panelBatchOutput.add(panelBatchStageTimeLimit);
 		
 		
 		// ------ Skip the hotspot contour expansion for now
@@ -658,7 +718,8 @@ public class LaminaSettings extends JDialog implements ActionListener
 				filterListData.remove(selIndices[i]);
 			filterList.setListData(filterListData);
 
-		} else if (e.getSource() == rbSearchGreedy || e.getSource() == rbSearchExhaustive || e.getSource() == rbSearchManual)
+		} else if (e.getSource() == rbSearchGreedy || e.getSource() == rbSearchExhaustive || e.getSource() == rbSearchPyramid ||
+			e.getSource() == rbSearchOtsu || e.getSource() == rbSearchTriangle || e.getSource() == rbSearchManual)
 		{
 			//System.err.print("rbSearch* changed, now at ");
 			
@@ -687,6 +748,29 @@ public class LaminaSettings extends JDialog implements ActionListener
 				labelSpinnerThresholdStepLength.setEnabled(true);
 				spinnerThresholdStepLength.setEnabled(true);
 				
+			} else if (rbSearchPyramid.isSelected())
+			{
+				rbStatus = RB_PYRAMID;
+				
+				panelSpinnerThresholdManual.setEnabled(false);
+				labelSpinnerThresholdManual.setEnabled(false);
+				spinnerThresholdManual.setEnabled(false);
+				panelSpinnerThresholdStepLength.setEnabled(true);
+				labelSpinnerThresholdStepLength.setEnabled(true);
+				spinnerThresholdStepLength.setEnabled(true);
+				
+			} else if (rbSearchOtsu.isSelected() || rbSearchTriangle.isSelected())
+			{
+				rbStatus = (rbSearchOtsu.isSelected()) ? RB_OTSU : RB_TRIANGLE;
+				
+				//histogram methods have no parameters
+				panelSpinnerThresholdManual.setEnabled(false);
+				labelSpinnerThresholdManual.setEnabled(false);
+				spinnerThresholdManual.setEnabled(false);
+				panelSpinnerThresholdStepLength.setEnabled(false);
+				labelSpinnerThresholdStepLength.setEnabled(false);
+				spinnerThresholdStepLength.setEnabled(false);
+				
 			} else if (rbSearchManual.isSelected())
 			{
 				rbStatus = RB_MANUAL;
@@ -789,6 +873,7 @@ public class LaminaSettings extends JDialog implements ActionListener
 			{
 				
 				chbFindContour.setSelected(settings.getFindContour());
+				chbFastContour.setSelected(settings.getFastContour());
 				chbForceOrtho.setSelected(settings.getForceOrtho());
 				chbForceHorizVert.setSelected(settings.getForceHorizVert());
 				
@@ -796,6 +881,12 @@ public class LaminaSettings extends JDialog implements ActionListener
 					rbSearchGreedy.setSelected(true);
 				else if (settings.getThresholdSearchExhaustive())
 					rbSearchExhaustive.setSelected(true);
+				else if (settings.getThresholdSearchPyramid())
+					rbSearchPyramid.setSelected(true);
+				else if (settings.getThresholdSearchOtsu())
+					rbSearchOtsu.setSelected(true);
+				else if (settings.getThresholdSearchTriangle())
+					rbSearchTriangle.setSelected(true);
 				else
 					rbSearchManual.setSelected(true);
 				
@@ -818,6 +909,15 @@ public class LaminaSettings extends JDialog implements ActionListener
 				chbBatchWriteCroppedImage.setSelected(settings.getBatchWriteCroppedImage());
 				chbBatchWriteFullImage.setSelected(settings.getBatchWriteFullImage());
 				chbBatchWriteLocalStatFile.setSelected(settings.getBatchWriteLocalStatFile());
+				chbBatchThresholdWarmStart.setSelected(settings.getBatchThresholdWarmStart());
+				chbBatchWriteSummary.setSelected(settings.getBatchWriteSummary());
+				chbBatchAutoCrop.setSelected(settings.getBatchAutoCrop());
+				chbBatchOffHeapImages.setSelected(settings.getBatchOffHeapImages());
+				chbBatchTiledSegmentation.setSelected(settings.getBatchTiledSegmentation());
+				chbBatchOrderBySize.setSelected(settings.getBatchOrderBySize());
+				( (SpinnerNumberModel)spinnerBatchMemoryBudget.getModel()).setValue( new Integer(settings.getBatchMemoryBudget() ) );
+				( (SpinnerNumberModel)spinnerBatchImageTimeLimit.getModel()).setValue( new Integer(settings.getBatchImageTimeLimit() ) );
+				( (SpinnerNumberModel)spinnerBatchStageTimeLimit.getModel()).setValue( new Integer(settings.getBatchStageTimeLimit() ) );
 				
 			
 				return true;
@@ -846,9 +946,13 @@ public class LaminaSettings extends JDialog implements ActionListener
 				settings.setForceOrtho(chbForceOrtho.isSelected() );
 				settings.setForceHorizVert(chbForceHorizVert.isSelected() );
 				settings.setFindContour(chbFindContour.isSelected() );
+				settings.setFastContour(chbFastContour.isSelected() );
 				
 				settings.setThresholdSearchGreedy( rbSearchGreedy.isSelected() );
 				settings.setThresholdSearchExhaustive( rbSearchExhaustive.isSelected() );
+				settings.setThresholdSearchPyramid( rbSearchPyramid.isSelected() );
+				settings.setThresholdSearchOtsu( rbSearchOtsu.isSelected() );
+				settings.setThresholdSearchTriangle( rbSearchTriangle.isSelected() );
 				
 				settings.setThresholdSearchStepLength( ( (SpinnerNumberModel)spinnerThresholdStepLength.getModel()).getNumber().doubleValue() );
 				settings.setThresholdManual( ( (SpinnerNumberModel)spinnerThresholdManual.getModel()).getNumber().doubleValue()  );
@@ -865,6 +969,15 @@ public class LaminaSettings extends JDialog implements ActionListener
 				settings.setBatchWriteCroppedImage(chbBatchWriteCroppedImage.isSelected() );
 				settings.setBatchWriteFullImage(chbBatchWriteFullImage.isSelected() );
 				settings.setBatchWriteLocalStatFile(chbBatchWriteLocalStatFile.isSelected() );
+				settings.setBatchThresholdWarmStart(chbBatchThresholdWarmStart.isSelected() );
+				settings.setBatchWriteSummary(chbBatchWriteSummary.isSelected() );
+				settings.setBatchAutoCrop(chbBatchAutoCrop.isSelected() );
+				settings.setBatchOffHeapImages(chbBatchOffHeapImages.isSelected() );
+				settings.setBatchTiledSegmentation(chbBatchTiledSegmentation.isSelected() );
+				settings.setBatchOrderBySize(chbBatchOrderBySize.isSelected() );
+				settings.setBatchMemoryBudget( ( (SpinnerNumberModel)spinnerBatchMemoryBudget.getModel()).getNumber().intValue() );
+				settings.setBatchImageTimeLimit( ( (SpinnerNumberModel)spinnerBatchImageTimeLimit.getModel()).getNumber().intValue() );
+				settings.setBatchStageTimeLimit( ( (SpinnerNumberModel)spinnerBatchStageTimeLimit.getModel()).getNumber().intValue() );
 		
 				return true;
 			
@@ -0,0 +1,210 @@
+/* MemoryBudget.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Keeps track of the memory promised to the images that are
+ * being decoded or analysed.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+/**
+    * Admission control for work on images. Before an image is decoded or analysed,
+    * the memory it will need is estimated from its size and reserved here; the work
+    * is only admitted while all reservations together fit the budget. The first
+    * reservation is always admitted, even if it is larger than the budget on its own,
+    * so an image that is too large to share the memory is processed alone instead
+    * of not at all. Small images can thereby be in progress several at a time.
+    * If an ImageBufferPool is given, the free buffers it holds count as used as well;
+    * buffers that are in use by an analysis are covered by its reservation instead.
+    * The estimates are deliberately rough, see estimateDecoded and estimateAnalysis.
+*/
+public class MemoryBudget
+{
+	public final static double DEFAULT_MEMORY_FRACTION = 0.75; //of the maximum heap size
+
+	// a decoded image, as TYPE_INT_RGB or a 3-4 byte interleaved raster
+	public final static int DECODED_BYTES_PER_PIXEL = 4;
+
+	// the decoded image, the band and the byte FlatImages of the thresholding (about
+	// 8 bytes), the object image (1-2 bytes), and the Vectors of Points of the objects
+	// and their borders, which take some 30-40 bytes per object pixel
+	public final static int ANALYSIS_BYTES_PER_PIXEL = 32;
+
+	// the contour stage adds the matrix without borders, the contour matrices and
+	// the hotspot and indent vectors
+	public final static int CONTOUR_FACTOR = 3;
+
+	protected long maxBytes;
+	protected long reservedBytes;
+	protected ImageBufferPool pool; // or null
+
+	/**
+	* Constructor, the budget is DEFAULT_MEMORY_FRACTION of the maximum heap size
+	*/
+	public MemoryBudget()
+	{
+		this( (long)(Runtime.getRuntime().maxMemory()*DEFAULT_MEMORY_FRACTION) );
+	}
+
+	/**
+	* Constructor
+	*
+	* @param	maxBytes	The number of bytes that may be reserved at the same time
+	*/
+	public MemoryBudget(long maxBytes)
+	{
+		this(maxBytes, null);
+	}
+
+	/**
+	* Constructor
+	*
+	* @param	maxBytes	The number of bytes that may be used at the same time
+	* @param	pool	A pool whose free buffers are counted against the budget, or null
+	*/
+	public MemoryBudget(long maxBytes, ImageBufferPool pool)
+	{
+		this.maxBytes = maxBytes;
+		this.pool = pool;
+		reservedBytes = 0;
+	}
+
+	/**
+	* Estimates the memory held by a decoded image
+	*
+	* @param	width	Image width
+	* @param	height	Image height
+	* @return	The estimated number of bytes
+	*/
+	public static long estimateDecoded(int width, int height)
+	{
+		return (long)width*height*DECODED_BYTES_PER_PIXEL;
+	}
+
+	/**
+	* Estimates the peak memory of the batch analysis of an image
+	*
+	* @param	width	Image width (after cropping)
+	* @param	height	Image height (after cropping)
+	* @param	contour	If true, the contour (serration) stage is included
+	* @return	The estimated number of bytes
+	*/
+	public static long estimateAnalysis(int width, int height, boolean contour)
+	{
+		long bytes = (long)width*height*ANALYSIS_BYTES_PER_PIXEL;
+		return contour ? bytes*CONTOUR_FACTOR : bytes;
+	}
+
+	/**
+	* @return	The number of bytes that may be reserved at the same time
+	*/
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	/**
+	* @return	The number of bytes reserved right now
+	*/
+	public synchronized long getReservedBytes()
+	{
+		return reservedBytes;
+	}
+
+	/**
+	* @return	The number of bytes reserved right now, plus the free buffers of the pool
+	*/
+	public synchronized long getUsedBytes()
+	{
+		return (pool != null) ? reservedBytes + pool.getNumBytes() : reservedBytes;
+	}
+
+	/**
+	* @param	bytes	A number of bytes
+	* @return	true if this many bytes fit in the budget when nothing else is reserved
+	*/
+	public boolean fits(long bytes)
+	{
+		return bytes <= maxBytes;
+	}
+
+	/**
+	* Reserves memory if it fits next to the current reservations and the pooled
+	* buffers, or if there are no reservations
+	*
+	* @param	bytes	The number of bytes
+	* @return	true if the memory was reserved
+	*/
+	public synchronized boolean tryReserve(long bytes)
+	{
+		if (reservedBytes > 0 && getUsedBytes() + bytes > maxBytes)
+			return false;
+
+		reservedBytes += bytes;
+		return true;
+	}
+
+	/**
+	* Reserves memory, waiting for other reservations to be released until it fits
+	*
+	* @param	bytes	The number of bytes
+	* @param	timeout	The longest time to wait, in milliseconds
+	* @return	true if the memory was reserved, false if the time ran out
+	*/
+	public synchronized boolean reserve(long bytes, long timeout) throws InterruptedException
+	{
+		long end = System.currentTimeMillis() + timeout;
+		while (!tryReserve(bytes))
+		{
+			long left = end - System.currentTimeMillis();
+			if (left <= 0)
+				return false;
+			wait(left);
+		}
+		return true;
+	}
+
+	/**
+	* Reserves memory whether it fits or not, for work that has to go ahead anyway.
+	* Other work is not admitted until enough has been released.
+	*
+	* @param	bytes	The number of bytes
+	*/
+	public synchronized void forceReserve(long bytes)
+	{
+		reservedBytes += bytes;
+	}
+
+	/**
+	* Releases memory reserved earlier
+	*
+	* @param	bytes	The number of bytes
+	*/
+	public synchronized void release(long bytes)
+	{
+		reservedBytes = Math.max(reservedBytes - bytes, 0);
+		notifyAll();
+	}
+}
@@ -48,34 +48,10 @@ public class MiscMath
 	*/
 	public static double median(int[] v)
 	{
-	    if (v.length == 0)
-		{
-			return Double.NaN;
-		} else if (v.length == 1)
-		{
-			return v[0];
-		} else
-		{
-		
-			//first copy array
-			int[] vSorted = new int[v.length];
-			for (int i = 0; i < v.length; i++)
-				vSorted[i]=v[i];
-			//sort it..
-			Arrays.sort(vSorted);
-			
-			//.. and extract median
-			int centr = vSorted.length/2;  // subscript of centr elem.
-		    if ( (vSorted.length % 2) == 1) {
-		        // Odd number of elements -- return the middle one.
-		        return vSorted[centr];
-		    } else
-			{
-		       // Even number -- return average of middle two
-		       // Must cast the numbers to double before dividing.
-		       return (vSorted[centr-1] + vSorted[centr]) / 2.0;
-		    }
-		}
+		//select on a copy, the input is left untouched
+		int[] vCopy = new int[v.length];
+		System.arraycopy(v, 0, vCopy, 0, v.length);
+		return medianInPlace(vCopy, vCopy.length);
 	}
 	
 	/**
@@ -86,34 +62,9 @@ public class MiscMath
 	*/
 	public static double median(double[] v)
 	{
-	    if (v.length == 0)
-		{
-			return Double.NaN;
-		} else if (v.length == 1)
-		{
-			return v[0];
-		} else
-		{
-		
-			//first copy array
-			double[] vSorted = new double[v.length];
-			for (int i = 0; i < v.length; i++)
-				vSorted[i]=v[i];
-			//sort it..
-			Arrays.sort(vSorted);
-			
-			//.. and extract median
-			int centr = vSorted.length/2;  // subscript of centr elem.
-		    if ( (vSorted.length % 2) == 1) {
-		        // Odd number of elements -- return the middle one.
-		        return vSorted[centr];
-		    } else
-			{
-		       // Even number -- return average of middle two
-		       // Must cast the numbers to double before dividing.
-		       return (vSorted[centr-1] + vSorted[centr]) / 2.0;
-		    }
-		}
+		double[] vCopy = new double[v.length];
+		System.arraycopy(v, 0, vCopy, 0, v.length);
+		return medianInPlace(vCopy, vCopy.length);
 	}
 	
 	/**
@@ -124,12 +75,9 @@ public class MiscMath
 	*/
 	public static double median(Vector v)
 	{
-	    //first copy array
-		double[] vCopy = new double[v.size()];
-		for (int i = 0; i < v.size(); i++)
-			vCopy[i] = ( (Number)v.get(i) ).doubleValue();
-		
-		return median(vCopy);
+		//unbox into a scratch array (in place is fine since it is a copy)
+		double[] vCopy = toDoubleArray(v, null);
+		return medianInPlace(vCopy, v.size());
 	}
 	
 	/**
@@ -149,8 +97,8 @@ public class MiscMath
 			for (int x = 0; x < v[0].length; x++)
 				vCopy[index++] = v[y][x];
 		
-		//...then use the normal function to find the quantile
-		return quantile(vCopy, q);
+		//...then find the quantile on the copy
+		return quantileInPlace(vCopy, totLength, q);
 	}
 	
 	/**
@@ -162,35 +110,9 @@ public class MiscMath
 	*/
 	public static double quantile(int[] v, double q)
 	{
-	    if (v.length == 0)
-		{
-			return Double.NaN;
-		} else if (v.length == 1)
-		{
-			return v[0];
-		} else
-		{
-		
-			//first copy array
-			int[] vSorted = new int[v.length];
-			for (int i = 0; i < v.length; i++)
-				vSorted[i]=v[i];
-			//sort it..
-			Arrays.sort(vSorted);
-			
-			//.. and extract median
-			int centr1 = (int)Math.floor(vSorted.length*q);
-			int centr2 = (int)Math.ceil(vSorted.length*q);
-		    if ( (vSorted.length % 2) == 1) {
-		        // Odd number of elements -- return the middle one.
-		        return vSorted[centr1];
-		    } else
-			{
-		       // Even number -- return average of middle two
-		       // Must cast the numbers to double before dividing.
-		       return (vSorted[centr1] + vSorted[centr2]) / 2.0;
-		    }
-		}
+		int[] vCopy = new int[v.length];
+		System.arraycopy(v, 0, vCopy, 0, v.length);
+		return quantileInPlace(vCopy, vCopy.length, q);
 	}
 	
 	/**
@@ -202,36 +124,223 @@ public class MiscMath
 	*/
 	public static double quantile(double[] v, double q)
 	{
-	    if (v.length == 0)
-		{
-			return Double.NaN;
-		} else if (v.length == 0)
+		double[] vCopy = new double[v.length];
+		System.arraycopy(v, 0, vCopy, 0, v.length);
+		return quantileInPlace(vCopy, vCopy.length, q);
+	}
+
+	/**
+	* Rearranges v[from..to) so that v[k] holds the value it would have if the range
+	* was sorted, with smaller or equal values before it and larger or equal values
+	* after it (quickselect, expected O(n)). The array is modified in place.
+	*
+	* @param 	v	Array
+	* @param	from	First index of the range (inclusive)
+	* @param	to	Last index of the range (exclusive)
+	* @param	k	The index to select, from <= k < to
+	* @return	The selected value, v[k]
+	*/
+	public static int select(int[] v, int from, int to, int k)
+	{
+		int lo = from, hi = to-1;
+		while (hi > lo)
 		{
-			return v[0];
-		} else
+			//median-of-three pivot
+			int mid = (lo+hi) >>> 1;
+			int a = v[lo], b = v[mid], c = v[hi];
+			int pivot = (a < b) ? ( (b < c) ? b : ( (a < c) ? c : a) ) : ( (a < c) ? a : ( (b < c) ? c : b) );
+			
+			int i = lo, j = hi;
+			while (i <= j)
+			{
+				while (v[i] < pivot)
+					i++;
+				while (v[j] > pivot)
+					j--;
+				if (i <= j)
+				{
+					int tmp = v[i];
+					v[i++] = v[j];
+					v[j--] = tmp;
+				}
+			}
+			
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break; //v[k] equals the pivot
+		}
+		return v[k];
+	}
+	
+	/**
+	* Rearranges v[from..to) so that v[k] holds the value it would have if the range
+	* was sorted (quickselect, expected O(n)). The array is modified in place.
+	*
+	* @param 	v	Array
+	* @param	from	First index of the range (inclusive)
+	* @param	to	Last index of the range (exclusive)
+	* @param	k	The index to select, from <= k < to
+	* @return	The selected value, v[k]
+	*/
+	public static double select(double[] v, int from, int to, int k)
+	{
+		int lo = from, hi = to-1;
+		while (hi > lo)
 		{
-			//first copy array
-			double[] vSorted = new double[v.length];
-			for (int i = 0; i < v.length; i++)
-				vSorted[i]=v[i];
-			//sort it..
-			Arrays.sort(vSorted);
+			int mid = (lo+hi) >>> 1;
+			double a = v[lo], b = v[mid], c = v[hi];
+			double pivot = (a < b) ? ( (b < c) ? b : ( (a < c) ? c : a) ) : ( (a < c) ? a : ( (b < c) ? c : b) );
 			
-			//.. and extract median
-			int centr1 = (int)Math.floor(vSorted.length*q);
-			int centr2 = (int)Math.ceil(vSorted.length*q);
-		    if ( (vSorted.length % 2) == 1) {
-		        // Odd number of elements -- return the middle one.
-		        return vSorted[centr1];
-		    } else
+			int i = lo, j = hi;
+			while (i <= j)
 			{
-		       // Even number -- return average of middle two
-		       // Must cast the numbers to double before dividing.
-		       return (vSorted[centr1] + vSorted[centr2]) / 2.0;
-		    }
+				while (v[i] < pivot)
+					i++;
+				while (v[j] > pivot)
+					j--;
+				if (i <= j)
+				{
+					double tmp = v[i];
+					v[i++] = v[j];
+					v[j--] = tmp;
+				}
+			}
+			
+			if (k <= j)
+				hi = j;
+			else if (k >= i)
+				lo = i;
+			else
+				break;
 		}
+		return v[k];
 	}
-
+	
+	/**
+	* Calculates the median of the first 'len' values of an integer array without
+	* sorting it. The values are reordered, so pass a scratch copy if the order matters.
+	*
+	* @param 	v	Array (modified)
+	* @param	len	Number of values to use
+	* @return	The median of the values.
+	*/
+	public static double medianInPlace(int[] v, int len)
+	{
+		if (len == 0)
+			return Double.NaN;
+		
+		int centr = len/2;  // subscript of centr elem.
+		int upper = select(v, 0, len, centr);
+		if ( (len % 2) == 1)
+			return upper;
+		
+		// even number -- the lower middle element is the largest one in front of 'centr'
+		int lower = v[0];
+		for (int i = 1; i < centr; i++)
+			if (v[i] > lower)
+				lower = v[i];
+		
+		return (lower + upper) / 2.0;
+	}
+	
+	/**
+	* Calculates the median of the first 'len' values of a double array without
+	* sorting it. The values are reordered, so pass a scratch copy if the order matters.
+	*
+	* @param 	v	Array (modified)
+	* @param	len	Number of values to use
+	* @return	The median of the values.
+	*/
+	public static double medianInPlace(double[] v, int len)
+	{
+		if (len == 0)
+			return Double.NaN;
+		
+		int centr = len/2;
+		double upper = select(v, 0, len, centr);
+		if ( (len % 2) == 1)
+			return upper;
+		
+		double lower = v[0];
+		for (int i = 1; i < centr; i++)
+			if (v[i] > lower)
+				lower = v[i];
+		
+		return (lower + upper) / 2.0;
+	}
+	
+	/**
+	* Calculates a quantile from the first 'len' values of an integer array without
+	* sorting it (same definition as quantile(int[], double)). The values are reordered.
+	*
+	* @param 	v	Array (modified)
+	* @param	len	Number of values to use
+	* @param	q	Quantile ( >= 0 and <= 1 )
+	* @return	The quantile of the values.
+	*/
+	public static double quantileInPlace(int[] v, int len, double q)
+	{
+		if (len == 0)
+			return Double.NaN;
+		else if (len == 1)
+			return v[0];
+		
+		int centr1 = (int)Math.min( Math.floor(len*q), len-1);
+		int centr2 = (int)Math.min( Math.ceil(len*q), len-1);
+		int upper = select(v, 0, len, centr2);
+		if ( (len % 2) == 1)
+			return (centr1 == centr2) ? upper : select(v, 0, centr2, centr1);
+		
+		int lower = (centr1 == centr2) ? upper : select(v, 0, centr2, centr1);
+		return (lower + upper) / 2.0;
+	}
+	
+	/**
+	* Calculates a quantile from the first 'len' values of a double array without
+	* sorting it (same definition as quantile(double[], double)). The values are reordered.
+	*
+	* @param 	v	Array (modified)
+	* @param	len	Number of values to use
+	* @param	q	Quantile ( >= 0 and <= 1 )
+	* @return	The quantile of the values.
+	*/
+	public static double quantileInPlace(double[] v, int len, double q)
+	{
+		if (len == 0)
+			return Double.NaN;
+		else if (len == 1)
+			return v[0];
+		
+		int centr1 = (int)Math.min( Math.floor(len*q), len-1);
+		int centr2 = (int)Math.min( Math.ceil(len*q), len-1);
+		double upper = select(v, 0, len, centr2);
+		if ( (len % 2) == 1)
+			return (centr1 == centr2) ? upper : select(v, 0, centr2, centr1);
+		
+		double lower = (centr1 == centr2) ? upper : select(v, 0, centr2, centr1);
+		return (lower + upper) / 2.0;
+	}
+	
+	/**
+	* Copies a Vector of Numbers into a double array
+	*
+	* @param 	v	Vector of Numbers
+	* @param	dst	Array to copy into, or null (or too short) to allocate a new one
+	* @return	The array with the values
+	*/
+	public static double[] toDoubleArray(Vector v, double[] dst)
+	{
+		if (dst == null || dst.length < v.size())
+			dst = new double[v.size()];
+		for (int i = 0; i < v.size(); i++)
+			dst[i] = ( (Number)v.get(i) ).doubleValue();
+		
+		return dst;
+	}
+	
 	/**
 	* Calculates the mean from the values in an integer vector.
 	*
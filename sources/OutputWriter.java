@@ -0,0 +1,204 @@
+/* OutputWriter.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Encodes and writes output files on a background thread, so
+ * that the next image can be analysed in the meantime.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.awt.image.RenderedImage;
+import java.util.Vector;
+import javax.media.jai.JAI;
+
+/**
+    * A bounded queue of output files (images and text) that are written by worker
+    * threads. Adding a file blocks while the queue is full, which keeps the number of
+    * images waiting to be encoded (and thereby the memory they use) bounded.
+    * Images must not be modified after they have been handed over.
+    * Failed writes are collected and handed to the caller by pollErrors and finish.
+*/
+public class OutputWriter
+{
+	public final static int DEFAULT_MAX_PENDING = 2;
+
+	protected int maxPending;
+	protected Vector queue; // Object[] {file name, image or text, codec id or null}
+	protected int numActive;
+	protected Vector errors; // Object[] {message, Throwable}
+	protected boolean stopped;
+
+	/**
+	* Constructor, starts one worker thread with a queue of DEFAULT_MAX_PENDING files
+	*/
+	public OutputWriter()
+	{
+		this(1, DEFAULT_MAX_PENDING);
+	}
+
+	/**
+	* Constructor, starts the worker threads
+	*
+	* @param	numThreads	Number of worker threads
+	* @param	maxPending	Maximum number of files waiting to be written
+	*/
+	public OutputWriter(int numThreads, int maxPending)
+	{
+		this.maxPending = Math.max(maxPending, 1);
+
+		queue = new Vector();
+		errors = new Vector();
+		numActive = 0;
+		stopped = false;
+
+		for (int i = 0; i < numThreads; i++)
+		{
+			Thread worker = new Thread()
+			{
+				public void run()
+				{
+					runWorker();
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	* Queues an image to be encoded and written with JAI "filestore"
+	*
+	* @param	img	The image (not to be modified afterwards)
+	* @param	fName	The file name
+	* @param	codecId	The JAI codec (e.g. "TIFF" or "JPEG")
+	*/
+	public void writeImage(RenderedImage img, String fName, String codecId) throws InterruptedException
+	{
+		add( new Object[] { fName, img, codecId } );
+	}
+
+	/**
+	* Queues a text to be written to a file
+	*
+	* @param	text	The text
+	* @param	fName	The file name
+	*/
+	public void writeText(String text, String fName) throws InterruptedException
+	{
+		add( new Object[] { fName, text, null } );
+	}
+
+	/**
+	* Retrieves the writes that have failed since the last call
+	*
+	* @return	A Vector of Object[] {message, Throwable}
+	*/
+	public synchronized Vector pollErrors()
+	{
+		Vector retVec = errors;
+		errors = new Vector();
+		return retVec;
+	}
+
+	/**
+	* Waits until all queued files have been written and stops the workers
+	*
+	* @return	The writes that have failed since the last call to pollErrors (see pollErrors)
+	*/
+	public synchronized Vector finish() throws InterruptedException
+	{
+		while (!queue.isEmpty() || numActive > 0)
+			wait();
+
+		stopped = true;
+		notifyAll();
+
+		return pollErrors();
+	}
+
+	private synchronized void add(Object[] job) throws InterruptedException
+	{
+		while (queue.size() >= maxPending)
+			wait();
+
+		queue.add(job);
+		notifyAll();
+	}
+
+	private void runWorker()
+	{
+		while (true)
+		{
+			Object[] job;
+			synchronized(this)
+			{
+				try
+				{
+					while (!stopped && queue.isEmpty())
+						wait();
+				} catch (InterruptedException ie)
+				{
+					return;
+				}
+
+				if (stopped)
+					return;
+
+				job = (Object[])queue.remove(0);
+				numActive++;
+				notifyAll();
+			}
+
+			String fName = (String)job[0];
+			Throwable error = null;
+			try
+			{
+				if (job[1] instanceof RenderedImage)
+				{
+					JAI.create("filestore", (RenderedImage)job[1], fName, (String)job[2]);
+				} else
+				{
+					BufferedWriter bw = new BufferedWriter(new FileWriter(fName), 10000);
+					bw.write( (String)job[1] );
+					bw.flush();
+					bw.close();
+				}
+			} catch (Throwable t)
+			{
+				error = t;
+			}
+
+			synchronized(this)
+			{
+				if (error != null)
+					errors.add( new Object[] { "[ERROR] Failed to write output file " + fName, error } );
+				numActive--;
+				notifyAll();
+			}
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/* OverlayLayer.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Records overlays (spans and lines) so that they can be drawn
+ * on top of an image without modifying it.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+
+/**
+    * An OverlayPainter that records what is painted instead of painting it. The same
+    * paint methods (e.g. GrayscaleImageEdit.paintBorders) can thereby fill a layer,
+    * which JComponentDisplay draws on top of the displayed image, at any scale and
+    * only within the area that is repainted. Pixels are stored as horizontal runs
+    * (spans), so a layer takes much less memory than a copy of the image.
+    * The recorded geometry is kept as a flat list of operations:
+    * OP_COLOR argb, OP_SPAN y x0 x1 and OP_LINE x1 y1 x2 y2.
+*/
+public class OverlayLayer extends OverlayPainter
+{
+	protected final static int OP_COLOR = 0;
+	protected final static int OP_SPAN = 1;
+	protected final static int OP_LINE = 2;
+
+	protected String name;
+	protected boolean visible;
+
+	protected int[] ops;
+	protected int numOps; // number of used entries in ops
+
+	/**
+	* Constructor, creates an empty and visible layer
+	*
+	* @param	name	The name of the layer (e.g. JComponentDisplay.LAYER_BORDERS)
+	*/
+	public OverlayLayer(String name)
+	{
+		super();
+		this.name = name;
+		visible = true;
+		ops = new int[1024];
+		numOps = 0;
+		color = null;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public boolean isVisible()
+	{
+		return visible;
+	}
+
+	public void setVisible(boolean visible)
+	{
+		this.visible = visible;
+	}
+
+	/**
+	* @return	True if nothing has been recorded
+	*/
+	public boolean isEmpty()
+	{
+		return (numOps == 0);
+	}
+
+	/**
+	* Removes everything that has been recorded
+	*/
+	public void clear()
+	{
+		numOps = 0;
+		color = null;
+	}
+
+	public void setColor(Color c)
+	{
+		if (c.equals(color))
+			return;
+
+		color = c;
+		add(OP_COLOR, c.getRGB());
+	}
+
+	public void paintSpan(int x0, int x1, int y)
+	{
+		if (x0 > x1)
+			return;
+
+		if (color == null)
+			setColor(Color.WHITE);
+		add(OP_SPAN, y, x0, x1);
+	}
+
+	public void drawLine(int x1, int y1, int x2, int y2)
+	{
+		if (y1 == y2)
+		{
+			paintSpan(Math.min(x1, x2), Math.max(x1, x2), y1);
+			return;
+		}
+
+		if (color == null)
+			setColor(Color.WHITE);
+		add(OP_LINE, x1, y1, x2, y2);
+	}
+
+	/**
+	* Draws the layer onto a scaled view of the image
+	*
+	* @param	g2d	The graphics object (in the coordinates of the scaled image)
+	* @param	clip	The part of the scaled image to draw (nothing outside of it is drawn)
+	* @param	scale	The scale of the view (1.0 is the image at its original size)
+	*/
+	public void paint(Graphics2D g2d, Rectangle clip, double scale)
+	{
+		int clipX0 = (int)clip.getX(), clipY0 = (int)clip.getY();
+		int clipX1 = clipX0 + (int)clip.getWidth(), clipY1 = clipY0 + (int)clip.getHeight();
+
+		int i = 0;
+		while (i < numOps)
+		{
+			int op = ops[i];
+			if (op == OP_COLOR)
+			{
+				g2d.setColor( new Color(ops[i+1], true) );
+				i += 2;
+			} else if (op == OP_SPAN)
+			{
+				//all pixels of the span, scaled (and at least one pixel in size)
+				int y0 = (int)(ops[i+1]*scale);
+				int y1 = Math.max( (int)( (ops[i+1]+1)*scale), y0+1);
+				int x0 = (int)(ops[i+2]*scale);
+				int x1 = Math.max( (int)( (ops[i+3]+1)*scale), x0+1);
+				i += 4;
+
+				if (y1 <= clipY0 || y0 >= clipY1 || x1 <= clipX0 || x0 >= clipX1)
+					continue;
+				g2d.fillRect(x0, y0, x1-x0, y1-y0);
+			} else
+			{
+				int x1 = (int)Math.round(ops[i+1]*scale);
+				int y1 = (int)Math.round(ops[i+2]*scale);
+				int x2 = (int)Math.round(ops[i+3]*scale);
+				int y2 = (int)Math.round(ops[i+4]*scale);
+				i += 5;
+
+				if (Math.max(y1, y2) < clipY0 || Math.min(y1, y2) >= clipY1 || Math.max(x1, x2) < clipX0 || Math.min(x1, x2) >= clipX1)
+					continue;
+				g2d.drawLine(x1, y1, x2, y2);
+			}
+		}
+	}
+
+	/**
+	* Paints the layer into an image, in exactly the same way as if it had been
+	* painted there directly
+	*
+	* @param	img	The image
+	*/
+	public void paint(BufferedImage img)
+	{
+		paint( new OverlayPainter(img) );
+	}
+
+	/**
+	* Replays what has been recorded on another painter
+	*
+	* @param	painter	The painter
+	*/
+	public void paint(OverlayPainter painter)
+	{
+		int i = 0;
+		while (i < numOps)
+		{
+			int op = ops[i];
+			if (op == OP_COLOR)
+			{
+				painter.setColor( new Color(ops[i+1], true) );
+				i += 2;
+			} else if (op == OP_SPAN)
+			{
+				painter.paintSpan(ops[i+2], ops[i+3], ops[i+1]);
+				i += 4;
+			} else
+			{
+				painter.drawLine(ops[i+1], ops[i+2], ops[i+3], ops[i+4]);
+				i += 5;
+			}
+		}
+	}
+
+	private void add(int op, int a)
+	{
+		ensureCapacity(2);
+		ops[numOps++] = op;
+		ops[numOps++] = a;
+	}
+
+	private void add(int op, int a, int b, int c)
+	{
+		ensureCapacity(4);
+		ops[numOps++] = op;
+		ops[numOps++] = a;
+		ops[numOps++] = b;
+		ops[numOps++] = c;
+	}
+
+	private void add(int op, int a, int b, int c, int d)
+	{
+		ensureCapacity(5);
+		ops[numOps++] = op;
+		ops[numOps++] = a;
+		ops[numOps++] = b;
+		ops[numOps++] = c;
+		ops[numOps++] = d;
+	}
+
+	private void ensureCapacity(int extra)
+	{
+		if (numOps + extra <= ops.length)
+			return;
+
+		int[] newOps = new int[Math.max(ops.length*2, numOps + extra)];
+		System.arraycopy(ops, 0, newOps, 0, numOps);
+		ops = newOps;
+	}
+}
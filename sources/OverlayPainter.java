@@ -0,0 +1,291 @@
+/* OverlayPainter.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Paints segmentation overlays (single pixels, spans and masks)
+ * straight into the pixels of an image.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.util.Vector;
+
+/**
+    * Paints overlays onto an image. Segmentation overlays consist of a very large number
+    * of single pixels; drawing each of them with Graphics.drawLine costs a full Java2D
+    * call. Here, horizontally adjacent pixels are merged into spans and written directly
+    * into the data buffer of the image (see PixelAccess). Lines that are neither
+    * horizontal nor vertical, translucent colours and images that are not RGB are still
+    * drawn with Graphics.
+    * A painter can also be created on top of a Graphics object only, in which case all
+    * painting goes through it (spans are then drawn as single lines).
+*/
+public class OverlayPainter
+{
+	protected BufferedImage img;
+	protected PixelAccess pixels;
+	protected Graphics g;
+	protected int width, height;
+
+	protected Color color;
+	protected Object pixel; // the current colour, in the image's pixel format
+
+	/**
+	* Constructor, paints directly into an image
+	*
+	* @param	img	The image
+	*/
+	public OverlayPainter(BufferedImage img)
+	{
+		this.img = img;
+		pixels = new PixelAccess(img);
+		width = img.getWidth();
+		height = img.getHeight();
+		setColor(Color.WHITE);
+	}
+
+	/**
+	* Constructor, paints through a Graphics object
+	*
+	* @param	g	The Graphics object
+	*/
+	public OverlayPainter(Graphics g)
+	{
+		this.g = g;
+		setColor(Color.WHITE);
+	}
+
+	/**
+	* Constructor for subclasses that do not paint onto an image or a Graphics object
+	*/
+	protected OverlayPainter()
+	{
+		color = Color.WHITE;
+	}
+
+	/**
+	* Sets the colour used by the following paint calls
+	*
+	* @param	c	The colour
+	*/
+	public void setColor(Color c)
+	{
+		color = c;
+		if (g != null)
+			g.setColor(c);
+
+		//translucent colours have to be blended, and Java2D converts colours to
+		//non-RGB colour spaces (e.g. gray) in its own way, so both are left to it
+		pixel = null;
+		if (img != null && c.getAlpha() == 255 && img.getColorModel().getColorSpace().getType() == ColorSpace.TYPE_RGB)
+			pixel = img.getColorModel().getDataElements(c.getRGB(), null);
+	}
+
+	/**
+	* Paints a single pixel
+	*
+	* @param	x	X coordinate
+	* @param	y	Y coordinate
+	*/
+	public void paintPixel(int x, int y)
+	{
+		paintSpan(x, x, y);
+	}
+
+	/**
+	* Paints the horizontal span x0..x1 (inclusive) of a row
+	*
+	* @param	x0	First column
+	* @param	x1	Last column
+	* @param	y	Row
+	*/
+	public void paintSpan(int x0, int x1, int y)
+	{
+		if (pixel == null)
+		{
+			getGraphics().drawLine(x0, y, x1, y);
+			return;
+		}
+
+		//clip in the same way as Graphics
+		if (y < 0 || y >= height)
+			return;
+		if (x0 < 0)
+			x0 = 0;
+		if (x1 >= width)
+			x1 = width-1;
+		if (x0 > x1)
+			return;
+
+		pixels.fillSpan(y, x0, x1, pixel);
+	}
+
+	/**
+	* Draws a line between two points (inclusive), see Graphics.drawLine
+	*
+	* @param	x1	X coordinate of the first point
+	* @param	y1	Y coordinate of the first point
+	* @param	x2	X coordinate of the second point
+	* @param	y2	Y coordinate of the second point
+	*/
+	public void drawLine(int x1, int y1, int x2, int y2)
+	{
+		if (y1 == y2)
+		{
+			paintSpan(Math.min(x1, x2), Math.max(x1, x2), y1);
+		} else if (x1 == x2 && pixel != null)
+		{
+			for (int y = Math.min(y1, y2); y <= Math.max(y1, y2); y++)
+				paintSpan(x1, x1, y);
+		} else
+		{
+			getGraphics().drawLine(x1, y1, x2, y2);
+		}
+	}
+
+	/**
+	* Paints all entries of a matrix that are > 0, one run of such entries at a time
+	*
+	* @param	seg	The matrix, indexed [y][x]
+	*/
+	public void paintMatrix(int[][] seg)
+	{
+		for (int y = 0; y < seg.length; y++)
+		{
+			int[] row = seg[y];
+			int x = 0;
+			while (x < row.length)
+			{
+				if (row[x] <= 0)
+				{
+					x++;
+					continue;
+				}
+
+				int start = x;
+				while (x < row.length && row[x] > 0)
+					x++;
+				paintSpan(start, x-1, y);
+			}
+		}
+	}
+
+	/**
+	* Paints all entries of a matrix that are > 0, one run of such entries at a time
+	*
+	* @param	seg	The matrix, indexed [y][x]
+	*/
+	public void paintMatrix(byte[][] seg)
+	{
+		for (int y = 0; y < seg.length; y++)
+		{
+			byte[] row = seg[y];
+			int x = 0;
+			while (x < row.length)
+			{
+				if (row[x] <= 0)
+				{
+					x++;
+					continue;
+				}
+
+				int start = x;
+				while (x < row.length && row[x] > 0)
+					x++;
+				paintSpan(start, x-1, y);
+			}
+		}
+	}
+
+	/**
+	* Paints a range of a Vector of Points. Consecutive points on the same row
+	* and in adjacent columns are painted as one span.
+	*
+	* @param	vec	Vector of Points
+	* @param	from	Index of the first point
+	* @param	to	Index after the last point
+	*/
+	public void paintPoints(Vector vec, int from, int to)
+	{
+		int spanY = 0, spanX0 = 0, spanX1 = -1;
+		for (int j = from; j < to; j++)
+		{
+			Point p = (Point)vec.get(j);
+			int x = (int)p.getX();
+			int y = (int)p.getY();
+
+			if (spanX1 >= spanX0 && y == spanY)
+			{
+				if (x == spanX1+1)
+				{
+					spanX1 = x;
+					continue;
+				} else if (x == spanX0-1)
+				{
+					spanX0 = x;
+					continue;
+				}
+			}
+
+			if (spanX1 >= spanX0)
+				paintSpan(spanX0, spanX1, spanY);
+			spanY = y;
+			spanX0 = x;
+			spanX1 = x;
+		}
+
+		if (spanX1 >= spanX0)
+			paintSpan(spanX0, spanX1, spanY);
+	}
+
+	/**
+	* Paints all Points of a Vector
+	*
+	* @param	vec	Vector of Points
+	*/
+	public void paintPoints(Vector vec)
+	{
+		paintPoints(vec, 0, vec.size());
+	}
+
+	/**
+	* Not part of what a painter offers, since a subclass (e.g. OverlayLayer) may
+	* have nothing to paint on; only paintSpan and drawLine fall back to it.
+	*
+	* @return	The Graphics object used for the painting that is not done directly,
+	*	with the current colour set
+	*/
+	private Graphics getGraphics()
+	{
+		if (g == null)
+			g = img.getGraphics();
+		g.setColor(color);
+		return g;
+	}
+}
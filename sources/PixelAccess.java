@@ -0,0 +1,281 @@
+/* PixelAccess.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Reads image bands directly from the backing data buffer
+ * of a raster, without going through the sample model.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+    * Row-wise band access to a raster. The two layouts that JAI and ImageIO
+    * normally hand us, interleaved bytes (e.g. TYPE_3BYTE_BGR, TYPE_BYTE_GRAY) and
+    * packed ints (e.g. TYPE_INT_RGB), are read straight from the backing array of the
+    * data buffer; everything else goes through Raster.getSamples. No copy of the
+    * raster is made, so the pixels read are those of the image at the time of the call.
+    * Writable rasters can also be filled with a constant pixel value, one span at a time.
+*/
+public class PixelAccess
+{
+	public final static int LAYOUT_GENERIC = 0;
+	public final static int LAYOUT_BYTE_INTERLEAVED = 1;
+	public final static int LAYOUT_INT_PACKED = 2;
+
+	protected Raster raster;
+	protected int layout;
+	protected int width, height, numBands;
+
+	// position of pixel (0,0) in the backing array and the strides from there
+	protected int origin;
+	protected int pixelStride, scanlineStride;
+
+	protected byte[] byteData;
+	protected int[] bandOffsets;
+
+	protected int[] intData;
+	protected int[] bitMasks;
+	protected int[] bitOffsets;
+
+	/**
+	* Constructor, accesses the raster of an image (not a copy of it)
+	*
+	* @param	img	The image
+	*/
+	public PixelAccess(BufferedImage img)
+	{
+		this(img.getRaster());
+	}
+
+	/**
+	* Constructor
+	*
+	* @param	raster	The raster to read from
+	*/
+	public PixelAccess(Raster raster)
+	{
+		this.raster = raster;
+		width = raster.getWidth();
+		height = raster.getHeight();
+		numBands = raster.getNumBands();
+		layout = LAYOUT_GENERIC;
+
+		SampleModel sm = raster.getSampleModel();
+		DataBuffer db = raster.getDataBuffer();
+
+		// sample model coordinates of the raster's upper left pixel
+		int smX = raster.getMinX() - raster.getSampleModelTranslateX();
+		int smY = raster.getMinY() - raster.getSampleModelTranslateY();
+
+		if (db.getNumBanks() != 1)
+			return;
+
+		if (sm instanceof ComponentSampleModel && db instanceof DataBufferByte && sm.getSampleSize(0) == 8)
+		{
+			ComponentSampleModel csm = (ComponentSampleModel)sm;
+			int[] banks = csm.getBankIndices();
+			for (int i = 0; i < banks.length; i++)
+				if (banks[i] != 0)
+					return;
+
+			byteData = ((DataBufferByte)db).getData();
+			bandOffsets = csm.getBandOffsets();
+			pixelStride = csm.getPixelStride();
+			scanlineStride = csm.getScanlineStride();
+			origin = db.getOffset() + smY*scanlineStride + smX*pixelStride;
+			layout = LAYOUT_BYTE_INTERLEAVED;
+		} else if (sm instanceof SinglePixelPackedSampleModel && db instanceof DataBufferInt)
+		{
+			SinglePixelPackedSampleModel sppsm = (SinglePixelPackedSampleModel)sm;
+
+			intData = ((DataBufferInt)db).getData();
+			bitMasks = sppsm.getBitMasks();
+			bitOffsets = sppsm.getBitOffsets();
+			pixelStride = 1;
+			scanlineStride = sppsm.getScanlineStride();
+			origin = db.getOffset() + smY*scanlineStride + smX;
+			layout = LAYOUT_INT_PACKED;
+		}
+	}
+
+	/**
+	* @return	True if the bands are read directly from the data buffer
+	*/
+	public boolean isDirect()
+	{
+		return (layout != LAYOUT_GENERIC);
+	}
+
+	/**
+	* @return	The detected layout (one of the LAYOUT_ constants)
+	*/
+	public int getLayout()
+	{
+		return layout;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	public int getNumBands()
+	{
+		return numBands;
+	}
+
+	/**
+	* Reads one band of a row
+	*
+	* @param	y	Row index (0 is the first row of the raster)
+	* @param	band	Band index (e.g. PlanarImageEdit.BAND_B)
+	* @param	dst	Destination buffer (at least getWidth() long), or null
+	* @return	The destination buffer
+	*/
+	public int[] getBandRow(int y, int band, int[] dst)
+	{
+		return getBandRow(y, 0, width, band, dst);
+	}
+
+	/**
+	* Reads one band of a part of a row
+	*
+	* @param	y	Row index (0 is the first row of the raster)
+	* @param	x0	First column
+	* @param	len	Number of columns
+	* @param	band	Band index (e.g. PlanarImageEdit.BAND_B)
+	* @param	dst	Destination buffer (at least len long), or null
+	* @return	The destination buffer, holding column x0 at index 0
+	*/
+	public int[] getBandRow(int y, int x0, int len, int band, int[] dst)
+	{
+		if (dst == null)
+			dst = new int[len];
+
+		if (layout == LAYOUT_BYTE_INTERLEAVED)
+		{
+			byte[] data = byteData;
+			int stride = pixelStride;
+			int ind = origin + y*scanlineStride + x0*stride + bandOffsets[band];
+			for (int x = 0; x < len; x++, ind += stride)
+				dst[x] = data[ind] & 0xff;
+		} else if (layout == LAYOUT_INT_PACKED)
+		{
+			int[] data = intData;
+			int mask = bitMasks[band];
+			int shift = bitOffsets[band];
+			int ind = origin + y*scanlineStride + x0;
+			for (int x = 0; x < len; x++, ind++)
+				dst[x] = (data[ind] & mask) >>> shift;
+		} else
+		{
+			raster.getSamples(raster.getMinX()+x0, raster.getMinY()+y, len, 1, band, dst);
+		}
+
+		return dst;
+	}
+
+	/**
+	* Sets the pixels x0..x1 (inclusive) of a row to the same value. The raster
+	* must be a WritableRaster and the coordinates must lie within it.
+	*
+	* @param	y	Row index (0 is the first row of the raster)
+	* @param	x0	First column
+	* @param	x1	Last column
+	* @param	pixel	The pixel, as returned by ColorModel.getDataElements
+	*/
+	public void fillSpan(int y, int x0, int x1, Object pixel)
+	{
+		if (layout == LAYOUT_INT_PACKED)
+		{
+			int ind = origin + y*scanlineStride;
+			Arrays.fill(intData, ind+x0, ind+x1+1, ((int[])pixel)[0]);
+		} else if (layout == LAYOUT_BYTE_INTERLEAVED)
+		{
+			byte[] comps = (byte[])pixel;
+			int numComps = Math.min(comps.length, bandOffsets.length);
+			int ind = origin + y*scanlineStride + x0*pixelStride;
+			for (int x = x0; x <= x1; x++, ind += pixelStride)
+				for (int b = 0; b < numComps; b++)
+					byteData[ind + bandOffsets[b]] = comps[b];
+		} else
+		{
+			WritableRaster wr = (WritableRaster)raster;
+			for (int x = x0; x <= x1; x++)
+				wr.setDataElements(raster.getMinX()+x, raster.getMinY()+y, pixel);
+		}
+	}
+
+	/**
+	* Packs 8-bit red, green and blue values into TYPE_INT_RGB pixels. Values outside
+	* 0-255 are masked in the same way as when set through the sample model.
+	*
+	* @param	r	Red values
+	* @param	g	Green values
+	* @param	b	Blue values
+	* @param	dst	Destination array
+	* @param	dstOff	Offset of the first pixel in the destination
+	* @param	len	Number of pixels
+	*/
+	public static void packRGB(int[] r, int[] g, int[] b, int[] dst, int dstOff, int len)
+	{
+		for (int i = 0; i < len; i++)
+			dst[dstOff+i] = ((r[i] << 16) & 0xff0000) | ((g[i] << 8) & 0xff00) | (b[i] & 0xff);
+	}
+
+	/**
+	* Returns the backing pixel array of a TYPE_INT_RGB image created with
+	* new BufferedImage(), i.e. one int per pixel, row by row without padding
+	*
+	* @param	img	The image
+	* @return	The pixel array, or null if the image has another layout
+	*/
+	public static int[] getPackedRGBData(BufferedImage img)
+	{
+		if (img.getType() != BufferedImage.TYPE_INT_RGB)
+			return null;
+
+		PixelAccess pa = new PixelAccess(img);
+		if (pa.layout != LAYOUT_INT_PACKED || pa.origin != 0 || pa.scanlineStride != pa.width)
+			return null;
+
+		return pa.intData;
+	}
+}
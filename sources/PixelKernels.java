@@ -0,0 +1,248 @@
+/* PixelKernels.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * A class with simple per-pixel kernels (thresholding, masking,
+ * band extraction etc.) that operate on flat primitive buffers.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.awt.image.Raster;
+
+/**
+    * A class with per-pixel kernels working on flat (one-dimensional) buffers.
+    * The loops are kept free of branches and method calls in their bodies
+    * so that the JIT compiler can unroll and vectorise them (superword);
+    * callers normally hand over one image row at a time.
+*/
+public class PixelKernels
+{
+	/**
+	* Thresholds a buffer (to 0 or 255) using a fixed threshold, i.e.
+	* dst = (src <= thresh) ? 255 : 0. Source and destination may be the same array.
+	*
+	* @param	src	Source values, assumed to be in the range 0-255
+	* @param	srcOff	Offset of the first element in the source
+	* @param	dst	Destination buffer
+	* @param	dstOff	Offset of the first element in the destination
+	* @param	len	Number of elements to process
+	* @param	thresh	Threshold
+	*/
+	public static void threshold(int[] src, int srcOff, int[] dst, int dstOff, int len, int thresh)
+	{
+		//values outside [0,255] saturate in the same way as the original comparison
+		if (thresh < 0)
+		{
+			java.util.Arrays.fill(dst, dstOff, dstOff+len, 0);
+			return;
+		} else if (thresh >= 255)
+		{
+			java.util.Arrays.fill(dst, dstOff, dstOff+len, 255);
+			return;
+		}
+
+		//(src - thresh - 1) is negative exactly when src <= thresh
+		int t = thresh + 1;
+		for (int i = 0; i < len; i++)
+			dst[dstOff+i] = ((src[srcOff+i] - t) >> 31) & 255;
+	}
+
+	/**
+	* Thresholds a buffer (to 0 or 255) into a byte buffer, see threshold(int[], int, int[], int, int, int).
+	* The destination holds the values as unsigned bytes.
+	*
+	* @param	src	Source values, assumed to be in the range 0-255
+	* @param	srcOff	Offset of the first element in the source
+	* @param	dst	Destination buffer
+	* @param	dstOff	Offset of the first element in the destination
+	* @param	len	Number of elements to process
+	* @param	thresh	Threshold
+	*/
+	public static void threshold(int[] src, int srcOff, byte[] dst, int dstOff, int len, int thresh)
+	{
+		if (thresh < 0)
+		{
+			java.util.Arrays.fill(dst, dstOff, dstOff+len, (byte)0);
+			return;
+		} else if (thresh >= 255)
+		{
+			java.util.Arrays.fill(dst, dstOff, dstOff+len, (byte)255);
+			return;
+		}
+
+		int t = thresh + 1;
+		for (int i = 0; i < len; i++)
+			dst[dstOff+i] = (byte)((src[srcOff+i] - t) >> 31);
+	}
+
+	/**
+	* Counts the number of zero entries in a buffer
+	*
+	* @param	src	Buffer to be counted
+	* @param	off	Offset of the first element
+	* @param	len	Number of elements to count
+	* @return	The number of zeros
+	*/
+	public static int countZero(int[] src, int off, int len)
+	{
+		int nonZero = 0;
+		for (int i = 0; i < len; i++)
+		{
+			int v = src[off+i];
+			nonZero += (v | -v) >>> 31;
+		}
+
+		return len - nonZero;
+	}
+
+	/**
+	* Counts the number of zero entries in a buffer
+	*
+	* @param	src	Buffer to be counted
+	* @param	off	Offset of the first element
+	* @param	len	Number of elements to count
+	* @return	The number of zeros
+	*/
+	public static int countZero(byte[] src, int off, int len)
+	{
+		int nonZero = 0;
+		for (int i = 0; i < len; i++)
+		{
+			int v = src[off+i];
+			nonZero += (v | -v) >>> 31;
+		}
+
+		return len - nonZero;
+	}
+
+	/**
+	* Sums the entries of a buffer
+	*
+	* @param	src	Buffer to be summed
+	* @param	off	Offset of the first element
+	* @param	len	Number of elements to sum
+	* @return	The sum
+	*/
+	public static long sum(int[] src, int off, int len)
+	{
+		long sum = 0;
+		for (int i = 0; i < len; i++)
+			sum += src[off+i];
+
+		return sum;
+	}
+
+	/**
+	* Multiplies a buffer with a mask, i.e. dst = round(src*mask), optionally truncated at 255
+	*
+	* @param	src	Source values
+	* @param	mask	Mask values
+	* @param	dst	Destination buffer
+	* @param	len	Number of elements to process
+	* @param	truncate	If true, the values will be truncated at 255
+	*/
+	public static void mask(int[] src, double[] mask, int[] dst, int len, boolean truncate)
+	{
+		if (truncate)
+		{
+			for (int i = 0; i < len; i++)
+				dst[i] = Math.min( (int)Math.round(src[i]*mask[i]), 255);
+		} else
+		{
+			for (int i = 0; i < len; i++)
+				dst[i] = (int)Math.round(src[i]*mask[i]);
+		}
+	}
+
+	/**
+	* Calculates 255 - (max(r,g,b) - min(r,g,b)) for each pixel, i.e.
+	* low values denote a high dominance of one colour and high values
+	* denote pixels that are close to grayscale.
+	*
+	* @param	r	Red band
+	* @param	g	Green band
+	* @param	b	Blue band
+	* @param	dst	Destination buffer
+	* @param	len	Number of elements to process
+	*/
+	public static void maxDiffChannel(int[] r, int[] g, int[] b, int[] dst, int len)
+	{
+		for (int i = 0; i < len; i++)
+		{
+			int max = Math.max( Math.max(r[i], g[i]), b[i]);
+			int min = Math.min( Math.min(r[i], g[i]), b[i]);
+			dst[i] = 255 - (max - min);
+		}
+	}
+
+	/**
+	* Extracts one band of a raster row into a buffer
+	*
+	* @param	raster	The raster to read from
+	* @param	y	Row index
+	* @param	band	Band index (e.g. PlanarImageEdit.BAND_B)
+	* @param	dst	Destination buffer (at least raster.getWidth() long)
+	* @return	The destination buffer
+	*/
+	public static int[] extractBand(Raster raster, int y, int band, int[] dst)
+	{
+		return raster.getSamples(raster.getMinX(), raster.getMinY()+y, raster.getWidth(), 1, band, dst);
+	}
+
+	/**
+	* Fills an int[][] matrix with the maximum channel difference
+	* (see maxDiffChannel) of a raster, one row at a time.
+	*
+	* @param	raster	The (RGB) raster to read from
+	* @param	dst	Destination matrix of size [height][width]
+	*/
+	public static void maxDiffChannel(Raster raster, int[][] dst)
+	{
+		maxDiffChannel(new PixelAccess(raster), dst);
+	}
+
+	/**
+	* Fills an int[][] matrix with the maximum channel difference
+	* (see maxDiffChannel) of an image, one row at a time.
+	*
+	* @param	pixels	The (RGB) image to read from
+	* @param	dst	Destination matrix of size [height][width]
+	*/
+	public static void maxDiffChannel(PixelAccess pixels, int[][] dst)
+	{
+		int width = pixels.getWidth();
+		int[] r = new int[width];
+		int[] g = new int[width];
+		int[] b = new int[width];
+
+		for (int y = 0; y < dst.length; y++)
+		{
+			pixels.getBandRow(y, PlanarImageEdit.BAND_R, r);
+			pixels.getBandRow(y, PlanarImageEdit.BAND_G, g);
+			pixels.getBandRow(y, PlanarImageEdit.BAND_B, b);
+			maxDiffChannel(r, g, b, dst[y], width);
+		}
+	}
+}
@@ -277,61 +277,40 @@ public class PlanarImageEdit
 	public static BufferedImage generateBufferedCompositeImage(PlanarImage imgRed, PlanarImage imgGreen, int brightness, JProgressBar pb)
 	{
 		BufferedImage imgComposite = new BufferedImage(imgRed.getWidth(), imgGreen.getHeight(), BufferedImage.TYPE_INT_RGB);
-		WritableRaster wrComposite = imgComposite.getRaster();
+		int[] dataComposite = PixelAccess.getPackedRGBData(imgComposite);
 		
-		Raster rasterCh1 = imgRed.getData();
-		Raster rasterCh2 = imgGreen.getData();
+		PixelAccess pixelsCh1 = new PixelAccess(imgRed.getData());
+		PixelAccess pixelsCh2 = new PixelAccess(imgGreen.getData());
 		
 		int width = imgComposite.getWidth();
 		int height = imgComposite.getHeight();
-		int colors = imgComposite.getColorModel().getNumColorComponents();
-		
-		//System.err.println("Colors: " + colors);
 		
-		int[] col = new int[height*colors];
+		int[] ch1 = new int[imgRed.getWidth()];
+		int[] ch2 = new int[imgGreen.getWidth()];
+		int[] red = new int[width];
+		int[] green = new int[width];
+		int[] blue = new int[width];
 		
-		for (int xx = 0; xx < width; xx++)
+		//read, transform and write 'one row at a time'
+		for (int yy = 0; yy < height; yy++)
 		{
-			for (int yy = 0; yy < height; yy++)
+			pixelsCh1.getBandRow(yy, BAND_GREYSCALE, ch1);
+			pixelsCh2.getBandRow(yy, BAND_GREYSCALE, ch2);
+			
+			for (int xx = 0; xx < width; xx++)
 			{
 				//square-root transform data
-						
-				//int red = (int)Math.min(Math.round(Math.sqrt(rasterCh1.getSample(xx, yy, BAND_GREYSCALE))) + brightness, PIXEL_SCALED_INT_MAX);
-				//int green = (int)Math.min(Math.round(Math.sqrt(rasterCh2.getSample(xx, yy, BAND_GREYSCALE))) + brightness, PIXEL_SCALED_INT_MAX);
-				
-				
-				/*
-				int red = (int)Math.min( Math.sqrt(rasterCh1.getSample(xx, yy, BAND_GREYSCALE)) + brightness, PIXEL_SCALED_INT_MAX);
-				int green = (int)Math.min( Math.sqrt(rasterCh2.getSample(xx, yy, BAND_GREYSCALE)) + brightness, PIXEL_SCALED_INT_MAX);
-				int blue = (red == PIXEL_SCALED_INT_MAX && green == PIXEL_SCALED_INT_MAX) ? PIXEL_SCALED_INT_MAX : PIXEL_SCALED_INT_MIN;
-				*/
-				
-				int index = yy*3;
-				col[index] = (int)Math.min( Math.sqrt(rasterCh1.getSample(xx, yy, BAND_GREYSCALE)) + brightness, PIXEL_SCALED_INT_MAX);
-				col[index+1] = (int)Math.min( Math.sqrt(rasterCh2.getSample(xx, yy, BAND_GREYSCALE)) + brightness, PIXEL_SCALED_INT_MAX);
-				col[index+2] = (col[index] == PIXEL_SCALED_INT_MAX && col[index+1] == PIXEL_SCALED_INT_MAX) ? PIXEL_SCALED_INT_MAX : PIXEL_SCALED_INT_MIN;
-				
-				
-				//int red = ( (int)rasterCh1.getSample(xx, yy, BAND_GREYSCALE) ) << 4;
-				//int green = ( (int)rasterCh2.getSample(xx, yy, BAND_GREYSCALE) ) << 4;
-						
-						
-				/*
-				wrComposite.setSample(xx, yy, BAND_B, blue);
-				wrComposite.setSample(xx, yy, BAND_R, red);
-				wrComposite.setSample(xx, yy, BAND_G, green);
-				*/
+				red[xx] = (int)Math.min( Math.sqrt(ch1[xx]) + brightness, PIXEL_SCALED_INT_MAX);
+				green[xx] = (int)Math.min( Math.sqrt(ch2[xx]) + brightness, PIXEL_SCALED_INT_MAX);
+				blue[xx] = (red[xx] == PIXEL_SCALED_INT_MAX && green[xx] == PIXEL_SCALED_INT_MAX) ? PIXEL_SCALED_INT_MAX : PIXEL_SCALED_INT_MIN;
 			}
 			
-			//write to raster 'on column at a time'
-			//this is approximately 20% faster than 'on pixel at a time'
-			wrComposite.setPixels(xx, 0, 1, height, col);
+			PixelAccess.packRGB(red, green, blue, dataComposite, yy*width, width);
 			
 			if (pb != null)
-				pb.setValue( (int) ( 100 * ( (double) xx / (double)(width-1) ) ) );
+				pb.setValue( (int) ( 100 * ( (double) yy / (double)(height-1) ) ) );
 		}
-			
-		imgComposite.setData(wrComposite);
+		
 		return imgComposite;
 	}
 	
@@ -362,27 +341,30 @@ public class PlanarImageEdit
 	public static BufferedImage alterBrightness(BufferedImage img, int brightness)
 	{
 		BufferedImage imgComposite = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
-		WritableRaster wrComposite = imgComposite.getRaster();
+		int[] dataComposite = PixelAccess.getPackedRGBData(imgComposite);
 		
-		Raster raster = img.getData();
+		PixelAccess pixels = new PixelAccess(img);
 		
+		int width = imgComposite.getWidth();
+		int[] red = new int[width];
+		int[] green = new int[width];
+		int[] blue = new int[width];
 		
-		for (int xx = 0; xx < imgComposite.getWidth(); xx++)
-			for (int yy = 0; yy < imgComposite.getHeight(); yy++)
+		for (int yy = 0; yy < imgComposite.getHeight(); yy++)
+		{
+			pixels.getBandRow(yy, BAND_R, red);
+			pixels.getBandRow(yy, BAND_G, green);
+			
+			for (int xx = 0; xx < width; xx++)
 			{
-				
-				int red = (int)Math.max(Math.min(raster.getSample(xx, yy, BAND_R) + brightness, PIXEL_SCALED_INT_MAX), PIXEL_SCALED_INT_MIN);
-				int green = (int)Math.max(Math.min(raster.getSample(xx, yy, BAND_G) + brightness, PIXEL_SCALED_INT_MAX), PIXEL_SCALED_INT_MIN);
-				int blue = (red == PIXEL_SCALED_INT_MAX && green == PIXEL_SCALED_INT_MAX) ? PIXEL_SCALED_INT_MAX : PIXEL_SCALED_INT_MIN;
-				
-				
-				wrComposite.setSample(xx, yy, BAND_B, blue);
-				wrComposite.setSample(xx, yy, BAND_R, red);
-				wrComposite.setSample(xx, yy, BAND_G, green);
-						
+				red[xx] = (int)Math.max(Math.min(red[xx] + brightness, PIXEL_SCALED_INT_MAX), PIXEL_SCALED_INT_MIN);
+				green[xx] = (int)Math.max(Math.min(green[xx] + brightness, PIXEL_SCALED_INT_MAX), PIXEL_SCALED_INT_MIN);
+				blue[xx] = (red[xx] == PIXEL_SCALED_INT_MAX && green[xx] == PIXEL_SCALED_INT_MAX) ? PIXEL_SCALED_INT_MAX : PIXEL_SCALED_INT_MIN;
 			}
 			
-		imgComposite.setData(wrComposite);
+			PixelAccess.packRGB(red, green, blue, dataComposite, yy*width, width);
+		}
+		
 		//return (PlanarImage.wrapRenderedImage(imgComposite));
 		return (imgComposite);
 	}	
@@ -398,21 +380,32 @@ public class PlanarImageEdit
 	public static BufferedImage applyMask(BufferedImage img, byte[][] mask)
 	{
 		BufferedImage imgComposite = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
-		WritableRaster wrComposite = imgComposite.getRaster();
+		int[] dataComposite = PixelAccess.getPackedRGBData(imgComposite);
 		
-		Raster raster = img.getData();
+		PixelAccess pixels = new PixelAccess(img);
 		
+		int width = imgComposite.getWidth();
+		int[] red = new int[width];
+		int[] green = new int[width];
+		int[] blue = new int[width];
 		
-		for (int xx = 0; xx < imgComposite.getWidth(); xx++)
-			for (int yy = 0; yy < imgComposite.getHeight(); yy++)
+		for (int yy = 0; yy < imgComposite.getHeight(); yy++)
+		{
+			pixels.getBandRow(yy, BAND_R, red);
+			pixels.getBandRow(yy, BAND_G, green);
+			pixels.getBandRow(yy, BAND_B, blue);
+			
+			byte[] maskRow = mask[yy];
+			for (int xx = 0; xx < width; xx++)
 			{
-				
-				wrComposite.setSample(xx, yy, BAND_B, raster.getSample(xx, yy, BAND_B)*mask[yy][xx]);
-				wrComposite.setSample(xx, yy, BAND_R, raster.getSample(xx, yy, BAND_R)*mask[yy][xx]);
-				wrComposite.setSample(xx, yy, BAND_G, raster.getSample(xx, yy, BAND_G)*mask[yy][xx]);
+				red[xx] *= maskRow[xx];
+				green[xx] *= maskRow[xx];
+				blue[xx] *= maskRow[xx];
 			}
 			
-		imgComposite.setData(wrComposite);
+			PixelAccess.packRGB(red, green, blue, dataComposite, yy*width, width);
+		}
+		
 		//return (PlanarImage.wrapRenderedImage(imgComposite));
 		return (imgComposite);
 	}
@@ -445,9 +438,36 @@ public class PlanarImageEdit
 		//return (img);
 	}	
 
+	/**
+	* Applies a mask to a RGB image, where the entries outside of the mask are set to 0 intensity.
+	* 
+	* @param  img	The image which should be altered (in place)
+	* @param	mask	Mask to apply, e.g. a segmentation image (entries that are not 0 are kept)
+	*/
+	public static void applyMaskSide(BufferedImage img, FlatImage mask)
+	{
+		WritableRaster wrComposite = img.getRaster();
+		int[] row = new int[img.getWidth()];
+		
+		for (int yy = 0; yy < img.getHeight(); yy++)
+		{
+			mask.getRow(yy, row);
+			for (int xx = 0; xx < row.length; xx++)
+				if (row[xx] == 0)
+				{
+					wrComposite.setSample(xx, yy, BAND_B, 0);
+					wrComposite.setSample(xx, yy, BAND_R, 0);
+					wrComposite.setSample(xx, yy, BAND_G, 0);
+				}
+		}
+	}
+
 	/**
 	* Construct a reconstructed version of a BufferedImage where the 
 	* regions of interests are defined by a Vector of Rectangles.
+	* The regions are placed next to each other, from left to right, and
+	* their pixel rows are copied directly from the raster of the image into
+	* the new image (areas outside of the image are left black).
 	* 
 	* @param  img	The image which is to be cropped
 	* @param  dims	A Vector of Rectangles containing the regions to crop
@@ -455,31 +475,22 @@ public class PlanarImageEdit
 	*/
 	public static BufferedImage cropImages(BufferedImage img, Vector dims, double scale)
 	{
-		//BufferedImage imgCropped = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
-		//WritableRaster wrCropped = imgCropped.getRaster();	
-		//Raster raster = img.getData();
-		
-		
-		//first find out the height and width of the image to be reconstructed
+		System.err.println("Image is " + img.getWidth() + " x " + img.getHeight() + " ...");
+
+		//first find out the height and width of the image to be reconstructed,
+		//and the part of the image that ends up in each slot
 		int imgHeight = -1, imgWidth = 0;
 		Rectangle rect;
+		Rectangle[] srcRects = new Rectangle[dims.size()];
+		int[] dstX = new int[dims.size()];
 		for (int i = 0; i < dims.size(); i++)
 		{
 			rect = (Rectangle)dims.get(i);
 			if (rect.getHeight() > imgHeight)
 				imgHeight = (int)rect.getHeight();
+			dstX[i] = imgWidth;
 			imgWidth += (int)rect.getWidth();
-		}
-		
-		System.err.println("Image is " + img.getWidth() + " x " + img.getHeight() + " ...");
-
-		//now we try to merge to images into one single image
-		BufferedImage newImage = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
-		Graphics g2d = newImage.getGraphics();
-		int currX = 0;
-		for (int i = 0; i < dims.size(); i++)
-		{
-			rect = (Rectangle)dims.get(i);
+			
 			int minX = (int)Math.max( rect.getLocation().getX(), 0	);
 			int maxX = (int)Math.min(rect.getLocation().getX()+rect.getWidth(), img.getWidth()/scale-1 );
 			int minY = (int)Math.max(rect.getLocation().getY(), 0);
@@ -487,24 +498,46 @@ public class PlanarImageEdit
 			
 			System.err.println("Cropping image from (" + minX + "," + minY + ") to (" + maxX + "," + maxY + ")");
 			
-			PlanarImage pi = PlanarImageEdit.crop(img, minX, minY, maxX-minX, maxY-minY);
-			pi = PlanarImageEdit.translate(pi, -pi.getMinX(), -pi.getMinY());
-			
-			BufferedImage biCurr = new BufferedImage( (int)rect.getWidth(), (int)rect.getHeight(), BufferedImage.TYPE_INT_RGB);
-			//BufferedImage bufferedImage = new BufferedImage(croppedImage.getWidth(), croppedImage.getHeight(), BufferedImage.TYPE_USHORT_GRAY);
-
-			
-			biCurr.setData(pi.copyData());
-			//JAI.create("filestore", biCurr, "Test_image" + i + ".tif", "TIFF", null);
-			
-			g2d.drawImage(biCurr, currX, 0, Color.BLACK, null);
-			
-			currX += rect.getWidth();
-			
+			//the copied part can be no larger than the slot, nor extend beyond the image
+			srcRects[i] = new Rectangle(minX, minY,
+				Math.min( Math.min(maxX-minX, (int)rect.getWidth()), img.getWidth()-minX ),
+				Math.min( Math.min(maxY-minY, (int)rect.getHeight()), img.getHeight()-minY ) );
 		}
+		
+		//now we try to merge to images into one single image
+		BufferedImage newImage = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
+		int[] dataNew = PixelAccess.getPackedRGBData(newImage);
+		int[] dataSrc = PixelAccess.getPackedRGBData(img);
+		
+		PixelAccess pixels = new PixelAccess(img);
+		int lastBand = pixels.getNumBands()-1;
+		int[] red = new int[img.getWidth()];
+		int[] green = new int[img.getWidth()];
+		int[] blue = new int[img.getWidth()];
+		
+		for (int i = 0; i < srcRects.length; i++)
+		{
+			Rectangle src = srcRects[i];
+			if (src.width <= 0 || src.height <= 0)
+				continue;
 			
+			for (int y = 0; y < src.height; y++)
+			{
+				int dstOff = y*imgWidth + dstX[i];
+				
+				if (dataSrc != null)
+				{
+					System.arraycopy(dataSrc, (src.y+y)*img.getWidth() + src.x, dataNew, dstOff, src.width);
+				} else
+				{
+					pixels.getBandRow(src.y+y, src.x, src.width, Math.min(BAND_R, lastBand), red);
+					pixels.getBandRow(src.y+y, src.x, src.width, Math.min(BAND_G, lastBand), green);
+					pixels.getBandRow(src.y+y, src.x, src.width, Math.min(BAND_B, lastBand), blue);
+					PixelAccess.packRGB(red, green, blue, dataNew, dstOff, src.width);
+				}
+			}
+		}
 		
-		//return (PlanarImage.wrapRenderedImage(imgComposite));
 		return (newImage);
 	}	
 
@@ -521,22 +554,34 @@ public class PlanarImageEdit
 	public static BufferedImage emphasizeChannel(BufferedImage img, int channel, double threshold, JProgressBar pb)
 	{
 		BufferedImage imgComposite = new BufferedImage(img.getWidth(), img.getHeight(), BufferedImage.TYPE_INT_RGB);
-		WritableRaster wrComposite = imgComposite.getRaster();
+		int[] dataComposite = PixelAccess.getPackedRGBData(imgComposite);
 		
-		Raster raster = img.getData();
+		PixelAccess pixels = new PixelAccess(img);
 		
+		int width = imgComposite.getWidth();
+		int height = imgComposite.getHeight();
 		int colors = imgComposite.getColorModel().getNumColorComponents();
 		
-		for (int xx = 0; xx < imgComposite.getWidth(); xx++)
+		int[][] bandRows = new int[colors][width];
+		int[] white = new int[width];
+		int[] black = new int[width];
+		java.util.Arrays.fill(white, PIXEL_SCALED_INT_MAX);
+		
+		int[][] outRows = new int[colors][];
+		
+		for (int yy = 0; yy < height; yy++)
 		{
-			for (int yy = 0; yy < imgComposite.getHeight(); yy++)
+			for (int i = 0; i < colors; i++)
+				pixels.getBandRow(yy, i, bandRows[i]);
+			
+			for (int xx = 0; xx < width; xx++)
 			{
 				int currCol = 0;
 				int otherCol = 0;
 				
 				for (int i = 0; i < colors; i++)
 				{
-					int col = raster.getSample(xx, yy, i);
+					int col = bandRows[i][xx];
 					
 					if (i != channel)
 					{
@@ -546,86 +591,186 @@ public class PlanarImageEdit
 					} else
 						currCol = col;
 				}
-						
-								
-				
-				
 				
 				//generate a "white" pixel if the current color
-				//is below threshold
+				//is below threshold, otherwise keep the current color only
 				if ( (double)currCol/(double)otherCol < threshold)
 				{
 					for (int i = 0; i < colors; i++)
-						wrComposite.setSample(xx, yy, i, PIXEL_SCALED_INT_MAX);
+						bandRows[i][xx] = PIXEL_SCALED_INT_MAX;
 				} else
 				{
 					for (int i = 0; i < colors; i++)
-					{
-						if (i != channel)
-							wrComposite.setSample(xx, yy, i, PIXEL_SCALED_INT_MIN);
-						else
-							wrComposite.setSample(xx, yy, i, currCol);
-					}
+						bandRows[i][xx] = (i != channel) ? PIXEL_SCALED_INT_MIN : currCol;
 				}
-						
-						
 			}
-		
+			
+			PixelAccess.packRGB(bandRows[BAND_R], bandRows[BAND_G], bandRows[BAND_B], dataComposite, yy*width, width);
+			
 			if (pb != null)
-				pb.setValue( (int) ( 100 * ( (double) xx / (double)(imgComposite.getWidth()-1) ) ) );
+				pb.setValue( (int) ( 100 * ( (double) yy / (double)(height-1) ) ) );
 		}
-			
-		imgComposite.setData(wrComposite);
+		
 		//return (PlanarImage.wrapRenderedImage(imgComposite));
 		return (imgComposite);
 	}	
 
+	/**
+	* Suggests a crop rectangle around the areas of an image that are dominated by one channel,
+	* i.e. where the other channels are zero and the channel is at least 'intensityThreshold'.
+	* Windows of width x height pixels are moved over the image at half-window steps, with a
+	* last window against the right and bottom edges, and are accepted if a large enough
+	* fraction of their pixels qualify.
+	* 
+	* @param	img	The image
+	* @param	channel	The channel (band) of interest
+	* @param	width	Window width
+	* @param	height	Window height
+	* @param	intensityThreshold	Minimum intensity of the channel of interest
+	* @param	occuranceThreshold	Fraction of qualifying pixels needed to accept a window
+	* @param	pb	Progress bar (or null)
+	* @return	The suggested rectangle
+	*/
 	public static Rectangle suggestCropRect(BufferedImage img, int channel, int width, int height, int intensityThreshold, double occuranceThreshold, JProgressBar pb)
 	{
-		Raster raster = img.getData();
+		PixelAccess pixels = new PixelAccess(img);
+		
+		int imgWidth = img.getWidth();
+		int imgHeight = img.getHeight();
+		int colors = img.getColorModel().getNumColorComponents();
+		
+		int[][] satRows = new int[imgHeight+1][];
+		boolean[] neededRows = findCropWindowRows(imgHeight, height);
+		int[] satCurr = new int[imgWidth+1];
+		int[] samples = new int[imgWidth];
+		int[] currCol = new int[imgWidth];
+		int[] otherCol = new int[imgWidth];
+		byte[] maskRow = new byte[imgWidth];
+		
+		for (int y = 0; y < imgHeight; y++)
+		{
+			if (neededRows[y])
+				satRows[y] = (int[])satCurr.clone();
+			
+			java.util.Arrays.fill(otherCol, 0);
+			for (int i = 0; i < colors; i++)
+			{
+				pixels.getBandRow(y, i, samples);
+				if (i == channel)
+					System.arraycopy(samples, 0, currCol, 0, imgWidth);
+				else
+					for (int x = 0; x < imgWidth; x++)
+						otherCol[x] = Math.max(otherCol[x], samples[x]);
+			}
+			
+			for (int x = 0; x < imgWidth; x++)
+				maskRow[x] = (byte)( (otherCol[x] == 0 && currCol[x] >= intensityThreshold) ? 1 : 0 );
+			
+			accumulateSummedAreaRow(satCurr, maskRow);
+		}
+		satRows[imgHeight] = satCurr;
+		
+		return suggestCropRect(satRows, imgWidth, imgHeight, width, height, occuranceThreshold, pb);
+	}
+	
+	/**
+	* Suggests a crop rectangle around the dark areas of one band of an image (e.g. leaves on
+	* a paper background), see suggestCropRect(BufferedImage, ...). Pixels qualify if their
+	* value is at most 'intensityThreshold'.
+	* 
+	* @param	raster	The image raster
+	* @param	band	The band to use (e.g. BAND_B)
+	* @param	width	Window width
+	* @param	height	Window height
+	* @param	intensityThreshold	Maximum intensity of a qualifying pixel
+	* @param	occuranceThreshold	Fraction of qualifying pixels needed to accept a window
+	* @param	pb	Progress bar (or null)
+	* @return	The suggested rectangle
+	*/
+	public static Rectangle suggestCropRect(Raster raster, int band, int width, int height, int intensityThreshold, double occuranceThreshold, JProgressBar pb)
+	{
+		int imgWidth = raster.getWidth();
+		int imgHeight = raster.getHeight();
+		
+		int[][] satRows = new int[imgHeight+1][];
+		boolean[] neededRows = findCropWindowRows(imgHeight, height);
+		int[] satCurr = new int[imgWidth+1];
+		PixelAccess pixels = new PixelAccess(raster);
+		int[] samples = new int[imgWidth];
+		byte[] maskRow = new byte[imgWidth];
+		
+		for (int y = 0; y < imgHeight; y++)
+		{
+			if (neededRows[y])
+				satRows[y] = (int[])satCurr.clone();
+			
+			pixels.getBandRow(y, band, samples);
+			for (int x = 0; x < imgWidth; x++)
+				maskRow[x] = (byte)( (samples[x] <= intensityThreshold) ? 1 : 0 );
+			
+			accumulateSummedAreaRow(satCurr, maskRow);
+		}
+		satRows[imgHeight] = satCurr;
 		
-		//Rectangle rect = new Rectangle(0, 0, img.getWidth(), img.getHeight());
-		Point pointUpperLeft = new Point(img.getWidth(), img.getHeight());
+		return suggestCropRect(satRows, imgWidth, imgHeight, width, height, occuranceThreshold, pb);
+	}
+	
+	/**
+	* Calculates the histogram of one band of a raster
+	* 
+	* @param	raster	The image raster
+	* @param	band	The band to use
+	* @return	A long[256] with the number of pixels for each intensity
+	*/
+	public static long[] calcBandHistogram(Raster raster, int band)
+	{
+		long[] hist = new long[256];
+		PixelAccess pixels = new PixelAccess(raster);
+		int[] samples = new int[raster.getWidth()];
+		for (int y = 0; y < raster.getHeight(); y++)
+		{
+			pixels.getBandRow(y, band, samples);
+			for (int x = 0; x < samples.length; x++)
+				hist[ Math.min( Math.max(samples[x], 0), 255) ]++;
+		}
+		return hist;
+	}
+	
+	/**
+	* Evaluates the crop windows on a summed-area table of qualifying pixels, so that
+	* each window is counted in constant time.
+	* 
+	* @param	satRows	Rows of the summed-area table (satRows[y][x] = number of qualifying
+	*			pixels above row y and left of column x); only the rows at window borders are needed
+	* @param	imgWidth	Image width
+	* @param	imgHeight	Image height
+	* @param	width	Window width
+	* @param	height	Window height
+	* @param	occuranceThreshold	Fraction of qualifying pixels needed to accept a window
+	* @param	pb	Progress bar (or null)
+	* @return	The suggested rectangle
+	*/
+	protected static Rectangle suggestCropRect(int[][] satRows, int imgWidth, int imgHeight, int width, int height, double occuranceThreshold, JProgressBar pb)
+	{
+		Point pointUpperLeft = new Point(imgWidth, imgHeight);
 		Point pointLowerRight = new Point(0, 0);
 		
-		int colors = img.getColorModel().getNumColorComponents();
+		//windows are never larger than the image
+		width = Math.min(width, imgWidth);
+		height = Math.min(height, imgHeight);
 		
 		//calculate num. of pixels that should fulfill the criterion
 		int numAccept = (int)Math.ceil(width*height*occuranceThreshold);
+		int[] windowsX = findCropWindowPositions(imgWidth, width);
+		int[] windowsY = findCropWindowPositions(imgHeight, height);
 		
-		//System.err.println("Number that must be accepted: " + numAccept);
-		
-		for (int x = 0; x < ( img.getWidth() - width); x+=width/2)
+		for (int i = 0; i < windowsX.length; i++)
 		{
-			for (int y = 0; y < ( img.getHeight() - height); y+=height/2)
+			int x = windowsX[i];
+			for (int j = 0; j < windowsY.length; j++)
 			{
-		
-				int numOcc = 0;
-				
-				for (int xx = 0; xx < width; xx++)
-					for (int yy = 0; yy < height; yy++)
-					{
-						int currCol = 0;
-						int otherCol = 0;
-				
-						for (int i = 0; i < colors; i++)
-						{
-							int col = raster.getSample(x+xx, y+yy, i);
-					
-							if (i != channel)
-							{
-								//get the maximum of the other colors
-								if (col > otherCol)
-									otherCol = col;
-							} else
-								currCol = col;
-						}
-						
-					
-						//if ( otherCol == 0 || (double)currCol/(double)otherCol > intensityThreshold )
-						if ( otherCol == 0 && currCol >= intensityThreshold )
-							numOcc++;
-					}
+				int y = windowsY[j];
+				int numOcc = satRows[y+height][x+width] - satRows[y][x+width] - satRows[y+height][x] + satRows[y][x];
 			
 				if (numOcc >= numAccept)
 				{
@@ -638,28 +783,76 @@ public class PlanarImageEdit
 						pointLowerRight.setLocation(x + width, pointLowerRight.getY() );
 					if ( (y + height) > pointLowerRight.getY() )
 						pointLowerRight.setLocation(pointLowerRight.getX(), y + height);
-					
-					//System.err.println("Accepted rectangle found at ("  + x + "," + y + ") with " + numOcc + " pixels accepted");
 				}
 			}
 
 			if (pb != null)
-				pb.setValue( (int) ( 100 * ( (double) x / (double)(img.getWidth()-1) ) ) );
+				pb.setValue( (int) ( 100 * ( (double) x / (double)(imgWidth-1) ) ) );
 			
 		}
 		
-		//set a outer rectangle with some slack
-		Rectangle rect = new Rectangle( (int)Math.max( pointUpperLeft.getX() - width, 0),
-			(int)Math.max(pointUpperLeft.getY() - height, 0),
-			(int)Math.min(pointLowerRight.getX() - pointUpperLeft.getX() + width*2,
-				img.getWidth() - pointUpperLeft.getX() - width),
-			(int)Math.min(pointLowerRight.getY() - pointUpperLeft.getY() + height*2,
-				img.getHeight() - pointUpperLeft.getY() - height));
+		if (pointLowerRight.x <= pointUpperLeft.x || pointLowerRight.y <= pointUpperLeft.y)
+			return new Rectangle(0, 0, 0, 0);
+		
+		//set a outer rectangle with some slack, clamped to the image
+		int x0 = Math.max(pointUpperLeft.x - width, 0);
+		int y0 = Math.max(pointUpperLeft.y - height, 0);
+		int x1 = Math.min(pointLowerRight.x + width, imgWidth);
+		int y1 = Math.min(pointLowerRight.y + height, imgHeight);
+		Rectangle rect = new Rectangle(x0, y0, x1 - x0, y1 - y0);
 						
 
 
 		return rect;
 	}
+	
+	/**
+	* Marks the rows where crop windows start or end, i.e. the only rows of the
+	* summed-area table that have to be kept.
+	*/
+	private static boolean[] findCropWindowRows(int imgHeight, int height)
+	{
+		boolean[] neededRows = new boolean[imgHeight+1];
+		height = Math.min(height, imgHeight);
+		int[] windowsY = findCropWindowPositions(imgHeight, height);
+		for (int j = 0; j < windowsY.length; j++)
+		{
+			neededRows[ windowsY[j] ] = true;
+			neededRows[ windowsY[j]+height ] = true;
+		}
+		return neededRows;
+	}
+	
+	/**
+	* The start positions of the crop windows along one side of the image: every half
+	* window, plus a last window that ends on the image edge.
+	*/
+	private static int[] findCropWindowPositions(int imgSize, int size)
+	{
+		if (size <= 0 || imgSize <= 0)
+			return new int[0];
+		
+		int step = Math.max(size/2, 1);
+		int last = imgSize - size;
+		int[] positions = new int[ (last + step - 1)/step + 1 ];
+		for (int i = 0; i < positions.length-1; i++)
+			positions[i] = i*step;
+		positions[positions.length-1] = last;
+		return positions;
+	}
+	
+	/**
+	* Adds one row of a 0/1 mask to the running summed-area row
+	*/
+	private static void accumulateSummedAreaRow(int[] satCurr, byte[] maskRow)
+	{
+		int rowSum = 0;
+		for (int x = 0; x < maskRow.length; x++)
+		{
+			rowSum += maskRow[x];
+			satCurr[x+1] += rowSum;
+		}
+	}
 
 
 	/**
@@ -674,24 +867,34 @@ public class PlanarImageEdit
 	*/
 	public static void paintIntegerMatrix(int[][] seg, Color c, Graphics g2d)
 	{
-		int segWidth = seg[0].length;
-		int segHeight = seg.length;
-		
-		g2d.setColor( c );
-		
-		//paint
-		int id = -1;
-		for (int x = 0; x < segWidth; x++)
-			for (int y = 0; y < segHeight; y++)
-			{
-				id = seg[y][x];
-				if (id > 0)
-				{
-					
-					g2d.drawLine(x, y, x, y);
-				}
-			}
-
+		paintIntegerMatrix(seg, c, new OverlayPainter(g2d));
+	}
+	
+	/**
+	* Paints a constant color directly into an image wherever a int[][] matrix has
+	* elements > 0, one run of such elements at a time.
+	* 
+	* @param	seg	The integer matrix, typically defining segmented objects
+	* @param	c	Color to paint
+	* @param	img	The image (of the same size as seg)
+	*/
+	public static void paintIntegerMatrix(int[][] seg, Color c, BufferedImage img)
+	{
+		paintIntegerMatrix(seg, c, new OverlayPainter(img));
+	}
+	
+	/**
+	* Paints a constant color with an OverlayPainter wherever a int[][] matrix has
+	* elements > 0.
+	* 
+	* @param	seg	The integer matrix, typically defining segmented objects
+	* @param	c	Color to paint
+	* @param	painter	The painter (e.g. an OverlayLayer)
+	*/
+	public static void paintIntegerMatrix(int[][] seg, Color c, OverlayPainter painter)
+	{
+		painter.setColor(c);
+		painter.paintMatrix(seg);
 	}
 			
 	/**
@@ -705,19 +908,24 @@ public class PlanarImageEdit
 	*/
 	public static void paintIntegerMatrix(byte[][] seg, Color c, Graphics g2d)
 	{
-		int segWidth = seg[0].length;
-		int segHeight = seg.length;
-
-		g2d.setColor(c);
-		
-		//paint
-		for (int x = 0; x < segWidth; x++)
-			for (int y = 0; y < segHeight; y++)
-			{
-				if (seg[y][x] > 0)
-					g2d.drawLine(x, y, x, y);
-			}
-			
+		OverlayPainter painter = new OverlayPainter(g2d);
+		painter.setColor(c);
+		painter.paintMatrix(seg);
+	}
+	
+	/**
+	* Paints a constant color directly into an image wherever a byte[][] matrix has
+	* elements > 0, one run of such elements at a time.
+	* 
+	* @param	seg	The byte matrix, where values are either 0 or != 0
+	* @param	c	Color to paint
+	* @param	img	The image (of the same size as seg)
+	*/
+	public static void paintIntegerMatrix(byte[][] seg, Color c, BufferedImage img)
+	{
+		OverlayPainter painter = new OverlayPainter(img);
+		painter.setColor(c);
+		painter.paintMatrix(seg);
 	}
 	
 	/**
@@ -731,28 +939,33 @@ public class PlanarImageEdit
 	*/
 	public static void paintVector(Vector vec, Color c, Graphics g2d)
 	{
-		
-		g2d.setColor( c );
-		
-		//paint
+		paintVector(vec, c, new OverlayPainter(g2d));
+	}
+	
+	/**
+	* Paints a constant color directly into an image, at every Point of a Vector of Vector of Points
+	* 
+	* @param	vec	The Vector of Vector of Points
+	* @param	c	Color to paint
+	* @param	img	The image
+	*/
+	public static void paintVector(Vector vec, Color c, BufferedImage img)
+	{
+		paintVector(vec, c, new OverlayPainter(img));
+	}
+	
+	/**
+	* Paints a constant color with an OverlayPainter, at every Point of a Vector of Vector of Points
+	* 
+	* @param	vec	The Vector of Vector of Points
+	* @param	c	Color to paint
+	* @param	painter	The painter (e.g. an OverlayLayer)
+	*/
+	public static void paintVector(Vector vec, Color c, OverlayPainter painter)
+	{
+		painter.setColor(c);
 		for (int i = 0; i < vec.size(); i++)
-		{
-			
-			Vector vecCurr = (Vector)vec.get(i);
-			Point p1;
-			int x,y;
-			
-			for (int j = 0; j < vecCurr.size(); j++)
-			{
-				p1 = (Point)vecCurr.get(j);
-				x = (int)p1.getX();
-				y = (int)p1.getY();
-		
-		
-				g2d.drawLine(x, y, x, y);
-				
-			}
-		}
+			painter.paintPoints( (Vector)vec.get(i) );
 	}
 	
 		
@@ -0,0 +1,328 @@
+/* QuantileSketch.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * A compact, mergeable summary of a stream of values that
+ * can answer approximate quantile queries.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.util.Arrays;
+
+/**
+    * A KLL quantile sketch. Values are kept in a hierarchy of compactors where each
+    * retained value at level h stands for 2^h original values; when a level is full it
+    * is sorted and every other value is promoted to the next level. The memory use is
+    * O(k log(n/k)) and the rank error is roughly proportional to 1/k, independent of
+    * how many values have been added. Sketches of different parts of a batch can be
+    * merged into one.
+*/
+public class QuantileSketch
+{
+	public final static int DEFAULT_K = 200; //about 1% rank error
+	protected final static double CAPACITY_DECAY = 2.0/3.0; //lower levels get smaller capacities
+
+	protected int k;
+	protected double[][] levels;
+	protected int[] sizes;
+	protected int numLevels;
+	protected long count;
+	protected double minValue, maxValue;
+	protected boolean coin; //alternates which half of a compacted level is kept
+
+	/**
+	* Default constructor, uses DEFAULT_K
+	*/
+	public QuantileSketch()
+	{
+		this(DEFAULT_K);
+	}
+
+	/**
+	* Constructor
+	*
+	* @param	k	Accuracy parameter, the capacity of the top level
+	*/
+	public QuantileSketch(int k)
+	{
+		this.k = Math.max(k, 8);
+		levels = new double[4][];
+		sizes = new int[4];
+		numLevels = 0;
+		count = 0;
+		minValue = Double.NaN;
+		maxValue = Double.NaN;
+		coin = false;
+		addLevel();
+	}
+
+	/**
+	* Adds a value to the sketch (NaN values are ignored)
+	*
+	* @param	value	The value
+	*/
+	public void update(double value)
+	{
+		if (Double.isNaN(value))
+			return;
+
+		if (count == 0 || value < minValue)
+			minValue = value;
+		if (count == 0 || value > maxValue)
+			maxValue = value;
+		count++;
+
+		append(0, value);
+		while (getRetained() > getTotalCapacity())
+			compress();
+	}
+
+	/**
+	* Adds all values of another sketch to this one
+	*
+	* @param	other	The sketch to merge (not modified)
+	*/
+	public void merge(QuantileSketch other)
+	{
+		if (other == null || other.count == 0)
+			return;
+
+		for (int h = 0; h < other.numLevels; h++)
+		{
+			while (numLevels <= h)
+				addLevel();
+			for (int j = 0; j < other.sizes[h]; j++)
+				append(h, other.levels[h][j]);
+		}
+
+		if (count == 0 || other.minValue < minValue)
+			minValue = other.minValue;
+		if (count == 0 || other.maxValue > maxValue)
+			maxValue = other.maxValue;
+		count += other.count;
+
+		while (getRetained() > getTotalCapacity())
+			compress();
+	}
+
+	/**
+	* Estimates a quantile of all added values
+	*
+	* @param	q	Quantile ( >= 0 and <= 1 )
+	* @return	The (approximate) quantile, or NaN if the sketch is empty
+	*/
+	public double getQuantile(double q)
+	{
+		if (count == 0)
+			return Double.NaN;
+		if (q <= 0)
+			return minValue;
+		if (q >= 1)
+			return maxValue;
+
+		int retained = getRetained();
+		double[] values = new double[retained];
+		long[] weights = new long[retained];
+		sortedItems(values, weights);
+
+		long totWeight = 0;
+		for (int j = 0; j < retained; j++)
+			totWeight += weights[j];
+
+		double target = q*totWeight;
+		long cumWeight = 0;
+		for (int j = 0; j < retained; j++)
+		{
+			cumWeight += weights[j];
+			if (cumWeight >= target)
+				return values[j];
+		}
+		return maxValue;
+	}
+
+	/**
+	* Estimates the fraction of the added values that are smaller than or equal to a value
+	*
+	* @param	value	The value
+	* @return	The (approximate) normalized rank, or NaN if the sketch is empty
+	*/
+	public double getRank(double value)
+	{
+		if (count == 0)
+			return Double.NaN;
+
+		long below = 0, totWeight = 0;
+		for (int h = 0; h < numLevels; h++)
+		{
+			long weight = 1L << h;
+			for (int j = 0; j < sizes[h]; j++)
+			{
+				if (levels[h][j] <= value)
+					below += weight;
+				totWeight += weight;
+			}
+		}
+		return below/(double)totWeight;
+	}
+
+	/**
+	* @return	The number of values added to the sketch
+	*/
+	public long getCount()
+	{
+		return count;
+	}
+
+	/**
+	* @return	The smallest value added (exact)
+	*/
+	public double getMin()
+	{
+		return minValue;
+	}
+
+	/**
+	* @return	The largest value added (exact)
+	*/
+	public double getMax()
+	{
+		return maxValue;
+	}
+
+	/**
+	* @return	The number of values currently kept in memory
+	*/
+	public int getRetained()
+	{
+		int retained = 0;
+		for (int h = 0; h < numLevels; h++)
+			retained += sizes[h];
+		return retained;
+	}
+
+	protected int getCapacity(int h)
+	{
+		int depth = numLevels - 1 - h;
+		return (int)Math.max(2, Math.ceil( k*Math.pow(CAPACITY_DECAY, depth) ));
+	}
+
+	protected int getTotalCapacity()
+	{
+		int capacity = 0;
+		for (int h = 0; h < numLevels; h++)
+			capacity += getCapacity(h);
+		return capacity;
+	}
+
+	/**
+	* Halves the lowest level that is over its capacity, promoting every
+	* other (sorted) value to the level above.
+	*/
+	protected void compress()
+	{
+		for (int h = 0; h < numLevels; h++)
+		{
+			if (sizes[h] < getCapacity(h))
+				continue;
+
+			if (h == (numLevels-1))
+				addLevel();
+
+			double[] level = levels[h];
+			int size = sizes[h];
+			Arrays.sort(level, 0, size);
+
+			//with an odd number of values, the smallest one stays at this level
+			int start = size % 2;
+			int offset = coin ? 1 : 0;
+			coin = !coin;
+			for (int j = start + offset; j < size; j += 2)
+				append(h+1, level[j]);
+
+			sizes[h] = start;
+			return;
+		}
+	}
+
+	private void sortedItems(final double[] values, long[] weights)
+	{
+		int n = 0;
+		for (int h = 0; h < numLevels; h++)
+			for (int j = 0; j < sizes[h]; j++)
+			{
+				values[n] = levels[h][j];
+				weights[n] = 1L << h;
+				n++;
+			}
+
+		Integer[] order = new Integer[n];
+		for (int j = 0; j < n; j++)
+			order[j] = new Integer(j);
+		Arrays.sort(order, new java.util.Comparator()
+		{
+			public int compare(Object o1, Object o2)
+			{
+				double v1 = values[ ((Integer)o1).intValue() ];
+				double v2 = values[ ((Integer)o2).intValue() ];
+				return (v1 < v2) ? -1 : ((v1 > v2) ? 1 : 0);
+			}
+		});
+
+		double[] valuesCopy = (double[])values.clone();
+		long[] weightsCopy = (long[])weights.clone();
+		for (int j = 0; j < n; j++)
+		{
+			values[j] = valuesCopy[ order[j].intValue() ];
+			weights[j] = weightsCopy[ order[j].intValue() ];
+		}
+	}
+
+	private void append(int h, double value)
+	{
+		if (sizes[h] == levels[h].length)
+		{
+			double[] newLevel = new double[2*levels[h].length];
+			System.arraycopy(levels[h], 0, newLevel, 0, sizes[h]);
+			levels[h] = newLevel;
+		}
+		levels[h][sizes[h]++] = value;
+	}
+
+	private void addLevel()
+	{
+		if (numLevels == levels.length)
+		{
+			double[][] newLevels = new double[2*levels.length][];
+			int[] newSizes = new int[2*levels.length];
+			System.arraycopy(levels, 0, newLevels, 0, numLevels);
+			System.arraycopy(sizes, 0, newSizes, 0, numLevels);
+			levels = newLevels;
+			sizes = newSizes;
+		}
+		levels[numLevels] = new double[16];
+		sizes[numLevels] = 0;
+		numLevels++;
+	}
+}
@@ -0,0 +1,460 @@
+/* StripSegmenter.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Locates the objects of an image that is decoded and segmented
+ * one horizontal strip at a time.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Vector;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.media.jai.PlanarImage;
+
+/**
+    * Segments an image strip by strip, in the same way as the batch does for a whole
+    * image (threshold of one band, 3x3 median filter, connected objects), and keeps
+    * only the bounding box and pixel count of each object. Objects that cross the
+    * border between two strips are joined (union-find on the labels of the two rows
+    * that meet), so the result does not depend on the strip height. Only one strip
+    * (plus a row above and below it, for the median filter) is held in memory at a time.
+    * Unlike in the full segmentation, the pixels along the image border are background,
+    * so that objects touching the border are located like any other object.
+    * The file is opened once for all strips. Formats without an ImageIO reader (e.g. TIFF)
+    * are read through the tiles (or TIFF strips) of a JAI fileload op with getData, so each
+    * tile is decoded once and only the tiles of the current strip (and what the JAI tile
+    * cache keeps) are held. Tiled formats with an ImageIO reader are read by region.
+    * Formats that can only be decoded from the start (e.g. JPEG, PNG) are decoded up to
+    * the end of each strip again; for them the strips are made high enough that there
+    * are at most MAX_SEQUENTIAL_STRIPS, which bounds the decoding to a few passes over
+    * the file at the cost of holding a larger strip.
+*/
+public class StripSegmenter
+{
+	public final static int DEFAULT_STRIP_HEIGHT = 1024;
+	public final static int MAX_SEQUENTIAL_STRIPS = 8;
+
+	protected String fileName;
+	protected int width, height;
+	protected int band;
+	protected int stripHeight;
+
+	// the open file, while segment runs: either a fileload op or an ImageIO reader.
+	// The fileload op is the one of the current load of the thread (see ImageLoader.close)
+	protected PlanarImage tiled;
+	protected ImageReader reader;
+	protected ImageInputStream stream;
+
+	// per object id (across all strips), merged into the root ids of the union-find
+	protected int[] parent;
+	protected int[] minX, minY, maxX, maxY;
+	protected long[] area;
+	protected int numIds;
+
+	// the objects after stitching
+	protected Rectangle[] bounds;
+	protected long[] objArea;
+
+	/**
+	* Constructor, reads the size of the image
+	*
+	* @param	fileName	The image file
+	* @param	band	The band to threshold (e.g. PlanarImageEdit.BAND_B)
+	* @param	stripHeight	Number of rows decoded at a time
+	*/
+	public StripSegmenter(String fileName, int band, int stripHeight) throws IOException
+	{
+		this.fileName = fileName;
+		this.band = band;
+		this.stripHeight = Math.max(stripHeight, 1);
+
+		Dimension dim = ImageLoader.readDimension(fileName);
+		width = dim.width;
+		height = dim.height;
+	}
+
+	public int getWidth()
+	{
+		return width;
+	}
+
+	public int getHeight()
+	{
+		return height;
+	}
+
+	/**
+	* Segments the image. Pixels with a band value <= thresh are object pixels
+	* (see GrayscaleImageEdit.thresholdImage).
+	*
+	* @param	thresh	The threshold
+	* @param	use8	if true, 8-connectivity will be used, otherwise 4-connectivity
+	*/
+	public void segment(int thresh, boolean use8) throws IOException
+	{
+		parent = new int[256];
+		minX = new int[256];
+		minY = new int[256];
+		maxX = new int[256];
+		maxY = new int[256];
+		area = new long[256];
+		numIds = 0;
+
+		int[] row = new int[width];
+		int[] prevIds = null; // ids of the last row of the previous strip (-1 for background)
+		FlatImage labels = null;
+
+		int readHeight = open();
+		try
+		{
+			for (int y0 = 0; y0 < height; y0 += readHeight)
+			{
+				int y1 = Math.min(y0 + readHeight, height);
+				int top = Math.max(y0 - 1, 0);
+				int bottom = Math.min(y1 + 1, height);
+				int numRows = bottom - top;
+
+				PixelAccess pixels = new PixelAccess( readStrip(top, numRows) );
+				FlatImage thresholded = new FlatImage(width, numRows, FlatImage.TYPE_BYTE);
+				for (int y = 0; y < numRows; y++)
+					PixelKernels.threshold(pixels.getBandRow(y, band, row), 0, thresholded.getByteData(), y*width, width, thresh);
+				pixels = null;
+
+				FlatImage filtered = new FlatImage(width, numRows, FlatImage.TYPE_BYTE);
+				GrayscaleImageEdit.medianFilter(thresholded, filtered, 3, 3);
+				thresholded = null;
+
+				//only rows y0..y1-1 belong to this strip, and the image border is background
+				byte[] data = filtered.getByteData();
+				int first = y0 - top;
+				int last = first + (y1 - y0) - 1;
+				Arrays.fill(data, 0, (first + (y0 == 0 ? 1 : 0))*width, (byte)0);
+				Arrays.fill(data, (last + 1 - (y1 == height ? 1 : 0))*width, numRows*width, (byte)0);
+				for (int y = 0; y < numRows; y++)
+				{
+					data[y*width] = 0;
+					data[y*width + width-1] = 0;
+				}
+
+				if (labels == null || labels.getHeight() != numRows)
+					labels = new FlatImage(width, numRows, FlatImage.TYPE_BYTE);
+				labels = GrayscaleImageEdit.segmentBinaryImage(filtered, use8, labels);
+				filtered = null;
+
+				int base = numIds;
+				for (int y = first; y <= last; y++)
+					for (int x = 0; x < width; x++)
+					{
+						int label = labels.get(x, y);
+						if (label != 0)
+							addPixel(base + label - 1, x, top + y);
+					}
+
+				//join the objects that continue from the previous strip
+				if (prevIds != null)
+					for (int x = 0; x < width; x++)
+					{
+						int label = labels.get(x, first);
+						if (label == 0)
+							continue;
+
+						for (int xx = (use8 ? Math.max(x-1, 0) : x); xx <= (use8 ? Math.min(x+1, width-1) : x); xx++)
+							if (prevIds[xx] >= 0)
+								union(prevIds[xx], base + label - 1);
+					}
+
+				if (prevIds == null)
+					prevIds = new int[width];
+				for (int x = 0; x < width; x++)
+				{
+					int label = labels.get(x, last);
+					prevIds[x] = (label != 0) ? base + label - 1 : -1;
+				}
+			}
+		} finally
+		{
+			close();
+		}
+
+		collectObjects();
+	}
+
+	/**
+	* @return	The number of objects found by segment
+	*/
+	public int getNumObjects()
+	{
+		return bounds.length;
+	}
+
+	/**
+	* @param	i	Object index
+	* @return	The bounding box of the object
+	*/
+	public Rectangle getBounds(int i)
+	{
+		return bounds[i];
+	}
+
+	/**
+	* @param	i	Object index
+	* @return	The number of pixels of the object
+	*/
+	public long getArea(int i)
+	{
+		return objArea[i];
+	}
+
+	/**
+	* Finds the boxes to analyse the objects that are large and dense enough in. The limits
+	* are those of GrayscaleImageEdit.filterObjects, except that the density is taken
+	* relative to the bounding box, which is never larger than the box spanned by the
+	* extreme points; an object is thereby kept here whenever filterObjects would keep it.
+	* Each kept object gets its bounding box plus a margin; boxes that overlap are merged
+	* until none do, so every kept object lies whole in exactly one box and no part of it
+	* shows up in another.
+	*
+	* @param	minObjSizeRel	Minimum object area, relative to the image area
+	* @param	minObjDensRel	Minimum object density
+	* @param	margin	Background kept around each object, in pixels
+	* @return	The boxes, top to bottom, or an empty array if no object is kept
+	*/
+	public Rectangle[] getObjectBoxes(double minObjSizeRel, double minObjDensRel, int margin)
+	{
+		double imageArea = (double)width*height;
+		Rectangle rectImage = new Rectangle(0, 0, width, height);
+		Vector vecBoxes = new Vector();
+		for (int i = 0; i < bounds.length; i++)
+		{
+			double dens = objArea[i]/( (double)bounds[i].width*bounds[i].height );
+			if (dens < minObjDensRel || objArea[i]/imageArea < minObjSizeRel)
+				continue;
+
+			Rectangle box = new Rectangle(bounds[i].x - margin, bounds[i].y - margin,
+				bounds[i].width + 2*margin, bounds[i].height + 2*margin).intersection(rectImage);
+
+			//merge with every box it overlaps, and the result again, until it overlaps none
+			boolean merged = true;
+			while (merged)
+			{
+				merged = false;
+				for (int j = 0; j < vecBoxes.size(); j++)
+				{
+					Rectangle other = (Rectangle)vecBoxes.get(j);
+					if (other.intersects(box))
+					{
+						box = box.union(other);
+						vecBoxes.remove(j);
+						merged = true;
+						break;
+					}
+				}
+			}
+			vecBoxes.add(box);
+		}
+
+		Rectangle[] boxes = (Rectangle[])vecBoxes.toArray( new Rectangle[vecBoxes.size()] );
+		Arrays.sort(boxes, new Comparator()
+		{
+			public int compare(Object o1, Object o2)
+			{
+				Rectangle r1 = (Rectangle)o1;
+				Rectangle r2 = (Rectangle)o2;
+				return (r1.y != r2.y) ? r1.y - r2.y : r1.x - r2.x;
+			}
+		});
+		return boxes;
+	}
+
+	/**
+	* Opens the file for reading strips
+	*
+	* @return	The number of rows to read at a time
+	*/
+	private int open() throws IOException
+	{
+		stream = ImageIO.createImageInputStream( new File(fileName) );
+		reader = ImageLoader.getReader(stream);
+		if (reader == null)
+		{
+			if (stream != null)
+				stream.close();
+			stream = null;
+			tiled = ImageLoader.openPlanar(fileName);
+			return stripHeight;
+		}
+
+		if (reader.isImageTiled(0))
+			return stripHeight;
+
+		//every strip is decoded from the start of the file
+		return Math.max(stripHeight, (height + MAX_SEQUENTIAL_STRIPS - 1)/MAX_SEQUENTIAL_STRIPS);
+	}
+
+	/**
+	* Decodes full rows of the image
+	*
+	* @param	top	The first row
+	* @param	numRows	Number of rows
+	* @return	The rows, as a raster whose first row is top
+	*/
+	private Raster readStrip(int top, int numRows) throws IOException
+	{
+		Rectangle rect = new Rectangle(0, top, width, numRows);
+		if (tiled != null)
+			return tiled.getData(rect);
+
+		ImageReadParam param = reader.getDefaultReadParam();
+		param.setSourceRegion(rect);
+		return reader.read(0, param).getRaster();
+	}
+
+	private void close() throws IOException
+	{
+		tiled = null;
+		if (reader != null)
+		{
+			reader.dispose();
+			reader = null;
+		}
+		if (stream != null)
+		{
+			stream.close();
+			stream = null;
+		}
+	}
+
+	private void addPixel(int id, int x, int y)
+	{
+		if (id >= numIds)
+		{
+			ensureCapacity(id + 1);
+			for (int i = numIds; i <= id; i++)
+			{
+				parent[i] = i;
+				minX[i] = Integer.MAX_VALUE;
+				minY[i] = Integer.MAX_VALUE;
+				maxX[i] = -1;
+				maxY[i] = -1;
+				area[i] = 0;
+			}
+			numIds = id + 1;
+		}
+
+		if (x < minX[id])
+			minX[id] = x;
+		if (x > maxX[id])
+			maxX[id] = x;
+		if (y < minY[id])
+			minY[id] = y;
+		if (y > maxY[id])
+			maxY[id] = y;
+		area[id]++;
+	}
+
+	private int find(int id)
+	{
+		while (parent[id] != id)
+		{
+			parent[id] = parent[parent[id]];
+			id = parent[id];
+		}
+		return id;
+	}
+
+	private void union(int a, int b)
+	{
+		a = find(a);
+		b = find(b);
+		if (a != b)
+			parent[Math.max(a, b)] = Math.min(a, b);
+	}
+
+	private void collectObjects()
+	{
+		//merge every id into its root, in increasing order so that roots come first
+		int numObjects = 0;
+		for (int id = 0; id < numIds; id++)
+		{
+			int root = find(id);
+			if (root == id)
+			{
+				numObjects++;
+				continue;
+			}
+
+			minX[root] = Math.min(minX[root], minX[id]);
+			minY[root] = Math.min(minY[root], minY[id]);
+			maxX[root] = Math.max(maxX[root], maxX[id]);
+			maxY[root] = Math.max(maxY[root], maxY[id]);
+			area[root] += area[id];
+		}
+
+		bounds = new Rectangle[numObjects];
+		objArea = new long[numObjects];
+		int i = 0;
+		for (int id = 0; id < numIds; id++)
+			if (parent[id] == id)
+			{
+				bounds[i] = new Rectangle(minX[id], minY[id], maxX[id]-minX[id]+1, maxY[id]-minY[id]+1);
+				objArea[i] = area[id];
+				i++;
+			}
+	}
+
+	private void ensureCapacity(int size)
+	{
+		if (size <= parent.length)
+			return;
+
+		int newSize = Math.max(parent.length*2, size);
+		parent = grow(parent, newSize);
+		minX = grow(minX, newSize);
+		minY = grow(minY, newSize);
+		maxX = grow(maxX, newSize);
+		maxY = grow(maxY, newSize);
+
+		long[] newArea = new long[newSize];
+		System.arraycopy(area, 0, newArea, 0, numIds);
+		area = newArea;
+	}
+
+	private int[] grow(int[] arr, int newSize)
+	{
+		int[] newArr = new int[newSize];
+		System.arraycopy(arr, 0, newArr, 0, numIds);
+		return newArr;
+	}
+}
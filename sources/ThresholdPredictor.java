@@ -0,0 +1,148 @@
+/* ThresholdPredictor.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Keeps a running estimate of the segmentation threshold over a batch
+ * of images, used to warm-start the threshold search.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+/**
+    * Predicts the threshold of the next image in a batch from the thresholds selected
+    * for the previous ones, using exponentially weighted averages of the threshold and
+    * of its deviation. Images scanned with the same equipment and background tend to
+    * end up with nearly the same threshold, so the search can start at the prediction
+    * and only explore a narrow window around it.
+*/
+public class ThresholdPredictor
+{
+	public final static double ALPHA = 0.3; //weight of the most recent threshold
+	public final static int MIN_WINDOW_STEPS = 2; //so that a drift of a step or two does not need a full search
+	public final static int MAX_WINDOW_STEPS = 3; //the search window never exceeds this many steps on either side
+
+	protected double estimate;
+	protected double deviation;
+	protected int numObservations;
+	protected int numAccepted;
+	protected int numRejected;
+
+	/**
+	* Default constructor.
+	*/
+	public ThresholdPredictor()
+	{
+		reset();
+	}
+
+	/**
+	* Forgets all previous thresholds
+	*/
+	public void reset()
+	{
+		estimate = 0.0;
+		deviation = 0.0;
+		numObservations = 0;
+		numAccepted = 0;
+		numRejected = 0;
+	}
+
+	/**
+	* Adds the threshold that was finally used for an image
+	*
+	* @param	thresh	The threshold
+	*/
+	public void update(int thresh)
+	{
+		if (numObservations == 0)
+		{
+			estimate = thresh;
+			deviation = 0.0;
+		} else
+		{
+			deviation = (1-ALPHA)*deviation + ALPHA*Math.abs(thresh - estimate);
+			estimate = (1-ALPHA)*estimate + ALPHA*thresh;
+		}
+
+		numObservations++;
+	}
+
+	/**
+	* @return	True if at least one threshold has been observed
+	*/
+	public boolean hasPrediction()
+	{
+		return (numObservations > 0);
+	}
+
+	/**
+	* @return	The predicted threshold for the next image
+	*/
+	public int getPrediction()
+	{
+		return (int)Math.round(estimate);
+	}
+
+	/**
+	* Calculates how many steps on either side of the prediction are worth exploring,
+	* based on how much the threshold has varied so far.
+	*
+	* @param	deltaThresh	The step length used for the threshold
+	* @return	The number of steps (between MIN_WINDOW_STEPS and MAX_WINDOW_STEPS)
+	*/
+	public int getWindowSteps(int deltaThresh)
+	{
+		int steps = (int)Math.ceil( 2*deviation/Math.max(deltaThresh, 1) );
+
+		if (steps < MIN_WINDOW_STEPS)
+			steps = MIN_WINDOW_STEPS;
+		else if (steps > MAX_WINDOW_STEPS)
+			steps = MAX_WINDOW_STEPS;
+
+		return steps;
+	}
+
+	/**
+	* Keeps track of whether the prediction was used or a full search was needed
+	*
+	* @param	accepted	True if the warm-started search was accepted
+	*/
+	public void countOutcome(boolean accepted)
+	{
+		if (accepted)
+			numAccepted++;
+		else
+			numRejected++;
+	}
+
+	public int getNumAccepted()
+	{
+		return numAccepted;
+	}
+
+	public int getNumRejected()
+	{
+		return numRejected;
+	}
+}
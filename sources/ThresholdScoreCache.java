@@ -0,0 +1,248 @@
+/* ThresholdScoreCache.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * A per-image cache of threshold scores, shared between the
+ * different threshold searches.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+/**
+    * Memoises the raw statistics (mean windowed stddev and minority pixel fraction) of
+    * thresholded versions of one image, so that every threshold is evaluated at most
+    * once, regardless of which search (or how many searches) asks for it.
+    * Optionally keeps a copy of the unthresholded band, so that a second search can
+    * start over without re-reading the image raster. The copy is a FlatImage, which
+    * normally holds the 8-bit band in a single byte array.
+    * A cache can also be handed the band and a working image as FlatImages, which may
+    * be kept outside of the Java heap for very large scans (see FlatImage). Thresholds
+    * are then scored on these alone, and the searches are called without matrices.
+*/
+public class ThresholdScoreCache
+{
+	// thresholds below 0 or at/above 255 give identical images, so -1..255 covers all cases
+	protected final static int KEY_MIN = -1;
+	protected final static int KEY_MAX = 255;
+
+	protected int winHeight, winWidth;
+	protected FlatImage band;
+	protected FlatImage work; // thresholded band, or null if the caller passes matrices
+	protected double[] stdDevs;
+	protected double[] fracZeroComps;
+	protected boolean[] scored;
+	protected int numEvaluated = 0;
+	protected int numHits = 0;
+
+	/**
+	* Constructor for a cache without a band copy.
+	*
+	* @param	h	Sliding window height used for the stddev
+	* @param	w	Sliding window width used for the stddev
+	*/
+	public ThresholdScoreCache(int h, int w)
+	{
+		this(null, h, w);
+	}
+
+	/**
+	* Constructor for a cache that keeps a copy of the original band.
+	*
+	* @param	imgBand	The unthresholded band (copied), or null
+	* @param	h	Sliding window height used for the stddev
+	* @param	w	Sliding window width used for the stddev
+	*/
+	public ThresholdScoreCache(int[][] imgBand, int h, int w)
+	{
+		init(h, w);
+		if (imgBand != null)
+			band = FlatImage.fromMatrix(imgBand);
+	}
+
+	/**
+	* Constructor for a cache that scores thresholds of a band of its own. The score
+	* functions are then called with null matrices.
+	*
+	* @param	imgBand	The unthresholded band (not copied, it is disposed with the cache)
+	* @param	imgWork	Image of the same size that the thresholded band is written to
+	* @param	h	Sliding window height used for the stddev
+	* @param	w	Sliding window width used for the stddev
+	*/
+	public ThresholdScoreCache(FlatImage imgBand, FlatImage imgWork, int h, int w)
+	{
+		init(h, w);
+		band = imgBand;
+		work = imgWork;
+	}
+
+	private void init(int h, int w)
+	{
+		winHeight = h;
+		winWidth = w;
+
+		int numKeys = KEY_MAX - KEY_MIN + 1;
+		stdDevs = new double[numKeys];
+		fracZeroComps = new double[numKeys];
+		scored = new boolean[numKeys];
+	}
+
+	/**
+	* Makes sure a threshold has been scored, thresholding the image if needed.
+	*
+	* @param	imgTemplate	Grayscale image to be used as a template (as int[][] matrix),
+	*	or null to threshold the band of the cache into its working image
+	* @param	img	Grayscale image that can be modified (as int[][] matrix), or null
+	* @param	thresh	The threshold
+	*/
+	public void score(int[][] imgTemplate, int[][] img, int thresh)
+	{
+		int key = toKey(thresh);
+		if (scored[key])
+		{
+			numHits++;
+			return;
+		}
+
+		double stdDev, fracZero;
+		if (imgTemplate == null)
+		{
+			GrayscaleImageEdit.thresholdImage(band, work, thresh);
+			stdDev = MiscMath.mean( GrayscaleImageEdit.calcStds(work, winHeight, winWidth) );
+			fracZero = GrayscaleImageEdit.countFractionZero(work);
+		} else
+		{
+			GrayscaleImageEdit.thresholdImage(imgTemplate, img, thresh);
+			stdDev = MiscMath.mean( GrayscaleImageEdit.calcStds(img, winHeight, winWidth) );
+			fracZero = GrayscaleImageEdit.countFractionZero(img);
+		}
+
+		stdDevs[key] = stdDev;
+		fracZeroComps[key] = (fracZero < 0.5) ? fracZero : (1-fracZero);
+		scored[key] = true;
+		numEvaluated++;
+	}
+
+	/**
+	* Checks whether a threshold has already been scored
+	*
+	* @param	thresh	The threshold
+	* @return	True if the threshold is in the cache
+	*/
+	public boolean isScored(int thresh)
+	{
+		return scored[ toKey(thresh) ];
+	}
+
+	/**
+	* Retrieves the mean windowed standard deviation of a scored threshold
+	*
+	* @param	thresh	The threshold
+	* @return	The mean standard deviation
+	*/
+	public double getStdDev(int thresh)
+	{
+		return stdDevs[ toKey(thresh) ];
+	}
+
+	/**
+	* Retrieves the minority pixel fraction (always <= 0.5) of a scored threshold
+	*
+	* @param	thresh	The threshold
+	* @return	The fraction of the least common pixel type
+	*/
+	public double getFracZeroComp(int thresh)
+	{
+		return fracZeroComps[ toKey(thresh) ];
+	}
+
+	/**
+	* Copies the original band back into a template and a working image,
+	* e.g. before a second search on the same image.
+	*
+	* @param	imgTemplate	Template to restore (may be null)
+	* @param	img	Working image to restore (may be null)
+	* @return	False if the cache holds no band copy
+	*/
+	public boolean restoreBand(int[][] imgTemplate, int[][] img)
+	{
+		if (band == null)
+			return false;
+
+		for (int h = 0; h < band.getHeight(); h++)
+		{
+			if (imgTemplate != null)
+				band.getRow(h, imgTemplate[h]);
+			if (img != null)
+				band.getRow(h, img[h]);
+		}
+
+		return true;
+	}
+
+	/**
+	* @return	The band held by the cache, or null
+	*/
+	public FlatImage getBand()
+	{
+		return band;
+	}
+
+	/**
+	* Releases the band copy (see FlatImage.dispose). Scores can still be looked up.
+	* The working image belongs to the caller and is left as it is.
+	*/
+	public void dispose()
+	{
+		if (band != null)
+			band.dispose();
+		band = null;
+		work = null;
+	}
+
+	/**
+	* @return	The number of thresholds that have actually been evaluated
+	*/
+	public int getNumEvaluated()
+	{
+		return numEvaluated;
+	}
+
+	/**
+	* @return	The number of lookups that were answered from the cache
+	*/
+	public int getNumHits()
+	{
+		return numHits;
+	}
+
+	private static int toKey(int thresh)
+	{
+		if (thresh < KEY_MIN)
+			thresh = KEY_MIN;
+		else if (thresh > KEY_MAX)
+			thresh = KEY_MAX;
+
+		return thresh - KEY_MIN;
+	}
+}
@@ -0,0 +1,471 @@
+/* TilePyramid.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * A multi-resolution tile pyramid of an image, used to display
+ * zoomed-out views without scaling the whole image.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+import java.awt.Component;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Vector;
+
+/**
+    * Level 0 of the pyramid is the image itself, and every following level has half the
+    * width and height of the previous one (each pixel is the mean of a 2x2 block).
+    * The levels are split into tiles of TILE_SIZE x TILE_SIZE pixels, which are only
+    * built when they are about to be displayed, by a background thread.
+    * Built tiles are kept in a cache that is bounded in bytes; the least recently
+    * displayed tiles are dropped first.
+    * A view at scale s is drawn from the smallest level that is still at least as
+    * large as the view, so that at most (about) four times the number of
+    * displayed pixels are read, whatever the scale.
+*/
+public class TilePyramid
+{
+	public final static int TILE_SIZE = 256;
+	public final static double DEFAULT_MEMORY_FRACTION = 0.1; //of the maximum heap size
+
+	protected BufferedImage source;
+	protected PixelAccess pixels;
+	protected int numLevels;
+	protected long maxBytes;
+
+	protected LinkedHashMap cache; // "level,tx,ty" -> BufferedImage (TYPE_INT_RGB), least recently used first
+	protected long cachedBytes;
+
+	protected Vector queue; // Object[] {level, tx, ty as Integers, Component to repaint}
+	protected Vector queueKeys;
+	protected Thread worker;
+	protected boolean stopped;
+
+	/**
+	* Constructor, caches at most DEFAULT_MEMORY_FRACTION of the heap
+	*
+	* @param	img	The image (level 0)
+	*/
+	public TilePyramid(BufferedImage img)
+	{
+		this(img, (long)(Runtime.getRuntime().maxMemory()*DEFAULT_MEMORY_FRACTION) );
+	}
+
+	/**
+	* Constructor
+	*
+	* @param	img	The image (level 0)
+	* @param	maxBytes	Built tiles are not kept beyond this many bytes
+	*/
+	public TilePyramid(BufferedImage img, long maxBytes)
+	{
+		source = img;
+		pixels = new PixelAccess(img);
+		this.maxBytes = maxBytes;
+
+		numLevels = 1;
+		while ( Math.max(getLevelWidth(numLevels-1), getLevelHeight(numLevels-1)) > TILE_SIZE)
+			numLevels++;
+
+		cache = new LinkedHashMap(16, 0.75f, true);
+		cachedBytes = 0;
+		queue = new Vector();
+		queueKeys = new Vector();
+		stopped = false;
+	}
+
+	/**
+	* @return	The image at level 0
+	*/
+	public BufferedImage getImage()
+	{
+		return source;
+	}
+
+	public int getNumLevels()
+	{
+		return numLevels;
+	}
+
+	public int getLevelWidth(int level)
+	{
+		return (source.getWidth() + (1 << level) - 1) >> level;
+	}
+
+	public int getLevelHeight(int level)
+	{
+		return (source.getHeight() + (1 << level) - 1) >> level;
+	}
+
+	/**
+	* Finds the level to display a certain scale from
+	*
+	* @param	scale	The display scale (1.0 is the image at its original size)
+	* @return	The smallest level that has at least the resolution of the scale
+	*/
+	public int getLevel(double scale)
+	{
+		int level = 0;
+		while (level < numLevels-1 && scale <= 1.0/(1 << (level+1)) )
+			level++;
+		return level;
+	}
+
+	/**
+	* Draws a part of the image at a certain scale. The tiles that have not been built
+	* yet are drawn from a coarser level (or directly from the image) and queued;
+	* the component is repainted as soon as they are built.
+	*
+	* @param	g2d	The graphics object (in the coordinates of the scaled image)
+	* @param	clip	The part of the scaled image to draw
+	* @param	scale	The display scale
+	* @param	c	The component to repaint when a queued tile is done, or null
+	*/
+	public void paint(Graphics2D g2d, Rectangle clip, double scale, Component c)
+	{
+		g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+
+		int level = getLevel(scale);
+		if (level == 0)
+		{
+			//the same mapping as scaling the complete image; only the clip is rendered
+			g2d.drawImage(source, 0, 0, (int)(source.getWidth()*scale), (int)(source.getHeight()*scale),
+				0, 0, source.getWidth(), source.getHeight(), null);
+			return;
+		}
+
+		//tiles from an earlier view are not needed anymore
+		dropQueued(level);
+
+		double ratio = scale*(1 << level); //from level pixels to display pixels
+		int minTX = Math.max( (int)(clip.getX()/ratio)/TILE_SIZE, 0);
+		int maxTX = Math.min( (int)( (clip.getX()+clip.getWidth())/ratio)/TILE_SIZE, (getLevelWidth(level)-1)/TILE_SIZE );
+		int minTY = Math.max( (int)(clip.getY()/ratio)/TILE_SIZE, 0);
+		int maxTY = Math.min( (int)( (clip.getY()+clip.getHeight())/ratio)/TILE_SIZE, (getLevelHeight(level)-1)/TILE_SIZE );
+
+		for (int ty = minTY; ty <= maxTY; ty++)
+			for (int tx = minTX; tx <= maxTX; tx++)
+			{
+				int px0 = tx*TILE_SIZE, py0 = ty*TILE_SIZE;
+				int px1 = Math.min(px0+TILE_SIZE, getLevelWidth(level));
+				int py1 = Math.min(py0+TILE_SIZE, getLevelHeight(level));
+				int dx0 = (int)(px0*ratio), dy0 = (int)(py0*ratio);
+				int dx1 = (int)(px1*ratio), dy1 = (int)(py1*ratio);
+
+				BufferedImage tile = getCachedTile(level, tx, ty);
+				if (tile != null)
+				{
+					g2d.drawImage(tile, dx0, dy0, dx1, dy1, 0, 0, px1-px0, py1-py0, null);
+					continue;
+				}
+
+				request(level, tx, ty, c);
+
+				//meanwhile, use a coarser tile that has already been built ...
+				boolean drawn = false;
+				for (int l = level+1; l < numLevels && !drawn; l++)
+				{
+					int shift = l-level;
+					BufferedImage coarse = getCachedTile(l, (px0 >> shift)/TILE_SIZE, (py0 >> shift)/TILE_SIZE);
+					if (coarse != null)
+					{
+						int cx0 = (px0 >> shift) % TILE_SIZE, cy0 = (py0 >> shift) % TILE_SIZE;
+						g2d.drawImage(coarse, dx0, dy0, dx1, dy1, cx0, cy0,
+							cx0 + Math.max( (px1-px0) >> shift, 1), cy0 + Math.max( (py1-py0) >> shift, 1), null);
+						drawn = true;
+					}
+				}
+
+				//... or sample the image directly
+				if (!drawn)
+					g2d.drawImage(source, dx0, dy0, dx1, dy1, px0 << level, py0 << level,
+						Math.min(px1 << level, source.getWidth()), Math.min(py1 << level, source.getHeight()), null);
+			}
+	}
+
+	/**
+	* Drops the built tiles that cover a region of the image, e.g. after it has been painted on
+	*
+	* @param	rect	The region (in level 0 coordinates)
+	*/
+	public synchronized void invalidate(Rectangle rect)
+	{
+		//cache.get() would change the order of an access-ordered map while iterating
+		for (Iterator it = cache.entrySet().iterator(); it.hasNext(); )
+		{
+			Map.Entry entry = (Map.Entry)it.next();
+			int[] ind = parseKey( (String)entry.getKey() );
+			int size = TILE_SIZE << ind[0];
+			if (rect.intersects( new Rectangle(ind[1]*size, ind[2]*size, size, size) ))
+			{
+				cachedBytes -= sizeOf( (BufferedImage)entry.getValue() );
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	* Stops the background thread and drops all built tiles
+	*/
+	public synchronized void dispose()
+	{
+		stopped = true;
+		queue.clear();
+		queueKeys.clear();
+		cache.clear();
+		cachedBytes = 0;
+		notifyAll();
+	}
+
+	/**
+	* Retrieves a tile, building it (and the tiles of the finer levels it depends on)
+	* on the calling thread if it has not been built
+	*
+	* @param	level	The level (at least 1)
+	* @param	tx	Tile column
+	* @param	ty	Tile row
+	* @return	The tile, a TYPE_INT_RGB image of at most TILE_SIZE x TILE_SIZE pixels
+	*/
+	public BufferedImage getTile(int level, int tx, int ty)
+	{
+		BufferedImage tile = getCachedTile(level, tx, ty);
+		if (tile != null)
+			return tile;
+
+		tile = buildTile(level, tx, ty);
+		synchronized(this)
+		{
+			if (!stopped)
+			{
+				String key = getKey(level, tx, ty);
+				Object old = cache.put(key, tile);
+				if (old != null)
+					cachedBytes -= sizeOf( (BufferedImage)old );
+				cachedBytes += sizeOf(tile);
+
+				//drop the least recently used tiles, but never the new one
+				for (Iterator it = cache.entrySet().iterator(); it.hasNext() && cachedBytes > maxBytes; )
+				{
+					Map.Entry entry = (Map.Entry)it.next();
+					if (entry.getKey().equals(key))
+						continue;
+					cachedBytes -= sizeOf( (BufferedImage)entry.getValue() );
+					it.remove();
+				}
+			}
+		}
+
+		return tile;
+	}
+
+	private synchronized BufferedImage getCachedTile(int level, int tx, int ty)
+	{
+		return (BufferedImage)cache.get( getKey(level, tx, ty) );
+	}
+
+	/**
+	* Builds a tile from the level below it, averaging blocks of 2x2 pixels
+	*/
+	private BufferedImage buildTile(int level, int tx, int ty)
+	{
+		int px0 = tx*TILE_SIZE, py0 = ty*TILE_SIZE;
+		int width = Math.min(TILE_SIZE, getLevelWidth(level)-px0);
+		int height = Math.min(TILE_SIZE, getLevelHeight(level)-py0);
+		int finerWidth = getLevelWidth(level-1);
+		int finerHeight = getLevelHeight(level-1);
+
+		BufferedImage tile = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] data = PixelAccess.getPackedRGBData(tile);
+
+		//the columns of the finer level that are covered (the last one may be missing at the right edge)
+		int fx0 = 2*px0;
+		int fLen = Math.min(2*width, finerWidth-fx0);
+		int[] row1 = new int[fLen];
+		int[] row2 = new int[fLen];
+
+		for (int y = 0; y < height; y++)
+		{
+			int fy = 2*(py0+y);
+			getLevelRow(level-1, fy, fx0, fLen, row1);
+			if (fy+1 < finerHeight)
+				getLevelRow(level-1, fy+1, fx0, fLen, row2);
+			else
+				System.arraycopy(row1, 0, row2, 0, fLen);
+
+			for (int x = 0; x < width; x++)
+			{
+				int i1 = 2*x;
+				int i2 = Math.min(2*x+1, fLen-1);
+				int p1 = row1[i1], p2 = row1[i2], p3 = row2[i1], p4 = row2[i2];
+
+				int r = ( ((p1 >> 16) & 0xff) + ((p2 >> 16) & 0xff) + ((p3 >> 16) & 0xff) + ((p4 >> 16) & 0xff) + 2) >> 2;
+				int g = ( ((p1 >> 8) & 0xff) + ((p2 >> 8) & 0xff) + ((p3 >> 8) & 0xff) + ((p4 >> 8) & 0xff) + 2) >> 2;
+				int b = ( (p1 & 0xff) + (p2 & 0xff) + (p3 & 0xff) + (p4 & 0xff) + 2) >> 2;
+				data[y*width + x] = (r << 16) | (g << 8) | b;
+			}
+		}
+
+		return tile;
+	}
+
+	/**
+	* Reads a part of a row of a level as packed RGB pixels
+	*/
+	private void getLevelRow(int level, int y, int x0, int len, int[] dst)
+	{
+		if (level == 0)
+		{
+			int lastBand = pixels.getNumBands()-1;
+			int[] red = pixels.getBandRow(y, x0, len, Math.min(PlanarImageEdit.BAND_R, lastBand), null);
+			int[] green = pixels.getBandRow(y, x0, len, Math.min(PlanarImageEdit.BAND_G, lastBand), null);
+			int[] blue = pixels.getBandRow(y, x0, len, Math.min(PlanarImageEdit.BAND_B, lastBand), null);
+			PixelAccess.packRGB(red, green, blue, dst, 0, len);
+			return;
+		}
+
+		int ty = y / TILE_SIZE;
+		int x = x0;
+		while (x < x0+len)
+		{
+			int tx = x / TILE_SIZE;
+			BufferedImage tile = getTile(level, tx, ty);
+			int[] data = PixelAccess.getPackedRGBData(tile);
+			int tileX = x - tx*TILE_SIZE;
+			int n = Math.min(tile.getWidth()-tileX, x0+len-x);
+			System.arraycopy(data, (y - ty*TILE_SIZE)*tile.getWidth() + tileX, dst, x-x0, n);
+			x += n;
+		}
+	}
+
+	/**
+	* Queues a tile to be built by the background thread
+	*/
+	private synchronized void request(int level, int tx, int ty, Component c)
+	{
+		String key = getKey(level, tx, ty);
+		if (stopped || queueKeys.contains(key))
+			return;
+
+		queue.add( new Object[] { new Integer(level), new Integer(tx), new Integer(ty), c } );
+		queueKeys.add(key);
+
+		if (worker == null)
+		{
+			worker = new Thread()
+			{
+				public void run()
+				{
+					runWorker();
+				}
+			};
+			worker.setDaemon(true);
+			worker.setPriority(Thread.NORM_PRIORITY-1);
+			worker.start();
+		}
+		notifyAll();
+	}
+
+	private synchronized void dropQueued(int level)
+	{
+		for (int i = queue.size()-1; i >= 0; i--)
+			if ( ((Integer)((Object[])queue.get(i))[0]).intValue() != level)
+			{
+				queue.remove(i);
+				queueKeys.remove(i);
+			}
+	}
+
+	private void runWorker()
+	{
+		while (true)
+		{
+			Object[] job;
+			synchronized(this)
+			{
+				try
+				{
+					while (!stopped && queue.isEmpty())
+						wait();
+				} catch (InterruptedException ie)
+				{
+					return;
+				}
+
+				if (stopped)
+					return;
+
+				job = (Object[])queue.get(0);
+			}
+
+			int level = ((Integer)job[0]).intValue();
+			int tx = ((Integer)job[1]).intValue();
+			int ty = ((Integer)job[2]).intValue();
+			try
+			{
+				getTile(level, tx, ty);
+			} catch (Throwable t)
+			{
+				//the tile keeps being drawn from the image instead
+				t.printStackTrace();
+			}
+
+			synchronized(this)
+			{
+				int ind = queueKeys.indexOf( getKey(level, tx, ty) );
+				if (ind >= 0)
+				{
+					queue.remove(ind);
+					queueKeys.remove(ind);
+				}
+			}
+
+			if (job[3] != null)
+				((Component)job[3]).repaint();
+		}
+	}
+
+	private static String getKey(int level, int tx, int ty)
+	{
+		return level + "," + tx + "," + ty;
+	}
+
+	private static int[] parseKey(String key)
+	{
+		int i1 = key.indexOf(',');
+		int i2 = key.indexOf(',', i1+1);
+		return new int[] { Integer.parseInt(key.substring(0, i1)),
+			Integer.parseInt(key.substring(i1+1, i2)), Integer.parseInt(key.substring(i2+1)) };
+	}
+
+	private static long sizeOf(BufferedImage tile)
+	{
+		return 4L*tile.getWidth()*tile.getHeight();
+	}
+}
@@ -0,0 +1,85 @@
+/* TimeLimit.java
+ *
+ * Copyright (c) Max Bylesjö, 2007-2008
+ *
+ * Deadlines for the analysis of one image and for each of its stages.
+ *
+ *
+ * This file is part of Lamina.
+ *
+ * Lamina is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU General Public License
+ * version 2, as published by the Free Software Foundation.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+ * See the GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this library; if not, write to the Free Software Foundation, Inc.,
+ * 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA.
+ *
+ * Software requirements:
+ * *Java 1.4.x JRE or later
+ *  http://java.sun.com/javase/downloads/
+ * *Java Advanced Imaging (JAI) 1.1.3 or later
+ *  http://java.sun.com/javase/technologies/desktop/media/jai/
+ *
+*/
+
+/**
+    * A time limit for an image, and a shorter one for the stage that is running.
+    * Long-running functions poll isExpired in their loops and return early when it
+    * is true, in the same way as they stop when the user cancels the batch; the
+    * caller then checks isExpired to tell a stage that ran out of time from one
+    * that failed. A limit of 0 (or less) means no limit.
+*/
+public class TimeLimit
+{
+	protected long imageEnd;
+	protected long stageEnd;
+
+	/**
+	* Constructor, the time of the image starts now
+	*
+	* @param	imageMillis	Time allowed for the whole image, in milliseconds (0 = no limit)
+	*/
+	public TimeLimit(long imageMillis)
+	{
+		imageEnd = endOf(imageMillis);
+		stageEnd = Long.MAX_VALUE;
+	}
+
+	/**
+	* Starts the time of a new stage. The stage also ends when the time of the image is up.
+	*
+	* @param	stageMillis	Time allowed for the stage, in milliseconds (0 = no limit)
+	*/
+	public void startStage(long stageMillis)
+	{
+		stageEnd = endOf(stageMillis);
+	}
+
+	/**
+	* @return	true if the time of the current stage or of the image is up
+	*/
+	public boolean isExpired()
+	{
+		long now = System.currentTimeMillis();
+		return now > stageEnd || now > imageEnd;
+	}
+
+	/**
+	* @return	true if the time of the image is up
+	*/
+	public boolean isImageExpired()
+	{
+		return System.currentTimeMillis() > imageEnd;
+	}
+
+	private static long endOf(long millis)
+	{
+		return (millis > 0) ? System.currentTimeMillis() + millis : Long.MAX_VALUE;
+	}
+}